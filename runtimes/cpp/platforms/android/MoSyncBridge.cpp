@@ -264,21 +264,13 @@ static void nativeRun(JNIEnv* env, jobject jthis)
 }
 
 /**
-* @brief nativePostEvent
+* @brief Build an event from its Java representation and put it
+* in the event queue.
+* @param intArray The event type followed by the event data.
+* @param arrayLength The number of elements in intArray, at least one.
 */
-static void nativePostEvent(JNIEnv* env, jobject jthis, jintArray eventBuffer)
+static void postEventFromArray(jint* intArray, jsize arrayLength)
 {
-	// Get array data.
-	jsize arrayLength = env->GetArrayLength(eventBuffer);
-	jint *intArray = env->GetIntArrayElements(eventBuffer, 0);
-
-	// Must have at least one element.
-	if (arrayLength < 1)
-	{
-		maPanic(-1, "MoSyncBridge.cpp: nativePostEvent: array length is zero");
-		return;
-	}
-
 	// Build the event.
 	MAEvent event;
 	event.type = intArray[0];
@@ -286,7 +278,7 @@ static void nativePostEvent(JNIEnv* env, jobject jthis, jintArray eventBuffer)
 
 	// Print log message.
 	char logBuf[256];
-	sprintf(logBuf, "nativePostEvent event.type: %i", event.type);
+	sprintf(logBuf, "nativePostEvents event.type: %i", event.type);
 	SYSLOG(logBuf);
 
 	if (event.type == EVENT_TYPE_POINTER_PRESSED ||
@@ -470,10 +462,54 @@ static void nativePostEvent(JNIEnv* env, jobject jthis, jintArray eventBuffer)
 		memcpy( event.sensor.values, intArray + 2, (arrayLength - 2) * sizeof(jint) );
 	}
 
-	// Release the memory used for the int array.
-	env->ReleaseIntArrayElements(eventBuffer, intArray, 0);
+	// The events from Java are already in order, do not look for more.
+	Base::gSyscall->postJavaEvent(event);
+}
+
+/**
+* @brief nativePostEvents
+* Posts a batch of events, stored one after the other in flatEvents,
+* each preceded by its length. Called on the MoSync thread, with no
+* more events than there is room for in the event queue.
+* @return The number of events there is room for after the batch.
+*/
+static jint nativePostEvents(
+	JNIEnv* env,
+	jobject jthis,
+	jintArray flatEvents,
+	jint count)
+{
+	// Get array data.
+	if (count > Base::gSyscall->getEventQueueSpace())
+	{
+		maPanic(-1, "MoSyncBridge.cpp: nativePostEvents: event queue overrun");
+		return 0;
+	}
+
+	jsize arrayLength = env->GetArrayLength(flatEvents);
+	jint *intArray = env->GetIntArrayElements(flatEvents, 0);
+
+	jsize offset = 0;
+	for (jint i = 0; i < count; ++i)
+	{
+		// Each event must have at least one element and fit in the array.
+		if (offset >= arrayLength ||
+			intArray[offset] < 1 ||
+			intArray[offset] > arrayLength - offset - 1)
+		{
+			env->ReleaseIntArrayElements(flatEvents, intArray, JNI_ABORT);
+			maPanic(-1, "MoSyncBridge.cpp: nativePostEvents: bad event length");
+			return 0;
+		}
+
+		postEventFromArray(intArray + offset + 1, intArray[offset]);
+		offset += 1 + intArray[offset];
+	}
+
+	// Release the memory used for the int array, it was not changed.
+	env->ReleaseIntArrayElements(flatEvents, intArray, JNI_ABORT);
 
-	Base::gSyscall->postEvent(event);
+	return Base::gSyscall->getEventQueueSpace();
 }
 
 /**
@@ -560,7 +596,7 @@ static JNINativeMethod sMethods[] =
 	{ "nativeLoadResource", "(Ljava/nio/ByteBuffer;)Z", (void*)nativeLoadResource },
 	{ "nativeLoadCombined", "(Ljava/nio/ByteBuffer;)Ljava/nio/ByteBuffer;", (void*)nativeLoadCombined },
 	{ "nativeRun", "()V", (void*)nativeRun },
-	{ "nativePostEvent", "([I)V", (void*)nativePostEvent },
+	{ "nativePostEvents", "([II)I", (void*)nativePostEvents },
 	{ "nativeCreateBinaryResource", "(II)I", (void*)nativeCreateBinaryResource },
 	{ "nativeCreatePlaceholder", "()I", (void*)nativeCreatePlaceholder }
 };
@@ -246,12 +246,43 @@ namespace Base
 		mJThis = jthis;
 	}
 
+	/**
+	* Pass the events posted on the Java side to the event queue,
+	* as many as there is room for, leaving the given number of
+	* places free.
+	*/
+	static void postPendingJavaEvents(int reserve)
+	{
+		jclass cls = mJNIEnv->GetObjectClass(mJThis);
+		jmethodID methodID = mJNIEnv->GetMethodID(cls, "postPendingEvents", "(I)I");
+		if (methodID == 0) ERROR_EXIT;
+		mJNIEnv->CallIntMethod(mJThis, methodID, reserve);
+
+		mJNIEnv->DeleteLocalRef(cls);
+	}
+
 	void Syscall::postEvent(MAEvent event)
 	{
 		SYSLOG("PostEvent");
+
+		// Events posted on the Java side before this one must come first.
+		// Leave room for this one, the rest are posted later.
+		postPendingJavaEvents(1);
 		gEventFifo.put(event);
 	}
 
+	void Syscall::postJavaEvent(MAEvent event)
+	{
+		SYSLOG("PostJavaEvent");
+		gEventFifo.put(event);
+	}
+
+	int Syscall::getEventQueueSpace()
+	{
+		// The fifo holds one event less than its size.
+		return EVENT_BUFFER_SIZE - 1 - gEventFifo.count();
+	}
+
 	SYSCALL(int,  maSetColor(int rgb))
 	{
 		SYSLOG("maSetColor");
@@ -972,6 +1003,13 @@ namespace Base
 		gSyscall->ValidateMemRange(event, sizeof(MAEvent));
 		MYASSERT(((uint)event & 3) == 0, ERR_MEMORY_ALIGNMENT);	//alignment
 
+		// If the event queue is empty, get the events that have been
+		// posted on the Java side since the last call.
+		if (gEventFifo.count() == 0)
+		{
+			postPendingJavaEvents(0);
+		}
+
 		// Exit if event queue is empty.
 		if (gEventFifo.count() == 0) return 0;
 
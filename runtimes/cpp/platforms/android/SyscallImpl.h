@@ -39,6 +39,8 @@ public:
 	void destroyResource(int resourceIndex);
 	void postEvent(MAEvent event);
 	void postEvent(MAEvent event, JNIEnv *jniEnv);
+	void postJavaEvent(MAEvent event);
+	int getEventQueueSpace();
 	void setJNIEnvironment(JNIEnv* je, jobject jthis);
 	void checkAndStoreAudioResource(int resourceIndex);
 	
@@ -0,0 +1,306 @@
+/* Copyright (C) 2011 MoSync AB
+
+This program is free software; you can redistribute it and/or
+modify it under the terms of the GNU General Public License,
+version 2, as published by the Free Software Foundation.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program; if not, write to the Free Software
+Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+MA 02110-1301, USA.
+*/
+
+package com.mosync.internal.android;
+
+import static com.mosync.internal.android.MoSyncHelpers.MYASSERT;
+import static com.mosync.internal.generated.MAAPI_consts.EVENT_TYPE_SENSOR;
+
+import java.util.LinkedList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Events on their way to the MoSync event queue.
+ *
+ * Any thread can add events, without locking and without allocating
+ * anything, since the slots for the events are allocated up front.
+ * Only the MoSync thread takes them out, in batches that are passed to
+ * native code in one call.
+ *
+ * The slots form a ring, where each slot has a sequence number that
+ * tells whether it is free for the producer that claimed it or holds
+ * an event for the consumer (this is Dmitry Vyukov's bounded queue).
+ * Events that do not fit, because the ring is full or the event is
+ * longer than a slot, go to a locked overflow list instead. Once there
+ * is something in that list, new events go there as well until it has
+ * been emptied, so that the events of each thread stay in order.
+ *
+ * If a batch has several samples from the same sensor, only the last
+ * one is passed on, since the application would only see the newest
+ * value anyway by the time it gets to them.
+ */
+final class EventRingBuffer
+{
+	/**
+	 * Constructor.
+	 * @param capacity The number of slots, a power of two.
+	 * @param slotSize The number of ints in a slot.
+	 */
+	public EventRingBuffer(int capacity, int slotSize)
+	{
+		MYASSERT(capacity > 0 && 0 == (capacity & (capacity - 1)));
+
+		mCapacity = capacity;
+		mSlotSize = slotSize;
+		mData = new int[capacity * slotSize];
+		mLengths = new int[capacity];
+		mSequences = new AtomicIntegerArray(capacity);
+		for (int i = 0; i < capacity; ++i)
+		{
+			mSequences.set(i, i);
+		}
+	}
+
+	/**
+	 * @return The size of the array to pass to drainTo(). A batch of
+	 * that size holds at least all the events in the ring.
+	 */
+	public int getBatchSize()
+	{
+		return mCapacity * (mSlotSize + 1);
+	}
+
+	/**
+	 * Add an event. Can be called on any thread.
+	 * @param event The event, which is copied.
+	 */
+	public void add(int[] event)
+	{
+		if (0 == mOverflowSize.get() && offer(event))
+		{
+			return;
+		}
+
+		synchronized (mOverflow)
+		{
+			mOverflow.addLast(event.clone());
+			mOverflowSize.incrementAndGet();
+		}
+	}
+
+	/**
+	 * Take out the next batch of events. Must only be called on
+	 * one thread.
+	 * @param batch The array to put the events in, one after the other.
+	 * Each event is preceded by its length.
+	 * @param maxEvents The largest number of events to take out.
+	 * @return The number of events in the batch, 0 if there were none.
+	 */
+	public int drainTo(int[] batch, int maxEvents)
+	{
+		int offset = 0;
+		int taken = 0;
+
+		// Events in the ring are older than those in the overflow list.
+		while (taken < maxEvents)
+		{
+			int slot = mHead & (mCapacity - 1);
+			if (mSequences.get(slot) != mHead + 1)
+			{
+				// Empty, or the next event is not completely added yet.
+				break;
+			}
+
+			int length = mLengths[slot];
+			if (offset + 1 + length > batch.length)
+			{
+				break;
+			}
+			batch[offset] = length;
+			System.arraycopy(
+				mData, slot * mSlotSize, batch, offset + 1, length);
+			offset += 1 + length;
+
+			mSequences.set(slot, mHead + mCapacity);
+			++mHead;
+			++taken;
+		}
+
+		// Only take from the overflow list once the ring is really
+		// empty. A slot that has been claimed but not filled yet holds
+		// an older event, which the next drain will pick up.
+		if (offset == 0 && mHead == mTail.get() && mOverflowSize.get() > 0)
+		{
+			synchronized (mOverflow)
+			{
+				while (!mOverflow.isEmpty() && taken < maxEvents)
+				{
+					int[] event = mOverflow.getFirst();
+					if (offset + 1 + event.length > batch.length)
+					{
+						break;
+					}
+					batch[offset] = event.length;
+					System.arraycopy(
+						event, 0, batch, offset + 1, event.length);
+					offset += 1 + event.length;
+
+					mOverflow.removeFirst();
+					mOverflowSize.decrementAndGet();
+					++taken;
+				}
+			}
+		}
+
+		return coalesceSensorEvents(batch, offset);
+	}
+
+	/**
+	 * Try to put an event in the ring.
+	 * @return false if the ring is full or the event is too long.
+	 */
+	private boolean offer(int[] event)
+	{
+		if (event.length > mSlotSize)
+		{
+			return false;
+		}
+
+		int position = mTail.get();
+		int slot;
+		while (true)
+		{
+			slot = position & (mCapacity - 1);
+			int diff = mSequences.get(slot) - position;
+			if (0 == diff)
+			{
+				if (mTail.compareAndSet(position, position + 1))
+				{
+					break;
+				}
+				position = mTail.get();
+			}
+			else if (diff < 0)
+			{
+				// The consumer has not taken the event a lap ago yet.
+				return false;
+			}
+			else
+			{
+				// Another producer got the slot first.
+				position = mTail.get();
+			}
+		}
+
+		System.arraycopy(event, 0, mData, slot * mSlotSize, event.length);
+		mLengths[slot] = event.length;
+		mSequences.set(slot, position + 1);
+		return true;
+	}
+
+	/**
+	 * Remove the sensor events that are followed by a newer event from
+	 * the same sensor in a batch, keeping the order of the others.
+	 * @param batch The batch.
+	 * @param size The number of ints used in the batch.
+	 * @return The number of events left.
+	 */
+	private int coalesceSensorEvents(int[] batch, int size)
+	{
+		// Find the last event of each sensor.
+		for (int i = 0; i < mLastSensorEvent.length; ++i)
+		{
+			mLastSensorEvent[i] = -1;
+		}
+		for (int offset = 0; offset < size; offset += 1 + batch[offset])
+		{
+			int sensor = getSensorType(batch, offset);
+			if (sensor >= 0)
+			{
+				mLastSensorEvent[sensor] = offset;
+			}
+		}
+
+		// Move the events that are kept together.
+		int count = 0;
+		int to = 0;
+		for (int offset = 0; offset < size; )
+		{
+			int length = 1 + batch[offset];
+			int sensor = getSensorType(batch, offset);
+			if (sensor < 0 || mLastSensorEvent[sensor] == offset)
+			{
+				if (to != offset)
+				{
+					System.arraycopy(batch, offset, batch, to, length);
+				}
+				to += length;
+				++count;
+			}
+			offset += length;
+		}
+		return count;
+	}
+
+	/**
+	 * @return The sensor type of the event at offset in a batch, or -1
+	 * if it is not a sensor event that can be coalesced.
+	 */
+	private int getSensorType(int[] batch, int offset)
+	{
+		if (batch[offset] < 2 || EVENT_TYPE_SENSOR != batch[offset + 1])
+		{
+			return -1;
+		}
+		int sensor = batch[offset + 2];
+		if (sensor < 0 || sensor >= mLastSensorEvent.length)
+		{
+			return -1;
+		}
+		return sensor;
+	}
+
+	private final int mCapacity;
+	private final int mSlotSize;
+
+	/**
+	 * The events in the slots, and their lengths.
+	 */
+	private final int[] mData;
+	private final int[] mLengths;
+
+	/**
+	 * For each slot, position + 1 when it holds the event added at
+	 * that position, and position when it is free for the event to be
+	 * added at that position.
+	 */
+	private final AtomicIntegerArray mSequences;
+
+	/**
+	 * The position of the next event to add.
+	 */
+	private final AtomicInteger mTail = new AtomicInteger(0);
+
+	/**
+	 * The position of the next event to take out, only used by the
+	 * consumer.
+	 */
+	private int mHead = 0;
+
+	/**
+	 * Events that did not fit in the ring, oldest first.
+	 */
+	private final LinkedList<int[]> mOverflow = new LinkedList<int[]>();
+	private final AtomicInteger mOverflowSize = new AtomicInteger(0);
+
+	/**
+	 * Offset in the batch of the last event of each sensor type,
+	 * used by the consumer when coalescing.
+	 */
+	private final int[] mLastSensorEvent = new int[16];
+}
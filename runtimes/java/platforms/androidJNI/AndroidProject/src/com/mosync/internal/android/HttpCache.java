@@ -0,0 +1,857 @@
+/* Copyright (C) 2010 MoSync AB
+
+This program is free software; you can redistribute it and/or modify it under
+the terms of the GNU General Public License, version 2, as published by
+the Free Software Foundation.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program; see the file COPYING.  If not, write to the Free
+Software Foundation, 59 Temple Place - Suite 330, Boston, MA
+02111-1307, USA.
+*/
+
+package com.mosync.internal.android;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URLConnection;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.TimeZone;
+
+import android.util.Log;
+
+/**
+ * On-disk cache of the responses to HTTP GET requests.
+ *
+ * A response is stored if it has status 200, no "Cache-Control:
+ * no-store", no Vary header, and either an expiry time or a validator
+ * (ETag or Last-Modified). A stored response is used without any
+ * network traffic while it is fresh according to its Cache-Control
+ * max-age or Expires header. When it is stale it is revalidated with
+ * If-None-Match and If-Modified-Since, and used again if the server
+ * answers 304 Not Modified.
+ *
+ * Applications control the cache with their request headers:
+ * "Cache-Control: no-cache" or "max-age=0" forces revalidation, and
+ * "Cache-Control: no-store" bypasses the cache altogether. Requests
+ * with any other header of their own, such as Authorization, Cookie,
+ * a conditional or a Range header, bypass it as well, since the
+ * response may depend on that header.
+ *
+ * The cache is kept below a size limit by dropping the least recently
+ * used responses. Each response is a pair of files named after the MD5
+ * of its URL, one with the status and headers and one with the body.
+ *
+ * Entries are never changed once created; a revalidated response gets
+ * a new entry, so connections that are using the old one can keep
+ * reading it without locking.
+ */
+final class HttpCache
+{
+	/**
+	 * Constructor. Reads the index of what is already stored.
+	 * @param directory The directory to keep the responses in.
+	 * @param maxSize The maximum total size of the stored bodies.
+	 */
+	public HttpCache(File directory, long maxSize)
+	{
+		mDirectory = directory;
+		mMaxSize = maxSize;
+
+		mDirectory.mkdirs();
+		loadIndex();
+	}
+
+	/**
+	 * @return true if a request that the application has set the given
+	 * header on may use the cache. Only Cache-Control and Pragma are
+	 * allowed, the response may depend on any other header.
+	 *
+	 * This must be checked when the header is set, since
+	 * HttpURLConnection does not return headers such as Authorization
+	 * and Cookie from getRequestProperty().
+	 */
+	static boolean isCacheableRequestHeader(String key)
+	{
+		return "Cache-Control".equalsIgnoreCase(key)
+			|| "Pragma".equalsIgnoreCase(key);
+	}
+
+	/**
+	 * @return true if the cache may be used for a request, which
+	 * must not be connected yet, and whose headers have all passed
+	 * isCacheableRequestHeader().
+	 */
+	static boolean isCacheableRequest(URLConnection connection)
+	{
+		String cacheControl = connection.getRequestProperty("Cache-Control");
+		return !hasDirective(cacheControl, "no-store");
+	}
+
+	/**
+	 * @return true if the request asks for a stored response to be
+	 * revalidated even if it is fresh.
+	 */
+	static boolean isRevalidationRequested(URLConnection connection)
+	{
+		String cacheControl = connection.getRequestProperty("Cache-Control");
+		String pragma = connection.getRequestProperty("Pragma");
+		return hasDirective(cacheControl, "no-cache")
+			|| 0 == getMaxAge(cacheControl)
+			|| hasDirective(pragma, "no-cache");
+	}
+
+	/**
+	 * Look up the stored response for a URL.
+	 * @return The response, or null if there is none.
+	 */
+	public synchronized Entry get(String url)
+	{
+		return mEntries.get(keyFor(url));
+	}
+
+	/**
+	 * Open the body of a stored response.
+	 * @return The body, or null if it has gone missing, in which case
+	 * the response is dropped.
+	 */
+	public InputStream openBody(Entry entry)
+	{
+		try
+		{
+			InputStream body = new FileInputStream(bodyFile(entry.mKey));
+			metaFile(entry.mKey).setLastModified(System.currentTimeMillis());
+			return body;
+		}
+		catch (IOException ex)
+		{
+			Log.i("HttpCache", "Missing body for " + entry.mUrl);
+			remove(entry);
+			return null;
+		}
+	}
+
+	/**
+	 * Update a stored response with the headers of a 304 Not
+	 * Modified answer to a conditional request for it.
+	 * @return The updated response, which replaces the old one.
+	 */
+	public synchronized Entry revalidated(Entry entry, URLConnection connection)
+	{
+		Entry updated = entry.withHeaders(
+			readHeaders(connection), System.currentTimeMillis());
+
+		try
+		{
+			writeMeta(updated);
+			if (mEntries.get(entry.mKey) == entry)
+			{
+				mEntries.put(entry.mKey, updated);
+			}
+		}
+		catch (IOException ex)
+		{
+			ex.printStackTrace();
+			remove(entry);
+		}
+		return updated;
+	}
+
+	/**
+	 * If the response to a request can be stored, wrap its body in a
+	 * stream that stores it as it is read. The response is added when
+	 * the body has been read to the end.
+	 * @param url The URL of the request.
+	 * @param connection The connection, with a response.
+	 * @return The stream to read the body from.
+	 * @throws IOException
+	 */
+	public InputStream put(String url, HttpURLConnection connection)
+		throws IOException
+	{
+		InputStream body = connection.getInputStream();
+
+		Entry entry = new Entry(
+			url,
+			keyFor(url),
+			connection.getResponseCode(),
+			System.currentTimeMillis(),
+			readHeaders(connection),
+			0);
+
+		if (HttpURLConnection.HTTP_OK != entry.mResponseCode
+			|| hasDirective(entry.getHeader("Cache-Control"), "no-store")
+			|| null != entry.getHeader("Vary")
+			|| (entry.getLifetime() <= 0 && !entry.hasValidator()))
+		{
+			return body;
+		}
+
+		try
+		{
+			File file = File.createTempFile(entry.mKey, ".tmp", mDirectory);
+			return new StoringInputStream(body, entry, file);
+		}
+		catch (IOException ex)
+		{
+			ex.printStackTrace();
+			return body;
+		}
+	}
+
+	/**
+	 * @return The header names and values of a response, alternating.
+	 */
+	private static String[] readHeaders(URLConnection connection)
+	{
+		ArrayList<String> headers = new ArrayList<String>();
+		for (int i = 0; ; ++i)
+		{
+			String key = connection.getHeaderFieldKey(i);
+			String value = connection.getHeaderField(i);
+			if (null == value)
+			{
+				break;
+			}
+			if (null != key)
+			{
+				headers.add(key);
+				headers.add(value);
+			}
+		}
+		return headers.toArray(new String[headers.size()]);
+	}
+
+	/**
+	 * Add a response whose body has been written to a file.
+	 */
+	private synchronized void commit(Entry entry, File body)
+	{
+		try
+		{
+			Entry old = mEntries.remove(entry.mKey);
+			if (null != old)
+			{
+				mTotalSize -= old.mSize;
+			}
+
+			writeMeta(entry);
+			if (!body.renameTo(bodyFile(entry.mKey)))
+			{
+				throw new IOException("Could not rename " + body);
+			}
+
+			mEntries.put(entry.mKey, entry);
+			mTotalSize += entry.mSize;
+			trimToSize();
+		}
+		catch (IOException ex)
+		{
+			ex.printStackTrace();
+			body.delete();
+			metaFile(entry.mKey).delete();
+		}
+	}
+
+	/**
+	 * Drop a stored response.
+	 */
+	private synchronized void remove(Entry entry)
+	{
+		if (mEntries.get(entry.mKey) == entry)
+		{
+			mEntries.remove(entry.mKey);
+			mTotalSize -= entry.mSize;
+		}
+		metaFile(entry.mKey).delete();
+		bodyFile(entry.mKey).delete();
+	}
+
+	/**
+	 * Drop the least recently used responses until the cache is
+	 * below its size limit.
+	 */
+	private void trimToSize()
+	{
+		Iterator<Entry> it = mEntries.values().iterator();
+		while (mTotalSize > mMaxSize && it.hasNext())
+		{
+			Entry entry = it.next();
+			it.remove();
+			mTotalSize -= entry.mSize;
+			metaFile(entry.mKey).delete();
+			bodyFile(entry.mKey).delete();
+		}
+	}
+
+	/**
+	 * Read the stored responses, least recently used first. Files
+	 * that cannot be read and left-over temporary files are deleted.
+	 */
+	private void loadIndex()
+	{
+		File[] files = mDirectory.listFiles();
+		if (null == files)
+		{
+			return;
+		}
+
+		Arrays.sort(files, new Comparator<File>()
+		{
+			public int compare(File a, File b)
+			{
+				long diff = a.lastModified() - b.lastModified();
+				return diff < 0 ? -1 : (diff > 0 ? 1 : 0);
+			}
+		});
+
+		for (File file : files)
+		{
+			String name = file.getName();
+			if (name.endsWith(".tmp"))
+			{
+				file.delete();
+				continue;
+			}
+			if (!name.endsWith(META_SUFFIX))
+			{
+				continue;
+			}
+
+			String key = name.substring(0, name.length() - META_SUFFIX.length());
+			File body = bodyFile(key);
+			try
+			{
+				Entry entry = readMeta(key);
+				if (!body.exists())
+				{
+					throw new IOException("Missing body");
+				}
+				entry = entry.withSize(body.length());
+				mEntries.put(key, entry);
+				mTotalSize += entry.mSize;
+			}
+			catch (IOException ex)
+			{
+				file.delete();
+				body.delete();
+			}
+		}
+
+		trimToSize();
+	}
+
+	private void writeMeta(Entry entry) throws IOException
+	{
+		File file = File.createTempFile(entry.mKey, ".tmp", mDirectory);
+		DataOutputStream out =
+			new DataOutputStream(new FileOutputStream(file));
+		try
+		{
+			out.writeInt(META_VERSION);
+			out.writeUTF(entry.mUrl);
+			out.writeInt(entry.mResponseCode);
+			out.writeLong(entry.mStoredAt);
+			out.writeInt(entry.mHeaders.length);
+			for (String s : entry.mHeaders)
+			{
+				out.writeUTF(s);
+			}
+		}
+		finally
+		{
+			out.close();
+		}
+
+		if (!file.renameTo(metaFile(entry.mKey)))
+		{
+			file.delete();
+			throw new IOException("Could not rename " + file);
+		}
+	}
+
+	private Entry readMeta(String key) throws IOException
+	{
+		DataInputStream in =
+			new DataInputStream(new FileInputStream(metaFile(key)));
+		try
+		{
+			if (in.readInt() != META_VERSION)
+			{
+				throw new IOException("Unknown version");
+			}
+			String url = in.readUTF();
+			int responseCode = in.readInt();
+			long storedAt = in.readLong();
+			int count = in.readInt();
+			if (count < 0 || 0 != count % 2)
+			{
+				throw new IOException("Bad header count");
+			}
+			String[] headers = new String[count];
+			for (int i = 0; i < count; ++i)
+			{
+				headers[i] = in.readUTF();
+			}
+			return new Entry(url, key, responseCode, storedAt, headers, 0);
+		}
+		finally
+		{
+			in.close();
+		}
+	}
+
+	private File metaFile(String key)
+	{
+		return new File(mDirectory, key + META_SUFFIX);
+	}
+
+	private File bodyFile(String key)
+	{
+		return new File(mDirectory, key + BODY_SUFFIX);
+	}
+
+	/**
+	 * @return The MD5 of a URL, in hex.
+	 */
+	private static String keyFor(String url)
+	{
+		try
+		{
+			byte[] digest = MessageDigest.getInstance("MD5").digest(
+				url.getBytes("UTF-8"));
+			StringBuilder key = new StringBuilder();
+			for (byte b : digest)
+			{
+				key.append(Character.forDigit((b >> 4) & 0xf, 16));
+				key.append(Character.forDigit(b & 0xf, 16));
+			}
+			return key.toString();
+		}
+		catch (NoSuchAlgorithmException ex)
+		{
+			throw new BigPhatError("HttpCache: no MD5");
+		}
+		catch (IOException ex)
+		{
+			throw new BigPhatError("HttpCache: no UTF-8");
+		}
+	}
+
+	/**
+	 * @return true if a Cache-Control or Pragma header value has the
+	 * given directive.
+	 */
+	static boolean hasDirective(String header, String directive)
+	{
+		if (null == header)
+		{
+			return false;
+		}
+		for (String part : header.split(","))
+		{
+			if (part.trim().equalsIgnoreCase(directive))
+			{
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @return The max-age of a Cache-Control header value in seconds,
+	 * or -1 if there is none.
+	 */
+	static long getMaxAge(String header)
+	{
+		if (null == header)
+		{
+			return -1;
+		}
+		for (String part : header.split(","))
+		{
+			part = part.trim();
+			if (part.regionMatches(true, 0, "max-age=", 0, 8))
+			{
+				try
+				{
+					return Long.parseLong(part.substring(8).trim());
+				}
+				catch (NumberFormatException ex)
+				{
+					return -1;
+				}
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * @return An HTTP date in milliseconds, or -1 if it cannot
+	 * be parsed.
+	 */
+	static long parseDate(String date)
+	{
+		if (null == date)
+		{
+			return -1;
+		}
+		SimpleDateFormat format = new SimpleDateFormat(
+			"EEE, dd MMM yyyy HH:mm:ss zzz", Locale.US);
+		format.setTimeZone(TimeZone.getTimeZone("GMT"));
+		try
+		{
+			return format.parse(date).getTime();
+		}
+		catch (ParseException ex)
+		{
+			return -1;
+		}
+	}
+
+	/**
+	 * A stored response. Immutable, so it can be shared between
+	 * connections without locking.
+	 */
+	static final class Entry
+	{
+		/**
+		 * Constructor.
+		 * @param headers Header names and values, alternating. The
+		 * array is not copied and must not be changed afterwards.
+		 */
+		Entry(
+			String url,
+			String key,
+			int responseCode,
+			long storedAt,
+			String[] headers,
+			long size)
+		{
+			mUrl = url;
+			mKey = key;
+			mResponseCode = responseCode;
+			mStoredAt = storedAt;
+			mHeaders = headers;
+			mSize = size;
+		}
+
+		/**
+		 * @return A copy of this entry with the body size set.
+		 */
+		Entry withSize(long size)
+		{
+			return new Entry(
+				mUrl, mKey, mResponseCode, mStoredAt, mHeaders, size);
+		}
+
+		/**
+		 * @return A copy of this entry where the given headers replace
+		 * all values of the headers with the same names.
+		 * @param headers Header names and values, alternating.
+		 * @param storedAt The new time the response was stored.
+		 */
+		Entry withHeaders(String[] headers, long storedAt)
+		{
+			ArrayList<String> merged = new ArrayList<String>();
+			for (int i = 0; i < mHeaders.length; i += 2)
+			{
+				if (!hasHeader(headers, mHeaders[i]))
+				{
+					merged.add(mHeaders[i]);
+					merged.add(mHeaders[i + 1]);
+				}
+			}
+			merged.addAll(Arrays.asList(headers));
+
+			return new Entry(
+				mUrl,
+				mKey,
+				mResponseCode,
+				storedAt,
+				merged.toArray(new String[merged.size()]),
+				mSize);
+		}
+
+		public int getResponseCode()
+		{
+			return mResponseCode;
+		}
+
+		/**
+		 * @return The last value of a header, or null if the response
+		 * does not have it. Names are compared ignoring case.
+		 */
+		public String getHeader(String key)
+		{
+			String value = null;
+			for (int i = 0; i < mHeaders.length; i += 2)
+			{
+				if (mHeaders[i].equalsIgnoreCase(key))
+				{
+					value = mHeaders[i + 1];
+				}
+			}
+			return value;
+		}
+
+		/**
+		 * @return true if the names and values, alternating, have the
+		 * given name. Names are compared ignoring case.
+		 */
+		private static boolean hasHeader(String[] headers, String key)
+		{
+			for (int i = 0; i < headers.length; i += 2)
+			{
+				if (headers[i].equalsIgnoreCase(key))
+				{
+					return true;
+				}
+			}
+			return false;
+		}
+
+		/**
+		 * @return How long in milliseconds the response is fresh after
+		 * it was stored, 0 or less if it must always be revalidated.
+		 */
+		long getLifetime()
+		{
+			String cacheControl = getHeader("Cache-Control");
+			if (hasDirective(cacheControl, "no-cache"))
+			{
+				return 0;
+			}
+
+			long maxAge = getMaxAge(cacheControl);
+			if (maxAge >= 0)
+			{
+				return maxAge * 1000;
+			}
+
+			long expires = parseDate(getHeader("Expires"));
+			if (expires < 0)
+			{
+				return 0;
+			}
+			long date = parseDate(getHeader("Date"));
+			return expires - (date < 0 ? mStoredAt : date);
+		}
+
+		public boolean isFresh()
+		{
+			return System.currentTimeMillis() < mStoredAt + getLifetime();
+		}
+
+		boolean hasValidator()
+		{
+			return null != getHeader("ETag")
+				|| null != getHeader("Last-Modified");
+		}
+
+		/**
+		 * Make a request conditional on the response having changed.
+		 * @return false if the response has no validators.
+		 */
+		public boolean addValidators(URLConnection connection)
+		{
+			String etag = getHeader("ETag");
+			String lastModified = getHeader("Last-Modified");
+			if (null != etag)
+			{
+				connection.setRequestProperty("If-None-Match", etag);
+			}
+			if (null != lastModified)
+			{
+				connection.setRequestProperty(
+					"If-Modified-Since", lastModified);
+			}
+			return null != etag || null != lastModified;
+		}
+
+		final String mUrl;
+		final String mKey;
+		final int mResponseCode;
+		final long mStoredAt;
+		final long mSize;
+
+		/**
+		 * Header names and values, alternating.
+		 */
+		final String[] mHeaders;
+	}
+
+	/**
+	 * Copies a response body to a file as it is read, and adds it
+	 * to the cache when the end is reached, or when the stream is
+	 * closed after as many bytes as the Content-Length header says.
+	 * If the stream is closed before that, or the file cannot be
+	 * written, nothing is added.
+	 */
+	private final class StoringInputStream extends FilterInputStream
+	{
+		StoringInputStream(InputStream in, Entry entry, File file)
+			throws IOException
+		{
+			super(in);
+			mEntry = entry;
+			mFile = file;
+			mOut = new FileOutputStream(file);
+
+			long length = -1;
+			try
+			{
+				String header = entry.getHeader("Content-Length");
+				if (null != header)
+				{
+					length = Long.parseLong(header.trim());
+				}
+			}
+			catch (NumberFormatException ex)
+			{
+			}
+			mContentLength = length;
+		}
+
+		@Override
+		public int read() throws IOException
+		{
+			int b = super.read();
+			if (b < 0)
+			{
+				finish(true);
+			}
+			else if (null != mOut)
+			{
+				try
+				{
+					mOut.write(b);
+					++mSize;
+				}
+				catch (IOException ex)
+				{
+					finish(false);
+				}
+			}
+			return b;
+		}
+
+		@Override
+		public int read(byte[] buffer, int offset, int count)
+			throws IOException
+		{
+			int result = super.read(buffer, offset, count);
+			if (result < 0)
+			{
+				finish(true);
+			}
+			else if (null != mOut)
+			{
+				try
+				{
+					mOut.write(buffer, offset, result);
+					mSize += result;
+				}
+				catch (IOException ex)
+				{
+					finish(false);
+				}
+			}
+			return result;
+		}
+
+		@Override
+		public long skip(long count) throws IOException
+		{
+			// The skipped part would be missing from the file.
+			finish(false);
+			return super.skip(count);
+		}
+
+		@Override
+		public void close() throws IOException
+		{
+			finish(mSize == mContentLength);
+			super.close();
+		}
+
+		/**
+		 * Stop storing the body, and add it to the cache if it
+		 * is complete.
+		 */
+		private void finish(boolean complete)
+		{
+			if (null == mOut)
+			{
+				return;
+			}
+
+			OutputStream out = mOut;
+			mOut = null;
+			try
+			{
+				out.close();
+			}
+			catch (IOException ex)
+			{
+				complete = false;
+			}
+
+			if (complete && mSize <= mMaxSize)
+			{
+				commit(mEntry.withSize(mSize), mFile);
+			}
+			else
+			{
+				mFile.delete();
+			}
+		}
+
+		private final Entry mEntry;
+		private final File mFile;
+		private final long mContentLength;
+		private OutputStream mOut;
+
+		/**
+		 * The number of bytes stored so far.
+		 */
+		private long mSize = 0;
+	}
+
+	private static final int META_VERSION = 2;
+	private static final String META_SUFFIX = ".meta";
+	private static final String BODY_SUFFIX = ".body";
+
+	private final File mDirectory;
+	private final long mMaxSize;
+
+	/**
+	 * The stored responses by key, least recently used first.
+	 */
+	private final LinkedHashMap<String, Entry> mEntries =
+		new LinkedHashMap<String, Entry>(16, 0.75f, true);
+
+	private long mTotalSize = 0;
+}
@@ -47,6 +47,7 @@ import static com.mosync.internal.android.MoSyncHelpers.SYSLOG;
 
 import static com.mosync.internal.generated.MAAPI_consts.*;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InterruptedIOException;
@@ -54,12 +55,15 @@ import java.io.OutputStream;
 import java.lang.reflect.Method;
 import java.net.HttpURLConnection;
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.net.MalformedURLException;
 import java.net.Socket;
 import java.net.URL;
 import java.net.URLConnection;
 import java.net.UnknownHostException;
 import java.nio.ByteBuffer;
+import java.nio.channels.ByteChannel;
+import java.nio.channels.SocketChannel;
 import java.util.Hashtable;
 import java.util.UUID;
 
@@ -71,6 +75,7 @@ import android.bluetooth.BluetoothDevice;
 import android.bluetooth.BluetoothServerSocket;
 import android.bluetooth.BluetoothSocket;
 import android.net.SSLCertificateSocketFactory;
+import android.os.Build;
 import android.os.Looper;
 import android.util.Log;
 
@@ -79,6 +84,23 @@ public class MoSyncNetwork
 	static final int CONNOP_CONNECT_SUCCESS = 1;
 	
 	static final int SSL_HANDSHAKE_TIMEOUT_MILLIS = 5000;
+	
+	/**
+	 * Set to false to run plain socket operations on threads in the
+	 * connection thread pool instead of on the socket selector.
+	 */
+	static final boolean USE_SOCKET_SELECTOR = true;
+	
+	/**
+	 * The number of idle HTTP connections to keep for each host, so
+	 * that repeated requests to it need not connect again.
+	 */
+	static final int HTTP_MAX_IDLE_CONNECTIONS_PER_HOST = 5;
+	
+	/**
+	 * The size of the HTTP response cache in bytes, 0 turns it off.
+	 */
+	static final long HTTP_CACHE_SIZE = 4 * 1024 * 1024;
 
 	/**
 	 * The MoSync thread object.
@@ -102,9 +124,27 @@ public class MoSyncNetwork
 	private int mNumberOfOpenConnections = 0;
 	
 	/**
-	 * Thread pool for connections.
+	 * Thread pool for connections. A connection has at most a read
+	 * and a write running at the same time, so with two threads per
+	 * connection operations are never held up by other connections.
+	 * Threads beyond the first two die after being idle for 30 seconds.
+	 */
+	public static ThreadPool sConnectionThreadPool =
+		new ThreadPool(2, 2 * CONN_MAX, 30000);
+	
+	/**
+	 * Selector for plain socket connections, created when the first
+	 * one connects.
+	 */
+	private static SocketSelector sSocketSelector;
+	private static boolean sSocketSelectorOpened = false;
+	
+	/**
+	 * The HTTP response cache, created when the first request
+	 * finishes.
 	 */
-	public static ThreadPool sConnectionThreadPool = new ThreadPool();
+	private HttpCache mHttpCache;
+	private boolean mHttpCacheOpened = false;
 	
 	/**
 	 * Constructor.
@@ -113,6 +153,43 @@ public class MoSyncNetwork
 	public MoSyncNetwork(MoSyncThread thread)
 	{
 		mMoSyncThread = thread;
+		
+		configureHttpKeepAlive();
+	}
+	
+	/**
+	 * Let HttpURLConnection keep idle connections to each host for
+	 * reuse. Before Froyo, closing a response that had not been read
+	 * to the end could break the connection pool, so connections are
+	 * not reused there.
+	 */
+	static void configureHttpKeepAlive()
+	{
+		if (Integer.parseInt(Build.VERSION.SDK) < Build.VERSION_CODES.FROYO)
+		{
+			System.setProperty("http.keepAlive", "false");
+		}
+		else
+		{
+			System.setProperty("http.keepAlive", "true");
+			System.setProperty("http.maxConnections", 
+				Integer.toString(HTTP_MAX_IDLE_CONNECTIONS_PER_HOST));
+		}
+	}
+	
+	/**
+	 * @return The HTTP response cache, or null if it is turned off.
+	 */
+	synchronized HttpCache getHttpCache()
+	{
+		if (HTTP_CACHE_SIZE > 0 && !mHttpCacheOpened)
+		{
+			mHttpCacheOpened = true;
+			File directory = new File(
+				mMoSyncThread.getActivity().getCacheDir(), "http");
+			mHttpCache = new HttpCache(directory, HTTP_CACHE_SIZE);
+		}
+		return mHttpCache;
 	}
 
 	/**
@@ -513,6 +590,21 @@ public class MoSyncNetwork
 		}
 	}
 	
+	/**
+	 * @return The selector for socket connections, or null if it is
+	 * turned off or could not be opened, in which case the blocking
+	 * path is used.
+	 */
+	static synchronized SocketSelector getSocketSelector()
+	{
+		if (USE_SOCKET_SELECTOR && !sSocketSelectorOpened)
+		{
+			sSocketSelectorOpened = true;
+			sSocketSelector = SocketSelector.open();
+		}
+		return sSocketSelector;
+	}
+	
 	/**
 	 * Copy a byte array to the given address in the system memory.
 	 */
@@ -541,6 +633,28 @@ public class MoSyncNetwork
 		getMemDataSection().get(bytes);
 	}
 	
+	/**
+	 * Get a view of length bytes of the system memory, starting
+	 * at the given address.
+	 */
+	ByteBuffer getMemorySlice(int address, int length)
+	{
+		return sliceBuffer(getMemDataSection(), address, length);
+	}
+	
+	/**
+	 * Get a view of length bytes of a buffer, starting at offset.
+	 * The position and limit of the buffer are not touched, so this
+	 * can be used on a buffer that other threads also use.
+	 */
+	static ByteBuffer sliceBuffer(ByteBuffer buffer, int offset, int length)
+	{
+		ByteBuffer view = buffer.duplicate();
+		view.limit(offset + length);
+		view.position(offset);
+		return view.slice();
+	}
+	
 	/**
 	 * Copy an int value to the given address in the system memory.
 	 */
@@ -703,6 +817,16 @@ public class MoSyncNetwork
 		protected MoSyncNetwork mMoSyncNetwork;
 		private OutputStream mOutputStream;
 		private InputStream mInputStream;
+		private ByteChannel mByteChannel;
+		
+		/**
+		 * Lanes in the connection thread pool. Operations in the same
+		 * lane run in the order they were started. Writes have a lane
+		 * of their own, so that a pending read does not hold up a
+		 * write on the same connection.
+		 */
+		private final Object mReadLane = new Object();
+		private final Object mWriteLane = new Object();
 		
 		public ConnectionObject(MoSyncNetwork network)
 		{
@@ -745,7 +869,7 @@ public class MoSyncNetwork
 			event[3] = result;
 			
 			Log.i("ConnectionObject.postResultEvent", 
-				"Calling nativePostEvent");
+				"Calling postEvent");
 			mMoSyncNetwork.postEvent(event);
 		}
 		
@@ -792,103 +916,104 @@ public class MoSyncNetwork
 			return -1;
 		}
 		
-		public void read(final int dst, final int size)
+		/**
+		 * Run an operation on the connection thread pool.
+		 * @param opType The CONNOP type of the operation.
+		 * @param runnable The operation.
+		 */
+		protected void runOperation(int opType, Runnable runnable)
 		{
-			final int opType = CONNOP_READ;
-			
-			enterStateRead();
-			
-			// Must have an input stream.
-			MYASSERT(getInputStream() != null);
+			sConnectionThreadPool.execute(
+				CONNOP_WRITE == opType ? mWriteLane : mReadLane,
+				runnable);
+		}
+		
+		/**
+		 * Read from the connection into a buffer. If the connection
+		 * has a channel the data goes straight into the buffer,
+		 * otherwise through the input stream.
+		 * @return The number of bytes read, -1 at end of stream.
+		 * @throws IOException
+		 */
+		int readFromConnection(ByteBuffer buffer) throws IOException
+		{
+			if (null != mByteChannel)
+			{
+				return mByteChannel.read(buffer);
+			}
 			
-			sConnectionThreadPool.execute(new Runnable()
+			if (buffer.hasArray())
 			{
-				public final void run() 
+				int result = getInputStream().read(
+					buffer.array(),
+					buffer.arrayOffset() + buffer.position(),
+					buffer.remaining());
+				if (result > 0)
 				{
-					try
-					{
-						// Read data into a byte array.
-						byte[] bytes = new byte[size];
-						int result = getInputStream().read(bytes);
-						
-						if (result > 0)
-						{
-							// Store data in memory at address dst.
-							mMoSyncNetwork.copyBytesToMemory(
-								dst, bytes, 0, result);
-							
-							postResultEvent(opType, result);
-						}
-						else if (result == -1) 
-						{
-							postResultEvent(opType, CONNERR_CLOSED);
-						} 
-						else 
-						{
-							Log.i("@@ConnectionObject", "ConnRead error " 
-								+ result);
-							postResultEvent(opType, CONNERR_INTERNAL);
-						}
-					}
-					catch (Exception ex)
-					{
-						ex.printStackTrace();
-						postResultEvent(opType, CONNERR_GENERIC);
-					}
+					buffer.position(buffer.position() + result);
 				}
-			});
+				return result;
+			}
+			
+			byte[] bytes = new byte[buffer.remaining()];
+			int result = getInputStream().read(bytes);
+			if (result > 0)
+			{
+				buffer.put(bytes, 0, result);
+			}
+			return result;
 		}
 		
-		public void write(final int src, final int size)
+		/**
+		 * Write all the remaining data in a buffer to the connection.
+		 * @throws IOException
+		 */
+		void writeToConnection(ByteBuffer buffer) throws IOException
 		{
-			final int opType = CONNOP_WRITE;
-			
-			enterStateWrite();
-			
-			// Must have an output stream.
-			MYASSERT(getOutputStream() != null);
-			
-			sConnectionThreadPool.execute(new Runnable()
+			if (null != mByteChannel)
 			{
-				public final void run() 
+				while (buffer.hasRemaining())
 				{
-					try
-					{
-						// Byte array with data to write.
-						byte[] data = new byte[size];
-						
-						// Get data to write.
-						mMoSyncNetwork.readBytesFromMemory(src, data);
-						
-						// Write byte array to stream.
-						getOutputStream().write(data);
-						
-						// Post event.
-						postResultEvent(opType, 1); // Success
-					}
-					catch (Exception ex)
-					{
-						ex.printStackTrace();
-						postResultEvent(opType, CONNERR_GENERIC);
-					}
+					mByteChannel.write(buffer);
 				}
-			});
+				return;
+			}
+			
+			if (buffer.hasArray())
+			{
+				getOutputStream().write(
+					buffer.array(),
+					buffer.arrayOffset() + buffer.position(),
+					buffer.remaining());
+				buffer.position(buffer.limit());
+				return;
+			}
+			
+			byte[] data = new byte[buffer.remaining()];
+			buffer.get(data);
+			getOutputStream().write(data);
 		}
 		
-		public void readToData(
-			final int dataHandle, 
-			final int offset, 
-			final int size)
+		public void read(int dst, int size)
 		{
-			final int opType = CONNOP_READ;
-			
 			enterStateRead();
 			
-			// Must have an input stream.
-			MYASSERT(getInputStream() != null);
+			startRead(mMoSyncNetwork.getMemorySlice(dst, size));
+		}
+		
+		public void write(int src, int size)
+		{
+			enterStateWrite();
+			
+			startWrite(mMoSyncNetwork.getMemorySlice(src, size));
+		}
+		
+		public void readToData(int dataHandle, int offset, int size)
+		{
+			enterStateRead();
 			
 			// Get the resource to read data to.
-			final ByteBuffer byteBuffer = 
+			ByteBuffer byteBuffer = 
 				mMoSyncNetwork.mMoSyncThread.getBinaryResource(dataHandle);
 			if (null == byteBuffer) 
 			{
@@ -896,22 +1021,49 @@ public class MoSyncNetwork
 					"ConnectionObject.readToData: invalid handle");
 			}
 			
-			sConnectionThreadPool.execute(new Runnable()
-			{	
-				public void run() 
+			startRead(sliceBuffer(byteBuffer, offset, size));
+		}
+		
+		public void writeFromData(int dataHandle, int offset, int size)
+		{
+			enterStateWrite();
+			
+			ByteBuffer byteBuffer = 
+				mMoSyncNetwork.mMoSyncThread.getBinaryResource(dataHandle);
+			if (null == byteBuffer) 
+			{
+				throw new BigPhatError(
+					"ConnectionObject.writeFromData: invalid handle");
+			}
+			
+			startWrite(sliceBuffer(byteBuffer, offset, size));
+		}
+		
+		/**
+		 * Start reading into a buffer, the result is posted as a
+		 * CONNOP_READ event. By default this blocks a thread in the
+		 * connection thread pool until the read is done.
+		 * @param buffer The buffer to read into, at most its
+		 * remaining number of bytes are read.
+		 */
+		void startRead(final ByteBuffer buffer)
+		{
+			final int opType = CONNOP_READ;
+			
+			// Must have an input stream.
+			MYASSERT(getInputStream() != null);
+			
+			runOperation(opType, new Runnable()
+			{
+				public final void run() 
 				{
-					
 					try
 					{
-						// Read data into a byte array.
-						byte[] bytes = new byte[size];
-						int result = getInputStream().read(bytes);
+						int result = readFromConnection(buffer);
 						
 						// Result is number of bytes read if successful.
 						if (result > 0)
 						{
-							byteBuffer.position(offset);
-							byteBuffer.put(bytes, 0, result);
 							postResultEvent(opType, result);
 						}
 						else if (result == -1) 
@@ -920,8 +1072,8 @@ public class MoSyncNetwork
 						} 
 						else 
 						{
-							Log.i("ConnectionReaderWriter", 
-								"ConnRead error " + result);
+							Log.i("@@ConnectionObject", "ConnRead error " 
+								+ result);
 							postResultEvent(opType, CONNERR_INTERNAL);
 						}
 					}
@@ -934,42 +1086,30 @@ public class MoSyncNetwork
 			});
 		}
 		
-		public void writeFromData(
-			final int dataHandle, 
-			final int offset, 
-			final int size)
+		/**
+		 * Start writing a buffer, the result is posted as a
+		 * CONNOP_WRITE event. By default this blocks a thread in the
+		 * connection thread pool until the write is done.
+		 * @param buffer The buffer, all of its remaining bytes
+		 * are written.
+		 */
+		void startWrite(final ByteBuffer buffer)
 		{
 			final int opType = CONNOP_WRITE;
 			
-			enterStateWrite();
-			
 			// Must have an output stream.
 			MYASSERT(getOutputStream() != null);
 			
-			final ByteBuffer byteBuffer = 
-				mMoSyncNetwork.mMoSyncThread.getBinaryResource(dataHandle);
-			if (null == byteBuffer) 
-			{
-				throw new BigPhatError(
-					"ConnectionObject.writeFromData: invalid handle");
-			}
-			
-			sConnectionThreadPool.execute(new Runnable()
+			runOperation(opType, new Runnable()
 			{
 				public final void run() 
 				{
 					try
 					{
-						// Byte array with data to write.
-						byte[] data = new byte[size];
-						
-						// Get and write data.
-						byteBuffer.position(offset);
-						byteBuffer.get(data);
-						getOutputStream().write(data);
+						writeToConnection(buffer);
 						
 						// Post event.
-						postResultEvent(opType, 1);
+						postResultEvent(opType, 1); // Success
 					}
 					catch (Exception ex)
 					{
@@ -1012,6 +1152,15 @@ public class MoSyncNetwork
 			return mOutputStream;
 		}
 		
+		/**
+		 * Set the channel to read and write through instead of
+		 * the streams, null if there is none.
+		 */
+		public void setByteChannel(ByteChannel channel)
+		{
+			mByteChannel = channel;
+		}
+		
 		public void startConnectThread() 
 		{ 
 			// TODO: Panic. Should not be called.
@@ -1085,6 +1234,20 @@ public class MoSyncNetwork
 	static class UrlConnectionObject extends ConnectionObject
 	{
 		private URLConnection mUrlConnection;
+		private String mUrl;
+		private int mMethod;
+		
+		/**
+		 * The response from the HTTP cache, null if the response
+		 * came from the network.
+		 */
+		private HttpCache.Entry mCachedResponse;
+		
+		/**
+		 * true if the application has set a request header that
+		 * the response may depend on, which rules out the cache.
+		 */
+		private boolean mHasUncacheableRequestHeader = false;
 		
 		/**
 		 * Constructor.
@@ -1119,6 +1282,8 @@ public class MoSyncNetwork
 			throws MalformedURLException, IOException
 		{
 			mHandle = handle;
+			mUrl = url;
+			mMethod = method;
 			
 			mUrlConnection = new URL(url).openConnection();
 			
@@ -1161,6 +1326,11 @@ public class MoSyncNetwork
 			// TODO: Perhaps it is a good idea after all to have mHttpState?
 			//MYASSERT(mHttpState == HTTP_STATE_SETUP);
 			
+			if (!HttpCache.isCacheableRequestHeader(key))
+			{
+				mHasUncacheableRequestHeader = true;
+			}
+			
 			try
 			{
 				mUrlConnection.setRequestProperty(key, value);
@@ -1180,7 +1350,15 @@ public class MoSyncNetwork
 		{
 			try
 			{
-				String value = mUrlConnection.getHeaderField(key);
+				String value;
+				if (null != mCachedResponse)
+				{
+					value = mCachedResponse.getHeader(key);
+				}
+				else
+				{
+					value = mUrlConnection.getHeaderField(key);
+				}
 				
 				if (value == null)
 				{
@@ -1347,7 +1525,7 @@ public class MoSyncNetwork
 		@Override
 		public void startConnectThread()
 		{
-			sConnectionThreadPool.execute(new Runnable()
+			runOperation(CONNOP_CONNECT, new Runnable()
 			{
 				public void run()
 				{
@@ -1436,7 +1614,7 @@ public class MoSyncNetwork
 		{
 			enterStateFinish();
 			
-			sConnectionThreadPool.execute(new Runnable()
+			runOperation(CONNOP_FINISH, new Runnable()
 			{
 				public void run()
 				{
@@ -1456,8 +1634,60 @@ public class MoSyncNetwork
 					getOutputStream().close();
 				}
 				
+				// Only GET requests without a body use the cache.
+				HttpCache cache = null;
+				if (HTTP_GET == mMethod && null == getOutputStream())
+				{
+					cache = mMoSyncNetwork.getHttpCache();
+				}
+				if (null != cache && (mHasUncacheableRequestHeader 
+					|| !HttpCache.isCacheableRequest(httpConn)))
+				{
+					cache = null;
+				}
+				
+				// Use a fresh stored response as it is, or make the
+				// request conditional on a stale one having changed.
+				HttpCache.Entry cached = null;
+				InputStream cachedBody = null;
+				if (null != cache)
+				{
+					cached = cache.get(mUrl);
+				}
+				if (null != cached)
+				{
+					cachedBody = cache.openBody(cached);
+					if (null != cachedBody 
+						&& cached.isFresh() 
+						&& !HttpCache.isRevalidationRequested(httpConn))
+					{
+						useCachedResponse(cached, cachedBody);
+						return;
+					}
+					if (null == cachedBody || !cached.addValidators(httpConn))
+					{
+						cached = null;
+					}
+				}
+				
 				int result = httpConn.getResponseCode();
 				
+				if (null != cached 
+					&& HttpURLConnection.HTTP_NOT_MODIFIED == result)
+				{
+					cached = cache.revalidated(cached, httpConn);
+					useCachedResponse(cached, cachedBody);
+					return;
+				}
+				if (null != cachedBody)
+				{
+					cachedBody.close();
+				}
+				if (null != cache && HttpURLConnection.HTTP_OK == result)
+				{
+					setInputStream(cache.put(mUrl, httpConn));
+				}
+				
 				// TODO: Should be < 0 ??
 				if (result <= 0) 
 				{
@@ -1511,6 +1741,18 @@ public class MoSyncNetwork
 			}
 		}
 	
+		/**
+		 * Finish the request with a response from the HTTP cache.
+		 */
+		void useCachedResponse(HttpCache.Entry cached, InputStream body)
+		{
+			Log.i("UrlConnectionObject", "Using cached response: " + mUrl);
+			
+			mCachedResponse = cached;
+			setInputStream(body);
+			postResultEvent(CONNOP_FINISH, cached.getResponseCode());
+		}
+	
 	} // End of class UrlConnectionObject
 	
 	static class SocketConnectionObject extends ConnectionObject
@@ -1519,6 +1761,13 @@ public class MoSyncNetwork
 		private int mSocketPort;
 		private Socket mSocket;
 		
+		/**
+		 * The selector and channel the connection runs on, both
+		 * null if it uses blocking streams.
+		 */
+		private SocketSelector mSocketSelector;
+		private SocketChannel mSelectorChannel;
+		
 		/**
 		 * Constructor.
 		 */
@@ -1609,6 +1858,19 @@ public class MoSyncNetwork
 			
 			setInputStream(socket.getInputStream());
 			setOutputStream(socket.getOutputStream());
+			
+			// Sockets made by createSocket have a channel, secure
+			// sockets do not.
+			setByteChannel(socket.getChannel());
+		}
+		
+		/**
+		 * @return The selector to run the connection on, or null to
+		 * use blocking streams.
+		 */
+		SocketSelector selectorForConnection()
+		{
+			return getSocketSelector();
 		}
 		
 		/**
@@ -1617,15 +1879,103 @@ public class MoSyncNetwork
 		@Override
 		public void startConnectThread()
 		{
-			sConnectionThreadPool.execute(new Runnable()
+			final SocketSelector selector = selectorForConnection();
+			
+			runOperation(CONNOP_CONNECT, new Runnable()
 			{
 				public void run()
 				{
-					doConnect();
+					if (null == selector)
+					{
+						doConnect();
+					}
+					else
+					{
+						doSelectorConnect(selector);
+					}
 				}
 			});
 		}
 		
+		/**
+		 * Look up the address on this thread, since that blocks,
+		 * then let the selector connect.
+		 */
+		void doSelectorConnect(SocketSelector selector)
+		{
+			try
+			{
+				InetSocketAddress address = 
+					resolveAddress(mSocketAddress, mSocketPort);
+				
+				synchronized (this)
+				{
+					if (mCancelled)
+					{
+						Log.i("SocketConnectionObject", 
+							"connection was canceled");
+						postResultEvent(CONNOP_CONNECT, CONNERR_CANCELED);
+						return;
+					}
+					
+					SocketChannel channel = SocketChannel.open();
+					mSocket = channel.socket();
+					mSocketSelector = selector;
+					mSelectorChannel = channel;
+					selector.connect(this, channel, address);
+				}
+			}
+			catch (IOException ex)
+			{
+				ex.printStackTrace();
+				postResultEvent(CONNOP_CONNECT, CONNERR_GENERIC);
+			}
+		}
+		
+		@Override
+		void startRead(ByteBuffer buffer)
+		{
+			if (null == mSelectorChannel)
+			{
+				super.startRead(buffer);
+				return;
+			}
+			
+			mSocketSelector.read(this, mSelectorChannel, buffer);
+		}
+		
+		@Override
+		void startWrite(ByteBuffer buffer)
+		{
+			if (null == mSelectorChannel)
+			{
+				super.startWrite(buffer);
+				return;
+			}
+			
+			mSocketSelector.write(this, mSelectorChannel, buffer);
+		}
+		
+		/**
+		 * Closes the connection. Operations that are pending on the
+		 * selector finish with CONNERR_CANCELED.
+		 */
+		@Override
+		public void closeConnection(boolean softCancel) throws IOException
+		{
+			synchronized (this)
+			{
+				if (null != mSelectorChannel)
+				{
+					mCancelled = softCancel;
+					mSocketSelector.close(mSelectorChannel);
+					return;
+				}
+			}
+			
+			super.closeConnection(softCancel);
+		}
+		
 		void doConnect()
 		{
 			try
@@ -1690,7 +2040,30 @@ public class MoSyncNetwork
 			throws IOException, InterruptedIOException
 		{
 			Log.i("SocketConnectionObject", "creating socket");
-			return new Socket(socketAddress, socketPort);
+			InetSocketAddress address = 
+				resolveAddress(socketAddress, socketPort);
+			
+			// Connect through a channel, so that reads and writes can
+			// go straight between the socket and memory.
+			return SocketChannel.open(address).socket();
+		}
+		
+		/**
+		 * Look up a host name.
+		 * @throws UnknownHostException if it cannot be found.
+		 */
+		static InetSocketAddress resolveAddress(
+			String socketAddress, 
+			int socketPort)
+			throws UnknownHostException
+		{
+			InetSocketAddress address = 
+				new InetSocketAddress(socketAddress, socketPort);
+			if (address.isUnresolved())
+			{
+				throw new UnknownHostException(socketAddress);
+			}
+			return address;
 		}
 		
 	
@@ -1709,6 +2082,15 @@ public class MoSyncNetwork
 			super(network);
 		}
 		
+		/**
+		 * Secure sockets cannot use the selector.
+		 */
+		@Override
+		SocketSelector selectorForConnection()
+		{
+			return null;
+		}
+		
 		@Override
 		Socket createSocket(String socketAddress, int socketPort) 
 			throws IOException, InterruptedIOException
@@ -1962,7 +2344,7 @@ public class MoSyncNetwork
 		{
 			Log.i("@@BluetoothConnectionObject", "startConnectThread");
 			
-			sConnectionThreadPool.execute(new Runnable()
+			runOperation(CONNOP_CONNECT, new Runnable()
 			{
 				public void run()
 				{
@@ -2291,7 +2673,7 @@ public class MoSyncNetwork
 			// this in thread code, because the it is too late.
 			enterStateAccept();
 			
-			sConnectionThreadPool.execute(new Runnable()
+			runOperation(CONNOP_ACCEPT, new Runnable()
 			{
 				public void run()
 				{
@@ -132,7 +132,7 @@ public class MoSyncThread extends Thread
 	public native boolean nativeLoadResource(ByteBuffer resource);
 	public native ByteBuffer nativeLoadCombined(ByteBuffer combined);
 	public native void nativeRun();
-	public native void nativePostEvent(int[] eventBuffer);
+	public native int nativePostEvents(int[] flatEvents, int count);
 	public native int nativeCreateBinaryResource(
 		int resourceIndex,
 		int length);
@@ -184,6 +184,28 @@ public class MoSyncThread extends Thread
 	 */
 	private final AtomicBoolean mIsSleepingInMaWait = new AtomicBoolean(false);
 
+	/**
+	 * The number of events that fit in the event ring buffer, and the
+	 * largest event, in ints, that fits in one of its slots. The ring
+	 * is smaller than the native event queue, which holds 255 events,
+	 * so that a full ring can be passed on to an empty queue at once.
+	 */
+	private static final int EVENT_RING_CAPACITY = 128;
+	private static final int EVENT_RING_SLOT_SIZE = 16;
+
+	/**
+	 * Events posted from any thread, waiting to be passed to the
+	 * native event queue by this thread.
+	 */
+	private final EventRingBuffer mPendingEvents =
+		new EventRingBuffer(EVENT_RING_CAPACITY, EVENT_RING_SLOT_SIZE);
+
+	/**
+	 * Batch of events passed to nativePostEvents, only used by
+	 * this thread.
+	 */
+	private final int[] mEventBatch = new int[mPendingEvents.getBatchSize()];
+
 	/**
 	 * a handle used for full screen camera preview
 	 */
@@ -720,25 +742,47 @@ public class MoSyncThread extends Thread
 	}
 
 	/**
-	 * Post a event to the MoSync event queue.
+	 * Post a event to the MoSync event queue. Can be called on any
+	 * thread. The event is passed on to the native event queue when
+	 * the MoSync program next calls maWait or maGetEvent.
 	 */
-	public synchronized void postEvent(int[] event)
+	public void postEvent(int[] event)
 	{
-		// Add event to queue.
-		nativePostEvent(event);
+		// Add event to the pending events.
+		mPendingEvents.add(event);
 
-		// Only interrupt if we are sleeping in maWait.
+		// Only interrupt if we are sleeping in maWait. The event must
+		// be added before the flag is read, since maWait sets the
+		// flag before it looks for pending events.
 		if (mIsSleepingInMaWait.get())
 		{
 			// Wake up this thread to make it process events.
 			interrupt();
 		}
-		else
+	}
+
+	/**
+	 * Pass the pending events to the native event queue, in batches,
+	 * as many as there is room for. The rest stay pending until the
+	 * next call. Must only be called on the MoSync thread, it is also
+	 * called from native code by maGetEvent and before native code
+	 * posts an event.
+	 * @param reserve The number of slots of the native event queue
+	 * to leave free, for events that native code is about to post.
+	 * @return The number of events passed on.
+	 */
+	int postPendingEvents(int reserve)
+	{
+		int total = 0;
+		int space = nativePostEvents(mEventBatch, 0) - reserve;
+		int count;
+		while (space > 0 &&
+			0 != (count = mPendingEvents.drainTo(mEventBatch, space)))
 		{
-			Log.i(
-				"@@@ MoSyncThread.postEvent",
-				"Did not call interrupt, not in maWait (this is good!)");
+			space = nativePostEvents(mEventBatch, count) - reserve;
+			total += count;
 		}
+		return total;
 	}
 
 	/**
@@ -2033,10 +2077,25 @@ public class MoSyncThread extends Thread
 	{
 		SYSLOG("maWait");
 
-		try
+		// Set the flag before looking for pending events, so that an
+		// event posted after that either is found here or interrupts
+		// the sleep below.
+		mIsSleepingInMaWait.set(true);
+
+		if (0 != postPendingEvents(0))
 		{
-			mIsSleepingInMaWait.set(true);
+			mIsSleepingInMaWait.set(false);
+
+			// Clear the interrupt from a postEvent that saw the flag,
+			// its event has been passed on already.
+			Thread.interrupted();
 
+			SYSLOG("maWait returned");
+			return;
+		}
+
+		try
+		{
 	 		if (timeout<=0)
 			{
 				Thread.sleep(Long.MAX_VALUE);
@@ -2058,6 +2117,8 @@ public class MoSyncThread extends Thread
 
 		mIsSleepingInMaWait.set(false);
 
+		postPendingEvents(0);
+
 		SYSLOG("maWait returned");
 	}
 
@@ -0,0 +1,476 @@
+/* Copyright (C) 2010 MoSync AB
+
+This program is free software; you can redistribute it and/or modify it under
+the terms of the GNU General Public License, version 2, as published by
+the Free Software Foundation.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program; see the file COPYING.  If not, write to the Free
+Software Foundation, 59 Temple Place - Suite 330, Boston, MA
+02111-1307, USA.
+*/
+
+package com.mosync.internal.android;
+
+import static com.mosync.internal.generated.MAAPI_consts.*;
+
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.LinkedList;
+
+import android.util.Log;
+
+import com.mosync.internal.android.MoSyncNetwork.ConnectionObject;
+
+/**
+ * Runs connect, read and write operations on non-blocking socket
+ * channels, all on a single thread, and posts their results as
+ * CONNOP events on the connection objects.
+ *
+ * Requests are queued and handed to the selector thread, which is
+ * the only thread that touches the selector and the channels.
+ */
+final class SocketSelector implements Runnable
+{
+	/**
+	 * Create a selector and start its thread.
+	 * @return The selector, or null if it could not be opened.
+	 */
+	static SocketSelector open()
+	{
+		try
+		{
+			return new SocketSelector(Selector.open());
+		}
+		catch (IOException ex)
+		{
+			Log.i("SocketSelector", "Could not open selector: " + ex);
+			return null;
+		}
+	}
+
+	private SocketSelector(Selector selector)
+	{
+		mSelector = selector;
+
+		Thread thread = new Thread(this, "MoSync socket selector");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Start connecting a channel. The result is posted as a
+	 * CONNOP_CONNECT event.
+	 * @param connection The connection the channel belongs to.
+	 * @param channel A new, unconnected channel.
+	 * @param address The resolved address to connect to.
+	 */
+	void connect(
+		final ConnectionObject connection,
+		final SocketChannel channel,
+		final SocketAddress address)
+	{
+		submit(new Runnable()
+		{
+			public void run()
+			{
+				try
+				{
+					channel.configureBlocking(false);
+					Operations ops = getOperations(connection, channel);
+					if (channel.connect(address))
+					{
+						connection.postResultEvent(CONNOP_CONNECT, 1);
+					}
+					else
+					{
+						ops.mConnecting = true;
+						ops.updateInterest();
+					}
+				}
+				catch (IOException ex)
+				{
+					ex.printStackTrace();
+					connection.postResultEvent(
+						CONNOP_CONNECT, CONNERR_GENERIC);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Start reading from a connected channel into a buffer. The
+	 * result is posted as a CONNOP_READ event.
+	 * @param connection The connection the channel belongs to.
+	 * @param channel The channel.
+	 * @param buffer The buffer to read into.
+	 */
+	void read(
+		final ConnectionObject connection,
+		final SocketChannel channel,
+		final ByteBuffer buffer)
+	{
+		submit(new Runnable()
+		{
+			public void run()
+			{
+				try
+				{
+					Operations ops = getOperations(connection, channel);
+					ops.mReadBuffer = buffer;
+
+					// Data is often there already, so try first.
+					ops.doRead();
+					ops.updateInterest();
+				}
+				catch (IOException ex)
+				{
+					ex.printStackTrace();
+					connection.postResultEvent(
+						CONNOP_READ, CONNERR_GENERIC);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Start writing a buffer to a connected channel. The result is
+	 * posted as a CONNOP_WRITE event.
+	 * @param connection The connection the channel belongs to.
+	 * @param channel The channel.
+	 * @param buffer The buffer to write.
+	 */
+	void write(
+		final ConnectionObject connection,
+		final SocketChannel channel,
+		final ByteBuffer buffer)
+	{
+		submit(new Runnable()
+		{
+			public void run()
+			{
+				try
+				{
+					Operations ops = getOperations(connection, channel);
+					ops.mWriteBuffer = buffer;
+
+					// There is usually room in the send buffer, so
+					// try first.
+					ops.doWrite();
+					ops.updateInterest();
+				}
+				catch (IOException ex)
+				{
+					ex.printStackTrace();
+					connection.postResultEvent(
+						CONNOP_WRITE, CONNERR_GENERIC);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Close a channel. Operations that are still pending on it
+	 * finish with CONNERR_CANCELED.
+	 * @param channel The channel.
+	 */
+	void close(final SocketChannel channel)
+	{
+		submit(new Runnable()
+		{
+			public void run()
+			{
+				SelectionKey key = channel.keyFor(mSelector);
+				if (null != key)
+				{
+					((Operations) key.attachment()).cancel();
+					key.cancel();
+				}
+
+				try
+				{
+					channel.close();
+				}
+				catch (IOException ex)
+				{
+					ex.printStackTrace();
+				}
+			}
+		});
+	}
+
+	/**
+	 * The selector loop.
+	 */
+	public void run()
+	{
+		while (true)
+		{
+			runRequests();
+
+			try
+			{
+				mSelector.select();
+			}
+			catch (IOException ex)
+			{
+				Log.i("SocketSelector", "select failed: " + ex);
+				continue;
+			}
+
+			Iterator<SelectionKey> keys =
+				mSelector.selectedKeys().iterator();
+			while (keys.hasNext())
+			{
+				SelectionKey key = keys.next();
+				keys.remove();
+
+				if (key.isValid())
+				{
+					((Operations) key.attachment()).handleReady();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Queue a request for the selector thread.
+	 */
+	private void submit(Runnable request)
+	{
+		synchronized (mRequests)
+		{
+			mRequests.addLast(request);
+		}
+		mSelector.wakeup();
+	}
+
+	/**
+	 * Run the queued requests, on the selector thread.
+	 */
+	private void runRequests()
+	{
+		while (true)
+		{
+			Runnable request;
+			synchronized (mRequests)
+			{
+				if (mRequests.isEmpty())
+				{
+					return;
+				}
+				request = mRequests.removeFirst();
+			}
+
+			try
+			{
+				request.run();
+			}
+			catch (Throwable e)
+			{
+				e.printStackTrace();
+			}
+		}
+	}
+
+	/**
+	 * Get the pending operations of a channel, registering it
+	 * with the selector if it is not already.
+	 */
+	private Operations getOperations(
+		ConnectionObject connection,
+		SocketChannel channel)
+		throws IOException
+	{
+		SelectionKey key = channel.keyFor(mSelector);
+		if (null == key)
+		{
+			Operations ops = new Operations(connection, channel);
+			ops.mKey = channel.register(mSelector, 0, ops);
+			return ops;
+		}
+		return (Operations) key.attachment();
+	}
+
+	/**
+	 * The pending operations of a channel. There is at most one
+	 * of each kind, since a connection cannot start an operation
+	 * of a kind that has not finished.
+	 */
+	private static final class Operations
+	{
+		Operations(ConnectionObject connection, SocketChannel channel)
+		{
+			mConnection = connection;
+			mChannel = channel;
+		}
+
+		/**
+		 * Set the interest of the key to the pending operations.
+		 */
+		void updateInterest()
+		{
+			int interest = 0;
+			if (mConnecting)
+			{
+				interest |= SelectionKey.OP_CONNECT;
+			}
+			if (null != mReadBuffer)
+			{
+				interest |= SelectionKey.OP_READ;
+			}
+			if (null != mWriteBuffer)
+			{
+				interest |= SelectionKey.OP_WRITE;
+			}
+			mKey.interestOps(interest);
+		}
+
+		/**
+		 * Called when the channel is ready for some operation.
+		 */
+		void handleReady()
+		{
+			if (mConnecting && mKey.isConnectable())
+			{
+				doFinishConnect();
+			}
+			if (null != mReadBuffer && mKey.isReadable())
+			{
+				doRead();
+			}
+			if (null != mWriteBuffer && mKey.isWritable())
+			{
+				doWrite();
+			}
+
+			if (mKey.isValid())
+			{
+				updateInterest();
+			}
+		}
+
+		void doFinishConnect()
+		{
+			try
+			{
+				if (!mChannel.finishConnect())
+				{
+					return;
+				}
+				mConnecting = false;
+				mConnection.postResultEvent(CONNOP_CONNECT, 1);
+			}
+			catch (IOException ex)
+			{
+				ex.printStackTrace();
+				mConnecting = false;
+				mConnection.postResultEvent(CONNOP_CONNECT, CONNERR_GENERIC);
+			}
+		}
+
+		/**
+		 * Read what there is. The buffer is cleared before the
+		 * result is posted, since the application may then start
+		 * the next read.
+		 */
+		void doRead()
+		{
+			int result;
+			try
+			{
+				result = mChannel.read(mReadBuffer);
+			}
+			catch (IOException ex)
+			{
+				ex.printStackTrace();
+				result = CONNERR_GENERIC;
+			}
+
+			if (0 == result)
+			{
+				// Nothing yet, wait until the channel is readable.
+				return;
+			}
+
+			mReadBuffer = null;
+			if (-1 == result)
+			{
+				result = CONNERR_CLOSED;
+			}
+			mConnection.postResultEvent(CONNOP_READ, result);
+		}
+
+		/**
+		 * Write what there is room for, and post the result when
+		 * all of the buffer has been written.
+		 */
+		void doWrite()
+		{
+			try
+			{
+				mChannel.write(mWriteBuffer);
+				if (mWriteBuffer.hasRemaining())
+				{
+					return;
+				}
+				mWriteBuffer = null;
+				mConnection.postResultEvent(CONNOP_WRITE, 1);
+			}
+			catch (IOException ex)
+			{
+				ex.printStackTrace();
+				mWriteBuffer = null;
+				mConnection.postResultEvent(CONNOP_WRITE, CONNERR_GENERIC);
+			}
+		}
+
+		/**
+		 * Finish all pending operations with CONNERR_CANCELED.
+		 */
+		void cancel()
+		{
+			if (mConnecting)
+			{
+				mConnecting = false;
+				mConnection.postResultEvent(
+					CONNOP_CONNECT, CONNERR_CANCELED);
+			}
+			if (null != mReadBuffer)
+			{
+				mReadBuffer = null;
+				mConnection.postResultEvent(CONNOP_READ, CONNERR_CANCELED);
+			}
+			if (null != mWriteBuffer)
+			{
+				mWriteBuffer = null;
+				mConnection.postResultEvent(CONNOP_WRITE, CONNERR_CANCELED);
+			}
+		}
+
+		final ConnectionObject mConnection;
+		final SocketChannel mChannel;
+		SelectionKey mKey;
+		boolean mConnecting;
+		ByteBuffer mReadBuffer;
+		ByteBuffer mWriteBuffer;
+	}
+
+	private final Selector mSelector;
+
+	/**
+	 * Requests waiting to be run on the selector thread.
+	 */
+	private final LinkedList<Runnable> mRequests =
+		new LinkedList<Runnable>();
+}
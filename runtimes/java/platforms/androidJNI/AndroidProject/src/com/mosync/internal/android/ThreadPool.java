@@ -19,104 +19,336 @@ package com.mosync.internal.android;
 
 import static com.mosync.internal.android.MoSyncHelpers.MYASSERT;
 
-import java.util.Vector;
+import java.util.HashMap;
+import java.util.LinkedList;
 
-final class ThreadPool 
+/**
+ * A bounded pool of worker threads.
+ *
+ * At most mMaxThreads threads are running; when all of them are busy
+ * new tasks wait in a queue. Up to mCoreThreads threads are kept alive
+ * when idle, the ones above that die after having been idle for
+ * mKeepAliveMillis.
+ *
+ * Tasks that are submitted with a lane are run one at a time in the
+ * order they were submitted, tasks in different lanes may run at the
+ * same time.
+ *
+ * We do not use java.util.concurrent.ThreadPoolExecutor here, since
+ * it only grows beyond the core size when the queue is full and cannot
+ * let core threads time out on older platform versions.
+ */
+final class ThreadPool
 {
-	@SuppressWarnings("unchecked")
-	public void execute(Runnable runnable) 
+	/**
+	 * Constructor.
+	 * @param coreThreads The number of threads to keep when idle.
+	 * @param maxThreads The maximum number of threads.
+	 * @param keepAliveMillis How long a thread above the core
+	 * size may be idle before it dies.
+	 */
+	public ThreadPool(int coreThreads, int maxThreads, long keepAliveMillis)
 	{
-		WorkerThread worker = null;
-		for (int i = 0; i < mThreads.size(); ++i) 
+		MYASSERT(coreThreads >= 0);
+		MYASSERT(maxThreads > 0 && maxThreads >= coreThreads);
+		MYASSERT(keepAliveMillis >= 0);
+
+		mCoreThreads = coreThreads;
+		mMaxThreads = maxThreads;
+		mKeepAliveMillis = keepAliveMillis;
+	}
+
+	/**
+	 * Run a task on some thread in the pool.
+	 * @param runnable The task.
+	 */
+	public void execute(Runnable runnable)
+	{
+		execute(null, runnable);
+	}
+
+	/**
+	 * Run a task on some thread in the pool, after all tasks that
+	 * were submitted before it with the same lane have finished.
+	 * @param lane The lane, compared with equals(). Can be null, in
+	 * which case the task is not ordered with respect to any other.
+	 * @param runnable The task.
+	 */
+	public synchronized void execute(Object lane, Runnable runnable)
+	{
+		if (mQuit)
+		{
+			return;
+		}
+
+		Task task = new Task(lane, runnable);
+		++mPendingTasks;
+
+		if (lane != null)
 		{
-			WorkerThread temp = (WorkerThread) mThreads.elementAt(i);
-			if (temp.isAvailable()) 
+			LinkedList<Task> backlog = mLanes.get(lane);
+			if (backlog != null)
 			{
-				worker = temp;
-				break;
+				// There is a task in this lane that has not finished
+				// yet, this one is queued when that one is done.
+				backlog.addLast(task);
+				return;
 			}
+			mLanes.put(lane, new LinkedList<Task>());
 		}
-		if (worker == null) 
-		{	
-			//no available threads; we must make another.
-			worker = new WorkerThread();
-			mThreads.addElement(worker);
-		}
-		worker.start(runnable);
-		// worker is now unavailable until runnable.run() returns.
+
+		enqueue(task);
+	}
+
+	/**
+	 * Make all threads quit as soon as they are done with their
+	 * current task. Tasks that have not started are dropped.
+	 */
+	public synchronized void stopEverything()
+	{
+		mQuit = true;
+		mQueue.clear();
+		mLanes.clear();
+		mPendingTasks = 0;
+		notifyAll();
 	}
 
-	public void stopEverything() 
+	/**
+	 * @return The number of tasks that have been submitted but
+	 * have not started yet.
+	 */
+	public synchronized int getQueueDepth()
 	{
-		for (int i = 0; i < mThreads.size(); ++i) 
+		return mPendingTasks;
+	}
+
+	/**
+	 * @return The number of threads that are running a task.
+	 */
+	public synchronized int getActiveCount()
+	{
+		return mActiveThreads;
+	}
+
+	/**
+	 * @return The number of threads in the pool, busy or idle.
+	 */
+	public synchronized int getPoolSize()
+	{
+		return mThreads;
+	}
+
+	/**
+	 * @return The largest number of threads that have been in the
+	 * pool at the same time.
+	 */
+	public synchronized int getLargestPoolSize()
+	{
+		return mLargestPoolSize;
+	}
+
+	/**
+	 * @return The number of tasks that have finished.
+	 */
+	public synchronized long getCompletedTaskCount()
+	{
+		return mCompletedTasks;
+	}
+
+	/**
+	 * @return The average time in milliseconds from when a task
+	 * was submitted until it started to run.
+	 */
+	public synchronized long getAverageLatencyMillis()
+	{
+		if (0 == mStartedTasks)
 		{
-			WorkerThread worker = (WorkerThread) mThreads.elementAt(i);
-			worker.stopWorkerThread();
+			return 0;
 		}
+		return mTotalLatencyNanos / mStartedTasks / 1000000;
 	}
 
-	@SuppressWarnings("unchecked")
-	private Vector mThreads = new Vector();
-}
+	/**
+	 * @return The longest time in milliseconds from when a task
+	 * was submitted until it started to run.
+	 */
+	public synchronized long getMaxLatencyMillis()
+	{
+		return mMaxLatencyNanos / 1000000;
+	}
 
-final class WorkerThread extends Thread 
-{
-	public WorkerThread() 
+	/**
+	 * Put a task on the queue of runnable tasks, and start a new
+	 * thread if the idle ones will not be enough to take it.
+	 * Must be called with the lock held.
+	 */
+	private void enqueue(Task task)
 	{
-		start();
+		task.mQueuedAt = System.nanoTime();
+		mQueue.addLast(task);
+
+		if (mQueue.size() > mIdleThreads && mThreads < mMaxThreads)
+		{
+			++mThreads;
+			if (mThreads > mLargestPoolSize)
+			{
+				mLargestPoolSize = mThreads;
+			}
+			new WorkerThread().start();
+		}
+		else
+		{
+			notify();
+		}
 	}
 
-	public boolean isAvailable() 
+	/**
+	 * Wait for a task to run.
+	 * @return The task, or null if the calling thread should quit.
+	 */
+	private synchronized Task takeTask()
 	{
-		return mRunnable == null;
+		long idleSince = System.currentTimeMillis();
+
+		while (mQueue.isEmpty())
+		{
+			if (mQuit)
+			{
+				--mThreads;
+				return null;
+			}
+
+			long timeout = 0;
+			if (mThreads > mCoreThreads)
+			{
+				timeout = mKeepAliveMillis -
+					(System.currentTimeMillis() - idleSince);
+				if (timeout <= 0)
+				{
+					--mThreads;
+					return null;
+				}
+			}
+
+			++mIdleThreads;
+			try
+			{
+				wait(timeout);
+			}
+			catch (InterruptedException e)
+			{
+			}
+			finally
+			{
+				--mIdleThreads;
+			}
+		}
+
+		Task task = mQueue.removeFirst();
+
+		long latency = System.nanoTime() - task.mQueuedAt;
+		mTotalLatencyNanos += latency;
+		if (latency > mMaxLatencyNanos)
+		{
+			mMaxLatencyNanos = latency;
+		}
+		++mStartedTasks;
+
+		--mPendingTasks;
+		++mActiveThreads;
+		return task;
 	}
-	
-	synchronized public void start(Runnable r) 
+
+	/**
+	 * Called when a task has run, queues the next task in its lane.
+	 */
+	private synchronized void taskDone(Task task)
 	{
-		MYASSERT(isAvailable());
-		mRunnable = r;
-		notify();
+		--mActiveThreads;
+		++mCompletedTasks;
+
+		if (task.mLane == null || mQuit)
+		{
+			return;
+		}
+
+		LinkedList<Task> backlog = mLanes.get(task.mLane);
+		if (backlog.isEmpty())
+		{
+			mLanes.remove(task.mLane);
+		}
+		else
+		{
+			enqueue(backlog.removeFirst());
+		}
 	}
-	
-	synchronized public void stopWorkerThread() 
+
+	/**
+	 * A submitted task.
+	 */
+	private static final class Task
 	{
-		quit = true;
-		notify();
+		Task(Object lane, Runnable runnable)
+		{
+			mLane = lane;
+			mRunnable = runnable;
+		}
+
+		final Object mLane;
+		final Runnable mRunnable;
+		long mQueuedAt;
 	}
 
-	public void run() 
+	/**
+	 * Runs tasks from the queue until there are no more.
+	 */
+	private final class WorkerThread extends Thread
 	{
-		try 
+		public void run()
 		{
-			while (!quit) 
+			Task task;
+			while (null != (task = takeTask()))
 			{
-				synchronized (this) 
-				{ 
-					while (mRunnable == null) 
-					{
-						try 
-						{
-							wait();
-						} 
-						catch (InterruptedException e) 
-						{
-						}
-						if (quit)
-						{
-							return;
-						}
-					} 
+				try
+				{
+					task.mRunnable.run();
+				}
+				catch (Throwable e)
+				{
+					e.printStackTrace();
+				}
+				finally
+				{
+					taskDone(task);
 				}
-				mRunnable.run();
-				mRunnable = null;
 			}
-		} 
-		catch (Throwable e) 
-		{
-			e.printStackTrace();
 		}
 	}
 
-	private Runnable mRunnable;
-	private boolean quit = false;
+	private final int mCoreThreads;
+	private final int mMaxThreads;
+	private final long mKeepAliveMillis;
+
+	/**
+	 * Tasks that can run now, in order.
+	 */
+	private final LinkedList<Task> mQueue = new LinkedList<Task>();
+
+	/**
+	 * For each lane that has a task queued or running, the tasks
+	 * that are waiting for it to finish.
+	 */
+	private final HashMap<Object, LinkedList<Task>> mLanes =
+		new HashMap<Object, LinkedList<Task>>();
+
+	private int mThreads = 0;
+	private int mIdleThreads = 0;
+	private int mActiveThreads = 0;
+	private int mLargestPoolSize = 0;
+	private int mPendingTasks = 0;
+	private long mStartedTasks = 0;
+	private long mCompletedTasks = 0;
+	private long mTotalLatencyNanos = 0;
+	private long mMaxLatencyNanos = 0;
+	private boolean mQuit = false;
 }
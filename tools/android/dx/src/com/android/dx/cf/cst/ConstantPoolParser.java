@@ -19,6 +19,7 @@ package com.android.dx.cf.cst;
 import com.android.dx.cf.iface.ParseException;
 import com.android.dx.cf.iface.ParseObserver;
 import com.android.dx.rop.cst.Constant;
+import com.android.dx.rop.cst.ConstantPool;
 import com.android.dx.rop.cst.CstDouble;
 import com.android.dx.rop.cst.CstFieldRef;
 import com.android.dx.rop.cst.CstFloat;
@@ -33,20 +34,49 @@ import com.android.dx.rop.cst.CstUtf8;
 import com.android.dx.rop.cst.StdConstantPool;
 import com.android.dx.rop.type.Type;
 import com.android.dx.util.ByteArray;
+import com.android.dx.util.ExceptionWithContext;
 import com.android.dx.util.Hex;
 import com.mosync.android.StringPatcher;
 
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
 import static com.android.dx.cf.cst.ConstantTags.*;
 
 /**
- * Parser for a constant pool embedded in a class file.
+ * Parser for a constant pool embedded in a class file.<p>
+ *
+ * By default, every entry is parsed up front. In lazy mode, only the
+ * structure of the pool is checked up front: the tags, that every
+ * index an entry refers to is that of an entry of the right kind,
+ * that the utf8 entries are valid, and that the names of the class
+ * entries are valid class names. Each entry is then only made into
+ * a {@link Constant} the first time it is asked for, straight from the
+ * bytes, so that entries nobody asks for cost neither a {@code String}
+ * nor a {@code Constant}. The checks cover everything that making
+ * an entry checks, so a pool parsed lazily is rejected exactly when
+ * one parsed up front would be.
  */
 public final class ConstantPoolParser {
     /** {@code non-null;} the bytes of the constant pool */
     private final ByteArray bytes;
 
-    /** {@code non-null;} actual parsed constant pool contents */
-    private final StdConstantPool pool;
+    /**
+     * {@code null-ok;} actual parsed constant pool contents; only ever
+     * {@code null} before parsing or in lazy mode
+     */
+    private StdConstantPool pool;
+
+    /**
+     * {@code null-ok;} in lazy mode, the entries made so far; only ever
+     * {@code null} before parsing or when not in lazy mode
+     */
+    private AtomicReferenceArray<Constant> lazyEntries;
+
+    /**
+     * {@code null-ok;} in lazy mode, the constant pool handed out; only
+     * ever {@code null} before parsing or when not in lazy mode
+     */
+    private LazyPool lazyPool;
 
     /** {@code non-null;} byte offsets to each cst */
     private final int[] offsets;
@@ -61,6 +91,12 @@ public final class ConstantPoolParser {
     /** {@code null-ok;} parse observer, if any */
     private ParseObserver observer;
 
+    /** {@code non-null;} patches to apply to utf8 constants */
+    private StringPatcher patcher;
+
+    /** whether to parse the entries lazily */
+    private boolean lazy;
+
     /**
      * Constructs an instance.
      * 
@@ -70,9 +106,12 @@ public final class ConstantPoolParser {
         int size = bytes.getUnsignedShort(8); // constant_pool_count
 
         this.bytes = bytes;
-        this.pool = new StdConstantPool(size);
+        this.pool = null;
+        this.lazyEntries = null;
+        this.lazyPool = null;
         this.offsets = new int[size];
         this.endOffset = -1;
+        this.patcher = StringPatcher.EMPTY;
     }
 
     /**
@@ -84,6 +123,35 @@ public final class ConstantPoolParser {
         this.observer = observer;
     }
 
+    /**
+     * Sets whether to parse the entries of the pool lazily. This is
+     * ignored if there is a parse observer, since the observer is told
+     * about every entry as the pool is parsed.
+     * 
+     * @param lazy whether to parse the entries lazily
+     */
+    public void setLazy(boolean lazy) {
+        if (endOffset >= 0) {
+            throw new IllegalStateException("already parsed");
+        }
+
+        this.lazy = lazy;
+    }
+
+    /**
+     * Sets the string patcher for this instance.
+     * 
+     * @param patcher {@code non-null;} the patches to apply to utf8
+     * constants
+     */
+    public void setStringPatcher(StringPatcher patcher) {
+        if (patcher == null) {
+            throw new NullPointerException("patcher == null");
+        }
+
+        this.patcher = patcher;
+    }
+
     /**
      * Gets the end offset of this constant pool in the {@code byte[]}
      * which it came from.
@@ -96,13 +164,13 @@ public final class ConstantPoolParser {
     }
 
     /**
-     * Gets the actual constant pool.
+     * Gets the actual constant pool. It is immutable.
      * 
      * @return {@code non-null;} the constant pool
      */
-    public StdConstantPool getPool() {
+    public ConstantPool getPool() {
         parseIfNecessary();
-        return pool;
+        return (pool != null) ? pool : lazyPool;
     }
 
     /**
@@ -120,6 +188,15 @@ public final class ConstantPoolParser {
     private void parse() {
         determineOffsets();
 
+        if (lazy && (observer == null)) {
+            checkEntries();
+            lazyEntries = new AtomicReferenceArray<Constant>(offsets.length);
+            lazyPool = new LazyPool();
+            return;
+        }
+
+        pool = new StdConstantPool(offsets.length);
+
         if (observer != null) {
             observer.parsed(bytes, 8, 2,
                             "constant_pool_count: " + Hex.u2(offsets.length));
@@ -156,6 +233,8 @@ public final class ConstantPoolParser {
             observer.changeIndent(-1);
             observer.parsed(bytes, endOffset, 0, "end constant_pool");
         }
+
+        pool.setImmutable();
     }
 
     /**
@@ -219,7 +298,8 @@ public final class ConstantPoolParser {
      * @return {@code non-null;} the parsed constant
      */
     private Constant parse0(int idx) {
-        Constant cst = pool.getOrNull(idx);
+        Constant cst = (pool != null) ? pool.getOrNull(idx)
+            : lazyEntries.get(idx);
         if (cst != null) {
             return cst;
         }
@@ -309,10 +389,184 @@ public final class ConstantPoolParser {
             throw pe;
         }
 
-        pool.set(idx, cst);
+        if (pool != null) {
+            pool.set(idx, cst);
+        } else {
+            lazyEntries.set(idx, cst);
+        }
+
         return cst;
     }
 
+    /**
+     * Checks the structure of every entry, for lazy mode: that each
+     * index an entry refers to is that of an entry of the right kind,
+     * that the utf8 entries are valid, and that class entries name
+     * valid classes. Anything that would make {@link #parse0} fail for
+     * an entry fails here too.
+     */
+    private void checkEntries() {
+        for (int i = 1; i < offsets.length; i++) {
+            int at = offsets[i];
+
+            if (at == 0) {
+                // The second half of a category-2 entry.
+                continue;
+            }
+
+            try {
+                int tag = bytes.getUnsignedByte(at);
+                switch (tag) {
+                    case CONSTANT_Utf8: {
+                        int length = bytes.getUnsignedShort(at + 1);
+                        try {
+                            CstUtf8.checkUtf8Bytes(
+                                    bytes.slice(at + 3, at + 3 + length));
+                        } catch (IllegalArgumentException ex) {
+                            // Translate the exception
+                            throw new ParseException(ex);
+                        }
+                        break;
+                    }
+                    case CONSTANT_Class: {
+                        checkRef(at + 1, CONSTANT_Utf8);
+                        checkClassName(bytes.getUnsignedShort(at + 1));
+                        break;
+                    }
+                    case CONSTANT_String: {
+                        checkRef(at + 1, CONSTANT_Utf8);
+                        break;
+                    }
+                    case CONSTANT_Fieldref:
+                    case CONSTANT_Methodref:
+                    case CONSTANT_InterfaceMethodref: {
+                        checkRef(at + 1, CONSTANT_Class);
+                        checkRef(at + 3, CONSTANT_NameAndType);
+                        break;
+                    }
+                    case CONSTANT_NameAndType: {
+                        checkRef(at + 1, CONSTANT_Utf8);
+                        checkRef(at + 3, CONSTANT_Utf8);
+                        break;
+                    }
+                }
+            } catch (ParseException ex) {
+                ex.addContext("...while parsing cst " + Hex.u2(i) +
+                              " at offset " + Hex.u4(at));
+                throw ex;
+            } catch (RuntimeException ex) {
+                ParseException pe = new ParseException(ex);
+                pe.addContext("...while parsing cst " + Hex.u2(i) +
+                              " at offset " + Hex.u4(at));
+                throw pe;
+            }
+        }
+    }
+
+    /**
+     * Helper for {@link #checkEntries}, which checks that an index
+     * an entry refers to is that of an entry with the given tag.
+     * 
+     * @param at offset to the index
+     * @param tag the tag the entry must have
+     */
+    private void checkRef(int at, int tag) {
+        int idx = bytes.getUnsignedShort(at);
+
+        if ((idx == 0) || (idx >= offsets.length) || (offsets[idx] == 0)) {
+            throw new ParseException("invalid constant pool index " +
+                                     Hex.u2(idx));
+        }
+
+        int actual = bytes.getUnsignedByte(offsets[idx]);
+
+        if (actual != tag) {
+            throw new ParseException("cst " + Hex.u2(idx) +
+                                     " has bad tag " + Hex.u1(actual));
+        }
+    }
+
+    /**
+     * Helper for {@link #checkEntries}, which checks that a utf8 entry
+     * (after patching) is a class name that {@link Type#internClassName}
+     * accepts, straight from its bytes. All the characters that matter
+     * are ASCII, which stand for themselves in utf8.
+     *
+     * @param idx index of the utf8 entry
+     */
+    private void checkClassName(int idx) {
+        int at = offsets[idx];
+        int length = bytes.getUnsignedShort(at + 1);
+        ByteArray name = patcher.patch(bytes.slice(at + 3, at + 3 + length));
+        int size = name.size();
+        int start = 0;
+
+        if ((size > 0) && (name.getUnsignedByte(0) == '[')) {
+            // An array type: strip the '[' and check the component type.
+            while ((start < size) && (name.getUnsignedByte(start) == '[')) {
+                start++;
+            }
+
+            if (start == size) {
+                throw new ParseException("bad class name");
+            }
+
+            if (start == size - 1) {
+                switch (name.getUnsignedByte(start)) {
+                    case 'Z': case 'B': case 'C': case 'D':
+                    case 'F': case 'I': case 'J': case 'S': {
+                        return;
+                    }
+                }
+                throw new ParseException("bad class name");
+            }
+
+            if ((name.getUnsignedByte(start) != 'L') ||
+                (name.getUnsignedByte(size - 1) != ';')) {
+                throw new ParseException("bad class name");
+            }
+
+            // Check the name between the 'L' and the ';'.
+            start++;
+            size--;
+        }
+
+        for (int i = start; i < size; i++) {
+            switch (name.getUnsignedByte(i)) {
+                case '[':
+                case ';':
+                case '.':
+                case '(':
+                case ')': {
+                    throw new ParseException("bad class name");
+                }
+                case '/': {
+                    /*
+                     * Like Type.intern(), this lets a '/' at the end
+                     * through, since its check for that never fires.
+                     */
+                    if ((i == start) ||
+                        (name.getUnsignedByte(i - 1) == '/')) {
+                        throw new ParseException("bad class name");
+                    }
+                    break;
+                }
+            }
+        }
+    }
+
+    /**
+     * Parses the constant for the given index on its first use, in
+     * lazy mode. Entries may be asked for on several threads at
+     * once, so the parsing is done holding a lock.
+     * 
+     * @param idx which constant
+     * @return {@code non-null;} the parsed constant
+     */
+    private synchronized Constant parseLazily(int idx) {
+        return parse0(idx);
+    }
+
     /**
      * Parses a utf8 constant.
      * 
@@ -324,7 +578,7 @@ public final class ConstantPoolParser {
 
         at += 3; // Skip to the data.
         ByteArray ubytes = bytes.slice(at, at + length);
-        
+
         //
         // PATCH: Patch package names (any matching string constant) here
         //
@@ -332,20 +586,72 @@ public final class ConstantPoolParser {
         // the case "CONSTANT_Class", the way it is currently done
         // will patch user generated strings as well, if they happen
         // to use the same string as one the patch strings.
-        //        
-        String			name;
-        byte 			str[]   = new byte[ubytes.size( )];
-        StringPatcher 	patcher = StringPatcher.getInstance( );
-
-        ubytes.getBytes( str, 0 );
-        name = patcher.patch( new String( str ) );        
-        //System.err.println( name );        
+        //
+        ubytes = patcher.patch( ubytes );
 
         try {
-            return new CstUtf8( name );
+            return new CstUtf8(ubytes);
         } catch (IllegalArgumentException ex) {
             // Translate the exception
             throw new ParseException(ex);
         }
     }
+
+    /**
+     * The constant pool in lazy mode, whose entries are made on their
+     * first use by the (outer) parser.
+     */
+    private final class LazyPool implements ConstantPool {
+        /** {@inheritDoc} */
+        public int size() {
+            return offsets.length;
+        }
+
+        /** {@inheritDoc} */
+        public Constant getOrNull(int n) {
+            if ((n < 0) || (n >= offsets.length)) {
+                return throwInvalid(n);
+            }
+
+            Constant result = lazyEntries.get(n);
+
+            if ((result == null) && (offsets[n] != 0)) {
+                result = parseLazily(n);
+            }
+
+            return result;
+        }
+
+        /** {@inheritDoc} */
+        public Constant get0Ok(int n) {
+            if (n == 0) {
+                return null;
+            }
+
+            return get(n);
+        }
+
+        /** {@inheritDoc} */
+        public Constant get(int n) {
+            Constant result = getOrNull(n);
+
+            if (result == null) {
+                throwInvalid(n);
+            }
+
+            return result;
+        }
+
+        /**
+         * Throws the right exception for an invalid cpi.
+         * 
+         * @param idx the bad cpi
+         * @return never
+         * @throws ExceptionWithContext always thrown
+         */
+        private Constant throwInvalid(int idx) {
+            throw new ExceptionWithContext("invalid constant pool index " +
+                                           Hex.u2(idx));
+        }
+    }
 }
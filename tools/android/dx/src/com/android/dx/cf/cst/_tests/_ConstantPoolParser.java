@@ -0,0 +1,150 @@
+/*
+ * Copyright (C) 2007 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.dx.cf.cst._tests;
+
+import com.android.dx.cf.cst.ConstantPoolParser;
+import com.android.dx.cf.iface.ParseException;
+import com.android.dx.rop.cst.ConstantPool;
+import com.android.dx.util.ByteArray;
+import com.android.dx.util._tests.ClassFileFixture;
+
+import junit.framework.TestCase;
+
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+
+/**
+ * Test the class {@code com.android.dx.cf.cst.ConstantPoolParser}.
+ */
+public class _ConstantPoolParser
+        extends TestCase {
+    /**
+     * Checks that a lazily parsed pool has the same entries as one
+     * parsed up front, whichever order they are asked for in.
+     */
+    public void test_lazyMatchesEager() throws IOException {
+        ByteArray bytes = new ByteArray(
+                ClassFileFixture.getBytes("fixture/Sample.class"));
+
+        ConstantPoolParser eagerParser = new ConstantPoolParser(bytes);
+        ConstantPool eager = eagerParser.getPool();
+        ConstantPoolParser lazyParser = new ConstantPoolParser(bytes);
+        lazyParser.setLazy(true);
+        ConstantPool lazy = lazyParser.getPool();
+
+        assertEquals(eagerParser.getEndOffset(), lazyParser.getEndOffset());
+        assertEquals(eager.size(), lazy.size());
+
+        for (int i = eager.size() - 1; i >= 0; i--) {
+            assertEquals("cst " + i, eager.getOrNull(i), lazy.getOrNull(i));
+        }
+    }
+
+    /**
+     * Checks that a lazily parsed pool still fails up front on an
+     * entry that refers to an entry of the wrong kind.
+     */
+    public void test_lazyChecksRefs() {
+        byte[] bytes = {
+            (byte) 0xca, (byte) 0xfe, (byte) 0xba, (byte) 0xbe,
+            0, 0, 0, 50,
+            0, 3,       // constant_pool_count
+            7, 0, 2,    // #1: Class, name #2
+            3, 0, 0, 0, 1 // #2: Integer 1
+        };
+
+        ConstantPoolParser parser =
+            new ConstantPoolParser(new ByteArray(bytes));
+        parser.setLazy(true);
+
+        try {
+            parser.getPool();
+            fail("no exception");
+        } catch (ParseException ex) {
+            // This is what is expected.
+        }
+    }
+
+    /**
+     * Checks that a lazily parsed pool accepts and rejects the same
+     * class names as one parsed up front, in a class entry that
+     * nothing refers to.
+     */
+    public void test_lazyChecksClassNames() {
+        String[] good = {
+            "a", "a/b/c", "", "a/", "[I", "[[J", "[[Ljava/lang/String;",
+            "[L;", "I", "\u00e9t\u00e9/x"
+        };
+        String[] bad = {
+            "a//b", "/a", "a.b", "a;b", "a(b", "a)b", "a[b", "[", "[[",
+            "[V", "[X", "[IJ", "[Lfoo", "[Lfoo;x", "[La/;b;", "[L/a;"
+        };
+
+        for (String name : good) {
+            assertTrue(name, parses(name, false));
+            assertTrue(name, parses(name, true));
+        }
+
+        for (String name : bad) {
+            assertFalse(name, parses(name, false));
+            assertFalse(name, parses(name, true));
+        }
+    }
+
+    /**
+     * Parses a pool with a class entry, which nothing refers to, with
+     * the given name.
+     *
+     * @param name {@code non-null;} the name
+     * @param lazy whether to parse the pool lazily
+     * @return whether the pool parsed
+     */
+    private static boolean parses(String name, boolean lazy) {
+        byte[] utf8;
+
+        try {
+            utf8 = name.getBytes("UTF-8");
+        } catch (UnsupportedEncodingException ex) {
+            throw new RuntimeException(ex);
+        }
+
+        byte[] bytes = new byte[16 + utf8.length];
+        byte[] head = {
+            (byte) 0xca, (byte) 0xfe, (byte) 0xba, (byte) 0xbe,
+            0, 0, 0, 50,
+            0, 3,       // constant_pool_count
+            7, 0, 2,    // #1: Class, name #2
+            1, 0, 0     // #2: Utf8, then the length and the bytes
+        };
+
+        System.arraycopy(head, 0, bytes, 0, head.length);
+        bytes[14] = (byte) (utf8.length >> 8);
+        bytes[15] = (byte) utf8.length;
+        System.arraycopy(utf8, 0, bytes, 16, utf8.length);
+
+        ConstantPoolParser parser =
+            new ConstantPoolParser(new ByteArray(bytes));
+        parser.setLazy(lazy);
+
+        try {
+            parser.getPool();
+            return true;
+        } catch (ParseException ex) {
+            return false;
+        }
+    }
+}
@@ -19,9 +19,16 @@ package com.android.dx.cf.direct;
 import com.android.dx.util.FileUtils;
 
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.ByteArrayOutputStream;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
 import java.util.zip.ZipFile;
 import java.util.zip.ZipEntry;
 import java.util.Arrays;
@@ -47,6 +54,12 @@ public class ClassPathOpener {
      */
     private final boolean sort;
 
+    /**
+     * If true, read archives by memory-mapping them rather than
+     * through {@link ZipFile}.
+     */
+    private final boolean mapArchives;
+
     /**
      * Callback interface for {@code ClassOpener}.
      */
@@ -91,8 +104,26 @@ public class ClassPathOpener {
      * @param consumer {@code non-null;} callback interface
      */
     public ClassPathOpener(String pathname, boolean sort, Consumer consumer) {
+        this(pathname, sort, false, consumer);
+    }
+
+    /**
+     * Constructs an instance.
+     *
+     * @param pathname {@code non-null;} path element to process
+     * @param sort if true, sort such that classes appear before their inner
+     * classes and "package-info" occurs before all other classes in that
+     * package.
+     * @param mapArchives if true, read archives by memory-mapping them,
+     * which avoids the intermediate copies made when reading them
+     * through {@link ZipFile}
+     * @param consumer {@code non-null;} callback interface
+     */
+    public ClassPathOpener(String pathname, boolean sort,
+            boolean mapArchives, Consumer consumer) {
         this.pathname = pathname;
         this.sort = sort;
+        this.mapArchives = mapArchives;
         this.consumer = consumer;
     }
 
@@ -127,6 +158,17 @@ public class ClassPathOpener {
             if (path.endsWith(".zip") ||
                     path.endsWith(".jar") ||
                     path.endsWith(".apk")) {
+                if (mapArchives) {
+                    MappedArchive archive = MappedArchive.open(file);
+                    if (archive != null) {
+                        try {
+                            return processMappedArchive(file, archive);
+                        } finally {
+                            archive.close();
+                        }
+                    }
+                    // The archive uses features we don't map; fall back.
+                }
                 return processArchive(file);
             }
 
@@ -247,4 +289,380 @@ public class ClassPathOpener {
         zip.close();
         return any;
     }
+
+    /**
+     * Processes the contents of a memory-mapped archive.
+     *
+     * @param file {@code non-null;} archive file to process
+     * @param archive {@code non-null;} the mapped archive
+     * @return whether any processing actually happened
+     * @throws IOException on i/o problem
+     */
+    private boolean processMappedArchive(File file, MappedArchive archive)
+            throws IOException {
+        ArrayList<MappedArchive.Entry> entriesList = archive.getEntries();
+        boolean any = false;
+
+        if (sort) {
+            Collections.sort(entriesList,
+                    new Comparator<MappedArchive.Entry>() {
+               public int compare(MappedArchive.Entry a,
+                       MappedArchive.Entry b) {
+                   return compareClassNames(a.name, b.name);
+               }
+            });
+        }
+
+        consumer.onProcessArchiveStart(file);
+
+        for (MappedArchive.Entry one : entriesList) {
+            if (one.isDirectory()) {
+                continue;
+            }
+
+            any |= consumer.processFileBytes(one.name, archive.read(one));
+        }
+
+        return any;
+    }
+
+    /**
+     * A {@code .zip} archive which has been memory-mapped, and whose
+     * central directory has been parsed. Entry contents are copied
+     * straight out of the mapping (for stored entries) or inflated
+     * straight from it (for deflated entries) into arrays of exactly
+     * the right size.
+     */
+    private static final class MappedArchive {
+        /** signature of the end of central directory record */
+        private static final int END_SIGNATURE = 0x06054b50;
+
+        /** signature of a central directory file header */
+        private static final int CENTRAL_SIGNATURE = 0x02014b50;
+
+        /** signature of a local file header */
+        private static final int LOCAL_SIGNATURE = 0x04034b50;
+
+        /** size of the end of central directory record, sans comment */
+        private static final int END_SIZE = 22;
+
+        /** size of a central directory file header, sans variable parts */
+        private static final int CENTRAL_SIZE = 46;
+
+        /** size of a local file header, sans variable parts */
+        private static final int LOCAL_SIZE = 30;
+
+        /** maximum size of the archive comment */
+        private static final int MAX_COMMENT_SIZE = 0xffff;
+
+        /** compression method: stored */
+        private static final int METHOD_STORED = 0;
+
+        /** compression method: deflated */
+        private static final int METHOD_DEFLATED = 8;
+
+        /** general purpose flag: encrypted */
+        private static final int FLAG_ENCRYPTED = 1;
+
+        /** marker for values that are only present in zip64 records */
+        private static final int ZIP64_MARKER = 0xffffffff;
+
+        /** {@code non-null;} the whole archive */
+        private final ByteBuffer data;
+
+        /** {@code non-null;} the entries, in central directory order */
+        private final ArrayList<Entry> entries;
+
+        /** {@code non-null;} inflater, reused for every entry */
+        private final Inflater inflater;
+
+        /**
+         * {@code non-null;} scratch space that compressed data gets
+         * copied to on the way to the inflater
+         */
+        private byte[] compressed;
+
+        /**
+         * Maps and parses the given archive.
+         *
+         * @param file {@code non-null;} the archive
+         * @return {@code null-ok;} the mapped archive, or {@code null} if
+         * it uses features (such as zip64 or encryption) that aren't
+         * handled here
+         * @throws IOException on i/o problem
+         */
+        public static MappedArchive open(File file) throws IOException {
+            FileInputStream in = new FileInputStream(file);
+            MappedByteBuffer data;
+
+            try {
+                FileChannel channel = in.getChannel();
+                long size = channel.size();
+
+                if (size > Integer.MAX_VALUE) {
+                    return null;
+                }
+
+                data = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            } finally {
+                // The mapping stays valid after the channel is closed.
+                in.close();
+            }
+
+            data.order(ByteOrder.LITTLE_ENDIAN);
+
+            ArrayList<Entry> entries = readCentralDirectory(data);
+            if (entries == null) {
+                return null;
+            }
+
+            return new MappedArchive(data, entries);
+        }
+
+        /**
+         * Constructs an instance.
+         *
+         * @param data {@code non-null;} the whole archive
+         * @param entries {@code non-null;} the entries
+         */
+        private MappedArchive(ByteBuffer data, ArrayList<Entry> entries) {
+            this.data = data;
+            this.entries = entries;
+            this.inflater = new Inflater(true);
+            this.compressed = new byte[0];
+        }
+
+        /**
+         * Releases the native resources of the inflater. The instance
+         * can't be read from afterwards.
+         */
+        public void close() {
+            inflater.end();
+        }
+
+        /**
+         * Gets the entries, in central directory order.
+         *
+         * @return {@code non-null;} the entries
+         */
+        public ArrayList<Entry> getEntries() {
+            return entries;
+        }
+
+        /**
+         * Reads the contents of the given entry.
+         *
+         * @param entry {@code non-null;} the entry
+         * @return {@code non-null;} the contents
+         * @throws IOException if the entry is malformed
+         */
+        public byte[] read(Entry entry) throws IOException {
+            int at = entry.localHeaderOffset;
+
+            if ((at < 0) || (at > data.limit() - LOCAL_SIZE) ||
+                    (data.getInt(at) != LOCAL_SIGNATURE)) {
+                throw new IOException("bad local header: " + entry.name);
+            }
+
+            int start = at + LOCAL_SIZE + (data.getShort(at + 26) & 0xffff) +
+                (data.getShort(at + 28) & 0xffff);
+
+            if ((start < 0) ||
+                    (start > data.limit() - entry.compressedSize)) {
+                throw new IOException("truncated entry: " + entry.name);
+            }
+
+            byte[] result = new byte[entry.size];
+            ByteBuffer slice = data.duplicate();
+
+            slice.position(start);
+
+            if (entry.method == METHOD_STORED) {
+                slice.get(result);
+                return result;
+            }
+
+            if (compressed.length < entry.compressedSize + 1) {
+                compressed = new byte[entry.compressedSize + 1];
+            }
+
+            /*
+             * The extra zero byte is a dummy that some inflater
+             * implementations need when the zlib header and checksum
+             * are absent.
+             */
+            slice.get(compressed, 0, entry.compressedSize);
+            compressed[entry.compressedSize] = 0;
+
+            inflater.reset();
+            inflater.setInput(compressed, 0, entry.compressedSize + 1);
+
+            try {
+                int amt = 0;
+                while (amt < result.length) {
+                    int got = inflater.inflate(result, amt,
+                            result.length - amt);
+                    if (got == 0 && (inflater.finished() ||
+                            inflater.needsInput() ||
+                            inflater.needsDictionary())) {
+                        break;
+                    }
+                    amt += got;
+                }
+
+                if (amt != result.length) {
+                    throw new IOException("short entry: " + entry.name);
+                }
+            } catch (DataFormatException ex) {
+                IOException ioe = new IOException("bad entry: " + entry.name);
+                ioe.initCause(ex);
+                throw ioe;
+            }
+
+            return result;
+        }
+
+        /**
+         * Parses the central directory.
+         *
+         * @param data {@code non-null;} the whole archive
+         * @return {@code null-ok;} the entries, or {@code null} if the
+         * archive can't be handled here
+         * @throws IOException if the archive is malformed
+         */
+        private static ArrayList<Entry> readCentralDirectory(ByteBuffer data)
+                throws IOException {
+            int end = findEndRecord(data);
+
+            if (end < 0) {
+                throw new IOException("not a zip archive");
+            }
+
+            int count = data.getShort(end + 10) & 0xffff;
+            int at = data.getInt(end + 16);
+
+            if ((count == 0xffff) || (at == ZIP64_MARKER)) {
+                return null;
+            }
+
+            ArrayList<Entry> result = new ArrayList<Entry>(count);
+
+            for (int i = 0; i < count; i++) {
+                if ((at < 0) || (at > data.limit() - CENTRAL_SIZE) ||
+                        (data.getInt(at) != CENTRAL_SIGNATURE)) {
+                    throw new IOException("bad central directory");
+                }
+
+                int flags = data.getShort(at + 8) & 0xffff;
+                int method = data.getShort(at + 10) & 0xffff;
+                int compressedSize = data.getInt(at + 20);
+                int size = data.getInt(at + 24);
+                int nameLength = data.getShort(at + 28) & 0xffff;
+                int extraLength = data.getShort(at + 30) & 0xffff;
+                int commentLength = data.getShort(at + 32) & 0xffff;
+                int localHeaderOffset = data.getInt(at + 42);
+
+                if (((flags & FLAG_ENCRYPTED) != 0) ||
+                        ((method != METHOD_STORED) &&
+                                (method != METHOD_DEFLATED)) ||
+                        (compressedSize < 0) || (size < 0) ||
+                        (localHeaderOffset < 0) ||
+                        ((method == METHOD_STORED) &&
+                                (size != compressedSize))) {
+                    return null;
+                }
+
+                if (at + CENTRAL_SIZE + nameLength > data.limit()) {
+                    throw new IOException("bad central directory");
+                }
+
+                byte[] nameBytes = new byte[nameLength];
+                ByteBuffer slice = data.duplicate();
+                slice.position(at + CENTRAL_SIZE);
+                slice.get(nameBytes);
+
+                /*
+                 * Names are decoded as UTF-8 whether or not they are
+                 * flagged as such, the same as java.util.zip does.
+                 */
+                String name = new String(nameBytes, "UTF-8");
+
+                result.add(new Entry(name, method, compressedSize, size,
+                                localHeaderOffset));
+
+                at += CENTRAL_SIZE + nameLength + extraLength + commentLength;
+            }
+
+            return result;
+        }
+
+        /**
+         * Finds the end of central directory record by scanning
+         * backwards from the end of the archive.
+         *
+         * @param data {@code non-null;} the whole archive
+         * @return the offset of the record, or {@code -1} if not found
+         */
+        private static int findEndRecord(ByteBuffer data) {
+            int limit = data.limit();
+            int stop = Math.max(0, limit - END_SIZE - MAX_COMMENT_SIZE);
+
+            for (int at = limit - END_SIZE; at >= stop; at--) {
+                if ((data.getInt(at) == END_SIGNATURE) &&
+                        ((at + END_SIZE +
+                                (data.getShort(at + 20) & 0xffff)) == limit)) {
+                    return at;
+                }
+            }
+
+            return -1;
+        }
+
+        /**
+         * One entry of the central directory.
+         */
+        public static final class Entry {
+            /** {@code non-null;} name of the entry */
+            public final String name;
+
+            /** compression method */
+            public final int method;
+
+            /** {@code >= 0;} size of the entry's data in the archive */
+            public final int compressedSize;
+
+            /** {@code >= 0;} size of the entry's contents */
+            public final int size;
+
+            /** {@code >= 0;} offset of the entry's local header */
+            public final int localHeaderOffset;
+
+            /**
+             * Constructs an instance.
+             *
+             * @param name {@code non-null;} name of the entry
+             * @param method compression method
+             * @param compressedSize size of the entry's data in the archive
+             * @param size size of the entry's contents
+             * @param localHeaderOffset offset of the entry's local header
+             */
+            public Entry(String name, int method, int compressedSize,
+                    int size, int localHeaderOffset) {
+                this.name = name;
+                this.method = method;
+                this.compressedSize = compressedSize;
+                this.size = size;
+                this.localHeaderOffset = localHeaderOffset;
+            }
+
+            /**
+             * Gets whether this entry is a directory.
+             *
+             * @return whether this entry is a directory
+             */
+            public boolean isDirectory() {
+                return name.endsWith("/");
+            }
+        }
+    }
 }
@@ -30,7 +30,6 @@ import com.android.dx.rop.code.AccessFlags;
 import com.android.dx.rop.cst.ConstantPool;
 import com.android.dx.rop.cst.CstType;
 import com.android.dx.rop.cst.CstUtf8;
-import com.android.dx.rop.cst.StdConstantPool;
 import com.android.dx.rop.type.StdTypeList;
 import com.android.dx.rop.type.Type;
 import com.android.dx.rop.type.TypeList;
@@ -92,7 +91,7 @@ public class DirectClassFile implements ClassFile {
      * {@code null-ok;} the constant pool; only ever {@code null}
      * before the constant pool is successfully parsed 
      */
-    private StdConstantPool pool;
+    private ConstantPool pool;
 
     /**
      * the class file field {@code access_flags}; will be {@code -1}
@@ -145,6 +144,12 @@ public class DirectClassFile implements ClassFile {
     /** {@code null-ok;} parse observer, if any */
     private ParseObserver observer;
 
+    /** {@code non-null;} patches to apply to utf8 constants */
+    private StringPatcher patcher;
+
+    /** whether to make the constant pool entries on their first use */
+    private boolean lazyConstantPool;
+
     /**
      * Returns the string form of an object or {@code "(none)"}
      * (rather than {@code "null"}) for {@code null}.
@@ -185,6 +190,8 @@ public class DirectClassFile implements ClassFile {
         this.bytes = bytes;
         this.strictParse = strictParse;
         this.accessFlags = -1;
+        this.patcher = StringPatcher.EMPTY;
+        this.lazyConstantPool = false;
     }
 
     /**
@@ -225,6 +232,30 @@ public class DirectClassFile implements ClassFile {
         this.attributeFactory = attributeFactory;
     }
 
+    /**
+     * Sets the patches to apply to the utf8 constants of the file.
+     * 
+     * @param patcher {@code non-null;} the patcher
+     */
+    public void setStringPatcher(StringPatcher patcher) {
+        if (patcher == null) {
+            throw new NullPointerException("patcher == null");
+        }
+
+        this.patcher = patcher;
+    }
+
+    /**
+     * Sets whether to make the entries of the constant pool only on
+     * their first use. See {@link ConstantPoolParser} for what this
+     * means for the checking of the pool.
+     * 
+     * @param lazy whether to parse the constant pool lazily
+     */
+    public void setLazyConstantPool(boolean lazy) {
+        this.lazyConstantPool = lazy;
+    }
+
     /**
      * Gets the {@link ByteArray} that this instance's data comes from.
      * 
@@ -467,8 +498,9 @@ public class DirectClassFile implements ClassFile {
 
         ConstantPoolParser cpParser = new ConstantPoolParser(bytes);
         cpParser.setObserver(observer);
+        cpParser.setStringPatcher(patcher);
+        cpParser.setLazy(lazyConstantPool);
         pool = cpParser.getPool();
-        pool.setImmutable();
 
         int at = cpParser.getEndOffset();
         int accessFlags = bytes.getUnsignedShort(at); // u2 access_flags;
@@ -500,7 +532,7 @@ public class DirectClassFile implements ClassFile {
         // PATCH: Can not verify path names against package names
         //		  if we're patching the package names
         //
-        if (strictParse && StringPatcher.getInstance( ).hasPatches( ) == false) {
+        if (strictParse && patcher.hasPatches( ) == false) {
             /*
              * Make sure that the file/jar path matches the declared
              * package/class name.
@@ -570,7 +602,7 @@ public class DirectClassFile implements ClassFile {
         private final int size;
 
         /** {@code non-null;} the constant pool */
-        private final StdConstantPool pool;
+        private final ConstantPool pool;
 
         /**
          * Constructs an instance.
@@ -583,7 +615,7 @@ public class DirectClassFile implements ClassFile {
          * @param observer {@code null-ok;} parse observer to use, if any
          */
         public DcfTypeList(ByteArray bytes, int offset, int size,
-                StdConstantPool pool, ParseObserver observer) {
+                ConstantPool pool, ParseObserver observer) {
             if (size < 0) {
                 throw new IllegalArgumentException("size < 0");
             }
@@ -0,0 +1,191 @@
+/*
+ * Copyright (C) 2007 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.dx.cf.direct._tests;
+
+import com.android.dx.cf.direct.ClassPathOpener;
+
+import junit.framework.TestCase;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Test the class {@code com.android.dx.cf.direct.ClassPathOpener},
+ * checking that memory-mapped archives read the same as they do
+ * through {@code java.util.zip}.
+ */
+public class _ClassPathOpener
+        extends TestCase {
+    /** {@code non-null;} name of an entry with non-ASCII characters */
+    private static final String UTF8_NAME =
+        "caf\u00e9/R\u00e9sum\u00e9\u4e2d.class";
+
+    public void test_mappedMatchesZipFile() throws IOException {
+        checkArchive(makeArchive(), 3);
+    }
+
+    public void test_unflaggedUtf8Name() throws IOException {
+        byte[] archive = makeArchive();
+
+        clearUtf8Flags(archive);
+        checkArchive(archive, 3);
+    }
+
+    /**
+     * Checks that the given archive reads the same mapped and unmapped.
+     *
+     * @param archive {@code non-null;} contents of the archive
+     * @param expectedCount number of files expected in it
+     */
+    private static void checkArchive(byte[] archive, int expectedCount)
+            throws IOException {
+        File file = File.createTempFile("_ClassPathOpener", ".jar");
+
+        try {
+            FileOutputStream out = new FileOutputStream(file);
+
+            try {
+                out.write(archive);
+            } finally {
+                out.close();
+            }
+
+            Recorder zip = new Recorder();
+            Recorder mapped = new Recorder();
+
+            assertTrue(new ClassPathOpener(file.getPath(), false, false,
+                            zip).process());
+            assertTrue(new ClassPathOpener(file.getPath(), false, true,
+                            mapped).process());
+
+            assertEquals(expectedCount, zip.names.size());
+            assertTrue(zip.names.contains(UTF8_NAME));
+            assertEquals(zip.names, mapped.names);
+
+            for (int i = 0; i < zip.names.size(); i++) {
+                assertTrue(zip.names.get(i),
+                        Arrays.equals(zip.contents.get(i),
+                                mapped.contents.get(i)));
+            }
+        } finally {
+            file.delete();
+        }
+    }
+
+    /**
+     * Makes an archive with a stored entry, a deflated entry, a
+     * directory entry and an entry with a non-ASCII name.
+     *
+     * @return {@code non-null;} contents of the archive
+     */
+    private static byte[] makeArchive() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ZipOutputStream out = new ZipOutputStream(bytes);
+        byte[] data = new byte[5000];
+
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) (i * 7 / 3);
+        }
+
+        CRC32 crc = new CRC32();
+        crc.update(data);
+
+        ZipEntry stored = new ZipEntry("a/Stored.class");
+        stored.setMethod(ZipEntry.STORED);
+        stored.setSize(data.length);
+        stored.setCompressedSize(data.length);
+        stored.setCrc(crc.getValue());
+        out.putNextEntry(stored);
+        out.write(data);
+        out.closeEntry();
+
+        out.putNextEntry(new ZipEntry("a/"));
+        out.closeEntry();
+
+        out.putNextEntry(new ZipEntry("a/Deflated.class"));
+        out.write(data);
+        out.closeEntry();
+
+        out.putNextEntry(new ZipEntry(UTF8_NAME));
+        out.write(data, 0, 100);
+        out.closeEntry();
+
+        out.close();
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Clears the flag that says an entry name is in UTF-8, in all the
+     * local and central directory headers of an archive.
+     *
+     * @param archive {@code non-null;} contents of the archive
+     */
+    private static void clearUtf8Flags(byte[] archive) {
+        for (int at = 0; at < archive.length - 8; at++) {
+            if ((archive[at] != 'P') || (archive[at + 1] != 'K')) {
+                continue;
+            }
+
+            int flagsAt;
+
+            if ((archive[at + 2] == 3) && (archive[at + 3] == 4)) {
+                flagsAt = at + 6;
+            } else if ((archive[at + 2] == 1) && (archive[at + 3] == 2)) {
+                flagsAt = at + 8;
+            } else {
+                continue;
+            }
+
+            archive[flagsAt + 1] &= ~(1 << 3);
+        }
+    }
+
+    /**
+     * Consumer which records the files it is given.
+     */
+    private static class Recorder implements ClassPathOpener.Consumer {
+        /** {@code non-null;} names of the files, in order */
+        public final ArrayList<String> names = new ArrayList<String>();
+
+        /** {@code non-null;} contents of the files, in order */
+        public final ArrayList<byte[]> contents = new ArrayList<byte[]>();
+
+        /** {@inheritDoc} */
+        public boolean processFileBytes(String name, byte[] bytes) {
+            names.add(name);
+            contents.add(bytes);
+            return true;
+        }
+
+        /** {@inheritDoc} */
+        public void onException(Exception ex) {
+            throw new RuntimeException(ex);
+        }
+
+        /** {@inheritDoc} */
+        public void onProcessArchiveStart(File file) {
+            // This space intentionally left blank.
+        }
+    }
+}
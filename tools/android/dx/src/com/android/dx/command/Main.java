@@ -17,6 +17,8 @@
 package com.android.dx.command;
 
 import com.android.dx.Version;
+import com.android.dx.dex.cf.TranslationCache;
+import com.android.dx.ssa.OptimizerBudget;
 
 import junit.textui.TestRunner;
 
@@ -35,12 +37,54 @@ public class Main {
         "[--dump-width=<n>]\n" +
         "  [--dump-method=<name>[*]] [--verbose-dump] [--no-files] " +
         "[--core-library]\n" +
-        "  [<file>.class | <file>.{zip,jar,apk} | <directory>] ...\n" +
+        "  [--num-threads=<n>] [--parallel-methods] " +
+        "[--cache-dir=<directory> [--cache-size=<megabytes>]]\n" +
+        "  [--map-archives] " +
+        "[--profile=<file>.{csv,json}] [--optimize-budget[=<cost>]]\n" +
+        "  [--lazy-constant-pool] [--finish-code-early]\n" +
+        "  [--multi-dex [--main-dex-list=<file>] " +
+        "[--set-max-idx-number=<n>]]\n" +
+        "  [<file>.{class,dex} | <file>.{zip,jar,apk} | <directory>] ...\n" +
         "    Convert a set of classfiles into a dex file, optionally " +
         "embedded in a\n" +
-        "    jar/zip. Output name must end with one of: .dex .jar " +
+        "    jar/zip. The classes of input dex files are merged in " +
+        "as they are.\n" +
+        "    Output name must end with one of: .dex .jar " +
         ".zip .apk. Positions\n" +
-        "    options: none, important, lines.\n" +
+        "    options: none, important, lines. --profile writes the time " +
+        "and memory\n" +
+        "    taken by each phase, per class, method and output section.\n" +
+        "    --optimize-budget skips the optional optimizations on " +
+        "methods whose\n" +
+        "    estimated cost exceeds <cost> (default " +
+        OptimizerBudget.DEFAULT_MAX_FULL_COST + "), and picks the " +
+        "register-\n" +
+        "    minimizing strategy up front where the usual one is " +
+        "likely to fail.\n" +
+        "    --parallel-methods also spreads the methods of each class " +
+        "over the\n" +
+        "    --num-threads threads.\n" +
+        "    --cache-dir keeps translated methods for the next run; " +
+        "--cache-size\n" +
+        "    limits its size (default " +
+        (TranslationCache.DEFAULT_MAX_BYTES / (1024 * 1024)) + ").\n" +
+        "    --lazy-constant-pool only turns constant pool entries into " +
+        "constants\n" +
+        "    when they are first used.\n" +
+        "    --finish-code-early finishes the code of each method as " +
+        "soon as it is\n" +
+        "    translated, to use less memory; code that refers to " +
+        "strings is still\n" +
+        "    finished late.\n" +
+        "    --multi-dex spreads the classes over classes.dex, " +
+        "classes2.dex and so\n" +
+        "    on, each with at most <n> (default 65536) method and " +
+        "field references;\n" +
+        "    the output must then be a jar/zip/apk or a directory. " +
+        "The classes named\n" +
+        "    in the --main-dex-list file (one path such as " +
+        "com/example/Main.class\n" +
+        "    per line) go in classes.dex.\n" +
         "  dx --annotool --annotation=<class> [--element=<element types>]\n" +
         "  [--print=<print types>]\n" +
         "  dx --dump [--debug] [--strict] [--bytes] [--optimize]\n" +
@@ -49,6 +93,12 @@ public class Main {
         "  [--width=<n>] [<file>.class | <file>.txt] ...\n" +
         "    Dump classfiles, or transformations thereof, in a " +
         "human-oriented format.\n" +
+        "  dx --benchmark [--warmup=<n>] [--iterations=<n>] " +
+        "[--stages=<name>,...]\n" +
+        "  [<file>.class | <file>.{zip,jar,apk} | <directory>] ...\n" +
+        "    Time each stage of the conversion of a fixed set of " +
+        "classfiles, and\n" +
+        "    report the time and memory allocated per run.\n" +
         "  dx --junit [-wait] <TestClass>\n" +
         "    Run the indicated unit test.\n" + 
         "  dx -J<option> ... <arguments, in one of the above " +
@@ -95,6 +145,10 @@ public class Main {
                     com.android.dx.command.annotool.Main.main(
                             without(args, i));
                     break;
+                } else if (arg.equals("--benchmark")) {
+                    com.android.dx.command.benchmark.Main.main(
+                            without(args, i));
+                    break;
                 } else if (arg.equals("--junit")) {
                     TestRunner.main(without(args, i));
                     break;
@@ -0,0 +1,303 @@
+/*
+ * Copyright (C) 2007 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.dx.command.benchmark;
+
+import com.android.dx.cf.code.ConcreteMethod;
+import com.android.dx.cf.code.Ropper;
+import com.android.dx.cf.direct.ClassPathOpener;
+import com.android.dx.cf.direct.DirectClassFile;
+import com.android.dx.cf.direct.StdAttributeFactory;
+import com.android.dx.cf.iface.Method;
+import com.android.dx.cf.iface.MethodList;
+import com.android.dx.dex.cf.CfOptions;
+import com.android.dx.dex.code.PositionList;
+import com.android.dx.rop.code.AccessFlags;
+import com.android.dx.rop.code.DexTranslationAdvice;
+import com.android.dx.rop.code.LocalVariableExtractor;
+import com.android.dx.rop.code.LocalVariableInfo;
+import com.android.dx.rop.code.RopMethod;
+import com.android.dx.rop.cst.CstMethodRef;
+import com.android.dx.ssa.Optimizer;
+
+import java.io.File;
+import java.util.ArrayList;
+
+/**
+ * Fixed set of class files that the benchmark stages run over, along
+ * with the intermediate forms of their methods. Each stage only
+ * measures its own step, so the inputs to that step are computed
+ * once, up front, by the steps that precede it.
+ */
+public final class Corpus {
+    /** {@code non-null;} options used to translate whole classes */
+    private final CfOptions cfOptions;
+
+    /** {@code non-null;} path of each class file */
+    private final ArrayList<String> names;
+
+    /** {@code non-null;} contents of each class file */
+    private final ArrayList<byte[]> bytes;
+
+    /** {@code null-ok;} each class, parsed; lazily created */
+    private ArrayList<DirectClassFile> classFiles;
+
+    /** {@code null-ok;} each method that has code; lazily created */
+    private ArrayList<MethodInfo> methods;
+
+    /**
+     * Constructs an empty instance.
+     */
+    public Corpus() {
+        cfOptions = new CfOptions();
+        cfOptions.positionInfo = PositionList.LINES;
+        cfOptions.localInfo = true;
+        cfOptions.optimize = true;
+        cfOptions.strictNameCheck = false;
+
+        names = new ArrayList<String>();
+        bytes = new ArrayList<byte[]>();
+    }
+
+    /**
+     * Adds all the class files found at the given path, which may be
+     * a class file, a directory or an archive.
+     *
+     * @param path {@code non-null;} the path
+     * @return whether any class file was found
+     */
+    public boolean addPath(String path) {
+        ClassPathOpener opener = new ClassPathOpener(path, true,
+                new ClassPathOpener.Consumer() {
+            public boolean processFileBytes(String name, byte[] data) {
+                if (!name.endsWith(".class")) {
+                    return false;
+                }
+
+                names.add(name);
+                bytes.add(data);
+                return true;
+            }
+
+            public void onException(Exception ex) {
+                throw new RuntimeException(ex);
+            }
+
+            public void onProcessArchiveStart(File file) {
+                // This space intentionally left blank.
+            }
+        });
+
+        return opener.process();
+    }
+
+    /**
+     * Gets the options used when translating whole classes. These
+     * match what {@code dx --dex} does by default.
+     *
+     * @return {@code non-null;} the options
+     */
+    public CfOptions getCfOptions() {
+        return cfOptions;
+    }
+
+    /**
+     * Gets the number of class files.
+     *
+     * @return {@code >= 0;} the count
+     */
+    public int getClassCount() {
+        return names.size();
+    }
+
+    /**
+     * Gets the path of a class file.
+     *
+     * @param n {@code >= 0, < getClassCount();} which class
+     * @return {@code non-null;} its path
+     */
+    public String getName(int n) {
+        return names.get(n);
+    }
+
+    /**
+     * Gets the contents of a class file.
+     *
+     * @param n {@code >= 0, < getClassCount();} which class
+     * @return {@code non-null;} its contents
+     */
+    public byte[] getBytes(int n) {
+        return bytes.get(n);
+    }
+
+    /**
+     * Parses a class file completely, without keeping it.
+     *
+     * @param n {@code >= 0, < getClassCount();} which class
+     * @return {@code non-null;} the parsed class
+     */
+    public DirectClassFile parse(int n) {
+        DirectClassFile cf =
+            new DirectClassFile(bytes.get(n), names.get(n), false);
+
+        cf.setAttributeFactory(StdAttributeFactory.THE_ONE);
+        cf.setStringPatcher(cfOptions.stringPatcher);
+        cf.setLazyConstantPool(cfOptions.lazyConstantPool);
+
+        // Accessing the class attributes forces a parse to the end.
+        cf.getAttributes();
+
+        return cf;
+    }
+
+    /**
+     * Gets all the methods which have code.
+     *
+     * @return {@code non-null;} the methods
+     */
+    public ArrayList<MethodInfo> getMethods() {
+        if (methods != null) {
+            return methods;
+        }
+
+        if (classFiles == null) {
+            int sz = names.size();
+
+            classFiles = new ArrayList<DirectClassFile>(sz);
+            for (int i = 0; i < sz; i++) {
+                classFiles.add(parse(i));
+            }
+        }
+
+        methods = new ArrayList<MethodInfo>();
+
+        for (DirectClassFile cf : classFiles) {
+            MethodList list = cf.getMethods();
+            int sz = list.size();
+
+            for (int i = 0; i < sz; i++) {
+                Method one = list.get(i);
+                int accessFlags = one.getAccessFlags();
+
+                if (AccessFlags.isNative(accessFlags) ||
+                        AccessFlags.isAbstract(accessFlags)) {
+                    continue;
+                }
+
+                methods.add(new MethodInfo(cf, one));
+            }
+        }
+
+        return methods;
+    }
+
+    /**
+     * A method, with each of the forms it goes through on the way to
+     * dex code. The forms are made on first use.
+     */
+    public static final class MethodInfo {
+        /** {@code non-null;} the method in class file form */
+        private final ConcreteMethod concrete;
+
+        /** the total width, in register-units, of the parameters */
+        private final int paramWidth;
+
+        /** whether the method is static */
+        private final boolean isStatic;
+
+        /** {@code null-ok;} the rop form, before optimization */
+        private RopMethod ropMethod;
+
+        /** {@code null-ok;} the rop form, after optimization */
+        private RopMethod optimizedMethod;
+
+        /** {@code null-ok;} locals of {@link #optimizedMethod} */
+        private LocalVariableInfo locals;
+
+        /**
+         * Constructs an instance.
+         *
+         * @param cf {@code non-null;} the class of the method
+         * @param method {@code non-null;} the method
+         */
+        private MethodInfo(DirectClassFile cf, Method method) {
+            CstMethodRef meth = new CstMethodRef(cf.getThisClass(),
+                    method.getNat());
+
+            this.concrete = new ConcreteMethod(method, cf, true, true);
+            this.isStatic = AccessFlags.isStatic(method.getAccessFlags());
+            this.paramWidth = meth.getParameterWordCount(isStatic);
+        }
+
+        /**
+         * @return {@code non-null;} the method in class file form
+         */
+        public ConcreteMethod getConcrete() {
+            return concrete;
+        }
+
+        /**
+         * @return the total width, in register-units, of the parameters
+         */
+        public int getParamWidth() {
+            return paramWidth;
+        }
+
+        /**
+         * @return whether the method is static
+         */
+        public boolean isStatic() {
+            return isStatic;
+        }
+
+        /**
+         * @return {@code non-null;} the rop form, before optimization
+         */
+        public RopMethod getRopMethod() {
+            if (ropMethod == null) {
+                ropMethod = Ropper.convert(concrete,
+                        DexTranslationAdvice.THE_ONE);
+            }
+
+            return ropMethod;
+        }
+
+        /**
+         * @return {@code non-null;} the rop form, after optimization
+         */
+        public RopMethod getOptimizedMethod() {
+            if (optimizedMethod == null) {
+                optimizedMethod = Optimizer.optimize(getRopMethod(),
+                        paramWidth, isStatic, true,
+                        DexTranslationAdvice.THE_ONE);
+            }
+
+            return optimizedMethod;
+        }
+
+        /**
+         * @return {@code non-null;} the local variable information for
+         * the optimized rop form
+         */
+        public LocalVariableInfo getLocals() {
+            if (locals == null) {
+                locals = LocalVariableExtractor.extract(getOptimizedMethod());
+            }
+
+            return locals;
+        }
+    }
+}
@@ -0,0 +1,280 @@
+/*
+ * Copyright (C) 2007 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.dx.command.benchmark;
+
+import com.android.dx.command.UsageException;
+import com.android.dx.util.PhaseProfiler;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+
+/**
+ * Main class for the benchmarks. Each {@link Stage} of the conversion
+ * is run over the same corpus of class files a number of times, after
+ * some untimed warm-up runs, and its wall time, CPU time and allocated
+ * bytes per run are reported.
+ */
+public class Main {
+    /**
+     * This class is uninstantiable.
+     */
+    private Main() {
+        // This space intentionally left blank.
+    }
+
+    /**
+     * Run!
+     */
+    public static void main(String[] argArray) {
+        Arguments args = new Arguments();
+        args.parse(argArray);
+
+        Corpus corpus = new Corpus();
+        for (String path : args.files) {
+            corpus.addPath(path);
+        }
+
+        if (corpus.getClassCount() == 0) {
+            System.err.println("no classes found");
+            throw new UsageException();
+        }
+
+        ArrayList<Stage> stages = new ArrayList<Stage>();
+        for (Stage one : Stage.makeAll(corpus)) {
+            if ((args.stages == null) || args.stages.remove(one.getName())) {
+                stages.add(one);
+            }
+        }
+
+        if ((args.stages != null) && !args.stages.isEmpty()) {
+            System.err.println("unknown stages: " + args.stages);
+            throw new UsageException();
+        }
+
+        PrintStream out = System.out;
+
+        out.println(corpus.getClassCount() + " classes, " +
+                corpus.getMethods().size() + " methods; " + args.warmup +
+                " warm-up and " + args.iterations + " measured runs");
+
+        if (PhaseProfiler.currentThreadAllocatedBytes() < 0) {
+            out.println("(this VM does not report allocated bytes)");
+        }
+
+        out.println(String.format("%-24s %7s %10s %8s %10s %10s %12s %10s",
+                        "stage", "items", "wall ms", "+-", "min ms",
+                        "cpu ms", "alloc KB", "alloc MB/s"));
+
+        for (Stage one : stages) {
+            Result result = measure(one, args.warmup, args.iterations);
+            out.println(result.toHuman(one.getName()));
+        }
+    }
+
+    /**
+     * Runs a stage the given number of times, and measures the runs
+     * after the warm-up ones.
+     *
+     * @param stage {@code non-null;} the stage to run
+     * @param warmup {@code >= 0;} number of unmeasured runs
+     * @param iterations {@code > 0;} number of measured runs
+     * @return {@code non-null;} the measurements
+     */
+    private static Result measure(Stage stage, int warmup, int iterations) {
+        Result result = new Result(iterations);
+
+        for (int i = -warmup; i < iterations; i++) {
+            stage.setUp();
+
+            // Don't charge the garbage of earlier runs to this one.
+            System.gc();
+
+            long allocStart = PhaseProfiler.currentThreadAllocatedBytes();
+            long cpuStart = PhaseProfiler.currentThreadCpuTime();
+            long wallStart = System.nanoTime();
+
+            int items = stage.run();
+
+            long wallEnd = System.nanoTime();
+            long cpuEnd = PhaseProfiler.currentThreadCpuTime();
+            long allocEnd = PhaseProfiler.currentThreadAllocatedBytes();
+
+            stage.tearDown();
+
+            if (i >= 0) {
+                result.items = items;
+                result.wall[i] = wallEnd - wallStart;
+                result.cpu[i] = cpuEnd - cpuStart;
+                result.alloc[i] = allocEnd - allocStart;
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Measurements of the runs of one stage.
+     */
+    private static final class Result {
+        /** items processed per run */
+        int items;
+
+        /** {@code non-null;} wall time of each run, in nanoseconds */
+        final long[] wall;
+
+        /** {@code non-null;} CPU time of each run, in nanoseconds */
+        final long[] cpu;
+
+        /** {@code non-null;} bytes allocated by each run */
+        final long[] alloc;
+
+        Result(int iterations) {
+            wall = new long[iterations];
+            cpu = new long[iterations];
+            alloc = new long[iterations];
+        }
+
+        /**
+         * Gets a one-line summary, to go under the header printed by
+         * {@link Main#main}.
+         *
+         * @param name {@code non-null;} name of the stage
+         * @return {@code non-null;} the summary
+         */
+        String toHuman(String name) {
+            double wallMean = mean(wall);
+            double wallMin = wall[0];
+            double sumSquares = 0;
+
+            for (long one : wall) {
+                wallMin = Math.min(wallMin, one);
+                sumSquares += (one - wallMean) * (one - wallMean);
+            }
+
+            double stddev = (wall.length < 2) ? 0 :
+                Math.sqrt(sumSquares / (wall.length - 1));
+            double allocMean = mean(alloc);
+
+            return String.format("%-24s %7d %10.2f %8.2f %10.2f %10s %12s %10s",
+                    name, items, wallMean / 1e6, stddev / 1e6, wallMin / 1e6,
+                    (cpu[0] < 0) ? "?" : String.format("%.2f", mean(cpu) / 1e6),
+                    (alloc[0] < 0) ? "?" :
+                        String.format("%.0f", allocMean / 1024),
+                    (alloc[0] < 0) ? "?" :
+                        String.format("%.1f",
+                                (allocMean / 1048576) / (wallMean / 1e9)));
+        }
+
+        /**
+         * Gets the mean of some values.
+         *
+         * @param values {@code non-null;} the values
+         * @return the mean
+         */
+        private static double mean(long[] values) {
+            double sum = 0;
+
+            for (long one : values) {
+                sum += one;
+            }
+
+            return sum / values.length;
+        }
+    }
+
+    /**
+     * Command-line argument parser and access.
+     */
+    private static class Arguments {
+        /** number of unmeasured runs of each stage */
+        int warmup = 3;
+
+        /** number of measured runs of each stage */
+        int iterations = 10;
+
+        /** {@code null-ok;} names of the stages to run, or all if null */
+        HashSet<String> stages = null;
+
+        /** {@code null-ok;} class files, directories and archives */
+        String[] files;
+
+        /**
+         * Parses the given command-line arguments.
+         *
+         * @param args {@code non-null;} the arguments
+         */
+        void parse(String[] args) {
+            int at = 0;
+
+            for (/*at*/; at < args.length; at++) {
+                String arg = args[at];
+
+                if (arg.equals("--") || !arg.startsWith("--")) {
+                    break;
+                } else if (arg.startsWith("--warmup=")) {
+                    warmup = parseCount(arg, 0);
+                } else if (arg.startsWith("--iterations=")) {
+                    iterations = parseCount(arg, 1);
+                } else if (arg.startsWith("--stages=")) {
+                    arg = arg.substring(arg.indexOf('=') + 1);
+                    stages = new HashSet<String>(Arrays.asList(arg.split(",")));
+                } else {
+                    System.err.println("unknown option: " + arg);
+                    throw new UsageException();
+                }
+            }
+
+            if ((at < args.length) && args[at].equals("--")) {
+                at++;
+            }
+
+            if (at == args.length) {
+                System.err.println("no input files specified");
+                throw new UsageException();
+            }
+
+            files = new String[args.length - at];
+            System.arraycopy(args, at, files, 0, files.length);
+        }
+
+        /**
+         * Parses the value of a numeric option.
+         *
+         * @param arg {@code non-null;} the whole option
+         * @param min the smallest allowed value
+         * @return the value
+         */
+        private static int parseCount(String arg, int min) {
+            int result;
+
+            try {
+                result = Integer.parseInt(arg.substring(arg.indexOf('=') + 1));
+            } catch (NumberFormatException ex) {
+                result = min - 1;
+            }
+
+            if (result < min) {
+                System.err.println("bad value: " + arg);
+                throw new UsageException();
+            }
+
+            return result;
+        }
+    }
+}
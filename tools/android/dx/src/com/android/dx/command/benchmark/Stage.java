@@ -0,0 +1,435 @@
+/*
+ * Copyright (C) 2007 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.dx.command.benchmark;
+
+import com.android.dx.cf.code.Ropper;
+import com.android.dx.dex.cf.CfTranslator;
+import com.android.dx.dex.code.PositionList;
+import com.android.dx.dex.code.RopTranslator;
+import com.android.dx.dex.file.DexFile;
+import com.android.dx.rop.code.DexTranslationAdvice;
+import com.android.dx.ssa.ConstCollector;
+import com.android.dx.ssa.LiteralOpUpgrader;
+import com.android.dx.ssa.MoveParamCombiner;
+import com.android.dx.ssa.Optimizer;
+import com.android.dx.ssa.SCCP;
+import com.android.dx.ssa.SsaMethod;
+import com.android.dx.ssa.back.WholeMethodLivenessAnalyzer;
+import com.android.dx.ssa.back.LivenessAnalyzer;
+import com.android.dx.ssa.back.SsaToRop;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.EnumSet;
+
+/**
+ * One step of the conversion from class files to a dex file, run
+ * over a whole {@link Corpus}. The part that is measured is {@link
+ * #run}; anything it needs that has to be made afresh each time,
+ * because {@code run()} uses it up, is made by {@link #setUp}.
+ */
+public abstract class Stage {
+    /** {@code non-null;} the corpus to run over */
+    protected final Corpus corpus;
+
+    /** {@code non-null;} the name of this stage */
+    private final String name;
+
+    /**
+     * Makes all the known stages, in pipeline order.
+     *
+     * @param corpus {@code non-null;} the corpus to run over
+     * @return {@code non-null;} the stages
+     */
+    public static ArrayList<Stage> makeAll(Corpus corpus) {
+        ArrayList<Stage> result = new ArrayList<Stage>();
+
+        result.add(new Parse(corpus));
+        result.add(new Rop(corpus));
+        result.add(new SsaConvert(corpus));
+
+        for (Optimizer.OptionalStep step :
+                 EnumSet.allOf(Optimizer.OptionalStep.class)) {
+            result.add(new SsaStep(corpus, step));
+        }
+
+        result.add(new Liveness(corpus, false));
+        result.add(new Liveness(corpus, true));
+        result.add(new RegisterAllocation(corpus));
+        result.add(new DalvTranslate(corpus));
+        result.add(new DexWrite(corpus));
+
+        return result;
+    }
+
+    /**
+     * Constructs an instance.
+     *
+     * @param corpus {@code non-null;} the corpus to run over
+     * @param name {@code non-null;} the name of this stage
+     */
+    protected Stage(Corpus corpus, String name) {
+        this.corpus = corpus;
+        this.name = name;
+    }
+
+    /**
+     * Gets the name of this stage.
+     *
+     * @return {@code non-null;} the name
+     */
+    public final String getName() {
+        return name;
+    }
+
+    /**
+     * Prepares the input of one run. This is not measured. By
+     * default, this does nothing.
+     */
+    public void setUp() {
+        // This space intentionally left blank.
+    }
+
+    /**
+     * Performs the stage once over the whole corpus.
+     *
+     * @return {@code >= 0;} the number of items (classes or methods)
+     * processed
+     */
+    public abstract int run();
+
+    /**
+     * Lets go of whatever the last run made or used up. This is not
+     * measured. By default, this does nothing.
+     */
+    public void tearDown() {
+        // This space intentionally left blank.
+    }
+
+    /**
+     * Class file parsing.
+     */
+    private static final class Parse extends Stage {
+        Parse(Corpus corpus) {
+            super(corpus, "parse");
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        public int run() {
+            int sz = corpus.getClassCount();
+
+            for (int i = 0; i < sz; i++) {
+                corpus.parse(i);
+            }
+
+            return sz;
+        }
+    }
+
+    /**
+     * Conversion of bytecode to rop form.
+     */
+    private static final class Rop extends Stage {
+        Rop(Corpus corpus) {
+            super(corpus, "rop");
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        public int run() {
+            for (Corpus.MethodInfo one : corpus.getMethods()) {
+                Ropper.convert(one.getConcrete(),
+                        DexTranslationAdvice.THE_ONE);
+            }
+
+            return corpus.getMethods().size();
+        }
+    }
+
+    /**
+     * Conversion of rop form to SSA form.
+     */
+    private static final class SsaConvert extends Stage {
+        SsaConvert(Corpus corpus) {
+            super(corpus, "ssa-convert");
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        public void setUp() {
+            // Make sure the rop forms exist before measuring.
+            for (Corpus.MethodInfo one : corpus.getMethods()) {
+                one.getRopMethod();
+            }
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        public int run() {
+            for (Corpus.MethodInfo one : corpus.getMethods()) {
+                Optimizer.debugRenaming(one.getRopMethod(),
+                        one.getParamWidth(), one.isStatic(), true,
+                        DexTranslationAdvice.THE_ONE);
+            }
+
+            return corpus.getMethods().size();
+        }
+    }
+
+    /**
+     * One optional optimizer step, on freshly converted SSA form.
+     */
+    private static final class SsaStep extends Stage {
+        /** {@code non-null;} the step */
+        private final Optimizer.OptionalStep step;
+
+        /** {@code null-ok;} the methods to run the step over */
+        private SsaMethod[] methods;
+
+        SsaStep(Corpus corpus, Optimizer.OptionalStep step) {
+            super(corpus, "ssa-" +
+                    step.name().toLowerCase().replace('_', '-'));
+            this.step = step;
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        public void setUp() {
+            ArrayList<Corpus.MethodInfo> all = corpus.getMethods();
+            int sz = all.size();
+
+            methods = new SsaMethod[sz];
+            for (int i = 0; i < sz; i++) {
+                Corpus.MethodInfo one = all.get(i);
+                methods[i] = Optimizer.debugRenaming(one.getRopMethod(),
+                        one.getParamWidth(), one.isStatic(), true,
+                        DexTranslationAdvice.THE_ONE);
+            }
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        public int run() {
+            for (SsaMethod one : methods) {
+                switch (step) {
+                    case MOVE_PARAM_COMBINER: {
+                        MoveParamCombiner.process(one);
+                        break;
+                    }
+                    case SCCP: {
+                        SCCP.process(one);
+                        break;
+                    }
+                    case LITERAL_UPGRADE: {
+                        LiteralOpUpgrader.process(one);
+                        break;
+                    }
+                    case CONST_COLLECTOR: {
+                        ConstCollector.process(one);
+                        break;
+                    }
+                    default: {
+                        throw new RuntimeException("unknown step: " + step);
+                    }
+                }
+            }
+
+            return methods.length;
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        public void tearDown() {
+            methods = null;
+        }
+    }
+
+    /**
+     * Liveness analysis and interference graph construction, by either
+     * of the two ways there are to do it.
+     */
+    private static final class Liveness extends Stage {
+        /** whether to use the one-register-at-a-time analyzer */
+        private final boolean perRegister;
+
+        /** {@code null-ok;} the methods to analyze */
+        private SsaMethod[] methods;
+
+        Liveness(Corpus corpus, boolean perRegister) {
+            super(corpus, perRegister ? "liveness-per-register" : "liveness");
+            this.perRegister = perRegister;
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        public void setUp() {
+            ArrayList<Corpus.MethodInfo> all = corpus.getMethods();
+            int sz = all.size();
+
+            /*
+             * The analysis leaves its results in the blocks, so each
+             * run needs a fresh copy of the SSA form.
+             */
+            methods = new SsaMethod[sz];
+            for (int i = 0; i < sz; i++) {
+                Corpus.MethodInfo one = all.get(i);
+                methods[i] = Optimizer.debugDeadCodeRemover(
+                        one.getRopMethod(), one.getParamWidth(),
+                        one.isStatic(), true, DexTranslationAdvice.THE_ONE);
+            }
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        public int run() {
+            for (SsaMethod one : methods) {
+                if (perRegister) {
+                    LivenessAnalyzer.constructInterferenceGraphPerRegister(one);
+                } else {
+                    WholeMethodLivenessAnalyzer.constructInterferenceGraph(one);
+                }
+            }
+
+            return methods.length;
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        public void tearDown() {
+            methods = null;
+        }
+    }
+
+    /**
+     * Register allocation and conversion back to rop form.
+     */
+    private static final class RegisterAllocation extends Stage {
+        /** {@code null-ok;} the methods to allocate registers for */
+        private SsaMethod[] methods;
+
+        RegisterAllocation(Corpus corpus) {
+            super(corpus, "register-allocation");
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        public void setUp() {
+            ArrayList<Corpus.MethodInfo> all = corpus.getMethods();
+            int sz = all.size();
+
+            methods = new SsaMethod[sz];
+            for (int i = 0; i < sz; i++) {
+                Corpus.MethodInfo one = all.get(i);
+                methods[i] = Optimizer.debugNoRegisterAllocation(
+                        one.getRopMethod(), one.getParamWidth(),
+                        one.isStatic(), true, DexTranslationAdvice.THE_ONE,
+                        EnumSet.allOf(Optimizer.OptionalStep.class));
+            }
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        public int run() {
+            for (SsaMethod one : methods) {
+                SsaToRop.convertToRopMethod(one, false);
+            }
+
+            return methods.length;
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        public void tearDown() {
+            methods = null;
+        }
+    }
+
+    /**
+     * Translation of optimized rop form to dalvik code. The final
+     * choice of instruction formats needs constant pool indices, so
+     * that part is left to {@code dex-write}.
+     */
+    private static final class DalvTranslate extends Stage {
+        DalvTranslate(Corpus corpus) {
+            super(corpus, "dalv-translate");
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        public void setUp() {
+            for (Corpus.MethodInfo one : corpus.getMethods()) {
+                one.getLocals();
+            }
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        public int run() {
+            for (Corpus.MethodInfo one : corpus.getMethods()) {
+                RopTranslator.translate(one.getOptimizedMethod(),
+                        PositionList.LINES, one.getLocals(),
+                        one.getParamWidth());
+            }
+
+            return corpus.getMethods().size();
+        }
+    }
+
+    /**
+     * Layout and writing of a whole dex file.
+     */
+    private static final class DexWrite extends Stage {
+        /** {@code null-ok;} the file to write */
+        private DexFile file;
+
+        DexWrite(Corpus corpus) {
+            super(corpus, "dex-write");
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        public void setUp() {
+            int sz = corpus.getClassCount();
+
+            file = new DexFile();
+            for (int i = 0; i < sz; i++) {
+                file.add(CfTranslator.translate(corpus.getName(i),
+                                corpus.getBytes(i), corpus.getCfOptions()));
+            }
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        public int run() {
+            try {
+                file.toDex(null, false);
+            } catch (IOException ex) {
+                // There is no output stream, so this can't happen.
+                throw new RuntimeException(ex);
+            }
+
+            return corpus.getClassCount();
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        public void tearDown() {
+            file = null;
+        }
+    }
+}
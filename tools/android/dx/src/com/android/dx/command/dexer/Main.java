@@ -23,29 +23,46 @@ import com.android.dx.command.DxConsole;
 import com.android.dx.command.UsageException;
 import com.android.dx.dex.cf.CfOptions;
 import com.android.dx.dex.cf.CfTranslator;
+import com.android.dx.dex.cf.MethodTranslatorPool;
 import com.android.dx.dex.cf.CodeStatistics;
+import com.android.dx.dex.cf.TranslationCache;
 import com.android.dx.dex.code.PositionList;
 import com.android.dx.dex.file.ClassDefItem;
 import com.android.dx.dex.file.DexFile;
 import com.android.dx.dex.file.EncodedMethod;
+import com.android.dx.dex.file.MemberRefs;
+import com.android.dx.merge.DexParser;
 import com.android.dx.rop.annotation.Annotation;
 import com.android.dx.rop.annotation.Annotations;
 import com.android.dx.rop.annotation.AnnotationsList;
 import com.android.dx.rop.cst.CstNat;
 import com.android.dx.rop.cst.CstUtf8;
+import com.android.dx.ssa.OptimizerBudget;
+import com.android.dx.util.PhaseProfiler;
 import com.mosync.android.StringPatcher;
 
+import java.io.BufferedReader;
 import java.io.ByteArrayInputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
+import java.io.Writer;
 import java.util.Arrays;
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.Map;
 import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.jar.Attributes;
 import java.util.jar.JarEntry;
 import java.util.jar.JarOutputStream;
@@ -94,15 +111,50 @@ public class Main {
     /** {@code non-null;} parsed command-line arguments */
     private static Arguments args;
 
-    /** {@code non-null;} output file in-progress */
+    /**
+     * {@code null-ok;} output file in-progress; only ever {@code null}
+     * in multi-dex mode
+     */
     private static DexFile outputDex;
 
+    /**
+     * {@code >= 0;} estimated total size of the class files in the
+     * archives opened so far, which the output is presized for
+     */
+    private static long archiveClassBytes = 0;
+
+    /**
+     * {@code null-ok;} in multi-dex mode, the classes translated so far,
+     * in the order in which they were encountered, or {@code null} if
+     * not in multi-dex mode
+     */
+    private static ArrayList<TranslatedClass> multiDexClasses;
+
+    /**
+     * {@code null-ok;} in multi-dex mode, the output files, the main
+     * one first, once the classes have been spread over them
+     */
+    private static ArrayList<DexFile> outputDexes;
+
     /**
      * {@code null-ok;} map of resources to include in the output, or
      * {@code null} if resources are being ignored
      */
     private static TreeMap<String, byte[]> outputResources;
 
+    /**
+     * {@code null-ok;} pool translating classes in the background, or
+     * {@code null} if classes are being translated on the calling thread
+     */
+    private static ExecutorService classTranslatorPool;
+
+    /**
+     * {@code null-ok;} pending translations, in the order the classes were
+     * encountered, or {@code null} if classes are translated on the
+     * calling thread
+     */
+    private static ArrayList<PendingClass> pendingClasses;
+
     /**
      * This class is uninstantiable.
      */
@@ -133,14 +185,50 @@ public class Main {
         // Reset the error/warning count to start fresh.
         warnings = 0;
         errors = 0;
+        archiveClassBytes = 0;
 
         args = arguments;
         args.makeCfOptions();
 
+        if (args.profileName == null) {
+            return run0();
+        }
+
+        PhaseProfiler profiler = new PhaseProfiler();
+        PhaseProfiler.setActive(profiler);
+
+        try {
+            int result = run0();
+
+            if ((result == 0) && !writeProfile(profiler)) {
+                result = 4;
+            }
+
+            return result;
+        } finally {
+            PhaseProfiler.setActive(null);
+        }
+    }
+
+    /**
+     * Does the actual work of {@link #run}.
+     *
+     * @return 0 if success &gt; 0 otherwise.
+     */
+    private static int run0() {
         if (!processAllFiles()) {
             return 1;
         }
 
+        if (args.multiDex) {
+            return runMultiDex();
+        }
+
+        if ((args.humanOutName == null) && (args.methodToDump == null) &&
+                (args.outName != null) && !isStandardOutput(args.outName)) {
+            return runStreamed();
+        }
+
         byte[] outArray = writeDex();
 
         if (outArray == null) {
@@ -159,6 +247,213 @@ public class Main {
         return 0;
     }
 
+    /**
+     * Does the rest of {@link #run} in the usual case where only the
+     * binary output is wanted, and it is going to a file. The dex file
+     * is streamed out without ever being built in memory, to a temporary
+     * file next to the output. That file is then renamed over the output,
+     * or copied into the jar when making one, so that a failure partway
+     * through leaves any previous output alone.
+     *
+     * @return 0 if success &gt; 0 otherwise.
+     */
+    private static int runStreamed() {
+        File outFile = new File(args.outName).getAbsoluteFile();
+        File dexFile = null;
+
+        try {
+            try {
+                dexFile = File.createTempFile("classes", ".dex",
+                        outFile.getParentFile());
+            } catch (IOException ex) {
+                reportWriteTrouble(ex);
+                return 2;
+            }
+
+            if (!writeDex(dexFile)) {
+                return 2;
+            }
+
+            if (args.jarOutput) {
+                // Effectively free up the (often massive) DexFile memory.
+                outputDex = null;
+
+                if (!createJar(args.outName, dexFile)) {
+                    return 3;
+                }
+            } else if (!dexFile.renameTo(outFile)) {
+                // Some platforms will not rename over an existing file.
+                if (!(outFile.delete() && dexFile.renameTo(outFile))) {
+                    reportWriteTrouble(new IOException(
+                            "unable to rename " + dexFile + " to " + outFile));
+                    return 2;
+                }
+            }
+        } finally {
+            if (dexFile != null) {
+                dexFile.delete();
+            }
+        }
+
+        return 0;
+    }
+
+    /**
+     * Does the rest of {@link #run} in multi-dex mode, writing each of
+     * the output files into the output jar or directory.
+     *
+     * @return 0 if success &gt; 0 otherwise.
+     */
+    private static int runMultiDex() {
+        int count = outputDexes.size();
+        byte[][] dexArrays = writeMultiDex();
+
+        if (dexArrays == null) {
+            return 2;
+        }
+
+        if (args.statistics) {
+            for (int i = 0; i < count; i++) {
+                DxConsole.out.println(dexName(i) + ":");
+                DxConsole.out.println(
+                        outputDexes.get(i).getStatistics().toHuman());
+            }
+        }
+
+        // Effectively free up the (often massive) DexFile memory.
+        outputDexes = null;
+
+        if (args.jarOutput) {
+            for (int i = 1; i < count; i++) {
+                outputResources.put(dexName(i), dexArrays[i]);
+            }
+
+            if (!createJar(args.outName, dexArrays[0])) {
+                return 3;
+            }
+        } else {
+            try {
+                for (int i = 0; i < count; i++) {
+                    OutputStream out = new FileOutputStream(
+                            new File(args.outName, dexName(i)));
+
+                    try {
+                        out.write(dexArrays[i]);
+                    } finally {
+                        closeOutput(out);
+                    }
+                }
+            } catch (IOException ex) {
+                reportWriteTrouble(ex);
+                return 2;
+            }
+        }
+
+        return 0;
+    }
+
+    /**
+     * Converts each of {@link #outputDexes} into a {@code byte[]}.
+     * When there are several threads and several files, the files are
+     * written at the same time, one per thread; otherwise each file
+     * gets all the threads in turn.
+     *
+     * @return {@code null-ok;} the converted files, in order, or
+     * {@code null} if there was a problem
+     */
+    private static byte[][] writeMultiDex() {
+        int count = outputDexes.size();
+        int poolSize = Math.min(args.numThreads, count);
+        byte[][] result = new byte[count][];
+
+        if (poolSize <= 1) {
+            try {
+                for (int i = 0; i < count; i++) {
+                    DexFile one = outputDexes.get(i);
+                    one.setThreadCount(args.numThreads);
+                    result[i] = one.toDex(null, false);
+                }
+            } catch (Exception ex) {
+                reportWriteTrouble(ex);
+                return null;
+            }
+
+            return result;
+        }
+
+        ExecutorService pool = Executors.newFixedThreadPool(poolSize);
+
+        try {
+            ArrayList<Future<byte[]>> futures =
+                new ArrayList<Future<byte[]>>(count);
+
+            for (final DexFile one : outputDexes) {
+                one.setThreadCount(1);
+                futures.add(pool.submit(new Callable<byte[]>() {
+                    public byte[] call() throws IOException {
+                        return one.toDex(null, false);
+                    }
+                }));
+            }
+
+            for (int i = 0; i < count; i++) {
+                try {
+                    result[i] = futures.get(i).get();
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    throw new RuntimeException("interrupted while writing " +
+                            dexName(i), ex);
+                } catch (ExecutionException ex) {
+                    Throwable cause = ex.getCause();
+
+                    if (cause instanceof Exception) {
+                        reportWriteTrouble((Exception) cause);
+                        return null;
+                    }
+
+                    throw (Error) cause;
+                }
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+
+        return result;
+    }
+
+    /**
+     * Gets the name of one of the output files in multi-dex mode.
+     *
+     * @param index {@code >= 0;} which file, the main one being
+     * {@code 0}
+     * @return {@code non-null;} its name
+     */
+    private static String dexName(int index) {
+        if (index == 0) {
+            return DEX_IN_JAR_NAME;
+        }
+
+        return "classes" + (index + 1) + ".dex";
+    }
+
+    /**
+     * Constructs an empty output file, set up as the arguments say.
+     *
+     * @param threadCount {@code >= 1;} number of threads to use when
+     * writing it
+     * @return {@code non-null;} the file
+     */
+    private static DexFile newDexFile(int threadCount) {
+        DexFile result = new DexFile();
+
+        if (args.dumpWidth != 0) {
+            result.setDumpWidth(args.dumpWidth);
+        }
+
+        result.setThreadCount(threadCount);
+        return result;
+    }
+
     /**
      * Constructs the output {@link DexFile}, fill it in with all the
      * specified classes, and populate the resources map if required.
@@ -166,28 +461,55 @@ public class Main {
      * @return whether processing was successful
      */
     private static boolean processAllFiles() {
-        outputDex = new DexFile();
-
         if (args.jarOutput) {
             outputResources = new TreeMap<String, byte[]>();
         }
 
-        if (args.dumpWidth != 0) {
-            outputDex.setDumpWidth(args.dumpWidth);
-        }
-
         boolean any = false;
         String[] fileNames = args.fileNames;
 
+        if (args.multiDex) {
+            multiDexClasses = new ArrayList<TranslatedClass>();
+        } else {
+            outputDex = newDexFile(args.numThreads);
+        }
+
+        if (args.numThreads > 1) {
+            classTranslatorPool = Executors.newFixedThreadPool(args.numThreads);
+            pendingClasses = new ArrayList<PendingClass>();
+
+            if (args.parallelMethods) {
+                args.cfOptions.methodTranslatorPool =
+                    new MethodTranslatorPool(args.numThreads);
+            }
+        }
+
         try {
-            for (int i = 0; i < fileNames.length; i++) {
-                any |= processOne(fileNames[i]);
+            try {
+                for (int i = 0; i < fileNames.length; i++) {
+                    any |= processOne(fileNames[i]);
+                }
+            } catch (StopProcessing ex) {
+                /*
+                 * Ignore it and just let the warning/error reporting do
+                 * their things.
+                 */
+            }
+
+            if (classTranslatorPool != null) {
+                any |= addPendingClasses();
+            }
+        } finally {
+            if (classTranslatorPool != null) {
+                classTranslatorPool.shutdownNow();
+                classTranslatorPool = null;
+                pendingClasses = null;
+            }
+
+            if (args.cfOptions.methodTranslatorPool != null) {
+                args.cfOptions.methodTranslatorPool.shutdown();
+                args.cfOptions.methodTranslatorPool = null;
             }
-        } catch (StopProcessing ex) {
-            /*
-             * Ignore it and just let the warning/error reporting do
-             * their things.
-             */
         }
 
         if (warnings != 0) {
@@ -206,10 +528,19 @@ public class Main {
             return false;
         }
 
+        if (args.multiDex && !spreadMultiDexClasses()) {
+            return false;
+        }
+
         if (args.optimize && args.statistics) {
             CodeStatistics.dumpStatistics(DxConsole.out);
         }
 
+        if (args.optimize && (args.optimizerBudget != null)
+                && (args.statistics || args.verbose)) {
+            args.optimizerBudget.dumpStatistics(DxConsole.out);
+        }
+
         return true;
     }
 
@@ -224,7 +555,7 @@ public class Main {
     private static boolean processOne(String pathname) {
         ClassPathOpener opener;
 
-        opener = new ClassPathOpener(pathname, false,
+        opener = new ClassPathOpener(pathname, false, args.mapArchives,
                 new ClassPathOpener.Consumer() {
             public boolean processFileBytes(String name, byte[] bytes) {
                 return Main.processFileBytes(name, bytes);
@@ -242,6 +573,7 @@ public class Main {
                     DxConsole.out.println("processing archive " + file +
                             "...");
                 }
+                presizeForArchive(file);
             }
         });
 
@@ -249,7 +581,26 @@ public class Main {
     }
 
     /**
-     * Processes one file, which may be either a class or a resource.
+     * Makes room in the output for the identifiers that the classes in
+     * the given archive are likely to need. This goes by the size of
+     * the archive, which is all that is known about it at this point,
+     * and class files typically compress to about half their size.
+     * The tables grow as usual for classes that aren't in archives.
+     *
+     * @param file {@code non-null;} the archive about to be processed
+     */
+    private static void presizeForArchive(File file) {
+        if (outputDex == null) {
+            return;
+        }
+
+        archiveClassBytes += file.length() * 2;
+        outputDex.presize(archiveClassBytes);
+    }
+
+    /**
+     * Processes one file, which may be a class, a dex file, or a
+     * resource.
      *
      * @param name {@code non-null;} name of the file
      * @param bytes {@code non-null;} contents of the file
@@ -257,9 +608,10 @@ public class Main {
      */
     private static boolean processFileBytes(String name, byte[] bytes) {
         boolean isClass = name.endsWith(".class");
+        boolean isDex = name.endsWith(".dex");
         boolean keepResources = (outputResources != null);
 
-        if (!isClass && !keepResources) {
+        if (!isClass && !isDex && !keepResources) {
             if (args.verbose) {
                 DxConsole.out.println("ignored resource " + name);
             }
@@ -277,6 +629,8 @@ public class Main {
                 outputResources.put(fixedName, bytes);
             }
             return processClass(fixedName, bytes);
+        } else if (isDex) {
+            return processDex(fixedName, bytes);
         } else {
             outputResources.put(fixedName, bytes);
             return true;
@@ -295,25 +649,318 @@ public class Main {
         if (! args.coreLibrary) {
             checkClassName(name);
         }
-        
+
+        if (classTranslatorPool != null) {
+            /*
+             * Translation happens in the background; the result is added
+             * to the output in encounter order by addPendingClasses(), so
+             * that the output is the same as for a single-threaded run.
+             */
+            Future<TranslatedClass> future =
+                classTranslatorPool.submit(new ClassTranslatorTask(name, bytes));
+            pendingClasses.add(new PendingClass(name, future));
+            return true;
+        }
+
         try {
-            ClassDefItem clazz =
-                CfTranslator.translate(name, bytes, args.cfOptions);
-            outputDex.add(clazz);
+            addClass(translateClass(name, bytes));
             return true;
         } catch (ParseException ex) {
-            DxConsole.err.println("\ntrouble processing:");
-            if (args.debug) {
-                ex.printStackTrace(DxConsole.err);
-            } else {
-                ex.printContext(DxConsole.err);
-            }
+            reportParseException(ex);
         }
 
         warnings++;
         return false;
     }
 
+    /**
+     * Processes one dex file, whose classes get merged into the output
+     * as they are, without being translated again.
+     *
+     * @param name {@code non-null;} name of the file
+     * @param bytes {@code non-null;} contents of the file
+     * @return whether processing was successful
+     */
+    private static boolean processDex(String name, byte[] bytes) {
+        DexParser parser;
+
+        try {
+            parser = new DexParser(name, bytes, args.positionInfo,
+                    args.localInfo);
+        } catch (ParseException ex) {
+            reportParseException(ex);
+            warnings++;
+            return false;
+        }
+
+        int count = parser.getClassCount();
+        boolean any = false;
+
+        for (int i = 0; i < count; i++) {
+            String className = parser.getClassFileName(i);
+
+            if (! args.coreLibrary) {
+                checkClassName(className);
+            }
+
+            if (classTranslatorPool != null) {
+                Future<TranslatedClass> future =
+                    classTranslatorPool.submit(new DexClassTask(parser, i));
+                pendingClasses.add(new PendingClass(className, future));
+                any = true;
+                continue;
+            }
+
+            try {
+                addClass(readDexClass(parser, i));
+                any = true;
+            } catch (ParseException ex) {
+                reportParseException(ex);
+                warnings++;
+            }
+        }
+
+        return any;
+    }
+
+    /**
+     * Reads one class out of a dex file, along with whatever
+     * multi-dex mode needs to know about it.
+     *
+     * @param parser {@code non-null;} the dex file
+     * @param index which class
+     * @return {@code non-null;} the class
+     */
+    private static TranslatedClass readDexClass(DexParser parser,
+            int index) {
+        ClassDefItem clazz = parser.readClass(index);
+        MemberRefs refs = args.multiDex ? new MemberRefs(clazz) : null;
+
+        return new TranslatedClass(parser.getClassFileName(index), clazz,
+                refs);
+    }
+
+    /**
+     * Translates one classfile, along with whatever multi-dex mode needs
+     * to know about it.
+     *
+     * @param name {@code non-null;} name of the file
+     * @param bytes {@code non-null;} contents of the file
+     * @return {@code non-null;} the translated class
+     */
+    private static TranslatedClass translateClass(String name, byte[] bytes) {
+        ClassDefItem clazz = CfTranslator.translate(name, bytes, args.cfOptions);
+        MemberRefs refs = args.multiDex ? new MemberRefs(clazz) : null;
+
+        return new TranslatedClass(name, clazz, refs);
+    }
+
+    /**
+     * Adds a translated class to the output, or in multi-dex mode, to
+     * the classes to spread over the outputs once they are all known.
+     *
+     * @param translated {@code non-null;} the translated class
+     */
+    private static void addClass(TranslatedClass translated) {
+        if (multiDexClasses != null) {
+            multiDexClasses.add(translated);
+        } else {
+            outputDex.add(translated.clazz);
+        }
+    }
+
+    /**
+     * Waits for each background translation to finish and adds the
+     * results to the output, in the order in which the classes
+     * were originally encountered. A translation that failed with
+     * anything other than a {@link ParseException} aborts the run.
+     *
+     * @return whether any class was successfully added
+     */
+    private static boolean addPendingClasses() {
+        boolean any = false;
+
+        for (PendingClass pending : pendingClasses) {
+            try {
+                addClass(pending.future.get());
+                any = true;
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException("interrupted while translating " +
+                        pending.name, ex);
+            } catch (ExecutionException ex) {
+                Throwable cause = ex.getCause();
+
+                if (cause instanceof ParseException) {
+                    reportParseException((ParseException) cause);
+                    warnings++;
+                } else if (cause instanceof RuntimeException) {
+                    // Abort, just like a single-threaded run would.
+                    throw (RuntimeException) cause;
+                } else if (cause instanceof Error) {
+                    throw (Error) cause;
+                } else {
+                    throw new RuntimeException("translating " + pending.name,
+                            cause);
+                }
+            }
+        }
+
+        return any;
+    }
+
+    /**
+     * Spreads the classes translated in multi-dex mode over as many
+     * output files as it takes to keep the method and field references
+     * of each within what its indices can address. The classes on the
+     * main dex list go into the main file first. Then every class, in
+     * the order encountered, goes into the current file if its
+     * references still fit there, and starts the next file otherwise.
+     *
+     * @return whether the classes could be spread out
+     */
+    private static boolean spreadMultiDexClasses() {
+        HashSet<String> mainDexList = null;
+
+        if (args.mainDexListFile != null) {
+            mainDexList = readMainDexList(args.mainDexListFile);
+
+            if (mainDexList == null) {
+                return false;
+            }
+        }
+
+        ArrayList<TranslatedClass> mainClasses =
+            new ArrayList<TranslatedClass>();
+        ArrayList<TranslatedClass> otherClasses =
+            new ArrayList<TranslatedClass>();
+
+        for (TranslatedClass one : multiDexClasses) {
+            if ((mainDexList != null) && mainDexList.contains(one.name)) {
+                mainClasses.add(one);
+            } else {
+                otherClasses.add(one);
+            }
+        }
+
+        multiDexClasses = null;
+        outputDexes = new ArrayList<DexFile>();
+
+        DexFile current = newDexFile(1);
+        MemberRefs currentRefs = new MemberRefs();
+        outputDexes.add(current);
+
+        for (TranslatedClass one : mainClasses) {
+            if (!fitsIn(currentRefs, one.refs)) {
+                DxConsole.err.println("too many method or field " +
+                        "references in the classes of the main dex " +
+                        "list; at most " + args.maxIdxNumber +
+                        " of each fit in one dex file");
+                return false;
+            }
+
+            current.add(one.clazz);
+            currentRefs.addAll(one.refs);
+        }
+
+        for (TranslatedClass one : otherClasses) {
+            if (!fitsIn(currentRefs, one.refs)) {
+                current = newDexFile(1);
+                currentRefs = new MemberRefs();
+                outputDexes.add(current);
+
+                if (!fitsIn(currentRefs, one.refs)) {
+                    DxConsole.err.println("too many method or field " +
+                            "references in " + one.name + " alone; at " +
+                            "most " + args.maxIdxNumber + " of each fit " +
+                            "in one dex file");
+                    return false;
+                }
+            }
+
+            current.add(one.clazz);
+            currentRefs.addAll(one.refs);
+        }
+
+        if (args.verbose) {
+            DxConsole.out.println("spread classes over " +
+                    outputDexes.size() + " dex file" +
+                    ((outputDexes.size() == 1) ? "" : "s"));
+        }
+
+        return true;
+    }
+
+    /**
+     * Tells whether a class's references fit in an output file, along
+     * with those already there.
+     *
+     * @param dexRefs {@code non-null;} the references of the classes
+     * already in the file
+     * @param classRefs {@code non-null;} the references of the class
+     * @return whether the class fits
+     */
+    private static boolean fitsIn(MemberRefs dexRefs, MemberRefs classRefs) {
+        int max = args.maxIdxNumber;
+
+        return (dexRefs.getMethodCount() +
+                dexRefs.countNewMethods(classRefs) <= max) &&
+            (dexRefs.getFieldCount() +
+                dexRefs.countNewFields(classRefs) <= max);
+    }
+
+    /**
+     * Reads the main dex list: the class files, one per line and named
+     * the way they are in the input (such as
+     * {@code com/example/Main.class}), that must go in the main output
+     * file.
+     *
+     * @param fileName {@code non-null;} name of the list
+     * @return {@code null-ok;} the names on the list, or {@code null}
+     * if it couldn't be read
+     */
+    private static HashSet<String> readMainDexList(String fileName) {
+        HashSet<String> result = new HashSet<String>();
+
+        try {
+            BufferedReader in = new BufferedReader(new InputStreamReader(
+                    new FileInputStream(fileName), "UTF-8"));
+
+            try {
+                for (String line = in.readLine(); line != null;
+                     line = in.readLine()) {
+                    line = line.trim();
+
+                    if (line.length() != 0) {
+                        result.add(fixPath(line));
+                    }
+                }
+            } finally {
+                in.close();
+            }
+        } catch (IOException ex) {
+            DxConsole.err.println("trouble reading main dex list " +
+                    fileName + ": " + ex.getMessage());
+            return null;
+        }
+
+        return result;
+    }
+
+    /**
+     * Reports a problem translating a class.
+     *
+     * @param ex {@code non-null;} the problem
+     */
+    private static void reportParseException(ParseException ex) {
+        DxConsole.err.println("\ntrouble processing:");
+        if (args.debug) {
+            ex.printStackTrace(DxConsole.err);
+        } else {
+            ex.printContext(DxConsole.err);
+        }
+    }
+
     /**
      * Check the class name to make sure it's not a "core library"
      * class. If there is a problem, this updates the error count and
@@ -451,19 +1098,73 @@ public class Main {
                 closeOutput(humanOutRaw);
             }
         } catch (Exception ex) {
-            if (args.debug) {
-                DxConsole.err.println("\ntrouble writing output:");
-                ex.printStackTrace(DxConsole.err);
-            } else {
-                DxConsole.err.println("\ntrouble writing output: " +
-                                   ex.getMessage());
-            }
+            reportWriteTrouble(ex);
             return null;
         }
 
         return outArray;
     }
 
+    /**
+     * Writes {@link #outputDex} to the given file, streaming it out
+     * rather than building it in memory first, and does whatever
+     * statistics reporting is required.
+     *
+     * @param file {@code non-null;} the file to write to
+     * @return whether the write was successful
+     */
+    private static boolean writeDex(File file) {
+        try {
+            FileOutputStream out = new FileOutputStream(file);
+
+            try {
+                outputDex.writeTo(out.getChannel());
+            } finally {
+                out.close();
+            }
+
+            if (args.statistics) {
+                DxConsole.out.println(outputDex.getStatistics().toHuman());
+            }
+        } catch (Exception ex) {
+            reportWriteTrouble(ex);
+            return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * Writes the report of the given profiler to the file named by
+     * {@code --profile}, as JSON if its name ends with {@code .json}
+     * and as CSV otherwise.
+     *
+     * @param profiler {@code non-null;} the profiler
+     * @return whether the write was successful
+     */
+    private static boolean writeProfile(PhaseProfiler profiler) {
+        try {
+            OutputStream out = openOutput(args.profileName);
+            Writer writer = new OutputStreamWriter(out, "UTF-8");
+
+            try {
+                if (args.profileName.endsWith(".json")) {
+                    profiler.writeJson(writer);
+                } else {
+                    profiler.writeCsv(writer);
+                }
+            } finally {
+                writer.flush();
+                closeOutput(out);
+            }
+        } catch (IOException ex) {
+            reportWriteTrouble(ex);
+            return false;
+        }
+
+        return true;
+    }
+
     /**
      * Creates a jar file from the resources and given dex file array.
      *
@@ -473,10 +1174,53 @@ public class Main {
      * @return whether the creation was successful
      */
     private static boolean createJar(String fileName, byte[] dexArray) {
+        return createJar(fileName, new ByteArrayInputStream(dexArray),
+                dexArray.length);
+    }
+
+    /**
+     * Creates a jar file from the resources and given dex file.
+     *
+     * @param fileName {@code non-null;} name of the file
+     * @param dexFile {@code non-null;} the dex file to include
+     * @return whether the creation was successful
+     */
+    private static boolean createJar(String fileName, File dexFile) {
+        FileInputStream dexIn;
+
+        try {
+            dexIn = new FileInputStream(dexFile);
+        } catch (IOException ex) {
+            reportWriteTrouble(ex);
+            return false;
+        }
+
+        try {
+            return createJar(fileName, dexIn, dexFile.length());
+        } finally {
+            try {
+                dexIn.close();
+            } catch (IOException ex) {
+                // It was only read from; there's nothing to lose.
+            }
+        }
+    }
+
+    /**
+     * Creates a jar file from the resources and the dex file read from
+     * the given stream.
+     *
+     * @param fileName {@code non-null;} name of the file
+     * @param dexIn {@code non-null;} stream to read the dex file from
+     * @param dexSize {@code >= 0;} size of the dex file
+     * @return whether the creation was successful
+     */
+    private static boolean createJar(String fileName, InputStream dexIn,
+            long dexSize) {
         /*
-         * Make or modify the manifest (as appropriate), put the dex
-         * array into the resources map, and then process the entire
-         * resources map in a uniform manner.
+         * Make or modify the manifest (as appropriate), and then write
+         * out the resources, with the dex file in its sorted position
+         * among them.
          */
 
         try {
@@ -484,24 +1228,25 @@ public class Main {
             OutputStream out = openOutput(fileName);
             JarOutputStream jarOut = new JarOutputStream(out, manifest);
 
-            outputResources.put(DEX_IN_JAR_NAME, dexArray);
+            outputResources.remove(DEX_IN_JAR_NAME);
 
             try {
                 for (Map.Entry<String, byte[]> e :
-                         outputResources.entrySet()) {
-                    String name = e.getKey();
+                         outputResources.headMap(DEX_IN_JAR_NAME).entrySet()) {
                     byte[] contents = e.getValue();
-                    JarEntry entry = new JarEntry(name);
+                    writeJarEntry(jarOut, e.getKey(),
+                            new ByteArrayInputStream(contents),
+                            contents.length);
+                }
 
-                    if (args.verbose) {
-                        DxConsole.out.println("writing " + name + "; size " +
-                                           contents.length + "...");
-                    }
+                writeJarEntry(jarOut, DEX_IN_JAR_NAME, dexIn, dexSize);
 
-                    entry.setSize(contents.length);
-                    jarOut.putNextEntry(entry);
-                    jarOut.write(contents);
-                    jarOut.closeEntry();
+                for (Map.Entry<String, byte[]> e :
+                         outputResources.tailMap(DEX_IN_JAR_NAME).entrySet()) {
+                    byte[] contents = e.getValue();
+                    writeJarEntry(jarOut, e.getKey(),
+                            new ByteArrayInputStream(contents),
+                            contents.length);
                 }
             } finally {
                 jarOut.finish();
@@ -509,19 +1254,63 @@ public class Main {
                 closeOutput(out);
             }
         } catch (Exception ex) {
-            if (args.debug) {
-                DxConsole.err.println("\ntrouble writing output:");
-                ex.printStackTrace(DxConsole.err);
-            } else {
-                DxConsole.err.println("\ntrouble writing output: " +
-                                   ex.getMessage());
-            }
+            reportWriteTrouble(ex);
             return false;
         }
 
         return true;
     }
 
+    /**
+     * Writes one entry of a jar file.
+     *
+     * @param jarOut {@code non-null;} the jar being written
+     * @param name {@code non-null;} name of the entry
+     * @param in {@code non-null;} stream to read the contents from
+     * @param size {@code >= 0;} size of the contents
+     */
+    private static void writeJarEntry(JarOutputStream jarOut, String name,
+            InputStream in, long size) throws IOException {
+        JarEntry entry = new JarEntry(name);
+        byte[] buffer = new byte[8192];
+        long remaining = size;
+
+        if (args.verbose) {
+            DxConsole.out.println("writing " + name + "; size " +
+                               size + "...");
+        }
+
+        entry.setSize(size);
+        jarOut.putNextEntry(entry);
+
+        while (remaining > 0) {
+            int amt = in.read(buffer, 0,
+                    (int) Math.min(buffer.length, remaining));
+            if (amt < 0) {
+                throw new IOException("unexpected end of " + name);
+            }
+            jarOut.write(buffer, 0, amt);
+            remaining -= amt;
+        }
+
+        jarOut.closeEntry();
+    }
+
+    /**
+     * Reports a failure to write the output.
+     *
+     * @param ex {@code non-null;} what went wrong
+     */
+    private static void reportWriteTrouble(Exception ex) {
+        if (args.debug) {
+            DxConsole.err.println("\ntrouble writing output:");
+            ex.printStackTrace(DxConsole.err);
+        } else {
+            DxConsole.err.println("\ntrouble writing output: " +
+                               ex.getMessage());
+        }
+    }
+
     /**
      * Creates and returns the manifest to use for the output. This may
      * modify {@link #outputResources} (removing the pre-existing manifest).
@@ -565,14 +1354,23 @@ public class Main {
      * @return {@code non-null;} the opened file
      */
     private static OutputStream openOutput(String name) throws IOException {
-        if (name.equals("-") ||
-                name.startsWith("-.")) {
+        if (isStandardOutput(name)) {
             return System.out;
         }
 
         return new FileOutputStream(name);
     }
 
+    /**
+     * Gets whether the given output name refers to standard output.
+     *
+     * @param name {@code non-null;} the name
+     * @return whether it means standard output
+     */
+    private static boolean isStandardOutput(String name) {
+        return name.equals("-") || name.startsWith("-.");
+    }
+
     /**
      * Flushes and closes the given output stream, except if it happens to be
      * {@link System#out} in which case this method does the flush but not
@@ -727,6 +1525,117 @@ public class Main {
         pw.flush();
     }
 
+    /**
+     * Translates one classfile on a pool thread.
+     */
+    private static class ClassTranslatorTask
+            implements Callable<TranslatedClass> {
+        /** {@code non-null;} name of the file */
+        private final String name;
+
+        /** {@code non-null;} contents of the file */
+        private final byte[] bytes;
+
+        /**
+         * Constructs an instance.
+         *
+         * @param name {@code non-null;} name of the file
+         * @param bytes {@code non-null;} contents of the file
+         */
+        public ClassTranslatorTask(String name, byte[] bytes) {
+            this.name = name;
+            this.bytes = bytes;
+        }
+
+        /** {@inheritDoc} */
+        public TranslatedClass call() {
+            return translateClass(name, bytes);
+        }
+    }
+
+    /**
+     * Reads one class out of a dex file on a pool thread.
+     */
+    private static class DexClassTask
+            implements Callable<TranslatedClass> {
+        /** {@code non-null;} the dex file */
+        private final DexParser parser;
+
+        /** which class */
+        private final int index;
+
+        /**
+         * Constructs an instance.
+         *
+         * @param parser {@code non-null;} the dex file
+         * @param index which class
+         */
+        public DexClassTask(DexParser parser, int index) {
+            this.parser = parser;
+            this.index = index;
+        }
+
+        /** {@inheritDoc} */
+        public TranslatedClass call() {
+            return readDexClass(parser, index);
+        }
+    }
+
+    /**
+     * A translated class, along with what multi-dex mode needs to
+     * know about it.
+     */
+    private static class TranslatedClass {
+        /** {@code non-null;} name of the file */
+        public final String name;
+
+        /** {@code non-null;} the translation */
+        public final ClassDefItem clazz;
+
+        /**
+         * {@code null-ok;} the method and field references the class
+         * makes, or {@code null} if not in multi-dex mode
+         */
+        public final MemberRefs refs;
+
+        /**
+         * Constructs an instance.
+         *
+         * @param name {@code non-null;} name of the file
+         * @param clazz {@code non-null;} the translation
+         * @param refs {@code null-ok;} the references the class makes
+         */
+        public TranslatedClass(String name, ClassDefItem clazz,
+                MemberRefs refs) {
+            this.name = name;
+            this.clazz = clazz;
+            this.refs = refs;
+        }
+    }
+
+    /**
+     * A class whose translation has been handed to the pool but whose
+     * result has not yet been added to the output.
+     */
+    private static class PendingClass {
+        /** {@code non-null;} name of the file */
+        public final String name;
+
+        /** {@code non-null;} the eventual translation */
+        public final Future<TranslatedClass> future;
+
+        /**
+         * Constructs an instance.
+         *
+         * @param name {@code non-null;} name of the file
+         * @param future {@code non-null;} the eventual translation
+         */
+        public PendingClass(String name, Future<TranslatedClass> future) {
+            this.name = name;
+            this.future = future;
+        }
+    }
+
     /**
      * Exception class used to halt processing prematurely.
      */
@@ -765,6 +1674,18 @@ public class Main {
         /** whether strict file-name-vs-class-name checking should be done */
         public boolean strictNameCheck = true;
 
+        /**
+         * whether to make the entries of each constant pool only on
+         * their first use
+         */
+        public boolean lazyConstantPool = false;
+
+        /**
+         * whether to finish the code of each method as soon as it is
+         * translated, rather than when the whole file is put together
+         */
+        public boolean finishCodeEarly = false;
+
         /**
          * whether it is okay for there to be no {@code .class} files
          * to process
@@ -801,12 +1722,77 @@ public class Main {
         /** Filename containing list of methods to NOT optimize */
         public String dontOptimizeListFile = null;
 
+        /**
+         * {@code null-ok;} limits on the optimizer's work per method, or
+         * {@code null} to always optimize fully
+         */
+        public OptimizerBudget optimizerBudget = null;
+
         /** Whether to print statistics to stdout at end of compile cycle */
         public boolean statistics;
 
+        /**
+         * {@code null-ok;} where to write the per-phase timing report,
+         * or {@code null} to not profile
+         */
+        public String profileName = null;
+
         /** Options for dex.cf.* */
         public CfOptions cfOptions;
 
+        /**
+         * whether to read input archives by memory-mapping them rather
+         * than through {@code java.util.zip}
+         */
+        public boolean mapArchives = false;
+
+        /**
+         * {@code null-ok;} directory to cache translated methods in, or
+         * {@code null} to not cache
+         */
+        public String cacheDirectory = null;
+
+        /** limit on the size of the cache directory, in bytes */
+        public long cacheMaxBytes = TranslationCache.DEFAULT_MAX_BYTES;
+
+        /**
+         * {@code non-null;} the strings to patch, in the order given by
+         * {@code --patch-string}
+         */
+        public StringPatcher.Builder patches = new StringPatcher.Builder();
+
+        /**
+         * {@code >= 1;} number of threads to translate classes and write
+         * the output with; {@code 1} means it all happens on the calling
+         * thread
+         */
+        public int numThreads = 1;
+
+        /**
+         * whether to also translate the methods of each class
+         * concurrently, when there is more than one thread
+         */
+        public boolean parallelMethods = false;
+
+        /**
+         * whether to spread the classes over as many {@code .dex}
+         * files as it takes, instead of failing when they don't all
+         * fit in one
+         */
+        public boolean multiDex = false;
+
+        /**
+         * {@code null-ok;} file naming the classes that must go in the
+         * main {@code .dex} file, in multi-dex mode
+         */
+        public String mainDexListFile = null;
+
+        /**
+         * {@code >= 1;} most method or field references to put in one
+         * {@code .dex} file, in multi-dex mode
+         */
+        public int maxIdxNumber = 65536;
+
         /**
          * Parses the given command-line arguments.
          *
@@ -831,10 +1817,33 @@ public class Main {
                     optimize = false;
                 } else if (arg.equals("--no-strict")) {
                     strictNameCheck = false;
+                } else if (arg.equals("--lazy-constant-pool")) {
+                    lazyConstantPool = true;
+                } else if (arg.equals("--finish-code-early")) {
+                    finishCodeEarly = true;
                 } else if (arg.equals("--core-library")) {
                     coreLibrary = true;
+                } else if (arg.equals("--optimize-budget")) {
+                    optimizerBudget = new OptimizerBudget(
+                            OptimizerBudget.DEFAULT_MAX_FULL_COST);
+                } else if (arg.startsWith("--optimize-budget=")) {
+                    arg = arg.substring(arg.indexOf('=') + 1);
+                    int maxCost;
+                    try {
+                        maxCost = Integer.parseInt(arg);
+                    } catch (NumberFormatException ex) {
+                        maxCost = -1;
+                    }
+                    if (maxCost < 0) {
+                        System.err.println("bad --optimize-budget value: "
+                                + arg);
+                        throw new UsageException();
+                    }
+                    optimizerBudget = new OptimizerBudget(maxCost);
                 } else if (arg.equals("--statistics")) {
                     statistics = true;
+                } else if (arg.startsWith("--profile=")) {
+                    profileName = arg.substring(arg.indexOf('=') + 1);
                 } else if (arg.startsWith("--optimize-list=")) {
                     if (dontOptimizeListFile != null) {
                         System.err.println("--optimize-list and "
@@ -860,7 +1869,8 @@ public class Main {
                             outName.endsWith(".apk")) {
                         jarOutput = true;
                     } else if (outName.endsWith(".dex") ||
-                               outName.equals("-")) {
+                               outName.equals("-") ||
+                               new File(outName).isDirectory()) {
                         jarOutput = false;
                     } else {
                         System.err.println("unknown output extension: " +
@@ -888,6 +1898,40 @@ public class Main {
                                            pstr);
                         throw new UsageException();
                     }
+                } else if (arg.equals("--map-archives")) {
+                    mapArchives = true;
+                } else if (arg.startsWith("--cache-dir=")) {
+                    cacheDirectory = arg.substring(arg.indexOf('=') + 1);
+                } else if (arg.startsWith("--cache-size=")) {
+                    arg = arg.substring(arg.indexOf('=') + 1);
+                    cacheMaxBytes = Long.parseLong(arg) * 1024 * 1024;
+                    if (cacheMaxBytes <= 0) {
+                        System.err.println("--cache-size must be at " +
+                                "least 1");
+                        throw new UsageException();
+                    }
+                } else if (arg.startsWith("--num-threads=")) {
+                    arg = arg.substring(arg.indexOf('=') + 1);
+                    numThreads = Integer.parseInt(arg);
+                    if (numThreads < 1) {
+                        System.err.println("--num-threads must be at " +
+                                "least 1");
+                        throw new UsageException();
+                    }
+                } else if (arg.equals("--parallel-methods")) {
+                    parallelMethods = true;
+                } else if (arg.equals("--multi-dex")) {
+                    multiDex = true;
+                } else if (arg.startsWith("--main-dex-list=")) {
+                    mainDexListFile = arg.substring(arg.indexOf('=') + 1);
+                } else if (arg.startsWith("--set-max-idx-number=")) {
+                    arg = arg.substring(arg.indexOf('=') + 1);
+                    maxIdxNumber = Integer.parseInt(arg);
+                    if (maxIdxNumber < 1) {
+                        System.err.println("--set-max-idx-number must be " +
+                                "at least 1");
+                        throw new UsageException();
+                    }
                 } else if (arg.equals("--no-locals")) {
                     localInfo = false;
                  
@@ -895,9 +1939,9 @@ public class Main {
                 	//
                 	// PATCH: Added the --patch-string switch
                 	//
-                    if ( at+2 > args.length )
+                    if ( at+2 >= args.length || args[at+1].length( ) == 0 )
                     	throw new UsageException( );
-                    StringPatcher.getInstance( ).addPatch( args[at+1], args[at+2] );
+                    patches.addPatch( args[at+1], args[at+2] );
                     at += 2;
                 } else {
                     System.err.println("unknown option: " + arg);
@@ -925,6 +1969,29 @@ public class Main {
                 humanOutName = "-";
             }
 
+            if (multiDex) {
+                if (humanOutName != null) {
+                    System.err.println("--multi-dex is incompatible with " +
+                            "--dump-to and --dump-method");
+                    throw new UsageException();
+                }
+
+                if ((outName == null) ||
+                        !(jarOutput || new File(outName).isDirectory())) {
+                    System.err.println("--multi-dex needs the output to " +
+                            "be a .jar, .zip or .apk file or a directory");
+                    throw new UsageException();
+                }
+            } else if (mainDexListFile != null) {
+                System.err.println("--main-dex-list requires --multi-dex");
+                throw new UsageException();
+            } else if ((outName != null) && !jarOutput &&
+                    new File(outName).isDirectory()) {
+                System.err.println("a directory as output requires " +
+                        "--multi-dex");
+                throw new UsageException();
+            }
+
             makeCfOptions();
         }
 
@@ -937,11 +2004,21 @@ public class Main {
             cfOptions.positionInfo = positionInfo;
             cfOptions.localInfo = localInfo;
             cfOptions.strictNameCheck = strictNameCheck;
+            cfOptions.lazyConstantPool = lazyConstantPool;
+            cfOptions.finishCodeEarly = finishCodeEarly;
             cfOptions.optimize = optimize;
+            cfOptions.optimizerBudget = optimizerBudget;
             cfOptions.optimizeListFile = optimizeListFile;
             cfOptions.dontOptimizeListFile = dontOptimizeListFile;
             cfOptions.statistics = statistics;
             cfOptions.warn = DxConsole.err;
+            cfOptions.stringPatcher = patches.build();
+
+            if (cacheDirectory != null) {
+                cfOptions.translationCache =
+                    new TranslationCache(new File(cacheDirectory), cfOptions,
+                            cacheMaxBytes);
+            }
         }
     }
 }
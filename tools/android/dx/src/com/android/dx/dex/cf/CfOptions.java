@@ -17,6 +17,9 @@
 package com.android.dx.dex.cf;
 
 import com.android.dx.dex.code.PositionList;
+import com.android.dx.ssa.OptimizerBudget;
+
+import com.mosync.android.StringPatcher;
 
 import java.io.PrintStream;
 
@@ -32,10 +35,28 @@ public class CfOptions {
 
     /** whether strict file-name-vs-class-name checking should be done */
     public boolean strictNameCheck = true;
+
+    /**
+     * whether to make the entries of each constant pool only on their
+     * first use
+     */
+    public boolean lazyConstantPool = false;
+
+    /**
+     * whether to finish the code of each method as soon as it is
+     * translated, rather than when the whole file is put together
+     */
+    public boolean finishCodeEarly = false;
     
     /** whether to do SSA/register optimization */
     public boolean optimize = false;
 
+    /**
+     * {@code null-ok;} limits on the optimizer's work per method, or
+     * {@code null} to always optimize fully
+     */
+    public OptimizerBudget optimizerBudget = null;
+
     /** filename containing list of methods to optimize */
     public String optimizeListFile = null;
 
@@ -45,6 +66,22 @@ public class CfOptions {
     /** whether to print statistics to stdout at end of compile cycle */
     public boolean statistics;
 
+    /** {@code non-null;} patches to apply to utf8 constants */
+    public StringPatcher stringPatcher = StringPatcher.EMPTY;
+
     /** where to issue warnings to */
     public PrintStream warn = System.err;
+
+    /**
+     * {@code null-ok;} cache of previously-translated methods, or
+     * {@code null} to always translate from scratch
+     */
+    public TranslationCache translationCache = null;
+
+    /**
+     * {@code null-ok;} threads on which to translate the methods of
+     * each class concurrently, or {@code null} to translate them one
+     * after the other
+     */
+    public MethodTranslatorPool methodTranslatorPool = null;
 }
@@ -53,6 +53,9 @@ import com.android.dx.rop.type.Type;
 import com.android.dx.rop.type.TypeList;
 import com.android.dx.ssa.Optimizer;
 import com.android.dx.util.ExceptionWithContext;
+import com.android.dx.util.PhaseProfiler;
+
+import java.util.EnumSet;
 
 /**
  * Static method that turns {@code byte[]}s containing Java
@@ -81,11 +84,15 @@ public class CfTranslator {
      */
     public static ClassDefItem translate(String filePath, byte[] bytes,
             CfOptions args) {
+        PhaseProfiler.Record record = PhaseProfiler.enterClass(filePath);
+
         try {
             return translate0(filePath, bytes, args);
         } catch (RuntimeException ex) {
             String msg = "...while processing " + filePath;
             throw ExceptionWithContext.withContext(ex, msg);
+        } finally {
+            PhaseProfiler.exit(record);
         }
     }
 
@@ -106,8 +113,18 @@ public class CfTranslator {
             new DirectClassFile(bytes, filePath, args.strictNameCheck);
 
         cf.setAttributeFactory(StdAttributeFactory.THE_ONE);
+        cf.setStringPatcher(args.stringPatcher);
+        cf.setLazyConstantPool(args.lazyConstantPool);
+
+        PhaseProfiler.Sample sample = PhaseProfiler.begin();
         cf.getMagic();
 
+        if (sample != null) {
+            // Parsing is otherwise lazy; finish it, so it all gets timed.
+            cf.getAttributes();
+            PhaseProfiler.end(sample, PhaseProfiler.Phase.PARSE);
+        }
+
         OptimizerOptions.loadOptimizeLists(args.optimizeListFile,
                 args.dontOptimizeListFile);
 
@@ -127,8 +144,30 @@ public class CfTranslator {
             out.setClassAnnotations(classAnnotations);
         }
         
+        /*
+         * Statistics need the unoptimized form of each method too, so
+         * the cache is bypassed when they are being collected.
+         */
+        TranslationCache cache =
+            args.statistics ? null : args.translationCache;
+        String cacheKey = null;
+        RopMethod[] cachedMethods = null;
+        RopMethod[] ropMethods = null;
+
+        if (cache != null) {
+            cacheKey = cache.keyFor(bytes);
+            cachedMethods = cache.get(cacheKey, cf.getMethods().size());
+            if (cachedMethods == null) {
+                ropMethods = new RopMethod[cf.getMethods().size()];
+            }
+        }
+
         processFields(cf, out);
-        processMethods(cf, args, out);
+        processMethods(cf, args, out, cachedMethods, ropMethods);
+
+        if (ropMethods != null) {
+            cache.put(cacheKey, ropMethods);
+        }
 
         return out;
     }
@@ -211,89 +250,74 @@ public class CfTranslator {
     }
 
     /**
-     * Processes the methods of the given class.
+     * Processes the methods of the given class. The code of the
+     * methods is translated first, concurrently if {@code args} has a
+     * {@link CfOptions#methodTranslatorPool pool} for it, and the
+     * methods are then added to the output class in their original
+     * order.
      *
      * @param cf {@code non-null;} class being translated
      * @param args {@code non-null;} command-line args
      * @param out {@code non-null;} output class
+     * @param cachedMethods {@code null-ok;} previously-translated rop
+     * form of each method, to use instead of translating them again
+     * @param ropMethods {@code null-ok;} if non-null, where to store
+     * the rop form of each method, for caching
      */
-    private static void processMethods(DirectClassFile cf,
-            CfOptions args, ClassDefItem out) {
+    private static void processMethods(final DirectClassFile cf,
+            final CfOptions args, ClassDefItem out,
+            final RopMethod[] cachedMethods, final RopMethod[] ropMethods) {
         CstType thisClass = cf.getThisClass();
-        MethodList methods = cf.getMethods();
+        final MethodList methods = cf.getMethods();
         int sz = methods.size();
+        final PhaseProfiler.Record[] records = new PhaseProfiler.Record[sz];
+        final DalvCode[] codes = new DalvCode[sz];
+
+        /*
+         * The profiler records are made up front, so that they stay in
+         * method order however the work gets spread over threads.
+         */
+        for (int i = 0; i < sz; i++) {
+            Method one = methods.get(i);
+
+            records[i] = PhaseProfiler.enterMethod(
+                    one.getName().toHuman() + one.getDescriptor().toHuman());
+            PhaseProfiler.exit(records[i]);
+        }
+
+        MethodTranslatorPool.Worker worker = new MethodTranslatorPool.Worker() {
+            public void run(int index) {
+                PhaseProfiler.Record previous =
+                    PhaseProfiler.resume(records[index]);
+
+                try {
+                    codes[index] = translateCode(cf, args, methods.get(index),
+                            index, cachedMethods, ropMethods);
+                } finally {
+                    PhaseProfiler.restore(previous);
+                }
+            }
+        };
+
+        if ((args.methodTranslatorPool != null) && (sz > 1)) {
+            args.methodTranslatorPool.runAll(sz, worker);
+        } else {
+            for (int i = 0; i < sz; i++) {
+                worker.run(i);
+            }
+        }
 
         for (int i = 0; i < sz; i++) {
             Method one = methods.get(i);
+
             try {
                 CstMethodRef meth = new CstMethodRef(thisClass, one.getNat());
                 int accessFlags = one.getAccessFlags();
                 boolean isStatic = AccessFlags.isStatic(accessFlags);
                 boolean isPrivate = AccessFlags.isPrivate(accessFlags);
                 boolean isNative = AccessFlags.isNative(accessFlags);
-                boolean isAbstract = AccessFlags.isAbstract(accessFlags);
                 boolean isConstructor = meth.isInstanceInit() ||
                     meth.isClassInit();
-                DalvCode code;
-
-                if (isNative || isAbstract) {
-                    // There's no code for native or abstract methods.
-                    code = null;
-                } else {
-                    ConcreteMethod concrete =
-                        new ConcreteMethod(one, cf,
-                                (args.positionInfo != PositionList.NONE),
-                                args.localInfo);
-
-                    TranslationAdvice advice;
-
-                    advice = DexTranslationAdvice.THE_ONE;
-
-                    RopMethod rmeth = Ropper.convert(concrete, advice);
-                    RopMethod nonOptRmeth = null;
-                    int paramSize;
-
-                    paramSize = meth.getParameterWordCount(isStatic);
-    
-                    String canonicalName 
-                            = thisClass.getClassType().getDescriptor()
-                                + "." + one.getName().getString();
-
-                    if (args.optimize &&
-                            OptimizerOptions.shouldOptimize(canonicalName)) {
-                        if (DEBUG) {
-                            System.err.println("Optimizing " + canonicalName);
-                        }
-
-                        nonOptRmeth = rmeth;
-                        rmeth = Optimizer.optimize(rmeth,
-                                paramSize, isStatic, args.localInfo, advice);
-
-                        if (DEBUG) {
-                            OptimizerOptions.compareOptimizerStep(nonOptRmeth,
-                                    paramSize, isStatic, args, advice, rmeth);
-                        }
-
-                        if (args.statistics) {
-                            CodeStatistics.updateRopStatistics(
-                                    nonOptRmeth, rmeth);
-                        }
-                    }
-
-                    LocalVariableInfo locals = null;
-
-                    if (args.localInfo) {
-                        locals = LocalVariableExtractor.extract(rmeth);
-                    }
-
-                    code = RopTranslator.translate(rmeth, args.positionInfo,
-                            locals, paramSize);
-
-                    if (args.statistics && nonOptRmeth != null) {
-                        updateDexStatistics(args, rmeth, nonOptRmeth, locals,
-                                paramSize, concrete.getCode().size());
-                    }
-                }
 
                 // Preserve the synchronized flag as its "declared" variant...
                 if (AccessFlags.isSynchronized(accessFlags)) {
@@ -314,7 +338,7 @@ public class CfTranslator {
 
                 TypeList exceptions = AttributeTranslator.getExceptions(one);
                 EncodedMethod mi =
-                    new EncodedMethod(meth, accessFlags, code, exceptions);
+                    new EncodedMethod(meth, accessFlags, codes[i], exceptions);
 
                 if (meth.isInstanceInit() || meth.isClassInit() ||
                     isStatic || isPrivate) {
@@ -342,6 +366,135 @@ public class CfTranslator {
         }
     }
 
+    /**
+     * Translates the code of one method of the given class. This may
+     * be called for several methods of the class at once, on
+     * different threads.
+     *
+     * @param cf {@code non-null;} class being translated
+     * @param args {@code non-null;} command-line args
+     * @param one {@code non-null;} the method
+     * @param index {@code >= 0;} index of the method in its class
+     * @param cachedMethods {@code null-ok;} previously-translated rop
+     * form of each method, to use instead of translating them again
+     * @param ropMethods {@code null-ok;} if non-null, where to store
+     * the rop form of each method, for caching
+     * @return {@code null-ok;} the code, or {@code null} for a method
+     * without any
+     */
+    private static DalvCode translateCode(DirectClassFile cf,
+            CfOptions args, Method one, int index, RopMethod[] cachedMethods,
+            RopMethod[] ropMethods) {
+        try {
+            CstType thisClass = cf.getThisClass();
+            CstMethodRef meth = new CstMethodRef(thisClass, one.getNat());
+            int accessFlags = one.getAccessFlags();
+            boolean isStatic = AccessFlags.isStatic(accessFlags);
+            boolean isNative = AccessFlags.isNative(accessFlags);
+            boolean isAbstract = AccessFlags.isAbstract(accessFlags);
+            DalvCode code;
+
+            if (isNative || isAbstract) {
+                // There's no code for native or abstract methods.
+                code = null;
+            } else if ((cachedMethods != null) &&
+                    (cachedMethods[index] != null)) {
+                RopMethod rmeth = cachedMethods[index];
+                int paramSize = meth.getParameterWordCount(isStatic);
+                LocalVariableInfo locals = null;
+                PhaseProfiler.Sample sample = PhaseProfiler.begin();
+
+                if (args.localInfo) {
+                    locals = LocalVariableExtractor.extract(rmeth);
+                }
+
+                code = RopTranslator.translate(rmeth, args.positionInfo,
+                        locals, paramSize);
+                PhaseProfiler.end(sample,
+                        PhaseProfiler.Phase.DALVIK_TRANSLATION);
+            } else {
+                ConcreteMethod concrete =
+                    new ConcreteMethod(one, cf,
+                            (args.positionInfo != PositionList.NONE),
+                            args.localInfo);
+
+                TranslationAdvice advice;
+
+                advice = DexTranslationAdvice.THE_ONE;
+
+                PhaseProfiler.Sample sample = PhaseProfiler.begin();
+                RopMethod rmeth = Ropper.convert(concrete, advice);
+                PhaseProfiler.end(sample, PhaseProfiler.Phase.ROP);
+                RopMethod nonOptRmeth = null;
+                int paramSize;
+
+                paramSize = meth.getParameterWordCount(isStatic);
+    
+                String canonicalName 
+                        = thisClass.getClassType().getDescriptor()
+                            + "." + one.getName().getString();
+
+                if (args.optimize &&
+                        OptimizerOptions.shouldOptimize(canonicalName)) {
+                    if (DEBUG) {
+                        System.err.println("Optimizing " + canonicalName);
+                    }
+
+                    nonOptRmeth = rmeth;
+                    rmeth = Optimizer.optimize(rmeth,
+                            paramSize, isStatic, args.localInfo, advice,
+                            EnumSet.allOf(Optimizer.OptionalStep.class),
+                            args.optimizerBudget);
+
+                    if (DEBUG) {
+                        OptimizerOptions.compareOptimizerStep(nonOptRmeth,
+                                paramSize, isStatic, args, advice, rmeth);
+                    }
+
+                    if (args.statistics) {
+                        CodeStatistics.updateRopStatistics(
+                                nonOptRmeth, rmeth);
+                    }
+                }
+
+                if (ropMethods != null) {
+                    ropMethods[index] = rmeth;
+                }
+
+                LocalVariableInfo locals = null;
+
+                sample = PhaseProfiler.begin();
+
+                if (args.localInfo) {
+                    locals = LocalVariableExtractor.extract(rmeth);
+                }
+
+                code = RopTranslator.translate(rmeth, args.positionInfo,
+                        locals, paramSize);
+                PhaseProfiler.end(sample,
+                        PhaseProfiler.Phase.DALVIK_TRANSLATION);
+
+                if (args.statistics && nonOptRmeth != null) {
+                    updateDexStatistics(args, rmeth, nonOptRmeth, locals,
+                            paramSize, concrete.getCode().size());
+                }
+            }
+
+            if ((code != null) && args.finishCodeEarly) {
+                PhaseProfiler.Sample sample = PhaseProfiler.begin();
+                code.finishEarly();
+                PhaseProfiler.end(sample,
+                        PhaseProfiler.Phase.DALVIK_TRANSLATION);
+            }
+
+            return code;
+        } catch (RuntimeException ex) {
+            String msg = "...while processing " + one.getName().toHuman() +
+                " " + one.getDescriptor().toHuman();
+            throw ExceptionWithContext.withContext(ex, msg);
+        }
+    }
+
     /**
      * Helper that updates the dex statistics.
      */
@@ -78,7 +78,7 @@ public final class CodeStatistics {
      * 
      * @param count {@code >= 0;} the number of bytes to add
      */
-    public static void updateOriginalByteCount(int count) {
+    public static synchronized void updateOriginalByteCount(int count) {
         runningOriginalBytes += count;
     }
 
@@ -88,7 +88,7 @@ public final class CodeStatistics {
      * @param nonOptCode non-optimized code block
      * @param code optimized code block
      */
-    public static void updateDexStatistics(DalvCode nonOptCode,
+    public static synchronized void updateDexStatistics(DalvCode nonOptCode,
             DalvCode code) {
         if (DEBUG) {
             System.err.println("dex insns (old/new) "
@@ -117,7 +117,7 @@ public final class CodeStatistics {
      * @param nonOptRmeth non-optimized method
      * @param rmeth optimized method
      */
-    public static void updateRopStatistics(RopMethod nonOptRmeth,
+    public static synchronized void updateRopStatistics(RopMethod nonOptRmeth,
             RopMethod rmeth) {
         int oldCountInsns
                 = nonOptRmeth.getBlocks().getEffectiveInstructionCount();
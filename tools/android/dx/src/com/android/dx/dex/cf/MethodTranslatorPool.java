@@ -0,0 +1,225 @@
+/*
+ * Copyright (C) 2007 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.dx.dex.cf;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Threads on which the methods of a class are translated concurrently.
+ * The thread translating a class works through its methods itself,
+ * and idle threads of the pool join in, each taking the next method
+ * that nobody has started on yet. So a class with one huge method and
+ * many small ones keeps every thread busy until only the huge one is
+ * left, and a pool whose threads are all busy elsewhere just leaves
+ * the caller to do all the work, never to wait for a queued task.<p>
+ *
+ * Threads of the pool are daemon threads, so an instance that isn't
+ * {@link #shutdown} doesn't keep the VM alive.
+ */
+public final class MethodTranslatorPool {
+    /** {@code > 0;} number of threads */
+    private final int threadCount;
+
+    /** {@code non-null;} the threads */
+    private final ExecutorService executor;
+
+    /**
+     * Work on one item, such as a method, picked by index.
+     */
+    public interface Worker {
+        /**
+         * Does the work on one item. This is called at most once for
+         * each index, possibly on several threads at once.
+         *
+         * @param index {@code >= 0;} index of the item
+         */
+        public void run(int index);
+    }
+
+    /**
+     * Constructs an instance.
+     *
+     * @param threadCount {@code > 0;} number of threads
+     */
+    public MethodTranslatorPool(int threadCount) {
+        if (threadCount <= 0) {
+            throw new IllegalArgumentException("threadCount <= 0");
+        }
+
+        this.threadCount = threadCount;
+        this.executor = Executors.newFixedThreadPool(threadCount,
+                new ThreadFactory() {
+                    public Thread newThread(Runnable r) {
+                        Thread result = new Thread(r, "dx-method-translator");
+                        result.setDaemon(true);
+                        return result;
+                    }
+                });
+    }
+
+    /**
+     * Gets the number of threads.
+     *
+     * @return {@code > 0;} the number of threads
+     */
+    public int getThreadCount() {
+        return threadCount;
+    }
+
+    /**
+     * Runs a worker on each of the indices {@code 0..count-1}, on the
+     * current thread and on whatever threads of the pool are free,
+     * and returns once all of them are done. If the worker fails on
+     * any index, the exception it threw on the lowest such index is
+     * rethrown here, as if the indices had been run in order.
+     *
+     * @param count {@code >= 0;} number of indices
+     * @param worker {@code non-null;} the work to do
+     */
+    public void runAll(int count, Worker worker) {
+        Job job = new Job(count, worker);
+        int helpers = Math.min(threadCount, count - 1);
+
+        for (int i = 0; i < helpers; i++) {
+            executor.execute(job);
+        }
+
+        job.run();
+
+        boolean interrupted = false;
+
+        while (true) {
+            try {
+                job.await();
+                break;
+            } catch (InterruptedException ex) {
+                /*
+                 * The methods that other threads have started on still
+                 * have to finish before their results can be used.
+                 */
+                interrupted = true;
+            }
+        }
+
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+
+        job.rethrowFirstFailure();
+    }
+
+    /**
+     * Stops the threads, once the work given to them so far is done.
+     */
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    /**
+     * The running of one worker over its indices. The same instance
+     * is run by the calling thread and by each helper.
+     */
+    private static final class Job implements Runnable {
+        /** {@code >= 0;} number of indices */
+        private final int count;
+
+        /** {@code non-null;} the work to do */
+        private final Worker worker;
+
+        /** {@code non-null;} the next index nobody has started on */
+        private final AtomicInteger next;
+
+        /**
+         * {@code non-null;} indexed by index: what the worker threw,
+         * if anything
+         */
+        private final Throwable[] failures;
+
+        /** {@code >= 0;} number of indices not yet done */
+        private int remaining;
+
+        /**
+         * Constructs an instance.
+         *
+         * @param count {@code >= 0;} number of indices
+         * @param worker {@code non-null;} the work to do
+         */
+        Job(int count, Worker worker) {
+            this.count = count;
+            this.worker = worker;
+            this.next = new AtomicInteger();
+            this.failures = new Throwable[count];
+            this.remaining = count;
+        }
+
+        /**
+         * Runs the worker on indices that nobody has started on, until
+         * there are none left.
+         */
+        public void run() {
+            for (int index = next.getAndIncrement(); index < count;
+                 index = next.getAndIncrement()) {
+                try {
+                    worker.run(index);
+                } catch (Throwable ex) {
+                    failures[index] = ex;
+                }
+
+                finishOne();
+            }
+        }
+
+        /**
+         * Notes that one more index is done.
+         */
+        private synchronized void finishOne() {
+            remaining--;
+
+            if (remaining == 0) {
+                notifyAll();
+            }
+        }
+
+        /**
+         * Waits for all the indices to be done.
+         */
+        synchronized void await() throws InterruptedException {
+            while (remaining != 0) {
+                wait();
+            }
+        }
+
+        /**
+         * Rethrows the failure with the lowest index, if any. Only
+         * valid once all the indices are done.
+         */
+        synchronized void rethrowFirstFailure() {
+            for (Throwable one : failures) {
+                if (one instanceof RuntimeException) {
+                    throw (RuntimeException) one;
+                } else if (one instanceof Error) {
+                    throw (Error) one;
+                } else if (one != null) {
+                    throw new RuntimeException(one);
+                }
+            }
+        }
+    }
+}
@@ -60,7 +60,7 @@ public class OptimizerOptions {
      * @param optimizeListFile Pathname
      * @param dontOptimizeListFile Pathname
      */
-    public static void loadOptimizeLists(String optimizeListFile,
+    public static synchronized void loadOptimizeLists(String optimizeListFile,
             String dontOptimizeListFile) {
         if (optimizeListsLoaded) {
             return;
@@ -0,0 +1,435 @@
+/*
+ * Copyright (C) 2007 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.dx.dex.cf;
+
+import com.android.dx.Version;
+import com.android.dx.rop.code.RopMethod;
+import com.android.dx.rop.code.RopMethodReader;
+import com.android.dx.rop.code.RopMethodWriter;
+import com.android.dx.util.FileUtils;
+import com.android.dx.util.Hex;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.security.CodeSource;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Map;
+
+/**
+ * On-disk cache of the rop-form methods that class translation
+ * produces, keyed by the contents of the classfile and the options
+ * which affect translation. A hit lets {@link CfTranslator} skip
+ * rop conversion and optimization, which dominate translation time;
+ * only the (comparatively cheap) conversion to dex form is redone.
+ *
+ * <p>Entries are written to a temporary file and then renamed into
+ * place, so an instance may be shared by several translating threads,
+ * and even by several concurrent processes using the same directory.
+ * Unreadable entries are treated as misses.</p>
+ *
+ * <p>The key also covers the class files of dx itself, so that entries
+ * written by a different build of the translator are never used. When
+ * an instance is constructed, the least recently used entries are
+ * removed until the directory is within its size limit.</p>
+ */
+public final class TranslationCache {
+    /** magic number at the start of each entry */
+    private static final int MAGIC = 0x64786301;
+
+    /** default limit on the size of the cache directory, in bytes */
+    public static final long DEFAULT_MAX_BYTES = 256L * 1024 * 1024;
+
+    /**
+     * how old, in milliseconds, a leftover temporary file must be before
+     * it is deleted; younger ones may still be being written
+     */
+    private static final long STALE_TEMP_MILLIS = 60L * 60 * 1000;
+
+    /**
+     * {@code null-ok;} digest of the code of dx itself, computed when
+     * first needed
+     */
+    private static byte[] codeDigest = null;
+
+    /** {@code non-null;} the directory entries are kept in */
+    private final File directory;
+
+    /**
+     * {@code non-null;} digest of everything other than the classfile
+     * itself that affects translation
+     */
+    private final byte[] optionsDigest;
+
+    /**
+     * Constructs an instance.
+     *
+     * @param directory {@code non-null;} the directory to keep entries
+     * in; created if it doesn't already exist
+     * @param options {@code non-null;} the options that classes will be
+     * translated with
+     * @param maxBytes {@code > 0;} the size the directory is trimmed to
+     */
+    public TranslationCache(File directory, CfOptions options,
+            long maxBytes) {
+        if (maxBytes <= 0) {
+            throw new IllegalArgumentException("maxBytes <= 0");
+        }
+
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new RuntimeException("cannot create cache directory: " +
+                    directory);
+        }
+
+        this.directory = directory;
+        this.optionsDigest = digestOptions(options);
+
+        trim(maxBytes);
+    }
+
+    /**
+     * Gets the key for the given classfile.
+     *
+     * @param bytes {@code non-null;} contents of the classfile
+     * @return {@code non-null;} the key
+     */
+    public String keyFor(byte[] bytes) {
+        MessageDigest md = newDigest();
+
+        md.update(optionsDigest);
+        md.update(bytes);
+
+        byte[] digest = md.digest();
+        StringBuilder sb = new StringBuilder(digest.length * 2);
+
+        for (byte b : digest) {
+            sb.append(Hex.u1(b));
+        }
+
+        return sb.toString();
+    }
+
+    /**
+     * Gets the cached methods for the given key.
+     *
+     * @param key {@code non-null;} the key, as returned by {@link #keyFor}
+     * @param methodCount {@code >= 0;} the number of methods in the class
+     * @return {@code null-ok;} the methods, indexed the same as the
+     * methods of the class, with {@code null} for those without code;
+     * or {@code null} if there is no usable entry
+     */
+    public RopMethod[] get(String key, int methodCount) {
+        File file = new File(directory, key);
+
+        if (!file.isFile()) {
+            return null;
+        }
+
+        try {
+            DataInputStream in = new DataInputStream(
+                    new BufferedInputStream(new FileInputStream(file)));
+
+            RopMethod[] result;
+
+            try {
+                if ((in.readInt() != MAGIC) || (in.readInt() != methodCount)) {
+                    return null;
+                }
+
+                RopMethodReader reader = new RopMethodReader(in);
+                result = new RopMethod[methodCount];
+
+                for (int i = 0; i < methodCount; i++) {
+                    if (in.readBoolean()) {
+                        result[i] = reader.read();
+                    }
+                }
+            } finally {
+                in.close();
+            }
+
+            // Mark it as recently used, for trim().
+            file.setLastModified(System.currentTimeMillis());
+            return result;
+        } catch (IOException ex) {
+            return null;
+        } catch (RuntimeException ex) {
+            // A damaged entry can fail rop-level validation; ignore it.
+            return null;
+        }
+    }
+
+    /**
+     * Stores the methods for the given key. Failure to store is not an
+     * error; the class will simply be translated again next time.
+     *
+     * @param key {@code non-null;} the key, as returned by {@link #keyFor}
+     * @param methods {@code non-null;} the methods, indexed the same as
+     * the methods of the class, with {@code null} for those without code
+     */
+    public void put(String key, RopMethod[] methods) {
+        File temp = null;
+
+        try {
+            temp = File.createTempFile(key, ".tmp", directory);
+            DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(new FileOutputStream(temp)));
+
+            try {
+                RopMethodWriter writer = new RopMethodWriter(out);
+
+                out.writeInt(MAGIC);
+                out.writeInt(methods.length);
+
+                for (RopMethod one : methods) {
+                    out.writeBoolean(one != null);
+                    if (one != null) {
+                        writer.write(one);
+                    }
+                }
+            } finally {
+                out.close();
+            }
+
+            File file = new File(directory, key);
+            if (temp.renameTo(file)) {
+                temp = null;
+            }
+        } catch (IOException ex) {
+            // Just don't cache it.
+        } catch (IllegalArgumentException ex) {
+            // The method contains something the writer can't represent.
+        } finally {
+            if (temp != null) {
+                temp.delete();
+            }
+        }
+    }
+
+    /**
+     * Removes leftover temporary files, and then the least recently
+     * used entries until the directory holds at most the given number
+     * of bytes. Failure to remove a file is not an error.
+     *
+     * @param maxBytes {@code > 0;} the size to trim the directory to
+     */
+    private void trim(long maxBytes) {
+        File[] files = directory.listFiles();
+
+        if (files == null) {
+            return;
+        }
+
+        long now = System.currentTimeMillis();
+        long total = 0;
+
+        for (int i = 0; i < files.length; i++) {
+            File one = files[i];
+
+            if (one.getName().endsWith(".tmp")
+                    && (now - one.lastModified() > STALE_TEMP_MILLIS)) {
+                one.delete();
+                files[i] = null;
+            } else {
+                total += one.length();
+            }
+        }
+
+        if (total <= maxBytes) {
+            return;
+        }
+
+        Arrays.sort(files, new Comparator<File>() {
+            public int compare(File a, File b) {
+                if (a == null || b == null) {
+                    return (a == null) ? ((b == null) ? 0 : -1) : 1;
+                }
+
+                long aTime = a.lastModified();
+                long bTime = b.lastModified();
+
+                return (aTime < bTime) ? -1 : ((aTime > bTime) ? 1 : 0);
+            }
+        });
+
+        for (File one : files) {
+            if (total <= maxBytes) {
+                break;
+            }
+
+            if ((one != null) && !one.getName().endsWith(".tmp")) {
+                long length = one.length();
+
+                if (one.delete()) {
+                    total -= length;
+                }
+            }
+        }
+    }
+
+    /**
+     * Computes the digest of the parts of the given options that affect translation.
+     *
+     * @param options {@code non-null;} the options
+     * @return {@code non-null;} the digest
+     */
+    private static byte[] digestOptions(CfOptions options) {
+        MessageDigest md = newDigest();
+        StringBuilder sb = new StringBuilder();
+
+        sb.append(Version.VERSION);
+        sb.append('\n').append(options.positionInfo);
+        sb.append('\n').append(options.localInfo);
+        sb.append('\n').append(options.optimize);
+
+        if (options.optimizerBudget != null) {
+            sb.append("\nbudget ");
+            sb.append(options.optimizerBudget.getMaxFullCost());
+        }
+
+        for (Map.Entry<String, String> patch :
+                 options.stringPatcher.getPatches()) {
+            sb.append("\npatch ").append(patch.getKey());
+            sb.append(" -> ").append(patch.getValue());
+        }
+
+        md.update(sb.toString().getBytes());
+        md.update(getCodeDigest());
+        digestFile(md, "optimize", options.optimizeListFile);
+        digestFile(md, "dont-optimize", options.dontOptimizeListFile);
+
+        return md.digest();
+    }
+
+    /**
+     * Gets the digest of the code of dx itself, that is, of the jar
+     * file or the class files in the directory that this class was
+     * loaded from. If that can't be found, the digest is unique to
+     * this run, so that nothing is reused.
+     *
+     * @return {@code non-null;} the digest
+     */
+    private static synchronized byte[] getCodeDigest() {
+        if (codeDigest != null) {
+            return codeDigest;
+        }
+
+        MessageDigest md = newDigest();
+        File location = null;
+
+        try {
+            CodeSource source =
+                TranslationCache.class.getProtectionDomain().getCodeSource();
+
+            if ((source != null) && (source.getLocation() != null)) {
+                location = new File(source.getLocation().toURI());
+            }
+        } catch (URISyntaxException ex) {
+            // Handled below.
+        } catch (IllegalArgumentException ex) {
+            // Not a file URI; handled below.
+        } catch (SecurityException ex) {
+            // Handled below.
+        }
+
+        try {
+            if (location == null) {
+                throw new RuntimeException("unknown code location");
+            } else if (location.isDirectory()) {
+                digestClassFiles(md, location, "");
+            } else {
+                md.update(FileUtils.readFile(location));
+            }
+        } catch (RuntimeException ex) {
+            md.update(Long.toString(System.currentTimeMillis()).getBytes());
+            md.update(Long.toString(System.nanoTime()).getBytes());
+        }
+
+        codeDigest = md.digest();
+        return codeDigest;
+    }
+
+    /**
+     * Adds the names and contents of the class files in the given
+     * directory and its subdirectories to a digest, in a fixed order.
+     *
+     * @param md {@code non-null;} the digest
+     * @param dir {@code non-null;} the directory
+     * @param prefix {@code non-null;} path of the directory, relative
+     * to where the walk started
+     */
+    private static void digestClassFiles(MessageDigest md, File dir,
+            String prefix) {
+        String[] names = dir.list();
+
+        if (names == null) {
+            throw new RuntimeException("cannot list " + dir);
+        }
+
+        Arrays.sort(names);
+
+        for (String name : names) {
+            File one = new File(dir, name);
+
+            if (one.isDirectory()) {
+                digestClassFiles(md, one, prefix + name + "/");
+            } else if (name.endsWith(".class")) {
+                md.update((prefix + name).getBytes());
+                md.update(FileUtils.readFile(one));
+            }
+        }
+    }
+
+    /**
+     * Adds the contents of the given file, if any, to a digest.
+     *
+     * @param md {@code non-null;} the digest
+     * @param label {@code non-null;} label for the file
+     * @param fileName {@code null-ok;} the file name
+     */
+    private static void digestFile(MessageDigest md, String label,
+            String fileName) {
+        if (fileName == null) {
+            return;
+        }
+
+        md.update(label.getBytes());
+        md.update(FileUtils.readFile(fileName));
+    }
+
+    /**
+     * Creates a new SHA-1 digest.
+     *
+     * @return {@code non-null;} the digest
+     */
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException ex) {
+            throw new RuntimeException(ex);
+        }
+    }
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright (C) 2007 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.dx.dex.cf._tests;
+
+import com.android.dx.dex.cf.MethodTranslatorPool;
+
+import junit.framework.TestCase;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Test the class {@code com.android.dx.dex.cf.MethodTranslatorPool}.
+ */
+public class _MethodTranslatorPool
+        extends TestCase {
+
+    public void test_runsEachIndexOnce() {
+        MethodTranslatorPool pool = new MethodTranslatorPool(3);
+
+        try {
+            for (int count = 0; count < 50; count += 7) {
+                final AtomicIntegerArray runs = new AtomicIntegerArray(count);
+
+                pool.runAll(count, new MethodTranslatorPool.Worker() {
+                    public void run(int index) {
+                        runs.incrementAndGet(index);
+                    }
+                });
+
+                for (int i = 0; i < count; i++) {
+                    assertEquals("count " + count + " index " + i,
+                            1, runs.get(i));
+                }
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    public void test_rethrowsLowestFailure() {
+        MethodTranslatorPool pool = new MethodTranslatorPool(2);
+
+        try {
+            pool.runAll(20, new MethodTranslatorPool.Worker() {
+                public void run(int index) {
+                    if ((index % 6) == 5) {
+                        throw new IllegalStateException("index " + index);
+                    }
+                }
+            });
+            fail("no exception");
+        } catch (IllegalStateException ex) {
+            assertEquals("index 5", ex.getMessage());
+        } finally {
+            pool.shutdown();
+        }
+    }
+}
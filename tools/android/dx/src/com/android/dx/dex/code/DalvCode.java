@@ -18,7 +18,10 @@ package com.android.dx.dex.code;
 
 import com.android.dx.rop.cst.Constant;
 import com.android.dx.rop.type.Type;
+import com.android.dx.util.ExceptionWithContext;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashSet;
 
 /**
@@ -26,6 +29,28 @@ import java.util.HashSet;
  * corresponds to a {@code code} structure in a {@code .dex} file.
  */
 public final class DalvCode {
+    /**
+     * {@code non-null;} catch builder that stands in for one that has
+     * no catches, so that the latter, and the rop form it refers to,
+     * can be let go of
+     */
+    private static final CatchBuilder NO_CATCHES = new CatchBuilder() {
+        /** {@inheritDoc} */
+        public CatchTable build() {
+            return CatchTable.EMPTY;
+        }
+
+        /** {@inheritDoc} */
+        public boolean hasAnyCatches() {
+            return false;
+        }
+
+        /** {@inheritDoc} */
+        public HashSet<Type> getCatchTypes() {
+            return new HashSet<Type>();
+        }
+    };
+
     /**
      * how much position info to preserve; one of the static
      * constants in {@link PositionList} 
@@ -68,6 +93,30 @@ public final class DalvCode {
      */
     private DalvInsnList insns;
 
+    /**
+     * whether {@link #finishEarly} was called, in which case the
+     * fields below stand in for the unprocessed instructions and catches
+     */
+    private boolean finishedEarly;
+
+    /**
+     * {@code null-ok;} the constants referred to by the instructions;
+     * set in {@link #finishEarly}
+     */
+    private Constant[] constants;
+
+    /**
+     * {@code null-ok;} the types caught anywhere in the code; set in
+     * {@link #finishEarly}
+     */
+    private Type[] catchTypes;
+
+    /** whether there is any position info; set in {@link #finishEarly} */
+    private boolean anyPositionInfo;
+
+    /** whether there is any local info; set in {@link #finishEarly} */
+    private boolean anyLocalInfo;
+
     /**
      * Constructs an instance.
      *
@@ -115,6 +164,63 @@ public final class DalvCode {
         unprocessedCatches = null;
     }
 
+    /**
+     * Does the final processing of the method right away, rather than
+     * once the indices of the file it goes in are known, and lets go
+     * of everything that was only needed to do it. In particular, this
+     * drops the catch builder, which refers to the whole rop form of
+     * the method. What is kept is the processed instructions, without
+     * their pseudo-instructions, the catch table, the position and
+     * local lists, and the constants that still need indices.
+     *
+     * <p>Code that refers to a string is left to be finished late,
+     * since whether a {@code const-string} needs its jumbo form depends
+     * on the index of its string, which is only known once the whole
+     * file is put together. Of such code, only the catch builder is let
+     * go of, and only if there are no catches. For the rest, formats
+     * get picked as if every index fits in 16 bits, which is all the
+     * other instructions that refer to constants can encode anyway.</p>
+     */
+    public void finishEarly() {
+        if (insns != null) {
+            throw new UnsupportedOperationException("already processed");
+        }
+
+        if (unprocessedInsns.hasAnyStringConstants()) {
+            if (!unprocessedCatches.hasAnyCatches()) {
+                unprocessedCatches = NO_CATCHES;
+            }
+            return;
+        }
+
+        HashSet<Constant> allConstants = unprocessedInsns.getAllConstants();
+        HashSet<Type> allCatchTypes = unprocessedCatches.getCatchTypes();
+
+        constants = allConstants.toArray(new Constant[allConstants.size()]);
+        catchTypes = allCatchTypes.toArray(new Type[allCatchTypes.size()]);
+        anyPositionInfo = unprocessedInsns.hasAnyPositionInfo();
+        anyLocalInfo = unprocessedInsns.hasAnyLocalInfo();
+        finishedEarly = true;
+
+        finishProcessingIfNecessary();
+
+        /*
+         * The positions and locals have been read off of the
+         * pseudo-instructions, and nothing else needs them.
+         */
+        int size = insns.size();
+        ArrayList<DalvInsn> real = new ArrayList<DalvInsn>(size);
+
+        for (int i = 0; i < size; i++) {
+            DalvInsn insn = insns.get(i);
+            if (insn.codeSize() != 0) {
+                real.add(insn);
+            }
+        }
+
+        insns = DalvInsnList.makeImmutable(real, insns.getRegistersSize());
+    }
+
     /**
      * Assign indices in all instructions that need them, using the
      * given callback to perform lookups. This must be called before
@@ -123,7 +229,26 @@ public final class DalvCode {
      * @param callback {@code non-null;} callback object
      */
     public void assignIndices(AssignIndicesCallback callback) {
-        unprocessedInsns.assignIndices(callback);
+        if (!finishedEarly) {
+            unprocessedInsns.assignIndices(callback);
+            return;
+        }
+
+        int size = insns.size();
+
+        for (int i = 0; i < size; i++) {
+            DalvInsn insn = insns.get(i);
+
+            if (!(insn instanceof CstInsn)) {
+                continue;
+            }
+
+            OutputFinisher.assignIndices((CstInsn) insn, callback);
+
+            if (!insn.getOpcode().getFormat().isCompatible(insn)) {
+                throw new ExceptionWithContext("index too large: " + insn);
+            }
+        }
     }
     
     /**
@@ -133,6 +258,10 @@ public final class DalvCode {
      * data to represent
      */
     public boolean hasPositions() {
+        if (finishedEarly) {
+            return (positionInfo != PositionList.NONE) && anyPositionInfo;
+        }
+
         return (positionInfo != PositionList.NONE)
             && unprocessedInsns.hasAnyPositionInfo();
     }
@@ -144,6 +273,10 @@ public final class DalvCode {
      * data to represent
      */
     public boolean hasLocals() {
+        if (finishedEarly) {
+            return anyLocalInfo;
+        }
+
         return unprocessedInsns.hasAnyLocalInfo();
     }
 
@@ -154,6 +287,10 @@ public final class DalvCode {
      * @return whether this instance has any catches at all
      */
     public boolean hasAnyCatches() {
+        if (finishedEarly) {
+            return catchTypes.length != 0;
+        }
+
         return unprocessedCatches.hasAnyCatches();
     }
     
@@ -163,6 +300,10 @@ public final class DalvCode {
      * @return {@code non-null;} the set of catch types
      */
     public HashSet<Type> getCatchTypes() {
+        if (finishedEarly) {
+            return new HashSet<Type>(Arrays.asList(catchTypes));
+        }
+
         return unprocessedCatches.getCatchTypes();
     }
 
@@ -173,6 +314,10 @@ public final class DalvCode {
      * @return {@code non-null;} the set of constants
      */
     public HashSet<Constant> getInsnConstants() {
+        if (finishedEarly) {
+            return new HashSet<Constant>(Arrays.asList(constants));
+        }
+
         return unprocessedInsns.getAllConstants();
     }
 
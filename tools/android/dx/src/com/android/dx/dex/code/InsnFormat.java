@@ -366,6 +366,21 @@ public abstract class InsnFormat {
         return value == (value & 0xffff);
     }
 
+    /**
+     * Helper method to determine if the constant pool index of an
+     * instruction fits in a short. An index that hasn't been set yet
+     * is taken to fit, so that formats can be picked for code that is
+     * finished before the indices of its file are known; see {@link
+     * DalvCode#finishEarly}.
+     *
+     * @param insn {@code non-null;} the instruction
+     * @return {@code true} iff its index is unset or in the range
+     * 0..0xffff
+     */
+    protected static boolean indexFitsInShort(CstInsn insn) {
+        return !insn.hasIndex() || unsignedFitsInShort(insn.getIndex());
+    }
+
     /**
      * Helper method to determine if a signed int value fits in three bytes.
      *
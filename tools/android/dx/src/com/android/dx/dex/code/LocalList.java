@@ -577,7 +577,13 @@ public final class LocalList extends FixedSizeList {
             int regNum = startedLocal.getReg();
 
             startedLocal = filterSpec(startedLocal);
-            aboutToProcess(address, regNum);
+
+            /*
+             * Make room for the register above as well when the local is
+             * category-2, since it gets looked at below. (Without a
+             * snapshot first, that may not have been seen yet.)
+             */
+            aboutToProcess(address, regNum + startedLocal.getCategory() - 1);
 
             RegisterSpec existingLocal = regs.get(regNum);
 
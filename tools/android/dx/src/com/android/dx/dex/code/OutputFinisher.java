@@ -23,6 +23,7 @@ import com.android.dx.rop.code.RegisterSpecSet;
 import com.android.dx.rop.code.SourcePosition;
 import com.android.dx.rop.cst.Constant;
 import com.android.dx.rop.cst.CstMemberRef;
+import com.android.dx.rop.cst.CstString;
 import com.android.dx.rop.cst.CstType;
 import com.android.dx.rop.cst.CstUtf8;
 import com.android.dx.rop.type.Type;
@@ -134,6 +135,25 @@ public final class OutputFinisher {
             && (spec.getLocalItem().getName() != null);
     }
 
+    /**
+     * Returns whether any instruction added to this instance refers to
+     * a string constant. Whether such an instruction needs a wider
+     * format depends on the index of its string.
+     * 
+     * @return {@code true} iff there is an instruction that refers to
+     * a string
+     */
+    public boolean hasAnyStringConstants() {
+        for (DalvInsn insn : insns) {
+            if ((insn instanceof CstInsn)
+                    && (((CstInsn) insn).getConstant() instanceof CstString)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
     /**
      * Returns the set of all constants referred to by instructions added
      * to this instance.
@@ -296,12 +316,13 @@ public final class OutputFinisher {
 
     /**
      * Helper for {@link #assignIndices} which does assignment for one
-     * instruction.
+     * instruction. This is also used by {@link DalvCode} on code that
+     * was finished early.
      * 
      * @param insn {@code non-null;} the instruction
      * @param callback {@code non-null;} the callback
      */
-    private static void assignIndices(CstInsn insn,
+    /*package*/ static void assignIndices(CstInsn insn,
             DalvCode.AssignIndicesCallback callback) {
         Constant cst = insn.getConstant();
         int index = callback.getIndex(cst);
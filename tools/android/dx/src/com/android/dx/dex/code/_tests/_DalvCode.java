@@ -0,0 +1,113 @@
+/*
+ * Copyright (C) 2007 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.dx.dex.code._tests;
+
+import com.android.dx.dex.cf.CfOptions;
+import com.android.dx.dex.cf.CfTranslator;
+import com.android.dx.dex.file.ClassDefItem;
+import com.android.dx.dex.file.DexFile;
+import com.android.dx.dex.file.EncodedField;
+import com.android.dx.rop.code.AccessFlags;
+import com.android.dx.rop.cst.CstFieldRef;
+import com.android.dx.rop.cst.CstNat;
+import com.android.dx.rop.cst.CstString;
+import com.android.dx.rop.cst.CstType;
+import com.android.dx.rop.cst.CstUtf8;
+import com.android.dx.rop.type.StdTypeList;
+import com.android.dx.rop.type.Type;
+import com.android.dx.util._tests.ClassFileFixture;
+
+import junit.framework.TestCase;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.Arrays;
+
+/**
+ * Test the class {@code com.android.dx.dex.code.DalvCode}.
+ */
+public class _DalvCode
+        extends TestCase {
+    /** number of static fields in the class that pads the string ids */
+    private static final int PAD_FIELDS = 33000;
+
+    public void test_finishEarlyMatchesLate() throws IOException {
+        byte[] late = translate(false, 0, null);
+        byte[] early = translate(true, 0, null);
+
+        assertTrue(Arrays.equals(late, early));
+    }
+
+    public void test_finishEarlyWithJumboStrings() throws IOException {
+        StringWriter human = new StringWriter();
+        byte[] late = translate(false, PAD_FIELDS, null);
+        byte[] early = translate(true, PAD_FIELDS, human);
+
+        assertTrue(Arrays.equals(late, early));
+        assertTrue(human.toString().indexOf("const-string/jumbo") >= 0);
+    }
+
+    /**
+     * Translates the fixture classes into a dex file, along with a
+     * class with the given number of static {@code String} fields,
+     * whose names and values each take up a string id. The values
+     * sort before the strings of the fixture classes.
+     *
+     * @param finishCodeEarly whether to finish the code of each method
+     * early
+     * @param padFields {@code >= 0;} number of fields of the extra class
+     * @param humanOut {@code null-ok;} where to write a human-oriented
+     * dump of the file
+     * @return {@code non-null;} the file
+     */
+    private static byte[] translate(boolean finishCodeEarly, int padFields,
+            StringWriter humanOut) throws IOException {
+        CfOptions options = new CfOptions();
+        DexFile dexFile = new DexFile();
+
+        options.finishCodeEarly = finishCodeEarly;
+
+        for (String name : ClassFileFixture.getNames()) {
+            dexFile.add(CfTranslator.translate(name,
+                            ClassFileFixture.getBytes(name), options));
+        }
+
+        if (padFields != 0) {
+            CstType padType = new CstType(Type.intern("Lfixture/Pad;"));
+            ClassDefItem pad = new ClassDefItem(padType,
+                    AccessFlags.ACC_PUBLIC, CstType.OBJECT,
+                    StdTypeList.EMPTY, null);
+            CstUtf8 stringDescriptor = new CstUtf8("Ljava/lang/String;");
+
+            for (int i = 0; i < padFields; i++) {
+                String suffix = Integer.toString(100000 + i).substring(1);
+                CstNat nat = new CstNat(new CstUtf8("f" + suffix),
+                        stringDescriptor);
+                EncodedField field = new EncodedField(
+                        new CstFieldRef(padType, nat),
+                        AccessFlags.ACC_PUBLIC | AccessFlags.ACC_STATIC);
+
+                pad.addStaticField(field,
+                        new CstString(new CstUtf8(" " + suffix)));
+            }
+
+            dexFile.add(pad);
+        }
+
+        return dexFile.toDex(humanOut, false);
+    }
+}
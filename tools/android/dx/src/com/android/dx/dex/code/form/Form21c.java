@@ -102,9 +102,8 @@ public final class Form21c extends InsnFormat {
         }
 
         CstInsn ci = (CstInsn) insn;
-        int cpi = ci.getIndex();
 
-        if (! unsignedFitsInShort(cpi)) {
+        if (! indexFitsInShort(ci)) {
             return false;
         }
 
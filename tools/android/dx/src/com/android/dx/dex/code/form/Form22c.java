@@ -78,9 +78,8 @@ public final class Form22c extends InsnFormat {
         }
 
         CstInsn ci = (CstInsn) insn;
-        int cpi = ci.getIndex();
 
-        if (! unsignedFitsInShort(cpi)) {
+        if (! indexFitsInShort(ci)) {
             return false;
         }
         
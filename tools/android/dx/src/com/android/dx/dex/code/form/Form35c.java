@@ -77,9 +77,8 @@ public final class Form35c extends InsnFormat {
         }
 
         CstInsn ci = (CstInsn) insn;
-        int cpi = ci.getIndex();
 
-        if (! unsignedFitsInShort(cpi)) {
+        if (! indexFitsInShort(ci)) {
             return false;
         }
 
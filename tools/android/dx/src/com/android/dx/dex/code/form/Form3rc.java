@@ -106,9 +106,8 @@ public final class Form3rc extends InsnFormat {
         }
 
         CstInsn ci = (CstInsn) insn;
-        int cpi = ci.getIndex();
 
-        if (! unsignedFitsInShort(cpi)) {
+        if (! indexFitsInShort(ci)) {
             return false;
         }
 
@@ -35,13 +35,13 @@ import java.util.Comparator;
  */
 public final class AnnotationItem extends OffsettedItem {
     /** annotation visibility constant: visible at build time only */
-    private static final int VISIBILITY_BUILD = 0;
+    public static final int VISIBILITY_BUILD = 0;
     
     /** annotation visibility constant: visible at runtime */
-    private static final int VISIBILITY_RUNTIME = 1;
+    public static final int VISIBILITY_RUNTIME = 1;
 
     /** annotation visibility constant: visible at runtime only to system */
-    private static final int VISIBILITY_SYSTEM = 2;
+    public static final int VISIBILITY_SYSTEM = 2;
     
     /** the required alignment for instances of this class */
     private static final int ALIGNMENT = 1;
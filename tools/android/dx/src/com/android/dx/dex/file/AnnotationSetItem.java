@@ -111,6 +111,16 @@ public final class AnnotationSetItem extends OffsettedItem {
         return annotations.toString();
     }
 
+    /**
+     * Adds the method and field references that adding this instance
+     * to a file interns.
+     * 
+     * @param refs {@code non-null;} where to add the references
+     */
+    /*package*/ void addMemberRefs(MemberRefs refs) {
+        refs.add(annotations);
+    }
+
     /** {@inheritDoc} */
     public void addContents(DexFile file) {
         MixedItemSection byteData = file.getByteData();
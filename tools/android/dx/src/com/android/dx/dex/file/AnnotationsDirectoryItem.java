@@ -236,6 +236,36 @@ public final class AnnotationsDirectoryItem extends OffsettedItem {
         return null;
     }
     
+    /**
+     * Adds the method and field references that adding this instance
+     * to a file interns.
+     * 
+     * @param refs {@code non-null;} where to add the references
+     */
+    /*package*/ void addMemberRefs(MemberRefs refs) {
+        if (classAnnotations != null) {
+            classAnnotations.addMemberRefs(refs);
+        }
+
+        if (fieldAnnotations != null) {
+            for (FieldAnnotationStruct item : fieldAnnotations) {
+                item.addMemberRefs(refs);
+            }
+        }
+
+        if (methodAnnotations != null) {
+            for (MethodAnnotationStruct item : methodAnnotations) {
+                item.addMemberRefs(refs);
+            }
+        }
+
+        if (parameterAnnotations != null) {
+            for (ParameterAnnotationStruct item : parameterAnnotations) {
+                item.addMemberRefs(refs);
+            }
+        }
+    }
+
     /** {@inheritDoc} */
     public void addContents(DexFile file) {
         MixedItemSection wordData = file.getWordData();
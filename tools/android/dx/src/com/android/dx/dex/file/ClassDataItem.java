@@ -224,6 +224,34 @@ public final class ClassDataItem extends OffsettedItem {
         }
     }
 
+    /**
+     * Adds the method and field references that adding this instance
+     * to a file interns.
+     * 
+     * @param refs {@code non-null;} where to add the references
+     */
+    /*package*/ void addMemberRefs(MemberRefs refs) {
+        for (EncodedField field : staticFields) {
+            refs.add(field.getRef());
+        }
+
+        for (Constant value : staticValues.values()) {
+            refs.add(value);
+        }
+
+        for (EncodedField field : instanceFields) {
+            refs.add(field.getRef());
+        }
+
+        for (EncodedMethod method : directMethods) {
+            method.addMemberRefs(refs);
+        }
+
+        for (EncodedMethod method : virtualMethods) {
+            method.addMemberRefs(refs);
+        }
+    }
+
     /** {@inheritDoc} */
     @Override
     public void addContents(DexFile file) {
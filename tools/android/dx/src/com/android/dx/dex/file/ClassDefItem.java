@@ -125,6 +125,17 @@ public final class ClassDefItem extends IndexedItem {
         return WRITE_SIZE;
     }
 
+    /**
+     * Adds the method and field references that adding this instance
+     * to a file interns.
+     * 
+     * @param refs {@code non-null;} where to add the references
+     */
+    /*package*/ void addMemberRefs(MemberRefs refs) {
+        classData.addMemberRefs(refs);
+        annotationsDirectory.addMemberRefs(refs);
+    }
+
     /** {@inheritDoc} */
     @Override
     public void addContents(DexFile file) {
@@ -112,6 +112,18 @@ public final class CodeItem extends OffsettedItem {
         return ItemType.TYPE_CODE_ITEM;
     }
 
+    /**
+     * Adds the method and field references that adding this instance
+     * to a file interns.
+     * 
+     * @param refs {@code non-null;} where to add the references
+     */
+    /*package*/ void addMemberRefs(MemberRefs refs) {
+        for (Constant c : code.getInsnConstants()) {
+            refs.add(c);
+        }
+    }
+
     /** {@inheritDoc} */
     public void addContents(DexFile file) {
         MixedItemSection byteData = file.getByteData();
@@ -189,8 +201,7 @@ public final class CodeItem extends OffsettedItem {
 
     /** {@inheritDoc} */
     @Override
-    protected void place0(Section addedTo, int offset) {
-        final DexFile file = addedTo.getFile();
+    protected void prePlace0(final DexFile file) {
         int catchesSize;
         
         /*
@@ -38,12 +38,16 @@ import static com.android.dx.dex.file.DebugInfoConstants.*;
 /**
  * A decoder for the dex debug info state machine format.
  * This code exists mostly as a reference implementation and test for
- * for the {@code DebugInfoEncoder}
+ * for the {@code DebugInfoEncoder}, and to read back the debug info
+ * of dex files that are being merged.
  */
 public class DebugInfoDecoder {
     /** encoded debug info */
     private final byte[] encoded;
 
+    /** offset of the start of the debug info in {@link #encoded} */
+    private final int offset;
+
     /** positions decoded */
     private final ArrayList<PositionEntry> positions;
 
@@ -62,9 +66,6 @@ public class DebugInfoDecoder {
     /** true if method is static */
     private final boolean isStatic;
 
-    /** dex file this debug info will be stored in */
-    private final DexFile file;
-
     /**
      * register size, in register units, of the register space
      * used by this method
@@ -93,40 +94,70 @@ public class DebugInfoDecoder {
      */
     DebugInfoDecoder(byte[] encoded, int codesize, int regSize,
             boolean isStatic, CstMethodRef ref, DexFile file) {
+        this(encoded, 0, codesize, regSize, isStatic, ref,
+                thisStringIndex(file));
+    }
+
+    /**
+     * Constructs an instance, for debug info that is part of a larger
+     * array, such as a whole dex file.
+     *
+     * @param encoded {@code non-null;} array containing the encoded
+     * debug info
+     * @param offset {@code >= 0;} offset of the debug info in
+     * {@code encoded}
+     * @param codesize size of code block in code units
+     * @param regSize register size, in register units, of the register space
+     * used by this method
+     * @param isStatic true if method is static
+     * @param ref method descriptor of method this debug info is for
+     * @param thisStringIdx index of the string {@code "this"} in the
+     * strings table that the debug info refers to, or {@code -1} if
+     * there isn't one
+     */
+    public DebugInfoDecoder(byte[] encoded, int offset, int codesize,
+            int regSize, boolean isStatic, CstMethodRef ref,
+            int thisStringIdx) {
         if (encoded == null) {
             throw new NullPointerException("encoded == null");
         }
 
         this.encoded = encoded;
+        this.offset = offset;
         this.isStatic = isStatic;
         this.desc = ref.getPrototype();
-        this.file = file;
         this.regSize = regSize;
         
         positions = new ArrayList<PositionEntry>();
         locals = new ArrayList<LocalEntry>();
         this.codesize = codesize;
         lastEntryForReg = new LocalEntry[regSize];
+        this.thisStringIdx = thisStringIdx;
+    }
 
-        int idx = -1;
-
+    /**
+     * Gets the index of the string {@code "this"} in the given file.
+     *
+     * @param file {@code non-null;} file to look in
+     * @return the index, or {@code -1} if there isn't one
+     */
+    private static int thisStringIndex(DexFile file) {
         try {
-            idx = file.getStringIds().indexOf(new CstUtf8("this"));
+            return file.getStringIds().indexOf(new CstUtf8("this"));
         } catch (IllegalArgumentException ex) {
             /*
              * Silently tolerate not finding "this". It just means that
              * no method has local variable info that looks like
              * a standard instance method.
              */
+            return -1;
         }
-
-        thisStringIdx = idx;
     }
 
     /**
      * An entry in the resulting postions table
      */
-    static private class PositionEntry {
+    public static class PositionEntry {
         /** bytecode address */
         public int address;
 
@@ -142,7 +173,7 @@ public class DebugInfoDecoder {
     /**
      * An entry in the resulting locals table
      */
-    static private class LocalEntry {
+    public static class LocalEntry {
         /** address of event */
         public int address;
 
@@ -152,13 +183,17 @@ public class DebugInfoDecoder {
         /** register number */
         public int reg;
 
-        /** index of name in strings table */
+        /** index of name in strings table, or {@code -1} if none */
         public int nameIndex;
 
-        /** index of type in types table */
+        /**
+         * index of type in types table, or {@code -1} if none; always
+         * {@code -1} for the entries that the parameters of the method
+         * start out with, whose type is the declared one
+         */
         public int typeIndex;
 
-        /** index of type signature in strings table */
+        /** index of type signature in strings table, or {@code -1} if none */
         public int signatureIndex;
 
         public LocalEntry(int address, boolean isStart, int reg, int nameIndex,
@@ -237,7 +272,8 @@ public class DebugInfoDecoder {
     }
 
     private void decode0() throws IOException {
-        ByteArrayInputStream bs = new ByteArrayInputStream(encoded);
+        ByteArrayInputStream bs = new ByteArrayInputStream(encoded, offset,
+                encoded.length - offset);
 
         line = readUnsignedLeb128(bs);
         int szParams = readUnsignedLeb128(bs);
@@ -252,7 +288,7 @@ public class DebugInfoDecoder {
         if (!isStatic) {
             // Start off with implicit 'this' entry
             LocalEntry thisEntry =
-                new LocalEntry(0, true, curReg, thisStringIdx, 0, 0);
+                new LocalEntry(0, true, curReg, thisStringIdx, -1, -1);
             locals.add(thisEntry);
             lastEntryForReg[curReg] = thisEntry;
             curReg++;
@@ -269,10 +305,9 @@ public class DebugInfoDecoder {
                  * Unnamed parameter; often but not always filled in by an
                  * extended start op after the prologue
                  */
-                le = new LocalEntry(0, true, curReg, -1, 0, 0);
+                le = new LocalEntry(0, true, curReg, -1, -1, -1);
             } else {
-                // TODO: Final 0 should be idx of paramType.getDescriptor().
-                le = new LocalEntry(0, true, curReg, nameIdx, 0, 0);
+                le = new LocalEntry(0, true, curReg, nameIdx, -1, -1);
             }
 
             locals.add(le);
@@ -295,7 +330,7 @@ public class DebugInfoDecoder {
                     int nameIdx = readStringIndex(bs);
                     int typeIdx = readStringIndex(bs);
                     LocalEntry le = new LocalEntry(
-                            address, true, reg, nameIdx, typeIdx, 0);
+                            address, true, reg, nameIdx, typeIdx, -1);
 
                     locals.add(le);
                     lastEntryForReg[reg] = le;
@@ -330,7 +365,8 @@ public class DebugInfoDecoder {
                         }
 
                         le = new LocalEntry(address, true, reg,
-                                prevle.nameIndex, prevle.typeIndex, 0);
+                                prevle.nameIndex, prevle.typeIndex,
+                                prevle.signatureIndex);
                     } catch (NullPointerException ex) {
                         throw new RuntimeException(
                                 "Encountered RESTART_LOCAL on new v" + reg);
@@ -389,6 +425,7 @@ public class DebugInfoDecoder {
 
                 case DBG_SET_FILE:
                     //TODO do something with this.
+                    readStringIndex(bs);
                 break;
 
                 default:
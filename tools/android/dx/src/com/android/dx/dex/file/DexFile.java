@@ -24,15 +24,29 @@ import com.android.dx.rop.cst.CstString;
 import com.android.dx.rop.cst.CstType;
 import com.android.dx.rop.cst.CstUtf8;
 import com.android.dx.rop.type.Type;
+import com.android.dx.util.AnnotatedOutput;
 import com.android.dx.util.ByteArrayAnnotatedOutput;
 import com.android.dx.util.ExceptionWithContext;
+import com.android.dx.util.PhaseProfiler;
+import com.android.dx.util.StreamAnnotatedOutput;
 
+import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
 import java.security.DigestException;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.zip.Adler32;
 
 import static com.android.dx.dex.file.MixedItemSection.SortType;
@@ -42,6 +56,12 @@ import static com.android.dx.dex.file.MixedItemSection.SortType;
  * file, which itself consists of a set of Dalvik classes.
  */
 public final class DexFile {
+    /**
+     * minimum number of bytes of a section to write as a single task,
+     * when writing with multiple threads
+     */
+    private static final int WRITE_CHUNK_SIZE = 64 * 1024;
+
     /** {@code non-null;} word data section */
     private final MixedItemSection wordData;
 
@@ -101,6 +121,9 @@ public final class DexFile {
     /** {@code >= 40;} maximum width of the file dump */
     private int dumpWidth;
 
+    /** {@code >= 1;} number of threads to use when producing output */
+    private int threadCount;
+
     /**
      * Constructs an instance. It is initially empty.
      */
@@ -131,6 +154,48 @@ public final class DexFile {
         
         fileSize = -1;
         dumpWidth = 79;
+        threadCount = 1;
+    }
+
+    /**
+     * Makes room in the identifier sections for the elements that
+     * translating the given amount of class files is likely to need,
+     * so that interning them doesn't have to grow the underlying
+     * tables on the way. The estimate leans high, since it is based
+     * on classes that share few of their references with each other.
+     * This may be called again, with a larger total, as more input
+     * becomes known.
+     * 
+     * @param classFileBytes {@code >= 0;} total size of the class
+     * files that will be added, including any added already
+     */
+    public void presize(long classFileBytes) {
+        if (classFileBytes < 0) {
+            throw new IllegalArgumentException("classFileBytes < 0");
+        }
+
+        long kib = classFileBytes / 1024;
+
+        // These are a bit above what typical code needs per KiB.
+        stringIds.presize(presizeCount(kib * 5, 1 << 20));
+        typeIds.presize(presizeCount(kib * 3 / 5, 65536));
+        protoIds.presize(presizeCount(kib, 65536));
+        fieldIds.presize(presizeCount(kib * 2, 65536));
+        methodIds.presize(presizeCount(kib * 4, 65536));
+    }
+
+    /**
+     * Helper for {@link #presize}, which caps an estimated count.
+     * Most kinds of identifiers can't number more than a 16-bit
+     * index can refer to, and anything much bigger than that is
+     * more likely a bad estimate than a real need.
+     * 
+     * @param estimate {@code >= 0;} the estimated count
+     * @param max {@code > 0;} the cap
+     * @return {@code >= 0;} the count to presize for
+     */
+    private static int presizeCount(long estimate, int max) {
+        return (int) Math.min(estimate, max);
     }
 
     /**
@@ -215,6 +280,24 @@ public final class DexFile {
         this.dumpWidth = dumpWidth;
     }
 
+    /**
+     * Sets the number of threads to use when producing the binary form
+     * of the instance. With more than one, the work of placing code
+     * and debug info is spread across threads, the sections are written
+     * concurrently, and the signature and checksum are computed while
+     * the rest of the file is still being written. Human-oriented
+     * output is always produced with a single thread.
+     * 
+     * @param threadCount {@code >= 1;} the number of threads
+     */
+    public void setThreadCount(int threadCount) {
+        if (threadCount < 1) {
+            throw new IllegalArgumentException("threadCount < 1");
+        }
+
+        this.threadCount = threadCount;
+    }
+
     /**
      * Gets the total file size, if known.
      * 
@@ -475,6 +558,99 @@ public final class DexFile {
      */
     private ByteArrayAnnotatedOutput toDex0(boolean annotate,
             boolean verbose) {
+        if (annotate || (threadCount == 1)) {
+            return toDex0(annotate, verbose, null);
+        }
+
+        ExecutorService pool = Executors.newFixedThreadPool(threadCount);
+
+        try {
+            return toDex0(false, false, pool);
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * Helper for {@link #toDex0(boolean,boolean)}, which does the
+     * actual work, using the given pool if any.
+     * 
+     * @param annotate whether or not to keep annotations; must be
+     * {@code false} if {@code pool != null}
+     * @param verbose if annotating, whether to be verbose
+     * @param pool {@code null-ok;} pool to spread the work over, or
+     * {@code null} to do it all on the calling thread
+     * @return {@code non-null;} a {@code .dex} file for this instance
+     */
+    private ByteArrayAnnotatedOutput toDex0(boolean annotate,
+            boolean verbose, ExecutorService pool) {
+        place(pool);
+
+        // Write out all the sections.
+
+        int count = sections.length;
+        byte[] barr = new byte[fileSize];
+        ByteArrayAnnotatedOutput out = new ByteArrayAnnotatedOutput(barr);
+
+        if (annotate) {
+            out.enableAnnotations(dumpWidth, verbose);
+        }
+
+        if (pool != null) {
+            writeConcurrently(barr, pool);
+            out.writeZeroes(fileSize);
+            return out;
+        }
+
+        for (int i = 0; i < count; i++) {
+            try {
+                Section one = sections[i];
+                int zeroCount = one.getFileOffset() - out.getCursor();
+                if (zeroCount < 0) {
+                    throw new ExceptionWithContext("excess write of " +
+                            (-zeroCount));
+                }
+                out.writeZeroes(one.getFileOffset() - out.getCursor());
+                one.writeTo(out);
+            } catch (RuntimeException ex) {
+                ExceptionWithContext ec;
+                if (ex instanceof ExceptionWithContext) {
+                    ec = (ExceptionWithContext) ex;
+                } else {
+                    ec = new ExceptionWithContext(ex);
+                }
+                ec.addContext("...while writing section " + i);
+                throw ec;
+            }
+        }
+
+        if (out.getCursor() != fileSize) {
+            throw new RuntimeException("foreshortened write");
+        }
+
+        // Perform final bookkeeping.
+        
+        calcSignature(barr);
+        calcChecksum(barr);
+
+        if (annotate) {
+            wordData.writeIndexAnnotation(out, ItemType.TYPE_CODE_ITEM,
+                    "\nmethod code index:\n\n");
+            getStatistics().writeAnnotation(out);
+            out.finishAnnotating();
+        }
+
+        return out;
+    }
+
+    /**
+     * Prepares all the sections and places them within the file,
+     * which determines {@link #fileSize}.
+     * 
+     * @param pool {@code null-ok;} pool to spread the work over, or
+     * {@code null} to do it all on the calling thread
+     */
+    private void place(ExecutorService pool) {
         /*
          * The following is ordered so that the prepare() calls which
          * add items happen before the calls to the sections that get
@@ -494,6 +670,18 @@ public final class DexFile {
         stringData.prepare();
         header.prepare();
 
+        /*
+         * The above has to be done in order, but once all the items
+         * are in, the bulk of the work of placing the code and debug
+         * info items only depends on the indices of the items they
+         * refer to. Debug info needs its code to be finished first.
+         */
+
+        if (pool != null) {
+            prePlaceItems(wordData, pool);
+            prePlaceItems(byteData, pool);
+        }
+
         // Place the sections within the file.
 
         int count = sections.length;
@@ -532,70 +720,531 @@ public final class DexFile {
             }
         }
 
-        // Write out all the sections.
-
         fileSize = offset;
-        byte[] barr = new byte[fileSize];
-        ByteArrayAnnotatedOutput out = new ByteArrayAnnotatedOutput(barr);
+    }
 
-        if (annotate) {
-            out.enableAnnotations(dumpWidth, verbose);
+    /**
+     * Generates and returns statistics for all the items in the file.
+     * 
+     * @return {@code non-null;} the statistics
+     */
+    public Statistics getStatistics() {
+        Statistics stats = new Statistics();
+
+        for (Section s : sections) {
+            stats.addAll(s);
         }
 
-        for (int i = 0; i < count; i++) {
+        return stats;
+    }
+
+    /**
+     * Runs {@link OffsettedItem#prePlace} on all the items of the given
+     * section, spread across the given pool.
+     * 
+     * @param section {@code non-null;} the section
+     * @param pool {@code non-null;} the pool to use
+     */
+    private static void prePlaceItems(final MixedItemSection section,
+            ExecutorService pool) {
+        final DexFile file = section.getFile();
+        final ArrayList<OffsettedItem> items =
+            new ArrayList<OffsettedItem>(section.size());
+
+        for (Item one : section.items()) {
+            items.add((OffsettedItem) one);
+        }
+
+        int size = items.size();
+        int batchCount = Math.min(size, 16 * file.threadCount);
+        ArrayList<Future<Void>> futures = new ArrayList<Future<Void>>();
+
+        for (int i = 0; i < batchCount; i++) {
+            final int start = (int) ((long) size * i / batchCount);
+            final int end = (int) ((long) size * (i + 1) / batchCount);
+
+            futures.add(pool.submit(new Callable<Void>() {
+                    public Void call() {
+                        PhaseProfiler.Sample sample = PhaseProfiler.begin();
+
+                        for (int j = start; j < end; j++) {
+                            items.get(j).prePlace(file);
+                        }
+
+                        PhaseProfiler.end(sample, section.getProfileName(),
+                                PhaseProfiler.Phase.SECTION_PREPARE);
+                        return null;
+                    }
+                }));
+        }
+
+        for (Future<Void> one : futures) {
+            await(one);
+        }
+    }
+
+    /**
+     * Writes all the (already placed) sections into the given array,
+     * spread across the given pool, and fills in the signature and
+     * checksum. Each region is written by its own task, and the
+     * signature and checksum are accumulated over each region, in file
+     * order, as soon as it has been written.
+     * 
+     * @param barr {@code non-null;} array to write to, of the size of
+     * the file
+     * @param pool {@code non-null;} the pool to use
+     */
+    private void writeConcurrently(final byte[] barr, ExecutorService pool) {
+        ArrayList<Region> regions = makeRegions();
+        ArrayList<Future<Integer>> futures = new ArrayList<Future<Integer>>();
+
+        for (final Region one : regions) {
+            futures.add(pool.submit(new Callable<Integer>() {
+                    public Integer call() {
+                        ByteArrayAnnotatedOutput out =
+                            new ByteArrayAnnotatedOutput(barr);
+                        one.writeTo(out);
+                        return out.getCursor();
+                    }
+                }));
+        }
+
+        Signer signer = new Signer();
+        int regionCount = regions.size();
+        int end = 0;
+
+        for (int i = 0; i < regionCount; i++) {
+            int start = regions.get(i).offset;
+            int limit =
+                (i + 1 < regionCount) ? regions.get(i + 1).offset : fileSize;
+            int written = await(futures.get(i));
+
+            if (written > limit) {
+                throw new ExceptionWithContext("excess write of " +
+                        (written - limit));
+            }
+
+            signer.update(barr, start, limit - start);
+            end = written;
+        }
+
+        if (end != fileSize) {
+            throw new RuntimeException("foreshortened write");
+        }
+
+        signer.finish(barr);
+    }
+
+    /**
+     * Writes the contents of this instance, in binary form, to the
+     * given channel starting at its current position. Rather than
+     * building the whole file in memory, this streams it out a region
+     * at a time, computing the signature and checksum along the way,
+     * and then goes back and patches them into the header.
+     * 
+     * @param channel {@code non-null;} where to write to; must support
+     * writing at a given position
+     */
+    public void writeTo(FileChannel channel) throws IOException {
+        ExecutorService pool = (threadCount == 1) ? null :
+            Executors.newFixedThreadPool(threadCount);
+
+        try {
+            writeTo0(channel, pool);
+        } catch (RuntimeException ex) {
+            // Surface any I/O trouble from the output as such.
+            for (Throwable t = ex; t != null; t = t.getCause()) {
+                if (t instanceof IOException) {
+                    throw (IOException) t;
+                }
+            }
+            throw ex;
+        } finally {
+            if (pool != null) {
+                pool.shutdownNow();
+            }
+        }
+    }
+
+    /**
+     * Helper for {@link #writeTo(FileChannel)}, which does the actual
+     * work.
+     * 
+     * @param channel {@code non-null;} where to write to
+     * @param pool {@code null-ok;} pool to spread the work over, or
+     * {@code null} to do it all on the calling thread
+     */
+    private void writeTo0(FileChannel channel, ExecutorService pool)
+            throws IOException {
+        place(pool);
+
+        long start = channel.position();
+        Signer signer = new Signer();
+        StreamAnnotatedOutput out = new StreamAnnotatedOutput(
+                new SigningOutputStream(Channels.newOutputStream(channel),
+                        signer));
+        ArrayList<Region> regions = makeRegions();
+
+        if (pool == null) {
+            for (Region one : regions) {
+                one.writeTo(out);
+            }
+        } else {
+            writeStreamed(regions, out, pool);
+        }
+
+        out.flush();
+
+        if (out.getCursor() != fileSize) {
+            throw new RuntimeException("foreshortened write");
+        }
+
+        byte[] header = new byte[32];
+        signer.finish(header);
+
+        ByteBuffer patch = ByteBuffer.wrap(header, 8, 24);
+        long at = start + 8;
+
+        while (patch.hasRemaining()) {
+            at += channel.write(patch, at);
+        }
+    }
+
+    /**
+     * Writes the given regions to the given output, in order, with the
+     * regions themselves rendered by tasks on the given pool. Only a
+     * bounded number of regions are rendered ahead of the one being
+     * output, so as to keep memory use in check.
+     * 
+     * @param regions {@code non-null;} the regions, in file order
+     * @param out {@code non-null;} where to write to
+     * @param pool {@code non-null;} the pool to use
+     */
+    private void writeStreamed(ArrayList<Region> regions,
+            StreamAnnotatedOutput out, ExecutorService pool) {
+        int regionCount = regions.size();
+        int window = 4 * threadCount;
+        ArrayList<Future<byte[]>> futures = new ArrayList<Future<byte[]>>();
+
+        for (int i = 0; i < regionCount; i++) {
+            while ((futures.size() < regionCount) &&
+                    (futures.size() < i + window)) {
+                final Region one = regions.get(futures.size());
+                futures.add(pool.submit(new Callable<byte[]>() {
+                        public byte[] call() {
+                            ByteArrayOutputStream bytes =
+                                new ByteArrayOutputStream();
+                            StreamAnnotatedOutput regionOut =
+                                new StreamAnnotatedOutput(bytes, one.offset);
+                            one.writeTo(regionOut);
+                            regionOut.flush();
+                            return bytes.toByteArray();
+                        }
+                    }));
+            }
+
+            byte[] bytes = await(futures.get(i));
+            int zeroCount = regions.get(i).offset - out.getCursor();
+
+            // Let it be gc'ed.
+            futures.set(i, null);
+
+            if (zeroCount < 0) {
+                throw new ExceptionWithContext("excess write of " +
+                        (-zeroCount));
+            }
+
+            out.writeZeroes(zeroCount);
+            out.write(bytes);
+        }
+    }
+
+    /**
+     * Splits the (already placed) file into contiguous regions which
+     * can be written independently: each non-mixed section is one
+     * region, and the items of each mixed section are grouped into
+     * runs of at least {@link #WRITE_CHUNK_SIZE} bytes (but for the
+     * last one).
+     * 
+     * @return {@code non-null;} the regions, in file order
+     */
+    private ArrayList<Region> makeRegions() {
+        ArrayList<Region> regions = new ArrayList<Region>();
+
+        for (int i = 0; i < sections.length; i++) {
+            Section one = sections[i];
+
+            if (!(one instanceof MixedItemSection)) {
+                regions.add(new Region(i, one, one.getFileOffset(), 0, 0));
+                continue;
+            }
+
+            int first = 0;
+            int firstOffset = 0;
+            int at = 0;
+
+            for (Item item : one.items()) {
+                OffsettedItem offsetted = (OffsettedItem) item;
+                int offset = offsetted.getAbsoluteOffset();
+
+                if (at == first) {
+                    firstOffset = offset;
+                }
+
+                at++;
+
+                if ((offset + offsetted.writeSize() - firstOffset)
+                        >= WRITE_CHUNK_SIZE) {
+                    regions.add(new Region(i, one, firstOffset, first, at));
+                    first = at;
+                }
+            }
+
+            if (first < at) {
+                regions.add(new Region(i, one, firstOffset, first, at));
+            }
+        }
+
+        return regions;
+    }
+
+    /**
+     * Combines the Adler-32 checksums of two consecutive runs of bytes
+     * into the checksum of the combined run.
+     * 
+     * @param adler1 the checksum of the first run
+     * @param adler2 the checksum of the second run
+     * @param len2 {@code >= 0;} the length of the second run
+     * @return the checksum of the combined run
+     */
+    private static int combineAdler32(int adler1, int adler2, int len2) {
+        final long base = 65521;
+        long rem = len2 % base;
+        long sum1 = adler1 & 0xffff;
+        long sum2 = (rem * sum1) % base;
+
+        sum1 += (adler2 & 0xffff) + base - 1;
+        sum2 += ((adler1 >>> 16) & 0xffff) + ((adler2 >>> 16) & 0xffff)
+            + base - rem;
+
+        sum1 %= base;
+        sum2 %= base;
+
+        return (int) ((sum2 << 16) | sum1);
+    }
+
+    /**
+     * Waits for the given task to finish, rethrowing anything it threw.
+     * 
+     * @param future {@code non-null;} the task
+     * @return {@code null-ok;} the task's result
+     */
+    private static <T> T await(Future<T> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException ex) {
+            throw new RuntimeException(ex);
+        } catch (ExecutionException ex) {
+            Throwable cause = ex.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new RuntimeException(cause);
+        }
+    }
+
+    /**
+     * Contiguous part of the file which gets written in one go: either
+     * a whole section, or a run of the items of a mixed section.
+     */
+    private static class Region {
+        /** index of the section, for error reporting */
+        private final int index;
+
+        /** {@code non-null;} the section */
+        private final Section section;
+
+        /** {@code >= 0;} file offset of the start of the region */
+        private final int offset;
+
+        /**
+         * {@code >= 0;} index of the first item to write, if
+         * {@link #section} is mixed
+         */
+        private final int start;
+
+        /**
+         * {@code >= start;} index just past the last item to write, if
+         * {@link #section} is mixed
+         */
+        private final int end;
+
+        /**
+         * Constructs an instance.
+         * 
+         * @param index index of the section
+         * @param section {@code non-null;} the section
+         * @param offset {@code >= 0;} file offset of the region
+         * @param start {@code >= 0;} index of the first item to write,
+         * if {@code section} is mixed
+         * @param end {@code >= start;} index just past the last item to
+         * write, if {@code section} is mixed
+         */
+        public Region(int index, Section section, int offset, int start,
+                int end) {
+            this.index = index;
+            this.section = section;
+            this.offset = offset;
+            this.start = start;
+            this.end = end;
+        }
+
+        /**
+         * Writes this region to the given output, after first padding
+         * the output up to the start of the region.
+         * 
+         * @param out {@code non-null;} where to write to
+         */
+        public void writeTo(AnnotatedOutput out) {
             try {
-                Section one = sections[i];
-                int zeroCount = one.getFileOffset() - out.getCursor();
+                int zeroCount = offset - out.getCursor();
                 if (zeroCount < 0) {
                     throw new ExceptionWithContext("excess write of " +
                             (-zeroCount));
                 }
-                out.writeZeroes(one.getFileOffset() - out.getCursor());
-                one.writeTo(out);
-            } catch (RuntimeException ex) {
-                ExceptionWithContext ec;
-                if (ex instanceof ExceptionWithContext) {
-                    ec = (ExceptionWithContext) ex;
+                out.writeZeroes(zeroCount);
+
+                if (section instanceof MixedItemSection) {
+                    ((MixedItemSection) section).writeItemsTo(out, start, end);
                 } else {
-                    ec = new ExceptionWithContext(ex);
+                    section.writeTo(out);
                 }
-                ec.addContext("...while writing section " + i);
-                throw ec;
+            } catch (RuntimeException ex) {
+                throw ExceptionWithContext.withContext(ex,
+                        "...while writing section " + index);
             }
         }
+    }
 
-        if (out.getCursor() != fileSize) {
-            throw new RuntimeException("foreshortened write");
+    /**
+     * Accumulator for the signature and checksum of a file, which is
+     * fed the bytes of the file in order.
+     */
+    private static class Signer {
+        /** {@code non-null;} digest for the signature */
+        private final MessageDigest md;
+
+        /** {@code non-null;} checksum of the bytes after the signature */
+        private final Adler32 a32;
+
+        /** {@code >= 0;} number of bytes fed so far */
+        private int length;
+
+        /**
+         * Constructs an instance.
+         */
+        public Signer() {
+            try {
+                md = MessageDigest.getInstance("SHA-1");
+            } catch (NoSuchAlgorithmException ex) {
+                throw new RuntimeException(ex);
+            }
+
+            a32 = new Adler32();
+            length = 0;
         }
 
-        // Perform final bookkeeping.
-        
-        calcSignature(barr);
-        calcChecksum(barr);
+        /**
+         * Feeds the next bytes of the file.
+         * 
+         * @param bytes {@code non-null;} array holding the bytes
+         * @param offset {@code >= 0;} offset of the first byte
+         * @param count {@code >= 0;} number of bytes
+         */
+        public void update(byte[] bytes, int offset, int count) {
+            // Neither covers the start of the header.
+            int skip = Math.max(0, Math.min(count, 32 - length));
 
-        if (annotate) {
-            wordData.writeIndexAnnotation(out, ItemType.TYPE_CODE_ITEM,
-                    "\nmethod code index:\n\n");
-            getStatistics().writeAnnotation(out);
-            out.finishAnnotating();
+            length += count;
+            offset += skip;
+            count -= skip;
+
+            if (count > 0) {
+                md.update(bytes, offset, count);
+                a32.update(bytes, offset, count);
+            }
         }
 
-        return out;
+        /**
+         * Stores the signature and checksum for the bytes fed so far
+         * where they belong in the given file header.
+         * 
+         * @param header {@code non-null;} the start of the file, at
+         * least 32 bytes long
+         */
+        public void finish(byte[] header) {
+            try {
+                int amt = md.digest(header, 12, 20);
+                if (amt != 20) {
+                    throw new RuntimeException("unexpected digest write: " +
+                            amt + " bytes");
+                }
+            } catch (DigestException ex) {
+                throw new RuntimeException(ex);
+            }
+
+            /*
+             * The checksum covers the signature, which comes before
+             * everything accumulated so far, so combine the two parts.
+             */
+
+            Adler32 head = new Adler32();
+            head.update(header, 12, 20);
+
+            int sum = combineAdler32((int) head.getValue(),
+                    (int) a32.getValue(), length - 32);
+
+            header[8]  = (byte) sum;
+            header[9]  = (byte) (sum >> 8);
+            header[10] = (byte) (sum >> 16);
+            header[11] = (byte) (sum >> 24);
+        }
     }
 
     /**
-     * Generates and returns statistics for all the items in the file.
-     * 
-     * @return {@code non-null;} the statistics
+     * Stream which passes everything written to it on to both another
+     * stream and a {@link Signer}.
      */
-    public Statistics getStatistics() {
-        Statistics stats = new Statistics();
+    private static class SigningOutputStream extends FilterOutputStream {
+        /** {@code non-null;} the signer */
+        private final Signer signer;
+
+        /**
+         * Constructs an instance.
+         * 
+         * @param out {@code non-null;} the stream to write to
+         * @param signer {@code non-null;} the signer to feed
+         */
+        public SigningOutputStream(OutputStream out, Signer signer) {
+            super(out);
+            this.signer = signer;
+        }
 
-        for (Section s : sections) {
-            stats.addAll(s);
+        /** {@inheritDoc} */
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] { (byte) b }, 0, 1);
         }
 
-        return stats;
+        /** {@inheritDoc} */
+        @Override
+        public void write(byte[] bytes, int offset, int count)
+                throws IOException {
+            out.write(bytes, offset, count);
+            signer.update(bytes, offset, count);
+        }
     }
 
     /**
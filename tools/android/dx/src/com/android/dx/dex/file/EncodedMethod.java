@@ -111,6 +111,20 @@ public final class EncodedMethod extends EncodedMember
         return sb.toString();
     }
 
+    /**
+     * Adds the method and field references that adding this instance
+     * to a file interns.
+     * 
+     * @param refs {@code non-null;} where to add the references
+     */
+    /*package*/ void addMemberRefs(MemberRefs refs) {
+        refs.add(method);
+
+        if (code != null) {
+            code.addMemberRefs(refs);
+        }
+    }
+
     /** {@inheritDoc} */
     @Override
     public void addContents(DexFile file) {
@@ -72,6 +72,17 @@ public final class FieldAnnotationStruct
         return field.compareTo(other.field);
     }
 
+    /**
+     * Adds the method and field references that adding this instance
+     * to a file interns.
+     * 
+     * @param refs {@code non-null;} where to add the references
+     */
+    /*package*/ void addMemberRefs(MemberRefs refs) {
+        refs.add(field);
+        annotations.addMemberRefs(refs);
+    }
+
     /** {@inheritDoc} */
     public void addContents(DexFile file) {
         FieldIdsSection fieldIds = file.getFieldIds();
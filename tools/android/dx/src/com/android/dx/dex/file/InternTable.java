@@ -0,0 +1,158 @@
+/*
+ * Copyright (C) 2007 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.dx.dex.file;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Map from keys to the items interned for them, for the sections whose
+ * items end up in key order. While items are being interned, this is
+ * just a hash map, so that interning doesn't pay for keeping the items
+ * in order; they get sorted once, by {@link #sort}, when the section
+ * is prepared. The keys' {@code equals()} must agree with their
+ * {@code compareTo()}.
+ *
+ * @param <K> type of the keys
+ * @param <V> type of the items
+ */
+/*package*/ final class InternTable<K extends Comparable<? super K>,
+        V extends Item> {
+    /** {@code non-null;} map from keys to items */
+    private HashMap<K, V> items;
+
+    /**
+     * {@code null-ok;} the items in key order; only ever {@code null}
+     * before {@link #sort} is called
+     */
+    private ArrayList<V> sorted;
+
+    /** {@code >= 0;} the largest size the table has been presized for */
+    private int presizedFor;
+
+    /**
+     * Constructs an empty instance.
+     */
+    public InternTable() {
+        items = new HashMap<K, V>();
+        sorted = null;
+        presizedFor = 0;
+    }
+
+    /**
+     * Makes room for the given number of items, so that interning
+     * that many doesn't have to grow the table on the way. This may be
+     * called again as the estimate grows; it does nothing unless the
+     * estimate is bigger than before.
+     *
+     * @param expectedSize {@code >= 0;} the expected number of items
+     */
+    public void presize(int expectedSize) {
+        throwIfSorted();
+
+        if (expectedSize <= presizedFor) {
+            return;
+        }
+
+        presizedFor = expectedSize;
+
+        int capacity = (int) Math.min((expectedSize * 4L) / 3 + 1,
+                                      Integer.MAX_VALUE);
+        HashMap<K, V> newItems = new HashMap<K, V>(capacity);
+
+        newItems.putAll(items);
+        items = newItems;
+    }
+
+    /**
+     * Gets the number of items.
+     *
+     * @return {@code >= 0;} the number of items
+     */
+    public int size() {
+        return items.size();
+    }
+
+    /**
+     * Gets the item for the given key.
+     *
+     * @param key {@code non-null;} the key
+     * @return {@code null-ok;} the item, or {@code null} if there
+     * isn't one
+     */
+    public V get(K key) {
+        return items.get(key);
+    }
+
+    /**
+     * Adds the item for the given key, which must not have one yet.
+     *
+     * @param key {@code non-null;} the key
+     * @param item {@code non-null;} the item
+     */
+    public void put(K key, V item) {
+        throwIfSorted();
+        items.put(key, item);
+    }
+
+    /**
+     * Gets the items: in key order once {@link #sort} has been
+     * called, in no particular order before that.
+     *
+     * @return {@code non-null;} the items
+     */
+    public Collection<V> values() {
+        return (sorted != null) ? sorted : items.values();
+    }
+
+    /**
+     * Sorts the items by key. No items may be added after this.
+     */
+    public void sort() {
+        throwIfSorted();
+
+        ArrayList<Map.Entry<K, V>> entries =
+            new ArrayList<Map.Entry<K, V>>(items.entrySet());
+
+        Collections.sort(entries, new Comparator<Map.Entry<K, V>>() {
+            public int compare(Map.Entry<K, V> e1, Map.Entry<K, V> e2) {
+                return e1.getKey().compareTo(e2.getKey());
+            }
+        });
+
+        ArrayList<V> result = new ArrayList<V>(entries.size());
+
+        for (Map.Entry<K, V> one : entries) {
+            result.add(one.getValue());
+        }
+
+        sorted = result;
+    }
+
+    /**
+     * Throws an exception if the items have already been sorted.
+     */
+    private void throwIfSorted() {
+        if (sorted != null) {
+            throw new IllegalStateException("already sorted");
+        }
+    }
+}
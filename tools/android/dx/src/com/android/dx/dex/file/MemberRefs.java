@@ -0,0 +1,208 @@
+/*
+ * Copyright (C) 2007 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.dx.dex.file;
+
+import com.android.dx.rop.annotation.Annotation;
+import com.android.dx.rop.annotation.Annotations;
+import com.android.dx.rop.annotation.AnnotationsList;
+import com.android.dx.rop.annotation.NameValuePair;
+import com.android.dx.rop.cst.Constant;
+import com.android.dx.rop.cst.CstAnnotation;
+import com.android.dx.rop.cst.CstArray;
+import com.android.dx.rop.cst.CstBaseMethodRef;
+import com.android.dx.rop.cst.CstEnumRef;
+import com.android.dx.rop.cst.CstFieldRef;
+
+import java.util.HashSet;
+
+/**
+ * Set of the method and field references made by some classes, that
+ * is, of the elements that adding those classes to a {@link DexFile}
+ * interns into its method and field id sections. These are what the
+ * 16-bit indices of the dex format run out of first, so this is what
+ * deciding which classes fit in one file goes by.
+ */
+public final class MemberRefs {
+    /** {@code non-null;} the method references */
+    private final HashSet<CstBaseMethodRef> methods;
+
+    /** {@code non-null;} the field references */
+    private final HashSet<CstFieldRef> fields;
+
+    /**
+     * Constructs an empty instance.
+     */
+    public MemberRefs() {
+        methods = new HashSet<CstBaseMethodRef>();
+        fields = new HashSet<CstFieldRef>();
+    }
+
+    /**
+     * Constructs an instance holding the references made by the given
+     * class.
+     *
+     * @param clazz {@code non-null;} the class
+     */
+    public MemberRefs(ClassDefItem clazz) {
+        this();
+        clazz.addMemberRefs(this);
+    }
+
+    /**
+     * Gets the number of method references.
+     *
+     * @return {@code >= 0;} the count
+     */
+    public int getMethodCount() {
+        return methods.size();
+    }
+
+    /**
+     * Gets the number of field references.
+     *
+     * @return {@code >= 0;} the count
+     */
+    public int getFieldCount() {
+        return fields.size();
+    }
+
+    /**
+     * Gets the number of method references that the given instance
+     * has and this one doesn't.
+     *
+     * @param other {@code non-null;} the instance to compare with
+     * @return {@code >= 0;} the count
+     */
+    public int countNewMethods(MemberRefs other) {
+        int count = 0;
+
+        for (CstBaseMethodRef one : other.methods) {
+            if (!methods.contains(one)) {
+                count++;
+            }
+        }
+
+        return count;
+    }
+
+    /**
+     * Gets the number of field references that the given instance
+     * has and this one doesn't.
+     *
+     * @param other {@code non-null;} the instance to compare with
+     * @return {@code >= 0;} the count
+     */
+    public int countNewFields(MemberRefs other) {
+        int count = 0;
+
+        for (CstFieldRef one : other.fields) {
+            if (!fields.contains(one)) {
+                count++;
+            }
+        }
+
+        return count;
+    }
+
+    /**
+     * Adds all the references of the given instance to this one.
+     *
+     * @param other {@code non-null;} the instance to add
+     */
+    public void addAll(MemberRefs other) {
+        methods.addAll(other.methods);
+        fields.addAll(other.fields);
+    }
+
+    /**
+     * Adds a method reference.
+     *
+     * @param method {@code non-null;} the reference
+     */
+    /*package*/ void add(CstBaseMethodRef method) {
+        methods.add(method);
+    }
+
+    /**
+     * Adds a field reference.
+     *
+     * @param field {@code non-null;} the reference
+     */
+    /*package*/ void add(CstFieldRef field) {
+        fields.add(field);
+    }
+
+    /**
+     * Adds the references in the given constant, the way that
+     * {@link ValueEncoder#addContents(DexFile,Constant)} interns them.
+     *
+     * @param cst {@code non-null;} the constant
+     */
+    /*package*/ void add(Constant cst) {
+        if (cst instanceof CstAnnotation) {
+            add(((CstAnnotation) cst).getAnnotation());
+        } else if (cst instanceof CstArray) {
+            CstArray.List list = ((CstArray) cst).getList();
+            int size = list.size();
+            for (int i = 0; i < size; i++) {
+                add(list.get(i));
+            }
+        } else if (cst instanceof CstBaseMethodRef) {
+            methods.add((CstBaseMethodRef) cst);
+        } else if (cst instanceof CstFieldRef) {
+            fields.add((CstFieldRef) cst);
+        } else if (cst instanceof CstEnumRef) {
+            fields.add(((CstEnumRef) cst).getFieldRef());
+        }
+    }
+
+    /**
+     * Adds the references in the values of the given annotation.
+     *
+     * @param annotation {@code non-null;} the annotation
+     */
+    /*package*/ void add(Annotation annotation) {
+        for (NameValuePair pair : annotation.getNameValuePairs()) {
+            add(pair.getValue());
+        }
+    }
+
+    /**
+     * Adds the references in the values of the given annotations.
+     *
+     * @param annotations {@code non-null;} the annotations
+     */
+    /*package*/ void add(Annotations annotations) {
+        for (Annotation one : annotations.getAnnotations()) {
+            add(one);
+        }
+    }
+
+    /**
+     * Adds the references in the values of the given lists of
+     * annotations.
+     *
+     * @param list {@code non-null;} the lists of annotations
+     */
+    /*package*/ void add(AnnotationsList list) {
+        int size = list.size();
+
+        for (int i = 0; i < size; i++) {
+            add(list.get(i));
+        }
+    }
+}
@@ -72,6 +72,17 @@ public final class MethodAnnotationStruct
         return method.compareTo(other.method);
     }
 
+    /**
+     * Adds the method and field references that adding this instance
+     * to a file interns.
+     * 
+     * @param refs {@code non-null;} where to add the references
+     */
+    /*package*/ void addMemberRefs(MemberRefs refs) {
+        refs.add(method);
+        annotations.addMemberRefs(refs);
+    }
+
     /** {@inheritDoc} */
     public void addContents(DexFile file) {
         MethodIdsSection methodIds = file.getMethodIds();
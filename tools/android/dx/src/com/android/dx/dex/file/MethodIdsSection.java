@@ -22,7 +22,6 @@ import com.android.dx.util.AnnotatedOutput;
 import com.android.dx.util.Hex;
 
 import java.util.Collection;
-import java.util.TreeMap;
 
 /**
  * Method refs list section of a {@code .dex} file.
@@ -32,7 +31,7 @@ public final class MethodIdsSection extends MemberIdsSection {
      * {@code non-null;} map from method constants to {@link
      * MethodIdItem} instances 
      */
-    private final TreeMap<CstBaseMethodRef, MethodIdItem> methodIds;
+    private final InternTable<CstBaseMethodRef, MethodIdItem> methodIds;
 
     /**
      * Constructs an instance. The file offset is initially unknown.
@@ -42,7 +41,7 @@ public final class MethodIdsSection extends MemberIdsSection {
     public MethodIdsSection(DexFile file) {
         super("method_ids", file);
 
-        methodIds = new TreeMap<CstBaseMethodRef, MethodIdItem>();
+        methodIds = new InternTable<CstBaseMethodRef, MethodIdItem>();
     }
 
     /** {@inheritDoc} */
@@ -69,6 +68,17 @@ public final class MethodIdsSection extends MemberIdsSection {
         return result;
     }
 
+    /**
+     * Makes room for the given number of elements, so that interning
+     * that many doesn't have to grow the underlying table on the way.
+     * 
+     * @param expectedSize {@code >= 0;} the expected number of elements
+     */
+    public void presize(int expectedSize) {
+        throwIfPrepared();
+        methodIds.presize(expectedSize);
+    }
+
     /**
      * Writes the portion of the file header that refers to this instance.
      * 
@@ -134,4 +144,11 @@ public final class MethodIdsSection extends MemberIdsSection {
 
         return item.getIndex();
     }
+
+    /** {@inheritDoc} */
+    @Override
+    protected void orderItems() {
+        methodIds.sort();
+        super.orderItems();
+    }
 }
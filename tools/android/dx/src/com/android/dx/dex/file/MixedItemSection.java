@@ -19,6 +19,7 @@ package com.android.dx.dex.file;
 import com.android.dx.util.AnnotatedOutput;
 import com.android.dx.util.ExceptionWithContext;
 import com.android.dx.util.Hex;
+import com.android.dx.util.PhaseProfiler;
 
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -293,6 +294,8 @@ public final class MixedItemSection extends Section {
     public void placeItems() {
         throwIfNotPrepared();
 
+        PhaseProfiler.Sample sample = PhaseProfiler.begin();
+
         switch (sort) {
             case INSTANCE: {
                 Collections.sort(items);
@@ -324,6 +327,38 @@ public final class MixedItemSection extends Section {
         }
 
         writeSize = outAt;
+
+        PhaseProfiler.end(sample, getProfileName(),
+                PhaseProfiler.Phase.SECTION_PREPARE);
+    }
+
+    /**
+     * Writes a contiguous run of the items of this instance. This is an
+     * alternative to {@link #writeTo} which allows different parts of
+     * a placed section to be written concurrently, each to its own
+     * output over the same array. It does not produce annotations.
+     *
+     * @param out {@code non-null;} where to write to; its cursor must not
+     * be past the absolute offset of item {@code start}, and is first
+     * advanced to it
+     * @param start {@code >= 0;} index of the first item to write
+     * @param end {@code > start;} index just past the last item to write
+     */
+    public void writeItemsTo(AnnotatedOutput out, int start, int end) {
+        throwIfNotPrepared();
+
+        DexFile file = getFile();
+        PhaseProfiler.Sample sample = PhaseProfiler.begin();
+
+        out.writeZeroes(items.get(start).getAbsoluteOffset() -
+                out.getCursor());
+
+        for (int i = start; i < end; i++) {
+            items.get(i).writeTo(file, out);
+        }
+
+        PhaseProfiler.end(sample, getProfileName(),
+                PhaseProfiler.Phase.SECTION_WRITE);
     }
 
     /** {@inheritDoc} */
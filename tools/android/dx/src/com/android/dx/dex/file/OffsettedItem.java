@@ -43,6 +43,9 @@ public abstract class OffsettedItem extends Item
      */
     private int offset;
 
+    /** whether {@link #prePlace0} has been run */
+    private boolean prePlaced;
+
     /**
      * Gets the absolute offset of the given item, returning {@code 0}
      * if handed {@code null}.
@@ -78,6 +81,7 @@ public abstract class OffsettedItem extends Item
         this.writeSize = writeSize;
         this.addedTo = null;
         this.offset = -1;
+        this.prePlaced = false;
     }
 
     /**
@@ -239,11 +243,28 @@ public abstract class OffsettedItem extends Item
         this.addedTo = addedTo;
         this.offset = offset;
 
+        prePlace(addedTo.getFile());
         place0(addedTo, offset);
 
         return offset;
     }
 
+    /**
+     * Does the part of placing this instance which doesn't depend on
+     * where it ends up, if that hasn't already been done. This may be
+     * called any time after all the sections of the file have been
+     * prepared, and {@link #place} calls it if nobody did so earlier.
+     * Calls for different instances may be made concurrently.
+     * 
+     * @param file {@code non-null;} the file this instance is part of
+     */
+    public final void prePlace(DexFile file) {
+        if (!prePlaced) {
+            prePlace0(file);
+            prePlaced = true;
+        }
+    }
+
     /**
      * Gets the alignment requirement of this instance. An instance should
      * only be written when so aligned.
@@ -286,6 +307,20 @@ public abstract class OffsettedItem extends Item
         throw new UnsupportedOperationException("unsupported");
     }
 
+    /**
+     * Does the part of placing an instance which is independent of its
+     * offset. The default implementation of this method is a no-op.
+     * Work done here must only read from the other items of the file,
+     * so that different instances can be handled concurrently. If this
+     * instance did not know its write size up-front, this method may
+     * be the one to set it.
+     * 
+     * @param file {@code non-null;} the file this instance is part of
+     */
+    protected void prePlace0(DexFile file) {
+        // This space intentionally left blank.
+    }
+
     /**
      * Does additional work required when placing an instance. The
      * default implementation of this method is a no-op. If a
@@ -96,6 +96,17 @@ public final class ParameterAnnotationStruct
         return method.compareTo(other.method);
     }
 
+    /**
+     * Adds the method and field references that adding this instance
+     * to a file interns.
+     * 
+     * @param refs {@code non-null;} where to add the references
+     */
+    /*package*/ void addMemberRefs(MemberRefs refs) {
+        refs.add(method);
+        refs.add(annotationsList);
+    }
+
     /** {@inheritDoc} */
     public void addContents(DexFile file) {
         MethodIdsSection methodIds = file.getMethodIds();
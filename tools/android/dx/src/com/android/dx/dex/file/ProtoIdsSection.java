@@ -22,7 +22,6 @@ import com.android.dx.util.AnnotatedOutput;
 import com.android.dx.util.Hex;
 
 import java.util.Collection;
-import java.util.TreeMap;
 
 /**
  * Proto (method prototype) identifiers list section of a
@@ -32,7 +31,7 @@ public final class ProtoIdsSection extends UniformItemSection {
     /**
      * {@code non-null;} map from method prototypes to {@link ProtoIdItem} instances
      */
-    private final TreeMap<Prototype, ProtoIdItem> protoIds;
+    private final InternTable<Prototype, ProtoIdItem> protoIds;
 
     /**
      * Constructs an instance. The file offset is initially unknown.
@@ -42,7 +41,7 @@ public final class ProtoIdsSection extends UniformItemSection {
     public ProtoIdsSection(DexFile file) {
         super("proto_ids", file, 4);
 
-        protoIds = new TreeMap<Prototype, ProtoIdItem>();
+        protoIds = new InternTable<Prototype, ProtoIdItem>();
     }
 
     /** {@inheritDoc} */
@@ -57,6 +56,17 @@ public final class ProtoIdsSection extends UniformItemSection {
         throw new UnsupportedOperationException("unsupported");
     }
 
+    /**
+     * Makes room for the given number of elements, so that interning
+     * that many doesn't have to grow the underlying table on the way.
+     * 
+     * @param expectedSize {@code >= 0;} the expected number of elements
+     */
+    public void presize(int expectedSize) {
+        throwIfPrepared();
+        protoIds.presize(expectedSize);
+    }
+
     /**
      * Writes the portion of the file header that refers to this instance.
      * 
@@ -132,6 +142,8 @@ public final class ProtoIdsSection extends UniformItemSection {
     protected void orderItems() {
         int idx = 0;
 
+        protoIds.sort();
+
         for (Object i : items()) {
             ((ProtoIdItem) i).setIndex(idx);
             idx++;
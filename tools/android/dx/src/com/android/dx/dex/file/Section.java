@@ -17,6 +17,7 @@
 package com.android.dx.dex.file;
 
 import com.android.dx.util.AnnotatedOutput;
+import com.android.dx.util.PhaseProfiler;
 
 import java.util.Collection;
 
@@ -165,7 +166,10 @@ public abstract class Section {
             }
         }
 
+        PhaseProfiler.Sample sample = PhaseProfiler.begin();
         writeTo0(out);
+        PhaseProfiler.end(sample, getProfileName(),
+                PhaseProfiler.Phase.SECTION_WRITE);
     }
 
     /**
@@ -211,7 +215,12 @@ public abstract class Section {
      */
     public final void prepare() {
         throwIfPrepared();
+
+        PhaseProfiler.Sample sample = PhaseProfiler.begin();
         prepare0();
+        PhaseProfiler.end(sample, getProfileName(),
+                PhaseProfiler.Phase.SECTION_PREPARE);
+
         prepared = true;
     }
 
@@ -284,4 +293,22 @@ public abstract class Section {
     protected final String getName() {
         return name;
     }
+
+    /**
+     * Returns the name of this section, for {@link PhaseProfiler}
+     * purposes. Unnamed sections go by the type of their first item.
+     * 
+     * @return {@code non-null;} the name
+     */
+    /*package*/ final String getProfileName() {
+        if (name != null) {
+            return name;
+        }
+
+        for (Item one : items()) {
+            return one.itemType().toHuman();
+        }
+
+        return "<unnamed>";
+    }
 }
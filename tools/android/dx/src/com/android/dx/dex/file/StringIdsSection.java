@@ -24,7 +24,6 @@ import com.android.dx.util.AnnotatedOutput;
 import com.android.dx.util.Hex;
 
 import java.util.Collection;
-import java.util.TreeMap;
 
 /**
  * Strings list section of a {@code .dex} file.
@@ -35,7 +34,7 @@ public final class StringIdsSection
      * {@code non-null;} map from string constants to {@link
      * StringIdItem} instances 
      */
-    private final TreeMap<CstUtf8, StringIdItem> strings;
+    private final InternTable<CstUtf8, StringIdItem> strings;
 
     /**
      * Constructs an instance. The file offset is initially unknown.
@@ -45,7 +44,7 @@ public final class StringIdsSection
     public StringIdsSection(DexFile file) {
         super("string_ids", file, 4);
 
-        strings = new TreeMap<CstUtf8, StringIdItem>();
+        strings = new InternTable<CstUtf8, StringIdItem>();
     }
 
     /** {@inheritDoc} */
@@ -76,6 +75,17 @@ public final class StringIdsSection
         return result;
     }
 
+    /**
+     * Makes room for the given number of elements, so that interning
+     * that many doesn't have to grow the underlying table on the way.
+     * 
+     * @param expectedSize {@code >= 0;} the expected number of elements
+     */
+    public void presize(int expectedSize) {
+        throwIfPrepared();
+        strings.presize(expectedSize);
+    }
+
     /**
      * Writes the portion of the file header that refers to this instance.
      * 
@@ -202,6 +212,8 @@ public final class StringIdsSection
     protected void orderItems() {
         int idx = 0;
 
+        strings.sort();
+
         for (StringIdItem s : strings.values()) {
             s.setIndex(idx);
             idx++;
@@ -23,7 +23,6 @@ import com.android.dx.util.AnnotatedOutput;
 import com.android.dx.util.Hex;
 
 import java.util.Collection;
-import java.util.TreeMap;
 
 /**
  * Type identifiers list section of a {@code .dex} file.
@@ -32,7 +31,7 @@ public final class TypeIdsSection extends UniformItemSection {
     /**
      * {@code non-null;} map from types to {@link TypeIdItem} instances
      */
-    private final TreeMap<Type, TypeIdItem> typeIds;
+    private final InternTable<Type, TypeIdItem> typeIds;
 
     /**
      * Constructs an instance. The file offset is initially unknown.
@@ -42,7 +41,7 @@ public final class TypeIdsSection extends UniformItemSection {
     public TypeIdsSection(DexFile file) {
         super("type_ids", file, 4);
 
-        typeIds = new TreeMap<Type, TypeIdItem>();
+        typeIds = new InternTable<Type, TypeIdItem>();
     }
 
     /** {@inheritDoc} */
@@ -70,6 +69,17 @@ public final class TypeIdsSection extends UniformItemSection {
         return result;
     }
 
+    /**
+     * Makes room for the given number of elements, so that interning
+     * that many doesn't have to grow the underlying table on the way.
+     * 
+     * @param expectedSize {@code >= 0;} the expected number of elements
+     */
+    public void presize(int expectedSize) {
+        throwIfPrepared();
+        typeIds.presize(expectedSize);
+    }
+
     /**
      * Writes the portion of the file header that refers to this instance.
      * 
@@ -184,6 +194,8 @@ public final class TypeIdsSection extends UniformItemSection {
     protected void orderItems() {
         int idx = 0;
 
+        typeIds.sort();
+
         for (Object i : items()) {
             ((TypeIdItem) i).setIndex(idx);
             idx++;
@@ -48,52 +48,52 @@ import java.util.Collection;
  */
 public final class ValueEncoder {
     /** annotation value type constant: {@code byte} */
-    private static final int VALUE_BYTE = 0x00;
+    public static final int VALUE_BYTE = 0x00;
 
     /** annotation value type constant: {@code short} */
-    private static final int VALUE_SHORT = 0x02;
+    public static final int VALUE_SHORT = 0x02;
 
     /** annotation value type constant: {@code char} */
-    private static final int VALUE_CHAR = 0x03;
+    public static final int VALUE_CHAR = 0x03;
 
     /** annotation value type constant: {@code int} */
-    private static final int VALUE_INT = 0x04;
+    public static final int VALUE_INT = 0x04;
 
     /** annotation value type constant: {@code long} */
-    private static final int VALUE_LONG = 0x06;
+    public static final int VALUE_LONG = 0x06;
 
     /** annotation value type constant: {@code float} */
-    private static final int VALUE_FLOAT = 0x10;
+    public static final int VALUE_FLOAT = 0x10;
 
     /** annotation value type constant: {@code double} */
-    private static final int VALUE_DOUBLE = 0x11;
+    public static final int VALUE_DOUBLE = 0x11;
 
     /** annotation value type constant: {@code string} */
-    private static final int VALUE_STRING = 0x17;
+    public static final int VALUE_STRING = 0x17;
 
     /** annotation value type constant: {@code type} */
-    private static final int VALUE_TYPE = 0x18;
+    public static final int VALUE_TYPE = 0x18;
 
     /** annotation value type constant: {@code field} */
-    private static final int VALUE_FIELD = 0x19;
+    public static final int VALUE_FIELD = 0x19;
 
     /** annotation value type constant: {@code method} */
-    private static final int VALUE_METHOD = 0x1a;
+    public static final int VALUE_METHOD = 0x1a;
 
     /** annotation value type constant: {@code enum} */
-    private static final int VALUE_ENUM = 0x1b;
+    public static final int VALUE_ENUM = 0x1b;
 
     /** annotation value type constant: {@code array} */
-    private static final int VALUE_ARRAY = 0x1c;
+    public static final int VALUE_ARRAY = 0x1c;
 
     /** annotation value type constant: {@code annotation} */
-    private static final int VALUE_ANNOTATION = 0x1d;
+    public static final int VALUE_ANNOTATION = 0x1d;
 
     /** annotation value type constant: {@code null} */
-    private static final int VALUE_NULL = 0x1e;
+    public static final int VALUE_NULL = 0x1e;
 
     /** annotation value type constant: {@code boolean} */
-    private static final int VALUE_BOOLEAN = 0x1f;
+    public static final int VALUE_BOOLEAN = 0x1f;
 
     /** {@code non-null;} file being written */
     private final DexFile file;
@@ -0,0 +1,1085 @@
+/*
+ * Copyright (C) 2007 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.dx.merge;
+
+import com.android.dx.cf.iface.ParseException;
+import com.android.dx.dex.code.ArrayData;
+import com.android.dx.dex.code.CatchBuilder;
+import com.android.dx.dex.code.CatchHandlerList;
+import com.android.dx.dex.code.CatchTable;
+import com.android.dx.dex.code.CodeAddress;
+import com.android.dx.dex.code.CstInsn;
+import com.android.dx.dex.code.DalvCode;
+import com.android.dx.dex.code.DalvInsn;
+import com.android.dx.dex.code.DalvOps;
+import com.android.dx.dex.code.Dop;
+import com.android.dx.dex.code.Dops;
+import com.android.dx.dex.code.InsnFormat;
+import com.android.dx.dex.code.LocalEnd;
+import com.android.dx.dex.code.LocalStart;
+import com.android.dx.dex.code.OddSpacer;
+import com.android.dx.dex.code.OutputFinisher;
+import com.android.dx.dex.code.PositionList;
+import com.android.dx.dex.code.SimpleInsn;
+import com.android.dx.dex.code.SwitchData;
+import com.android.dx.dex.code.TargetInsn;
+import com.android.dx.dex.code.form.Form10t;
+import com.android.dx.dex.code.form.Form10x;
+import com.android.dx.dex.code.form.Form11n;
+import com.android.dx.dex.code.form.Form11x;
+import com.android.dx.dex.code.form.Form12x;
+import com.android.dx.dex.code.form.Form20t;
+import com.android.dx.dex.code.form.Form21c;
+import com.android.dx.dex.code.form.Form21h;
+import com.android.dx.dex.code.form.Form21s;
+import com.android.dx.dex.code.form.Form21t;
+import com.android.dx.dex.code.form.Form22b;
+import com.android.dx.dex.code.form.Form22c;
+import com.android.dx.dex.code.form.Form22s;
+import com.android.dx.dex.code.form.Form22t;
+import com.android.dx.dex.code.form.Form22x;
+import com.android.dx.dex.code.form.Form23x;
+import com.android.dx.dex.code.form.Form30t;
+import com.android.dx.dex.code.form.Form31c;
+import com.android.dx.dex.code.form.Form31i;
+import com.android.dx.dex.code.form.Form31t;
+import com.android.dx.dex.code.form.Form32x;
+import com.android.dx.dex.code.form.Form35c;
+import com.android.dx.dex.code.form.Form3rc;
+import com.android.dx.dex.code.form.Form51l;
+import com.android.dx.dex.file.DebugInfoDecoder;
+import com.android.dx.rop.code.LocalItem;
+import com.android.dx.rop.code.RegisterSpec;
+import com.android.dx.rop.code.RegisterSpecList;
+import com.android.dx.rop.code.SourcePosition;
+import com.android.dx.rop.cst.Constant;
+import com.android.dx.rop.cst.CstInteger;
+import com.android.dx.rop.cst.CstLong;
+import com.android.dx.rop.cst.CstMethodRef;
+import com.android.dx.rop.cst.CstString;
+import com.android.dx.rop.cst.CstType;
+import com.android.dx.rop.cst.CstUtf8;
+import com.android.dx.rop.type.Prototype;
+import com.android.dx.rop.type.StdTypeList;
+import com.android.dx.rop.type.Type;
+import com.android.dx.util.Hex;
+import com.android.dx.util.IntList;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+
+/**
+ * Decoder of a {@code code_item} of a dex file back into the
+ * {@link DalvCode} form that it was written out from. Branch targets
+ * become {@link CodeAddress}es, so the code can be laid out anew
+ * with different indices; the constants of instructions and the
+ * local variables of the debug info refer to the actual strings,
+ * types and members, rather than to indices into the old file. Each
+ * instruction starts out with its original opcode, which is
+ * widened, as usual, if what it refers to no longer fits.
+ *
+ * <p>The payloads of switches and {@code fill-array-data} are
+ * moved to the end of the code, after the rest of the instructions,
+ * which is where dx always puts them.</p>
+ */
+/*package*/ final class CodeDecoder {
+    /** the {@code ident} of a packed switch payload */
+    private static final int PACKED_SWITCH_PAYLOAD = 0x0100;
+
+    /** the {@code ident} of a sparse switch payload */
+    private static final int SPARSE_SWITCH_PAYLOAD = 0x0200;
+
+    /** the {@code ident} of an array data payload */
+    private static final int FILL_ARRAY_DATA_PAYLOAD = 0x0300;
+
+    /** {@code non-null;} the file being read */
+    private final DexParser parser;
+
+    /** offset of the {@code code_item} */
+    private final int offset;
+
+    /** {@code non-null;} the method that the code is for */
+    private final CstMethodRef method;
+
+    /** whether the method is static */
+    private final boolean isStatic;
+
+    /** {@code null-ok;} the code units; set by {@link #decode} */
+    private int[] insns;
+
+    /**
+     * {@code null-ok;} the instruction at each address, if any; set by
+     * {@link #decode}
+     */
+    private DalvInsn[] byAddress;
+
+    /**
+     * {@code null-ok;} whether each address, and the address just
+     * past the code, is where something starts; set by {@link #decode}
+     */
+    private boolean[] boundaries;
+
+    /** {@code null-ok;} the address objects, by address */
+    private HashMap<Integer, CodeAddress> addresses;
+
+    /**
+     * {@code null-ok;} the address objects that go just before the
+     * instructions that have payloads, by address
+     */
+    private HashMap<Integer, CodeAddress> payloadUsers;
+
+    /**
+     * {@code null-ok;} the payloads, with the pseudo-instructions that
+     * go along, to go at the end of the code
+     */
+    private ArrayList<DalvInsn> suffix;
+
+    /** {@code null-ok;} positions from the debug info, in order */
+    private List<DebugInfoDecoder.PositionEntry> positions;
+
+    /** index into {@link #positions} of the next one to consider */
+    private int positionAt;
+
+    /** {@code non-null;} position of the most recent instruction */
+    private SourcePosition position;
+
+    /**
+     * Constructs an instance.
+     *
+     * @param parser {@code non-null;} the file being read
+     * @param offset offset of the {@code code_item}
+     * @param method {@code non-null;} the method that the code is for
+     * @param isStatic whether the method is static
+     */
+    public CodeDecoder(DexParser parser, int offset, CstMethodRef method,
+            boolean isStatic) {
+        this.parser = parser;
+        this.offset = offset;
+        this.method = method;
+        this.isStatic = isStatic;
+    }
+
+    /**
+     * Decodes the code.
+     *
+     * @return {@code non-null;} the code
+     */
+    public DalvCode decode() {
+        byte[] bytes = parser.getBytes();
+        DexReader in = new DexReader(bytes, offset);
+        int registersSize = in.readUnsignedShort();
+        in.readUnsignedShort(); // ins_size, implied by the prototype
+        in.readUnsignedShort(); // outs_size, implied by the calls
+        int triesSize = in.readUnsignedShort();
+        int debugInfoOff = in.readInt();
+        int insnsSize = in.readInt();
+
+        if ((insnsSize < 0) || (insnsSize > (bytes.length / 2))) {
+            throw new ParseException("bad insns_size " + Hex.u4(insnsSize));
+        }
+
+        insns = new int[insnsSize];
+        for (int i = 0; i < insnsSize; i++) {
+            insns[i] = in.readUnsignedShort();
+        }
+
+        byAddress = new DalvInsn[insnsSize];
+        boundaries = new boolean[insnsSize + 1];
+        boundaries[insnsSize] = true;
+        addresses = new HashMap<Integer, CodeAddress>();
+        payloadUsers = new HashMap<Integer, CodeAddress>();
+        suffix = new ArrayList<DalvInsn>();
+        position = SourcePosition.NO_INFO;
+
+        DebugInfoDecoder debugInfo = null;
+        int positionInfo = parser.getPositionInfo();
+
+        if (debugInfoOff != 0) {
+            debugInfo = new DebugInfoDecoder(bytes, debugInfoOff, insnsSize,
+                    registersSize, isStatic, method,
+                    parser.getThisStringIndex());
+            debugInfo.decode();
+
+            if (positionInfo != PositionList.NONE) {
+                positions = debugInfo.getPositionList();
+            }
+        }
+
+        /*
+         * The debug info already only holds the positions that
+         * whoever wrote the file meant to keep, so keep all of them,
+         * as long as positions are to be kept at all.
+         */
+        if (positionInfo != PositionList.NONE) {
+            positionInfo = PositionList.LINES;
+        }
+
+        decodeInsns();
+
+        if (triesSize != 0) {
+            if ((insnsSize & 1) != 0) {
+                in.skip(2); // padding
+            }
+        }
+
+        CatchBuilder catches = readTries(in, triesSize);
+
+        for (Integer address : addresses.keySet()) {
+            if (!boundaries[address]) {
+                throw new ParseException("bad branch target " +
+                        Hex.u4(address));
+            }
+        }
+
+        ArrayList<DalvInsn> locals = new ArrayList<DalvInsn>();
+        ArrayList<Integer> localAddresses = new ArrayList<Integer>();
+
+        if ((debugInfo != null) && parser.getLocalInfo()) {
+            makeLocals(debugInfo, registersSize, locals, localAddresses);
+        }
+
+        OutputFinisher out = new OutputFinisher(
+                insnsSize + addresses.size() + locals.size() + suffix.size(),
+                registersSize);
+        int localAt = 0;
+        int localsSize = locals.size();
+
+        for (int address = 0; address <= insnsSize; address++) {
+            if (!boundaries[address]) {
+                continue;
+            }
+
+            CodeAddress codeAddress = addresses.get(address);
+
+            if (codeAddress != null) {
+                out.add(codeAddress);
+            }
+
+            while ((localAt < localsSize) &&
+                    ((localAddresses.get(localAt) <= address) ||
+                     (address == insnsSize))) {
+                out.add(locals.get(localAt));
+                localAt++;
+            }
+
+            if (address == insnsSize) {
+                break;
+            }
+
+            DalvInsn insn = byAddress[address];
+
+            if (insn == null) {
+                // Padding or a payload, neither of which stays put.
+                continue;
+            }
+
+            int family = insn.getOpcode().getFamily();
+            CodeAddress user = payloadUsers.get(address);
+
+            if (user != null) {
+                out.add(user);
+            }
+
+            out.add(insn);
+
+            if ((family >= DalvOps.IF_EQ) && (family <= DalvOps.IF_LEZ)) {
+                /*
+                 * Conditional branches need an address right after
+                 * them, in case they have to be reversed.
+                 */
+                out.add(new CodeAddress(insn.getPosition()));
+            }
+        }
+
+        for (DalvInsn insn : suffix) {
+            out.add(insn);
+        }
+
+        return new DalvCode(positionInfo, out, catches);
+    }
+
+    /**
+     * Decodes all the instructions, filling in {@link #byAddress} and
+     * {@link #boundaries}.
+     */
+    private void decodeInsns() {
+        int size = insns.length;
+        int address = 0;
+
+        while (address < size) {
+            int unit = insns[address];
+            int payloadSize = payloadSize(address);
+
+            boundaries[address] = true;
+
+            if (payloadSize != 0) {
+                address += payloadSize;
+                continue;
+            }
+
+            if ((unit == 0) && ((address & 1) != 0) &&
+                    (address + 1 < size) && (payloadSize(address + 1) != 0)) {
+                // Padding before a payload; this gets redone as needed.
+                address++;
+                continue;
+            }
+
+            Dop dop;
+
+            try {
+                dop = Dops.get(unit & 0xff);
+            } catch (IllegalArgumentException ex) {
+                throw new ParseException("bad opcode " + Hex.u2(unit) +
+                        " at " + Hex.u4(address));
+            }
+
+            int codeSize = dop.getFormat().codeSize();
+
+            if (address + codeSize > size) {
+                throw new ParseException("truncated instruction at " +
+                        Hex.u4(address));
+            }
+
+            DalvInsn insn = decodeInsn(dop, address);
+
+            if (dop.getFormat() == Form31t.THE_ONE) {
+                payloadUsers.put(address,
+                        makePayload((TargetInsn) insn, address));
+            }
+
+            byAddress[address] = insn;
+            address += codeSize;
+        }
+    }
+
+    /**
+     * Gets the size of the payload at the given address, if there is
+     * one.
+     *
+     * @param address the address
+     * @return the size in code units, or {@code 0} if there isn't
+     * a payload there
+     */
+    private int payloadSize(int address) {
+        int size = insns.length;
+        int unit = insns[address];
+
+        if ((unit != PACKED_SWITCH_PAYLOAD) &&
+                (unit != SPARSE_SWITCH_PAYLOAD) &&
+                (unit != FILL_ARRAY_DATA_PAYLOAD)) {
+            return 0;
+        }
+
+        if (address + 4 > size) {
+            throw new ParseException("truncated payload at " +
+                    Hex.u4(address));
+        }
+
+        long result;
+
+        switch (unit) {
+            case PACKED_SWITCH_PAYLOAD: {
+                result = 4 + insns[address + 1] * 2L;
+                break;
+            }
+            case SPARSE_SWITCH_PAYLOAD: {
+                result = 2 + insns[address + 1] * 4L;
+                break;
+            }
+            default: {
+                long width = insns[address + 1];
+                long count = (insns[address + 2] & 0xffffL) |
+                    ((long) insns[address + 3] << 16);
+                result = 4 + ((width * count) + 1) / 2;
+                break;
+            }
+        }
+
+        if (address + result > size) {
+            throw new ParseException("truncated payload at " +
+                    Hex.u4(address));
+        }
+
+        return (int) result;
+    }
+
+    /**
+     * Decodes one instruction.
+     *
+     * @param dop {@code non-null;} its opcode
+     * @param address its address
+     * @return {@code non-null;} the instruction
+     */
+    private DalvInsn decodeInsn(Dop dop, int address) {
+        SourcePosition pos = positionAt(address);
+        InsnFormat format = dop.getFormat();
+        int opcode = dop.getOpcode();
+        int unit0 = insns[address];
+        int a = (unit0 >> 8) & 0x0f;
+        int b = unit0 >> 12;
+        int aa = unit0 >> 8;
+        int unit1 = (format.codeSize() > 1) ? insns[address + 1] : 0;
+
+        if (format == Form10x.THE_ONE) {
+            return new SimpleInsn(dop, pos, RegisterSpecList.EMPTY);
+        } else if (format == Form12x.THE_ONE) {
+            if ((opcode >= DalvOps.ADD_INT_2ADDR) &&
+                    (opcode <= DalvOps.REM_DOUBLE_2ADDR)) {
+                return new SimpleInsn(dop, pos, regs(a, a, b));
+            }
+            return new SimpleInsn(dop, pos, regs(a, b));
+        } else if (format == Form11n.THE_ONE) {
+            return new CstInsn(dop, pos, regs(a),
+                    CstInteger.make(((short) unit0) >> 12));
+        } else if (format == Form11x.THE_ONE) {
+            return new SimpleInsn(dop, pos, regs(aa));
+        } else if (format == Form10t.THE_ONE) {
+            return new TargetInsn(dop, pos, RegisterSpecList.EMPTY,
+                    target(address, (byte) aa));
+        } else if (format == Form20t.THE_ONE) {
+            return new TargetInsn(dop, pos, RegisterSpecList.EMPTY,
+                    target(address, (short) unit1));
+        } else if (format == Form22x.THE_ONE) {
+            return new SimpleInsn(dop, pos, regs(aa, unit1));
+        } else if (format == Form21t.THE_ONE) {
+            return new TargetInsn(dop, pos, regs(aa),
+                    target(address, (short) unit1));
+        } else if (format == Form21s.THE_ONE) {
+            return literalInsn(dop, pos, aa, (short) unit1);
+        } else if (format == Form21h.THE_ONE) {
+            if (opcode == DalvOps.CONST_WIDE_HIGH16) {
+                return literalInsn(dop, pos, aa, ((long) unit1) << 48);
+            }
+            return literalInsn(dop, pos, aa, unit1 << 16);
+        } else if (format == Form21c.THE_ONE) {
+            return new CstInsn(dop, pos, regs(aa), constant(dop, unit1));
+        } else if (format == Form23x.THE_ONE) {
+            return new SimpleInsn(dop, pos,
+                    regs(aa, unit1 & 0xff, unit1 >> 8));
+        } else if (format == Form22b.THE_ONE) {
+            return new CstInsn(dop, pos, regs(aa, unit1 & 0xff),
+                    CstInteger.make((byte) (unit1 >> 8)));
+        } else if (format == Form22t.THE_ONE) {
+            return new TargetInsn(dop, pos, regs(a, b),
+                    target(address, (short) unit1));
+        } else if (format == Form22s.THE_ONE) {
+            return new CstInsn(dop, pos, regs(a, b),
+                    CstInteger.make((short) unit1));
+        } else if (format == Form22c.THE_ONE) {
+            return new CstInsn(dop, pos, regs(a, b), constant(dop, unit1));
+        } else if (format == Form32x.THE_ONE) {
+            return new SimpleInsn(dop, pos, regs(unit1, insns[address + 2]));
+        } else if (format == Form30t.THE_ONE) {
+            return new TargetInsn(dop, pos, RegisterSpecList.EMPTY,
+                    target(address, int32(address + 1)));
+        } else if (format == Form31t.THE_ONE) {
+            // The target is the payload, which makePayload() sorts out.
+            return new TargetInsn(dop, pos, regs(aa), new CodeAddress(pos));
+        } else if (format == Form31i.THE_ONE) {
+            return literalInsn(dop, pos, aa, int32(address + 1));
+        } else if (format == Form31c.THE_ONE) {
+            /*
+             * Start out with the narrow form; this gets widened again
+             * if the string index doesn't fit.
+             */
+            if (opcode == DalvOps.CONST_STRING_JUMBO) {
+                dop = Dops.CONST_STRING;
+            }
+            return new CstInsn(dop, pos, regs(aa),
+                    constant(dop, int32(address + 1)));
+        } else if (format == Form35c.THE_ONE) {
+            int count = b;
+            int unit2 = insns[address + 2];
+            int[] words = new int[count];
+
+            for (int i = 0; i < count; i++) {
+                words[i] = (i < 4) ? ((unit2 >> (i * 4)) & 0x0f) : a;
+            }
+
+            Constant cst = constant(dop, unit1);
+            return new CstInsn(dop, pos, argRegs(dop, cst, words), cst);
+        } else if (format == Form3rc.THE_ONE) {
+            int count = aa;
+            int first = insns[address + 2];
+            int[] words = new int[count];
+
+            for (int i = 0; i < count; i++) {
+                words[i] = first + i;
+            }
+
+            Constant cst = constant(dop, unit1);
+            return new CstInsn(dop, pos, argRegs(dop, cst, words), cst);
+        } else if (format == Form51l.THE_ONE) {
+            long value = (int32(address + 1) & 0xffffffffL) |
+                (((long) int32(address + 3)) << 32);
+            return literalInsn(dop, pos, aa, value);
+        }
+
+        throw new ParseException("unknown format for " + dop.getName());
+    }
+
+    /**
+     * Makes a constant-loading instruction, with a literal of the
+     * width of its target register.
+     *
+     * @param dop {@code non-null;} the opcode
+     * @param pos {@code non-null;} the source position
+     * @param reg the target register
+     * @param value the literal, sign-extended if it is narrower than
+     * the target register
+     * @return {@code non-null;} the instruction
+     */
+    private static DalvInsn literalInsn(Dop dop, SourcePosition pos,
+            int reg, long value) {
+        if (dop.getFamily() == DalvOps.CONST_WIDE) {
+            return new CstInsn(dop, pos,
+                    RegisterSpecList.make(RegisterSpec.make(reg, Type.LONG)),
+                    CstLong.make(value));
+        }
+
+        return new CstInsn(dop, pos, regs(reg), CstInteger.make((int) value));
+    }
+
+    /**
+     * Gets the constant that an instruction refers to.
+     *
+     * @param dop {@code non-null;} the opcode of the instruction
+     * @param index the index in the instruction
+     * @return {@code non-null;} the constant
+     */
+    private Constant constant(Dop dop, int index) {
+        int family = dop.getFamily();
+
+        if (family == DalvOps.CONST_STRING) {
+            return new CstString(parser.string(index));
+        } else if ((family >= DalvOps.IGET) &&
+                (family <= DalvOps.SPUT_SHORT)) {
+            return parser.field(index);
+        } else if ((family >= DalvOps.INVOKE_VIRTUAL) &&
+                (family <= DalvOps.INVOKE_INTERFACE)) {
+            return parser.method(index);
+        }
+
+        return parser.type(index);
+    }
+
+    /**
+     * Makes the argument registers of an invoke or
+     * {@code filled-new-array}. Wide arguments take up two of the
+     * words of the instruction but are a single register spec.
+     *
+     * @param dop {@code non-null;} the opcode
+     * @param cst {@code non-null;} the constant of the instruction
+     * @param words {@code non-null;} the registers, one per word
+     * @return {@code non-null;} the register specs
+     */
+    private static RegisterSpecList argRegs(Dop dop, Constant cst,
+            int[] words) {
+        ArrayList<RegisterSpec> result = new ArrayList<RegisterSpec>();
+        int count = words.length;
+
+        if (cst instanceof CstMethodRef) {
+            Prototype proto = ((CstMethodRef) cst).getPrototype();
+            StdTypeList params = proto.getParameterTypes();
+            int paramCount = params.size();
+            int at = 0;
+
+            if (dop.getFamily() != DalvOps.INVOKE_STATIC) {
+                if (count == 0) {
+                    throw new ParseException("missing receiver argument");
+                }
+                result.add(RegisterSpec.make(words[0], Type.OBJECT));
+                at++;
+            }
+
+            for (int i = 0; i < paramCount; i++) {
+                Type type = params.getType(i);
+
+                if (at + type.getCategory() > count) {
+                    throw new ParseException("too few argument words");
+                }
+
+                if ((type.getCategory() == 2) &&
+                        (words[at + 1] != words[at] + 1)) {
+                    throw new ParseException("split wide argument");
+                }
+
+                result.add(RegisterSpec.make(words[at], type));
+                at += type.getCategory();
+            }
+
+            if (at != count) {
+                throw new ParseException("too many argument words");
+            }
+        } else {
+            for (int i = 0; i < count; i++) {
+                result.add(RegisterSpec.make(words[i], Type.INT));
+            }
+        }
+
+        int size = result.size();
+        RegisterSpecList list = new RegisterSpecList(size);
+
+        for (int i = 0; i < size; i++) {
+            list.set(i, result.get(i));
+        }
+
+        list.setImmutable();
+        return list;
+    }
+
+    /**
+     * Makes a list of category-1 registers.
+     *
+     * @param regs {@code non-null;} the register numbers
+     * @return {@code non-null;} the list
+     */
+    private static RegisterSpecList regs(int... regs) {
+        RegisterSpecList result = new RegisterSpecList(regs.length);
+
+        for (int i = 0; i < regs.length; i++) {
+            result.set(i, RegisterSpec.make(regs[i], Type.INT));
+        }
+
+        result.setImmutable();
+        return result;
+    }
+
+    /**
+     * Reads a 32-bit value out of two code units.
+     *
+     * @param address address of the low-order code unit
+     * @return the value
+     */
+    private int int32(int address) {
+        return insns[address] | (insns[address + 1] << 16);
+    }
+
+    /**
+     * Gets the address object for a branch target.
+     *
+     * @param address address of the branch
+     * @param offset offset of the target from the branch
+     * @return {@code non-null;} the address object
+     */
+    private CodeAddress target(int address, int offset) {
+        return codeAddress(address + offset);
+    }
+
+    /**
+     * Gets the address object for an address, making it if need be.
+     *
+     * @param address the address
+     * @return {@code non-null;} the address object
+     */
+    private CodeAddress codeAddress(int address) {
+        if ((address < 0) || (address >= boundaries.length)) {
+            throw new ParseException("bad branch target " + Hex.u4(address));
+        }
+
+        CodeAddress result = addresses.get(address);
+
+        if (result == null) {
+            result = new CodeAddress(SourcePosition.NO_INFO);
+            addresses.put(address, result);
+        }
+
+        return result;
+    }
+
+    /**
+     * Gets the source position for the instruction at the given
+     * address. This must be called in order of address.
+     *
+     * @param address the address
+     * @return {@code non-null;} the position
+     */
+    private SourcePosition positionAt(int address) {
+        if (positions != null) {
+            int size = positions.size();
+
+            while ((positionAt < size) &&
+                    (positions.get(positionAt).address <= address)) {
+                int line = positions.get(positionAt).line;
+                position = new SourcePosition(null, -1, line);
+                positionAt++;
+            }
+        }
+
+        return position;
+    }
+
+    /**
+     * Makes the payload that a switch or {@code fill-array-data}
+     * instruction refers to, and adds it to {@link #suffix}.
+     *
+     * @param insn {@code non-null;} the instruction
+     * @param address the address of the instruction
+     * @return {@code non-null;} the address object that has to go
+     * just before the instruction
+     */
+    private CodeAddress makePayload(TargetInsn insn, int address) {
+        SourcePosition pos = insn.getPosition();
+        CodeAddress user = new CodeAddress(pos);
+        int payload = address + int32(address + 1);
+        int size = insns.length;
+
+        if ((payload < 0) || (payload >= size) ||
+                (payloadSize(payload) == 0)) {
+            throw new ParseException("bad payload address " +
+                    Hex.u4(payload));
+        }
+
+        int ident = insns[payload];
+        DalvInsn data;
+
+        if (insn.getOpcode().getFamily() == DalvOps.FILL_ARRAY_DATA) {
+            if (ident != FILL_ARRAY_DATA_PAYLOAD) {
+                throw new ParseException("expected array data at " +
+                        Hex.u4(payload));
+            }
+            data = makeArrayData(pos, user, payload);
+        } else {
+            if (ident == FILL_ARRAY_DATA_PAYLOAD) {
+                throw new ParseException("expected switch data at " +
+                        Hex.u4(payload));
+            }
+            data = makeSwitchData(pos, user, address, payload);
+        }
+
+        suffix.add(new OddSpacer(pos));
+        suffix.add(insn.getTarget());
+        suffix.add(data);
+
+        return user;
+    }
+
+    /**
+     * Makes a switch payload.
+     *
+     * @param pos {@code non-null;} source position
+     * @param user {@code non-null;} address of the switch
+     * @param address the address of the switch
+     * @param payload the address of the payload
+     * @return {@code non-null;} the payload
+     */
+    private SwitchData makeSwitchData(SourcePosition pos, CodeAddress user,
+            int address, int payload) {
+        int count = insns[payload + 1];
+        IntList cases = new IntList(count);
+        ArrayList<CodeAddress> targets = new ArrayList<CodeAddress>(count);
+
+        /*
+         * All the cases are kept, including the ones of a packed
+         * switch that go to the default target, so that the table
+         * gets written back out in the form it was read in.
+         */
+        if (insns[payload] == PACKED_SWITCH_PAYLOAD) {
+            int firstKey = int32(payload + 2);
+
+            for (int i = 0; i < count; i++) {
+                cases.add(firstKey + i);
+                targets.add(target(address, int32(payload + 4 + i * 2)));
+            }
+        } else {
+            int targetsAt = payload + 2 + count * 2;
+
+            for (int i = 0; i < count; i++) {
+                cases.add(int32(payload + 2 + i * 2));
+                targets.add(target(address, int32(targetsAt + i * 2)));
+            }
+        }
+
+        cases.setImmutable();
+        return new SwitchData(pos, user, cases,
+                targets.toArray(new CodeAddress[targets.size()]));
+    }
+
+    /**
+     * Makes an array data payload.
+     *
+     * @param pos {@code non-null;} source position
+     * @param user {@code non-null;} address of the instruction
+     * @param payload the address of the payload
+     * @return {@code non-null;} the payload
+     */
+    private ArrayData makeArrayData(SourcePosition pos, CodeAddress user,
+            int payload) {
+        int width = insns[payload + 1];
+        int count = int32(payload + 2);
+        int at = (payload + 4) * 2; // in bytes
+        ArrayList<Constant> values = new ArrayList<Constant>(count);
+        CstType arrayType;
+
+        switch (width) {
+            case 1: arrayType = CstType.BYTE_ARRAY;  break;
+            case 2: arrayType = CstType.SHORT_ARRAY; break;
+            case 4: arrayType = CstType.INT_ARRAY;   break;
+            case 8: arrayType = CstType.LONG_ARRAY;  break;
+            default: {
+                throw new ParseException("bad array data width " + width);
+            }
+        }
+
+        for (int i = 0; i < count; i++) {
+            long value = 0;
+
+            for (int j = 0; j < width; j++) {
+                int unit = insns[(at + j) >> 1];
+                int b = ((at + j) & 1) == 0 ? (unit & 0xff) : (unit >> 8);
+                value |= ((long) b) << (j * 8);
+            }
+
+            at += width;
+
+            if (width == 8) {
+                values.add(CstLong.make(value));
+            } else {
+                values.add(CstInteger.make((int) value));
+            }
+        }
+
+        return new ArrayData(pos, user, values, arrayType);
+    }
+
+    /**
+     * Reads the try items and handlers.
+     *
+     * @param in {@code non-null;} where to read from, positioned at
+     * the first try item
+     * @param triesSize the number of try items
+     * @return {@code non-null;} the catches
+     */
+    private CatchBuilder readTries(DexReader in, int triesSize) {
+        int handlersAt = in.getCursor() + triesSize * 8;
+        byte[] bytes = parser.getBytes();
+        DecodedCatchBuilder result = new DecodedCatchBuilder(triesSize);
+
+        for (int i = 0; i < triesSize; i++) {
+            int start = in.readInt();
+            int count = in.readUnsignedShort();
+            int handlerOff = in.readUnsignedShort();
+            DexReader handler = new DexReader(bytes, handlersAt + handlerOff);
+            int size = handler.readSignedLeb128();
+            boolean catchAll = (size <= 0);
+            int handlerCount = Math.abs(size);
+            int total = handlerCount + (catchAll ? 1 : 0);
+            CstType[] types = new CstType[total];
+            CodeAddress[] targets = new CodeAddress[total];
+
+            for (int j = 0; j < handlerCount; j++) {
+                types[j] = parser.type(handler.readUnsignedLeb128());
+                targets[j] = codeAddress(handler.readUnsignedLeb128());
+            }
+
+            if (catchAll) {
+                types[handlerCount] = CstType.OBJECT;
+                targets[handlerCount] =
+                    codeAddress(handler.readUnsignedLeb128());
+            }
+
+            result.set(i, codeAddress(start), codeAddress(start + count),
+                    types, targets);
+        }
+
+        return result;
+    }
+
+    /**
+     * Makes the local variable pseudo-instructions out of the debug
+     * info.
+     *
+     * @param debugInfo {@code non-null;} the decoded debug info
+     * @param registersSize the number of registers of the method
+     * @param locals {@code non-null;} where to add the
+     * pseudo-instructions
+     * @param localAddresses {@code non-null;} where to add the
+     * address of each
+     */
+    private void makeLocals(DebugInfoDecoder debugInfo, int registersSize,
+            ArrayList<DalvInsn> locals, ArrayList<Integer> localAddresses) {
+        Type[] paramTypes = new Type[registersSize];
+        StdTypeList params = method.getPrototype().getParameterTypes();
+        int paramCount = params.size();
+        int reg = registersSize - params.getWordCount() - (isStatic ? 0 : 1);
+
+        if (!isStatic) {
+            paramTypes[reg] = method.getDefiningClass().getClassType();
+            reg++;
+        }
+
+        for (int i = 0; i < paramCount; i++) {
+            Type type = params.getType(i);
+            paramTypes[reg] = type;
+            reg += type.getCategory();
+        }
+
+        List<DebugInfoDecoder.LocalEntry> entries = debugInfo.getLocals();
+        int size = entries.size();
+        int first = isStatic ? 0 : 1;
+        boolean anyNamed = false;
+
+        /*
+         * The decoder always starts off with {@code this}, whether or
+         * not it was ever written out, so it only counts as a local if
+         * some other one does.
+         */
+        for (int i = first; i < size; i++) {
+            if (entries.get(i).nameIndex >= 0) {
+                anyNamed = true;
+                break;
+            }
+        }
+
+        if (!anyNamed) {
+            return;
+        }
+
+        RegisterSpec[] live = new RegisterSpec[registersSize];
+
+        for (DebugInfoDecoder.LocalEntry entry : entries) {
+            int localReg = entry.reg;
+
+            if ((localReg < 0) || (localReg >= registersSize)) {
+                throw new ParseException("bad local register " + localReg);
+            }
+
+            if (!entry.isStart) {
+                RegisterSpec spec = live[localReg];
+
+                if (spec != null) {
+                    locals.add(new LocalEnd(SourcePosition.NO_INFO, spec));
+                    localAddresses.add(entry.address);
+                    live[localReg] = null;
+                }
+
+                continue;
+            }
+
+            Type type = (entry.typeIndex >= 0) ?
+                parser.type(entry.typeIndex).getClassType() :
+                paramTypes[localReg];
+
+            if ((entry.nameIndex < 0) || (type == null)) {
+                // Not enough to go on to make a local of.
+                live[localReg] = null;
+                continue;
+            }
+
+            CstUtf8 name = parser.string(entry.nameIndex);
+            CstUtf8 signature = (entry.signatureIndex >= 0) ?
+                parser.string(entry.signatureIndex) : null;
+            RegisterSpec spec = RegisterSpec.make(localReg, type,
+                    LocalItem.make(name, signature));
+
+            locals.add(new LocalStart(SourcePosition.NO_INFO, spec));
+            localAddresses.add(entry.address);
+            live[localReg] = spec;
+        }
+    }
+
+    /**
+     * Catch builder for decoded try items, whose addresses are only
+     * known once the code has been laid out again.
+     */
+    private static class DecodedCatchBuilder implements CatchBuilder {
+        /** {@code non-null;} the start of each range */
+        private final CodeAddress[] starts;
+
+        /** {@code non-null;} the end of each range */
+        private final CodeAddress[] ends;
+
+        /** {@code non-null;} the types caught by each range */
+        private final CstType[][] types;
+
+        /** {@code non-null;} the handlers of each range */
+        private final CodeAddress[][] handlers;
+
+        /**
+         * Constructs an instance.
+         *
+         * @param size the number of ranges
+         */
+        public DecodedCatchBuilder(int size) {
+            starts = new CodeAddress[size];
+            ends = new CodeAddress[size];
+            types = new CstType[size][];
+            handlers = new CodeAddress[size][];
+        }
+
+        /**
+         * Sets one range.
+         *
+         * @param n which range
+         * @param start {@code non-null;} the start of the range
+         * @param end {@code non-null;} the end of the range
+         * @param rangeTypes {@code non-null;} the types caught, with
+         * {@code Object} last for a catch-all
+         * @param rangeHandlers {@code non-null;} the handlers, one per
+         * type
+         */
+        public void set(int n, CodeAddress start, CodeAddress end,
+                CstType[] rangeTypes, CodeAddress[] rangeHandlers) {
+            starts[n] = start;
+            ends[n] = end;
+            types[n] = rangeTypes;
+            handlers[n] = rangeHandlers;
+        }
+
+        /** {@inheritDoc} */
+        public CatchTable build() {
+            int size = starts.length;
+            CatchTable result = new CatchTable(size);
+
+            for (int i = 0; i < size; i++) {
+                int count = types[i].length;
+                CatchHandlerList list = new CatchHandlerList(count);
+
+                for (int j = 0; j < count; j++) {
+                    list.set(j, types[i][j], handlers[i][j].getAddress());
+                }
+
+                list.setImmutable();
+                result.set(i, new CatchTable.Entry(starts[i].getAddress(),
+                                ends[i].getAddress(), list));
+            }
+
+            result.setImmutable();
+            return result;
+        }
+
+        /** {@inheritDoc} */
+        public boolean hasAnyCatches() {
+            return starts.length != 0;
+        }
+
+        /** {@inheritDoc} */
+        public HashSet<Type> getCatchTypes() {
+            HashSet<Type> result = new HashSet<Type>(20);
+
+            for (CstType[] one : types) {
+                for (CstType type : one) {
+                    result.add(type.getClassType());
+                }
+            }
+
+            return result;
+        }
+    }
+}
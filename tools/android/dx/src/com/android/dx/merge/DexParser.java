@@ -0,0 +1,872 @@
+/*
+ * Copyright (C) 2007 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.dx.merge;
+
+import com.android.dx.cf.iface.ParseException;
+import com.android.dx.dex.code.DalvCode;
+import com.android.dx.dex.code.PositionList;
+import com.android.dx.dex.file.AnnotationItem;
+import com.android.dx.dex.file.ClassDefItem;
+import com.android.dx.dex.file.EncodedField;
+import com.android.dx.dex.file.EncodedMethod;
+import com.android.dx.dex.file.ValueEncoder;
+import com.android.dx.rop.annotation.Annotation;
+import com.android.dx.rop.annotation.AnnotationVisibility;
+import com.android.dx.rop.annotation.Annotations;
+import com.android.dx.rop.annotation.AnnotationsList;
+import com.android.dx.rop.annotation.NameValuePair;
+import com.android.dx.rop.code.AccessFlags;
+import com.android.dx.rop.cst.Constant;
+import com.android.dx.rop.cst.CstAnnotation;
+import com.android.dx.rop.cst.CstArray;
+import com.android.dx.rop.cst.CstBoolean;
+import com.android.dx.rop.cst.CstByte;
+import com.android.dx.rop.cst.CstChar;
+import com.android.dx.rop.cst.CstDouble;
+import com.android.dx.rop.cst.CstEnumRef;
+import com.android.dx.rop.cst.CstFieldRef;
+import com.android.dx.rop.cst.CstFloat;
+import com.android.dx.rop.cst.CstInteger;
+import com.android.dx.rop.cst.CstKnownNull;
+import com.android.dx.rop.cst.CstLong;
+import com.android.dx.rop.cst.CstMethodRef;
+import com.android.dx.rop.cst.CstNat;
+import com.android.dx.rop.cst.CstShort;
+import com.android.dx.rop.cst.CstString;
+import com.android.dx.rop.cst.CstType;
+import com.android.dx.rop.cst.CstUtf8;
+import com.android.dx.rop.type.Prototype;
+import com.android.dx.rop.type.StdTypeList;
+import com.android.dx.rop.type.Type;
+import com.android.dx.util.ByteArray;
+import com.android.dx.util.ExceptionWithContext;
+import com.android.dx.util.Hex;
+import com.android.dx.util.PhaseProfiler;
+
+/**
+ * Reader of the classes in an existing dex file, which turns each
+ * back into a {@link ClassDefItem} that can be added to a new
+ * {@link com.android.dx.dex.file.DexFile}. That is all it takes to
+ * merge dex files: the new file interns the strings, types,
+ * prototypes and members that the classes refer to, sorts them, and
+ * rewrites every index in the code, debug info, annotations and
+ * static values, widening instructions where an index no longer fits.
+ *
+ * <p>The id sections of the file are read up front, by the
+ * constructor. After that, instances are safe to read classes from
+ * on any number of threads at once.</p>
+ */
+public final class DexParser {
+    /** the prefix of the magic number of the files read */
+    private static final String MAGIC = "dex\n03";
+
+    /** the size of the file header */
+    private static final int HEADER_SIZE = 0x70;
+
+    /** index value meaning "none" */
+    private static final int NO_INDEX = -1;
+
+    /** {@code non-null;} name of the file, for messages */
+    private final String name;
+
+    /** {@code non-null;} contents of the file */
+    private final byte[] bytes;
+
+    /**
+     * how much position info to preserve; one of the static constants
+     * in {@link com.android.dx.dex.code.PositionList}
+     */
+    private final int positionInfo;
+
+    /** whether to keep local variable information */
+    private final boolean localInfo;
+
+    /** {@code non-null;} the strings, by index */
+    private final CstUtf8[] strings;
+
+    /** {@code non-null;} the types, by index */
+    private final CstType[] types;
+
+    /** {@code non-null;} the prototypes, by index */
+    private final Prototype[] protos;
+
+    /** {@code non-null;} the field references, by index */
+    private final CstFieldRef[] fields;
+
+    /** {@code non-null;} the method references, by index */
+    private final CstMethodRef[] methods;
+
+    /** index of the string {@code "this"}, or {@code -1} if none */
+    private final int thisStringIdx;
+
+    /** {@code >= 0;} number of classes defined by the file */
+    private final int classCount;
+
+    /** {@code >= 0;} offset of the class definitions */
+    private final int classDefsOff;
+
+    /**
+     * Constructs an instance, reading the id sections of the file.
+     *
+     * @param name {@code non-null;} name of the file, for messages
+     * @param bytes {@code non-null;} contents of the file
+     * @param positionInfo how much position info to preserve; one of
+     * the static constants in {@link com.android.dx.dex.code.PositionList}
+     * @param localInfo whether to keep local variable information
+     */
+    public DexParser(String name, byte[] bytes, int positionInfo,
+            boolean localInfo) {
+        if (name == null) {
+            throw new NullPointerException("name == null");
+        }
+
+        if (bytes == null) {
+            throw new NullPointerException("bytes == null");
+        }
+
+        this.name = name;
+        this.bytes = bytes;
+        this.positionInfo = positionInfo;
+        this.localInfo = localInfo;
+
+        try {
+            checkMagic();
+
+            DexReader header = new DexReader(bytes, 0x38);
+            int stringIdsSize = header.readInt();
+            int stringIdsOff = header.readInt();
+            int typeIdsSize = header.readInt();
+            int typeIdsOff = header.readInt();
+            int protoIdsSize = header.readInt();
+            int protoIdsOff = header.readInt();
+            int fieldIdsSize = header.readInt();
+            int fieldIdsOff = header.readInt();
+            int methodIdsSize = header.readInt();
+            int methodIdsOff = header.readInt();
+
+            classCount = header.readInt();
+            classDefsOff = header.readInt();
+
+            strings = readStrings(stringIdsSize, stringIdsOff);
+            types = readTypes(typeIdsSize, typeIdsOff);
+            protos = readProtos(protoIdsSize, protoIdsOff);
+            fields = readFields(fieldIdsSize, fieldIdsOff);
+            methods = readMethods(methodIdsSize, methodIdsOff);
+            thisStringIdx = findString("this");
+        } catch (RuntimeException ex) {
+            throw ExceptionWithContext.withContext(ex,
+                    "...while parsing " + name);
+        }
+    }
+
+    /**
+     * Gets the number of classes defined by the file.
+     *
+     * @return {@code >= 0;} the class count
+     */
+    public int getClassCount() {
+        return classCount;
+    }
+
+    /**
+     * Gets the name that the class file for the class at the given
+     * index would have, such as {@code com/example/Foo.class}.
+     *
+     * @param index {@code 0..getClassCount()-1;} the index
+     * @return {@code non-null;} the name
+     */
+    public String getClassFileName(int index) {
+        checkClassIndex(index);
+
+        DexReader in = new DexReader(bytes, classDefsOff + index * 32);
+        String desc = type(in.readInt()).getClassType().getClassName();
+
+        return desc + ".class";
+    }
+
+    /**
+     * Reads the class at the given index.
+     *
+     * @param index {@code 0..getClassCount()-1;} the index
+     * @return {@code non-null;} the class
+     */
+    public ClassDefItem readClass(int index) {
+        checkClassIndex(index);
+
+        String fileName = getClassFileName(index);
+        PhaseProfiler.Record record = PhaseProfiler.enterClass(fileName);
+        PhaseProfiler.Sample sample = PhaseProfiler.begin();
+
+        try {
+            return readClass0(index);
+        } catch (RuntimeException ex) {
+            throw ExceptionWithContext.withContext(ex,
+                    "...while processing " + fileName + " in " + name);
+        } finally {
+            PhaseProfiler.end(sample, PhaseProfiler.Phase.PARSE);
+            PhaseProfiler.exit(record);
+        }
+    }
+
+    /**
+     * Helper for {@link #readClass}, which does all the work.
+     *
+     * @param index the index
+     * @return {@code non-null;} the class
+     */
+    private ClassDefItem readClass0(int index) {
+        DexReader in = new DexReader(bytes, classDefsOff + index * 32);
+        CstType thisClass = type(in.readInt());
+        int accessFlags = in.readInt();
+        int superclassIdx = in.readInt();
+        int interfacesOff = in.readInt();
+        int sourceFileIdx = in.readInt();
+        int annotationsOff = in.readInt();
+        int classDataOff = in.readInt();
+        int staticValuesOff = in.readInt();
+
+        CstType superclass =
+            (superclassIdx == NO_INDEX) ? null : type(superclassIdx);
+        StdTypeList interfaces = (interfacesOff == 0) ?
+            StdTypeList.EMPTY : readTypeList(interfacesOff);
+        CstUtf8 sourceFile = ((sourceFileIdx == NO_INDEX) ||
+                (positionInfo == PositionList.NONE)) ?
+            null : string(sourceFileIdx);
+        ClassDefItem result = new ClassDefItem(thisClass, accessFlags,
+                superclass, interfaces, sourceFile);
+
+        if (classDataOff != 0) {
+            CstArray.List staticValues = (staticValuesOff == 0) ? null :
+                readArray(new DexReader(bytes, staticValuesOff));
+            readClassData(result, classDataOff, staticValues);
+        }
+
+        if (annotationsOff != 0) {
+            readAnnotationsDirectory(result, annotationsOff);
+        }
+
+        return result;
+    }
+
+    /**
+     * Reads the fields and methods of a class.
+     *
+     * @param clazz {@code non-null;} the class to add them to
+     * @param offset offset of the {@code class_data_item}
+     * @param staticValues {@code null-ok;} initial values of the
+     * static fields, in order, if any; there may be fewer values than
+     * fields
+     */
+    private void readClassData(ClassDefItem clazz, int offset,
+            CstArray.List staticValues) {
+        DexReader in = new DexReader(bytes, offset);
+        int staticFieldsSize = in.readUnsignedLeb128();
+        int instanceFieldsSize = in.readUnsignedLeb128();
+        int directMethodsSize = in.readUnsignedLeb128();
+        int virtualMethodsSize = in.readUnsignedLeb128();
+        int valuesSize = (staticValues == null) ? 0 : staticValues.size();
+        int fieldIdx = 0;
+
+        for (int i = 0; i < staticFieldsSize; i++) {
+            fieldIdx += in.readUnsignedLeb128();
+            EncodedField field =
+                new EncodedField(field(fieldIdx), in.readUnsignedLeb128());
+            Constant value = (i < valuesSize) ? staticValues.get(i) : null;
+            clazz.addStaticField(field, value);
+        }
+
+        fieldIdx = 0;
+        for (int i = 0; i < instanceFieldsSize; i++) {
+            fieldIdx += in.readUnsignedLeb128();
+            clazz.addInstanceField(
+                    new EncodedField(field(fieldIdx), in.readUnsignedLeb128()));
+        }
+
+        int methodIdx = 0;
+        for (int i = 0; i < directMethodsSize; i++) {
+            methodIdx += in.readUnsignedLeb128();
+            clazz.addDirectMethod(readMethod(in, methodIdx));
+        }
+
+        methodIdx = 0;
+        for (int i = 0; i < virtualMethodsSize; i++) {
+            methodIdx += in.readUnsignedLeb128();
+            clazz.addVirtualMethod(readMethod(in, methodIdx));
+        }
+    }
+
+    /**
+     * Reads the rest of an {@code encoded_method}, along with its code.
+     *
+     * @param in {@code non-null;} where to read from, positioned just
+     * past the method index
+     * @param methodIdx the method index
+     * @return {@code non-null;} the method
+     */
+    private EncodedMethod readMethod(DexReader in, int methodIdx) {
+        CstMethodRef method = method(methodIdx);
+        int accessFlags = in.readUnsignedLeb128();
+        int codeOff = in.readUnsignedLeb128();
+        DalvCode code = null;
+
+        if (codeOff != 0) {
+            boolean isStatic = (accessFlags & AccessFlags.ACC_STATIC) != 0;
+
+            try {
+                code = new CodeDecoder(this, codeOff, method, isStatic)
+                    .decode();
+            } catch (RuntimeException ex) {
+                throw ExceptionWithContext.withContext(ex,
+                        "...while decoding the code of " + method.toHuman());
+            }
+        }
+
+        return new EncodedMethod(method, accessFlags, code, StdTypeList.EMPTY);
+    }
+
+    /**
+     * Reads the annotations of a class and of its members.
+     *
+     * @param clazz {@code non-null;} the class to add them to
+     * @param offset offset of the {@code annotations_directory_item}
+     */
+    private void readAnnotationsDirectory(ClassDefItem clazz, int offset) {
+        DexReader in = new DexReader(bytes, offset);
+        int classAnnotationsOff = in.readInt();
+        int fieldsSize = in.readInt();
+        int methodsSize = in.readInt();
+        int parametersSize = in.readInt();
+
+        if (classAnnotationsOff != 0) {
+            clazz.setClassAnnotations(readAnnotationSet(classAnnotationsOff));
+        }
+
+        for (int i = 0; i < fieldsSize; i++) {
+            CstFieldRef field = field(in.readInt());
+            clazz.addFieldAnnotations(field, readAnnotationSet(in.readInt()));
+        }
+
+        for (int i = 0; i < methodsSize; i++) {
+            CstMethodRef method = method(in.readInt());
+            clazz.addMethodAnnotations(method,
+                    readAnnotationSet(in.readInt()));
+        }
+
+        for (int i = 0; i < parametersSize; i++) {
+            CstMethodRef method = method(in.readInt());
+            DexReader list = new DexReader(bytes, in.readInt());
+            int size = list.readInt();
+            AnnotationsList annotationsList = new AnnotationsList(size);
+
+            for (int j = 0; j < size; j++) {
+                int setOff = list.readInt();
+                annotationsList.set(j, (setOff == 0) ? Annotations.EMPTY :
+                        readAnnotationSet(setOff));
+            }
+
+            annotationsList.setImmutable();
+            clazz.addParameterAnnotations(method, annotationsList);
+        }
+    }
+
+    /**
+     * Reads an {@code annotation_set_item}.
+     *
+     * @param offset offset of the item
+     * @return {@code non-null;} the annotations
+     */
+    private Annotations readAnnotationSet(int offset) {
+        DexReader in = new DexReader(bytes, offset);
+        int size = in.readInt();
+        Annotations result = new Annotations();
+
+        for (int i = 0; i < size; i++) {
+            DexReader item = new DexReader(bytes, in.readInt());
+            AnnotationVisibility visibility;
+
+            switch (item.readUnsignedByte()) {
+                case AnnotationItem.VISIBILITY_BUILD: {
+                    visibility = AnnotationVisibility.BUILD;
+                    break;
+                }
+                case AnnotationItem.VISIBILITY_RUNTIME: {
+                    visibility = AnnotationVisibility.RUNTIME;
+                    break;
+                }
+                case AnnotationItem.VISIBILITY_SYSTEM: {
+                    visibility = AnnotationVisibility.SYSTEM;
+                    break;
+                }
+                default: {
+                    throw new ParseException("bad annotation visibility");
+                }
+            }
+
+            result.add(readAnnotation(item, visibility));
+        }
+
+        result.setImmutable();
+        return result;
+    }
+
+    /**
+     * Reads an {@code encoded_annotation}.
+     *
+     * @param in {@code non-null;} where to read from
+     * @param visibility {@code non-null;} the visibility of the annotation
+     * @return {@code non-null;} the annotation
+     */
+    private Annotation readAnnotation(DexReader in,
+            AnnotationVisibility visibility) {
+        CstType type = type(in.readUnsignedLeb128());
+        int size = in.readUnsignedLeb128();
+        Annotation result = new Annotation(type, visibility);
+
+        for (int i = 0; i < size; i++) {
+            CstUtf8 elementName = string(in.readUnsignedLeb128());
+            result.add(new NameValuePair(elementName, readValue(in)));
+        }
+
+        result.setImmutable();
+        return result;
+    }
+
+    /**
+     * Reads the elements of an {@code encoded_array}.
+     *
+     * @param in {@code non-null;} where to read from
+     * @return {@code non-null;} the elements
+     */
+    private CstArray.List readArray(DexReader in) {
+        int size = in.readUnsignedLeb128();
+        CstArray.List result = new CstArray.List(size);
+
+        for (int i = 0; i < size; i++) {
+            result.set(i, readValue(in));
+        }
+
+        result.setImmutable();
+        return result;
+    }
+
+    /**
+     * Reads an {@code encoded_value}.
+     *
+     * @param in {@code non-null;} where to read from
+     * @return {@code non-null;} the value
+     */
+    private Constant readValue(DexReader in) {
+        int header = in.readUnsignedByte();
+        int type = header & 0x1f;
+        int arg = header >> 5;
+
+        switch (type) {
+            case ValueEncoder.VALUE_BYTE: {
+                return CstByte.make((byte) readSigned(in, arg));
+            }
+            case ValueEncoder.VALUE_SHORT: {
+                return CstShort.make((short) readSigned(in, arg));
+            }
+            case ValueEncoder.VALUE_CHAR: {
+                return CstChar.make((char) in.readUnsignedBytes(arg + 1));
+            }
+            case ValueEncoder.VALUE_INT: {
+                return CstInteger.make((int) readSigned(in, arg));
+            }
+            case ValueEncoder.VALUE_LONG: {
+                return CstLong.make(readSigned(in, arg));
+            }
+            case ValueEncoder.VALUE_FLOAT: {
+                return CstFloat.make((int) (readRightZeroExtended(in, arg)
+                                >>> 32));
+            }
+            case ValueEncoder.VALUE_DOUBLE: {
+                return CstDouble.make(readRightZeroExtended(in, arg));
+            }
+            case ValueEncoder.VALUE_STRING: {
+                return new CstString(string(readIndex(in, arg)));
+            }
+            case ValueEncoder.VALUE_TYPE: {
+                return type(readIndex(in, arg));
+            }
+            case ValueEncoder.VALUE_FIELD: {
+                return field(readIndex(in, arg));
+            }
+            case ValueEncoder.VALUE_METHOD: {
+                return method(readIndex(in, arg));
+            }
+            case ValueEncoder.VALUE_ENUM: {
+                return new CstEnumRef(field(readIndex(in, arg)).getNat());
+            }
+            case ValueEncoder.VALUE_ARRAY: {
+                return new CstArray(readArray(in));
+            }
+            case ValueEncoder.VALUE_ANNOTATION: {
+                return new CstAnnotation(
+                        readAnnotation(in, AnnotationVisibility.EMBEDDED));
+            }
+            case ValueEncoder.VALUE_NULL: {
+                return CstKnownNull.THE_ONE;
+            }
+            case ValueEncoder.VALUE_BOOLEAN: {
+                return CstBoolean.make(arg);
+            }
+        }
+
+        throw new ParseException("bad value type " + Hex.u1(type));
+    }
+
+    /**
+     * Reads the sign-extended payload of an {@code encoded_value}.
+     *
+     * @param in {@code non-null;} where to read from
+     * @param arg the {@code value_arg} of the value, one less than
+     * its byte count
+     * @return the value
+     */
+    private static long readSigned(DexReader in, int arg) {
+        int shift = 64 - ((arg + 1) * 8);
+        return (in.readUnsignedBytes(arg + 1) << shift) >> shift;
+    }
+
+    /**
+     * Reads the right-zero-extended payload of an {@code encoded_value}.
+     *
+     * @param in {@code non-null;} where to read from
+     * @param arg the {@code value_arg} of the value, one less than
+     * its byte count
+     * @return the value, as the high-order bits of a {@code long}
+     */
+    private static long readRightZeroExtended(DexReader in, int arg) {
+        return in.readUnsignedBytes(arg + 1) << (64 - ((arg + 1) * 8));
+    }
+
+    /**
+     * Reads the index payload of an {@code encoded_value}.
+     *
+     * @param in {@code non-null;} where to read from
+     * @param arg the {@code value_arg} of the value, one less than
+     * its byte count
+     * @return the index
+     */
+    private static int readIndex(DexReader in, int arg) {
+        return (int) in.readUnsignedBytes(arg + 1);
+    }
+
+    /**
+     * Reads a {@code type_list}.
+     *
+     * @param offset offset of the list
+     * @return {@code non-null;} the list
+     */
+    private StdTypeList readTypeList(int offset) {
+        DexReader in = new DexReader(bytes, offset);
+        int size = in.readInt();
+        StdTypeList result = new StdTypeList(size);
+
+        for (int i = 0; i < size; i++) {
+            result.set(i, type(in.readUnsignedShort()).getClassType());
+        }
+
+        result.setImmutable();
+        return result;
+    }
+
+    /**
+     * Checks that the file starts with the magic number of a dex file.
+     */
+    private void checkMagic() {
+        if (bytes.length < HEADER_SIZE) {
+            throw new ParseException("not a dex file (too short)");
+        }
+
+        for (int i = 0; i < MAGIC.length(); i++) {
+            if (bytes[i] != MAGIC.charAt(i)) {
+                throw new ParseException("not a dex file (bad magic)");
+            }
+        }
+    }
+
+    /**
+     * Reads the string ids and the strings they refer to.
+     *
+     * @param size the number of strings
+     * @param offset offset of the ids
+     * @return {@code non-null;} the strings
+     */
+    private CstUtf8[] readStrings(int size, int offset) {
+        CstUtf8[] result = new CstUtf8[size];
+        DexReader in = new DexReader(bytes, offset);
+
+        for (int i = 0; i < size; i++) {
+            DexReader data = new DexReader(bytes, in.readInt());
+
+            // Skip the utf16_size; the bytes are all that matter.
+            data.readUnsignedLeb128();
+
+            int start = data.getCursor();
+            int end = start;
+
+            while (true) {
+                if (end >= bytes.length) {
+                    throw new ParseException("unterminated string " + i);
+                }
+                if (bytes[end] == 0) {
+                    break;
+                }
+                end++;
+            }
+
+            result[i] = new CstUtf8(new ByteArray(bytes, start, end));
+        }
+
+        return result;
+    }
+
+    /**
+     * Reads the type ids.
+     *
+     * @param size the number of types
+     * @param offset offset of the ids
+     * @return {@code non-null;} the types
+     */
+    private CstType[] readTypes(int size, int offset) {
+        CstType[] result = new CstType[size];
+        DexReader in = new DexReader(bytes, offset);
+
+        for (int i = 0; i < size; i++) {
+            String descriptor = string(in.readInt()).getString();
+            result[i] = CstType.intern(Type.internReturnType(descriptor));
+        }
+
+        return result;
+    }
+
+    /**
+     * Reads the prototype ids.
+     *
+     * @param size the number of prototypes
+     * @param offset offset of the ids
+     * @return {@code non-null;} the prototypes
+     */
+    private Prototype[] readProtos(int size, int offset) {
+        Prototype[] result = new Prototype[size];
+        DexReader in = new DexReader(bytes, offset);
+
+        for (int i = 0; i < size; i++) {
+            in.readInt(); // shorty_idx, implied by the rest
+            CstType returnType = type(in.readInt());
+            int parametersOff = in.readInt();
+            StringBuilder sb = new StringBuilder();
+
+            sb.append('(');
+
+            if (parametersOff != 0) {
+                StdTypeList params = readTypeList(parametersOff);
+                int paramCount = params.size();
+                for (int j = 0; j < paramCount; j++) {
+                    sb.append(params.getType(j).getDescriptor());
+                }
+            }
+
+            sb.append(')');
+            sb.append(returnType.getClassType().getDescriptor());
+            result[i] = Prototype.intern(sb.toString());
+        }
+
+        return result;
+    }
+
+    /**
+     * Reads the field ids.
+     *
+     * @param size the number of fields
+     * @param offset offset of the ids
+     * @return {@code non-null;} the fields
+     */
+    private CstFieldRef[] readFields(int size, int offset) {
+        CstFieldRef[] result = new CstFieldRef[size];
+        DexReader in = new DexReader(bytes, offset);
+
+        for (int i = 0; i < size; i++) {
+            CstType definer = type(in.readUnsignedShort());
+            CstType type = type(in.readUnsignedShort());
+            CstUtf8 fieldName = string(in.readInt());
+            CstNat nat = new CstNat(fieldName, type.getDescriptor());
+            result[i] = new CstFieldRef(definer, nat);
+        }
+
+        return result;
+    }
+
+    /**
+     * Reads the method ids.
+     *
+     * @param size the number of methods
+     * @param offset offset of the ids
+     * @return {@code non-null;} the methods
+     */
+    private CstMethodRef[] readMethods(int size, int offset) {
+        CstMethodRef[] result = new CstMethodRef[size];
+        DexReader in = new DexReader(bytes, offset);
+
+        for (int i = 0; i < size; i++) {
+            CstType definer = type(in.readUnsignedShort());
+            Prototype proto = proto(in.readUnsignedShort());
+            CstUtf8 methodName = string(in.readInt());
+            CstNat nat = new CstNat(methodName,
+                    new CstUtf8(proto.getDescriptor()));
+            result[i] = new CstMethodRef(definer, nat);
+        }
+
+        return result;
+    }
+
+    /**
+     * Finds the index of the given string.
+     *
+     * @param string {@code non-null;} the string
+     * @return the index, or {@code -1} if the file doesn't have it
+     */
+    private int findString(String string) {
+        for (int i = 0; i < strings.length; i++) {
+            if (strings[i].getString().equals(string)) {
+                return i;
+            }
+        }
+
+        return -1;
+    }
+
+    /**
+     * Throws if a class index is out of range.
+     *
+     * @param index the index
+     */
+    private void checkClassIndex(int index) {
+        if ((index < 0) || (index >= classCount)) {
+            throw new IndexOutOfBoundsException("index " + index);
+        }
+    }
+
+    /**
+     * Gets the contents of the file.
+     *
+     * @return {@code non-null;} the contents
+     */
+    /*package*/ byte[] getBytes() {
+        return bytes;
+    }
+
+    /**
+     * Gets how much position info to preserve.
+     *
+     * @return one of the static constants in
+     * {@link com.android.dx.dex.code.PositionList}
+     */
+    /*package*/ int getPositionInfo() {
+        return positionInfo;
+    }
+
+    /**
+     * Gets whether to keep local variable information.
+     *
+     * @return whether to keep it
+     */
+    /*package*/ boolean getLocalInfo() {
+        return localInfo;
+    }
+
+    /**
+     * Gets the index of the string {@code "this"}.
+     *
+     * @return the index, or {@code -1} if the file doesn't have it
+     */
+    /*package*/ int getThisStringIndex() {
+        return thisStringIdx;
+    }
+
+    /**
+     * Gets the string at the given index.
+     *
+     * @param index the index
+     * @return {@code non-null;} the string
+     */
+    /*package*/ CstUtf8 string(int index) {
+        if ((index < 0) || (index >= strings.length)) {
+            throw new ParseException("bad string index " + Hex.u4(index));
+        }
+
+        return strings[index];
+    }
+
+    /**
+     * Gets the type at the given index.
+     *
+     * @param index the index
+     * @return {@code non-null;} the type
+     */
+    /*package*/ CstType type(int index) {
+        if ((index < 0) || (index >= types.length)) {
+            throw new ParseException("bad type index " + Hex.u4(index));
+        }
+
+        return types[index];
+    }
+
+    /**
+     * Gets the prototype at the given index.
+     *
+     * @param index the index
+     * @return {@code non-null;} the prototype
+     */
+    /*package*/ Prototype proto(int index) {
+        if ((index < 0) || (index >= protos.length)) {
+            throw new ParseException("bad proto index " + Hex.u4(index));
+        }
+
+        return protos[index];
+    }
+
+    /**
+     * Gets the field reference at the given index.
+     *
+     * @param index the index
+     * @return {@code non-null;} the field reference
+     */
+    /*package*/ CstFieldRef field(int index) {
+        if ((index < 0) || (index >= fields.length)) {
+            throw new ParseException("bad field index " + Hex.u4(index));
+        }
+
+        return fields[index];
+    }
+
+    /**
+     * Gets the method reference at the given index.
+     *
+     * @param index the index
+     * @return {@code non-null;} the method reference
+     */
+    /*package*/ CstMethodRef method(int index) {
+        if ((index < 0) || (index >= methods.length)) {
+            throw new ParseException("bad method index " + Hex.u4(index));
+        }
+
+        return methods[index];
+    }
+}
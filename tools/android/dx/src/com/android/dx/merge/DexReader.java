@@ -0,0 +1,184 @@
+/*
+ * Copyright (C) 2007 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.dx.merge;
+
+import com.android.dx.cf.iface.ParseException;
+import com.android.dx.util.Hex;
+
+/**
+ * Cursor for reading the little-endian data of a dex file. Instances
+ * are cheap, and each is only ever used by one thread; the underlying
+ * array is shared and never written.
+ */
+/*package*/ final class DexReader {
+    /** {@code non-null;} the whole file */
+    private final byte[] data;
+
+    /** {@code >= 0;} offset of the next byte to read */
+    private int cursor;
+
+    /**
+     * Constructs an instance.
+     *
+     * @param data {@code non-null;} the whole file
+     * @param offset {@code >= 0;} offset to start reading at
+     */
+    public DexReader(byte[] data, int offset) {
+        if ((offset < 0) || (offset > data.length)) {
+            throw new ParseException("bad offset " + Hex.u4(offset));
+        }
+
+        this.data = data;
+        this.cursor = offset;
+    }
+
+    /**
+     * Gets the offset of the next byte to read.
+     *
+     * @return {@code >= 0;} the offset
+     */
+    public int getCursor() {
+        return cursor;
+    }
+
+    /**
+     * Skips over the given number of bytes.
+     *
+     * @param count {@code >= 0;} the number of bytes
+     */
+    public void skip(int count) {
+        cursor += count;
+    }
+
+    /**
+     * Skips to the next multiple of four bytes.
+     */
+    public void alignToFourBytes() {
+        cursor = (cursor + 3) & ~3;
+    }
+
+    /**
+     * Reads an unsigned byte.
+     *
+     * @return {@code 0..0xff;} the value
+     */
+    public int readUnsignedByte() {
+        check(1);
+        return data[cursor++] & 0xff;
+    }
+
+    /**
+     * Reads an unsigned 16-bit value.
+     *
+     * @return {@code 0..0xffff;} the value
+     */
+    public int readUnsignedShort() {
+        check(2);
+        int result = (data[cursor] & 0xff) | ((data[cursor + 1] & 0xff) << 8);
+        cursor += 2;
+        return result;
+    }
+
+    /**
+     * Reads a 32-bit value.
+     *
+     * @return the value
+     */
+    public int readInt() {
+        check(4);
+        int result = (data[cursor] & 0xff) |
+            ((data[cursor + 1] & 0xff) << 8) |
+            ((data[cursor + 2] & 0xff) << 16) |
+            ((data[cursor + 3] & 0xff) << 24);
+        cursor += 4;
+        return result;
+    }
+
+    /**
+     * Reads an unsigned LEB128 value.
+     *
+     * @return the value
+     */
+    public int readUnsignedLeb128() {
+        int result = 0;
+
+        for (int shift = 0; shift < 35; shift += 7) {
+            int b = readUnsignedByte();
+            result |= (b & 0x7f) << shift;
+
+            if ((b & 0x80) == 0) {
+                return result;
+            }
+        }
+
+        throw new ParseException("bad leb128 at " + Hex.u4(cursor));
+    }
+
+    /**
+     * Reads a signed LEB128 value.
+     *
+     * @return the value
+     */
+    public int readSignedLeb128() {
+        int result = 0;
+
+        for (int shift = 0; shift < 35; shift += 7) {
+            int b = readUnsignedByte();
+            result |= (b & 0x7f) << shift;
+
+            if ((b & 0x80) == 0) {
+                if ((shift < 25) && ((b & 0x40) != 0)) {
+                    // Sign-extend.
+                    result |= -1 << (shift + 7);
+                }
+                return result;
+            }
+        }
+
+        throw new ParseException("bad leb128 at " + Hex.u4(cursor));
+    }
+
+    /**
+     * Reads the given number of bytes as a little-endian value,
+     * zero-extended.
+     *
+     * @param count {@code 1..8;} the number of bytes
+     * @return the value
+     */
+    public long readUnsignedBytes(int count) {
+        check(count);
+
+        long result = 0;
+
+        for (int i = 0; i < count; i++) {
+            result |= ((long) (data[cursor++] & 0xff)) << (i * 8);
+        }
+
+        return result;
+    }
+
+    /**
+     * Throws if there aren't enough bytes left to read.
+     *
+     * @param count {@code >= 0;} the number of bytes about to be read
+     */
+    private void check(int count) {
+        if (cursor + count > data.length) {
+            throw new ParseException("truncated file at " + Hex.u4(cursor));
+        }
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright (C) 2007 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.dx.merge._tests;
+
+import com.android.dx.dex.cf.CfOptions;
+import com.android.dx.dex.cf.CfTranslator;
+import com.android.dx.dex.code.PositionList;
+import com.android.dx.dex.file.DexFile;
+import com.android.dx.merge.DexParser;
+import com.android.dx.util.ExceptionWithContext;
+import com.android.dx.util._tests.ClassFileFixture;
+
+import junit.framework.TestCase;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Test the class {@code com.android.dx.merge.DexParser}.
+ */
+public class _DexParser
+        extends TestCase {
+    /**
+     * Checks that reading the classes of a dex file back in and
+     * writing them out again keeps all of them, and that doing so
+     * a second time changes nothing. (The first pass may drop a few
+     * positions that were only there for pseudo-instructions, and may
+     * lay the annotations out in another order.)
+     */
+    public void test_roundTrip() throws IOException {
+        List<String> names = ClassFileFixture.getNames();
+        CfOptions options = new CfOptions();
+        options.localInfo = true;
+        DexFile original = new DexFile();
+
+        for (String name : names) {
+            original.add(CfTranslator.translate(name,
+                            ClassFileFixture.getBytes(name), options));
+        }
+
+        byte[] once = roundTrip(original.toDex(null, false), names.size());
+        byte[] twice = roundTrip(once, names.size());
+
+        assertTrue(Arrays.equals(once, twice));
+    }
+
+    /**
+     * Checks that something that isn't a dex file gets rejected up
+     * front.
+     */
+    public void test_rejectsBadMagic() {
+        byte[] bytes = new byte[0x70];
+
+        try {
+            new DexParser("test.dex", bytes, PositionList.LINES, true);
+            fail("no exception");
+        } catch (ExceptionWithContext ex) {
+            // This is what is expected.
+        }
+    }
+
+    /**
+     * Reads all the classes of a dex file and writes them out again.
+     *
+     * @param bytes {@code non-null;} the dex file
+     * @param classCount the number of classes it should have
+     * @return {@code non-null;} the new dex file
+     */
+    private static byte[] roundTrip(byte[] bytes, int classCount)
+            throws IOException {
+        DexParser parser = new DexParser("test.dex", bytes,
+                PositionList.LINES, true);
+        DexFile result = new DexFile();
+
+        assertEquals(classCount, parser.getClassCount());
+
+        for (int i = 0; i < classCount; i++) {
+            result.add(parser.readClass(i));
+        }
+
+        return result.toDex(null, false);
+    }
+}
@@ -22,7 +22,7 @@ import com.android.dx.rop.type.Type;
 import com.android.dx.rop.type.TypeBearer;
 import com.android.dx.util.ToHuman;
 
-import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Combination of a register number and a type, used as the sources and
@@ -34,11 +34,20 @@ public final class RegisterSpec
     public static final String PREFIX = "v";
 
     /** {@code non-null;} intern table for instances */
-    private static final HashMap<Object, RegisterSpec> theInterns =
-        new HashMap<Object, RegisterSpec>(1000);
+    private static final ConcurrentHashMap<Object, RegisterSpec> theInterns =
+        new ConcurrentHashMap<Object, RegisterSpec>(10000);
 
-    /** {@code non-null;} common comparison instance used while interning */
-    private static final ForComparison theInterningItem = new ForComparison();
+    /**
+     * {@code non-null;} per-thread comparison instance used while
+     * interning
+     */
+    private static final ThreadLocal<ForComparison> theInterningItem =
+        new ThreadLocal<ForComparison>() {
+            @Override
+            protected ForComparison initialValue() {
+                return new ForComparison();
+            }
+        };
 
     /** {@code >= 0;} register number */
     private final int reg;
@@ -60,16 +69,17 @@ public final class RegisterSpec
      */
     private static RegisterSpec intern(int reg, TypeBearer type,
             LocalItem local) {
-        theInterningItem.set(reg, type, local);
-        RegisterSpec found = theInterns.get(theInterningItem);
+        ForComparison interningItem = theInterningItem.get();
+        interningItem.set(reg, type, local);
+        RegisterSpec found = theInterns.get(interningItem);
 
         if (found != null) {
             return found;
         }
 
-        found = theInterningItem.toRegisterSpec();
-        theInterns.put(found, found);
-        return found;
+        found = interningItem.toRegisterSpec();
+        RegisterSpec already = theInterns.putIfAbsent(found, found);
+        return (already != null) ? already : found;
     }
 
     /**
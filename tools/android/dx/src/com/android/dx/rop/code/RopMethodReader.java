@@ -0,0 +1,482 @@
+/*
+ * Copyright (C) 2007 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.dx.rop.code;
+
+import com.android.dx.rop.cst.Constant;
+import com.android.dx.rop.cst.CstBoolean;
+import com.android.dx.rop.cst.CstByte;
+import com.android.dx.rop.cst.CstChar;
+import com.android.dx.rop.cst.CstDouble;
+import com.android.dx.rop.cst.CstFieldRef;
+import com.android.dx.rop.cst.CstFloat;
+import com.android.dx.rop.cst.CstInteger;
+import com.android.dx.rop.cst.CstInterfaceMethodRef;
+import com.android.dx.rop.cst.CstKnownNull;
+import com.android.dx.rop.cst.CstLong;
+import com.android.dx.rop.cst.CstMethodRef;
+import com.android.dx.rop.cst.CstNat;
+import com.android.dx.rop.cst.CstShort;
+import com.android.dx.rop.cst.CstString;
+import com.android.dx.rop.cst.CstType;
+import com.android.dx.rop.cst.CstUtf8;
+import com.android.dx.rop.cst.TypedConstant;
+import com.android.dx.rop.type.StdTypeList;
+import com.android.dx.rop.type.Type;
+import com.android.dx.rop.type.TypeBearer;
+import com.android.dx.util.IntList;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * Reader of {@link RopMethod} instances written by a
+ * {@link RopMethodWriter}. A single reader must be used for all the
+ * methods that were written by a single writer.
+ */
+public final class RopMethodReader {
+    /**
+     * {@code non-null;} the shared instances defined in {@link Rops},
+     * so that reading doesn't needlessly create duplicates of them
+     */
+    private static final HashMap<Rop, ArrayList<Rop>> SHARED_ROPS =
+        makeSharedRops();
+
+    /** {@code non-null;} where to read from */
+    private final DataInputStream in;
+
+    /** {@code non-null;} strings read so far, in order */
+    private final ArrayList<String> strings;
+
+    /**
+     * Constructs an instance.
+     *
+     * @param in {@code non-null;} where to read from
+     */
+    public RopMethodReader(DataInputStream in) {
+        if (in == null) {
+            throw new NullPointerException("in == null");
+        }
+
+        this.in = in;
+        this.strings = new ArrayList<String>();
+    }
+
+    /**
+     * Reads a method.
+     *
+     * @return {@code non-null;} the method
+     * @throws IOException thrown if the underlying stream fails or
+     * its contents are malformed
+     */
+    public RopMethod read() throws IOException {
+        int firstLabel = in.readInt();
+        int sz = in.readInt();
+        BasicBlockList blocks = new BasicBlockList(sz);
+
+        for (int i = 0; i < sz; i++) {
+            blocks.set(i, readBlock());
+        }
+
+        blocks.setImmutable();
+        return new RopMethod(blocks, firstLabel);
+    }
+
+    /**
+     * Reads one basic block.
+     *
+     * @return {@code non-null;} the block
+     */
+    private BasicBlock readBlock() throws IOException {
+        int label = in.readInt();
+        IntList successors = readIntList();
+        int primarySuccessor = in.readInt();
+        int sz = in.readInt();
+        InsnList insns = new InsnList(sz);
+
+        for (int i = 0; i < sz; i++) {
+            insns.set(i, readInsn());
+        }
+
+        insns.setImmutable();
+        return new BasicBlock(label, insns, successors, primarySuccessor);
+    }
+
+    /**
+     * Reads one instruction.
+     *
+     * @return {@code non-null;} the instruction
+     */
+    private Insn readInsn() throws IOException {
+        int tag = in.readByte();
+        Rop opcode = readRop();
+        SourcePosition position = readPosition();
+        RegisterSpec result = readRegisterSpec();
+        int sz = in.readInt();
+        RegisterSpecList sources = new RegisterSpecList(sz);
+
+        for (int i = 0; i < sz; i++) {
+            sources.set(i, readRegisterSpec());
+        }
+
+        sources.setImmutable();
+
+        switch (tag) {
+            case RopMethodWriter.TAG_PLAIN_INSN: {
+                return new PlainInsn(opcode, position, result, sources);
+            }
+            case RopMethodWriter.TAG_PLAIN_CST_INSN: {
+                return new PlainCstInsn(opcode, position, result, sources,
+                        readConstant());
+            }
+            case RopMethodWriter.TAG_THROWING_INSN: {
+                return new ThrowingInsn(opcode, position, sources,
+                        readTypeList());
+            }
+            case RopMethodWriter.TAG_THROWING_CST_INSN: {
+                StdTypeList catches = readTypeList();
+                return new ThrowingCstInsn(opcode, position, sources,
+                        catches, readConstant());
+            }
+            case RopMethodWriter.TAG_SWITCH_INSN: {
+                return new SwitchInsn(opcode, position, result, sources,
+                        readIntList());
+            }
+            case RopMethodWriter.TAG_FILL_ARRAY_DATA_INSN: {
+                Constant cst = readConstant();
+                int count = in.readInt();
+                ArrayList<Constant> values = new ArrayList<Constant>(count);
+                for (int i = 0; i < count; i++) {
+                    values.add(readConstant());
+                }
+                return new FillArrayDataInsn(opcode, position, sources,
+                        values, cst);
+            }
+        }
+
+        throw new IOException("bad insn tag: " + tag);
+    }
+
+    /**
+     * Reads an operation, returning the shared instance from
+     * {@link Rops} if there is one.
+     *
+     * @return {@code non-null;} the operation
+     */
+    private Rop readRop() throws IOException {
+        int opcode = in.readShort();
+        Type result = (Type) readTypeBearer();
+        StdTypeList sources = readTypeList();
+        StdTypeList exceptions = readTypeList();
+        int branchingness = in.readByte();
+        boolean isCallLike = in.readBoolean();
+        String nickname = readString();
+        Rop rop = new Rop(opcode, result, sources, exceptions, branchingness,
+                isCallLike, nickname);
+        ArrayList<Rop> candidates = SHARED_ROPS.get(rop);
+
+        if (candidates != null) {
+            for (Rop one : candidates) {
+                if ((one.isCallLike() == isCallLike) &&
+                        equalStrings(one.getNickname(), nickname)) {
+                    return one;
+                }
+            }
+        }
+
+        return rop;
+    }
+
+    /**
+     * Reads a source position.
+     *
+     * @return {@code non-null;} the position
+     */
+    private SourcePosition readPosition() throws IOException {
+        if (!in.readBoolean()) {
+            return SourcePosition.NO_INFO;
+        }
+
+        CstUtf8 sourceFile = (CstUtf8) readConstant();
+        int address = in.readInt();
+        int line = in.readInt();
+
+        return new SourcePosition(sourceFile, address, line);
+    }
+
+    /**
+     * Reads a register spec.
+     *
+     * @return {@code null-ok;} the spec
+     */
+    private RegisterSpec readRegisterSpec() throws IOException {
+        int reg = in.readInt();
+
+        if (reg < 0) {
+            return null;
+        }
+
+        TypeBearer type = readTypeBearer();
+        LocalItem local = null;
+
+        if (in.readBoolean()) {
+            CstUtf8 name = (CstUtf8) readConstant();
+            CstUtf8 signature = (CstUtf8) readConstant();
+            local = LocalItem.make(name, signature);
+        }
+
+        return RegisterSpec.makeLocalOptional(reg, type, local);
+    }
+
+    /**
+     * Reads a list of types.
+     *
+     * @return {@code non-null;} the list
+     */
+    private StdTypeList readTypeList() throws IOException {
+        int sz = in.readInt();
+
+        if (sz == 0) {
+            return StdTypeList.EMPTY;
+        }
+
+        StdTypeList result = new StdTypeList(sz);
+
+        for (int i = 0; i < sz; i++) {
+            result.set(i, (Type) readTypeBearer());
+        }
+
+        result.setImmutable();
+        return result;
+    }
+
+    /**
+     * Reads a list of ints.
+     *
+     * @return {@code non-null;} the list
+     */
+    private IntList readIntList() throws IOException {
+        int sz = in.readInt();
+        IntList result = new IntList(sz);
+
+        for (int i = 0; i < sz; i++) {
+            result.add(in.readInt());
+        }
+
+        result.setImmutable();
+        return result;
+    }
+
+    /**
+     * Reads a type or a typed constant.
+     *
+     * @return {@code non-null;} the type bearer
+     */
+    private TypeBearer readTypeBearer() throws IOException {
+        int tag = in.readByte();
+
+        switch (tag) {
+            case RopMethodWriter.TAG_TYPE: {
+                return internType(readString());
+            }
+            case RopMethodWriter.TAG_UNINITIALIZED_TYPE: {
+                Type initialized = internType(readString());
+                return initialized.asUninitialized(in.readInt());
+            }
+        }
+
+        return (TypedConstant) readConstant(tag);
+    }
+
+    /**
+     * Reads a constant.
+     *
+     * @return {@code null-ok;} the constant
+     */
+    private Constant readConstant() throws IOException {
+        return readConstant(in.readByte());
+    }
+
+    /**
+     * Reads the rest of a constant whose tag has already been read.
+     *
+     * @param tag the tag
+     * @return {@code null-ok;} the constant
+     */
+    private Constant readConstant(int tag) throws IOException {
+        switch (tag) {
+            case RopMethodWriter.TAG_NULL: {
+                return null;
+            }
+            case RopMethodWriter.TAG_UTF8: {
+                return new CstUtf8(readString());
+            }
+            case RopMethodWriter.TAG_STRING: {
+                return new CstString(readString());
+            }
+            case RopMethodWriter.TAG_CST_TYPE: {
+                return CstType.intern((Type) readTypeBearer());
+            }
+            case RopMethodWriter.TAG_INTEGER: {
+                return CstInteger.make(in.readInt());
+            }
+            case RopMethodWriter.TAG_LONG: {
+                return CstLong.make(in.readLong());
+            }
+            case RopMethodWriter.TAG_FLOAT: {
+                return CstFloat.make(in.readInt());
+            }
+            case RopMethodWriter.TAG_DOUBLE: {
+                return CstDouble.make(in.readLong());
+            }
+            case RopMethodWriter.TAG_BOOLEAN: {
+                return CstBoolean.make(in.readInt());
+            }
+            case RopMethodWriter.TAG_BYTE: {
+                return CstByte.make(in.readInt());
+            }
+            case RopMethodWriter.TAG_CHAR: {
+                return CstChar.make(in.readInt());
+            }
+            case RopMethodWriter.TAG_SHORT: {
+                return CstShort.make(in.readInt());
+            }
+            case RopMethodWriter.TAG_KNOWN_NULL: {
+                return CstKnownNull.THE_ONE;
+            }
+            case RopMethodWriter.TAG_NAT: {
+                return readNat();
+            }
+            case RopMethodWriter.TAG_FIELD_REF: {
+                CstType definer = CstType.intern((Type) readTypeBearer());
+                return new CstFieldRef(definer, readNat());
+            }
+            case RopMethodWriter.TAG_METHOD_REF: {
+                CstType definer = CstType.intern((Type) readTypeBearer());
+                return new CstMethodRef(definer, readNat());
+            }
+            case RopMethodWriter.TAG_INTERFACE_METHOD_REF: {
+                CstType definer = CstType.intern((Type) readTypeBearer());
+                return new CstInterfaceMethodRef(definer, readNat());
+            }
+        }
+
+        throw new IOException("bad constant tag: " + tag);
+    }
+
+    /**
+     * Reads the name and descriptor of a name-and-type.
+     *
+     * @return {@code non-null;} the name-and-type
+     */
+    private CstNat readNat() throws IOException {
+        CstUtf8 name = new CstUtf8(readString());
+        CstUtf8 descriptor = new CstUtf8(readString());
+
+        return new CstNat(name, descriptor);
+    }
+
+    /**
+     * Reads a string, or a reference to a string that was already read.
+     *
+     * @return {@code null-ok;} the string
+     */
+    private String readString() throws IOException {
+        int index = in.readInt();
+
+        if (index == -1) {
+            return null;
+        } else if (index == -2) {
+            String s = in.readUTF();
+            strings.add(s);
+            return s;
+        }
+
+        try {
+            return strings.get(index);
+        } catch (IndexOutOfBoundsException ex) {
+            throw new IOException("bad string index: " + index);
+        }
+    }
+
+    /**
+     * Gets the type with the given descriptor, including the special
+     * types that aren't found by {@link Type#intern}.
+     *
+     * @param descriptor {@code non-null;} the descriptor
+     * @return {@code non-null;} the corresponding type
+     */
+    private static Type internType(String descriptor) {
+        if (descriptor.equals(Type.VOID.getDescriptor())) {
+            return Type.VOID;
+        } else if (descriptor.equals(Type.KNOWN_NULL.getDescriptor())) {
+            return Type.KNOWN_NULL;
+        } else if (descriptor.equals(Type.RETURN_ADDRESS.getDescriptor())) {
+            return Type.RETURN_ADDRESS;
+        }
+
+        return Type.intern(descriptor);
+    }
+
+    /**
+     * Compares two possibly-{@code null} strings.
+     *
+     * @param s1 {@code null-ok;} one string
+     * @param s2 {@code null-ok;} the other string
+     * @return whether the two are equal
+     */
+    private static boolean equalStrings(String s1, String s2) {
+        return (s1 == null) ? (s2 == null) : s1.equals(s2);
+    }
+
+    /**
+     * Collects the shared instances defined in {@link Rops}.
+     *
+     * @return {@code non-null;} map from each instance to the list of
+     * shared instances that are equal to it
+     */
+    private static HashMap<Rop, ArrayList<Rop>> makeSharedRops() {
+        HashMap<Rop, ArrayList<Rop>> result =
+            new HashMap<Rop, ArrayList<Rop>>();
+
+        for (Field field : Rops.class.getFields()) {
+            if (!Modifier.isStatic(field.getModifiers()) ||
+                    (field.getType() != Rop.class)) {
+                continue;
+            }
+
+            Rop rop;
+            try {
+                rop = (Rop) field.get(null);
+            } catch (IllegalAccessException ex) {
+                throw new RuntimeException(ex);
+            }
+
+            ArrayList<Rop> list = result.get(rop);
+            if (list == null) {
+                list = new ArrayList<Rop>(1);
+                result.put(rop, list);
+            }
+            list.add(rop);
+        }
+
+        return result;
+    }
+}
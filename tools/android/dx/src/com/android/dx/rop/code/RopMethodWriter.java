@@ -0,0 +1,468 @@
+/*
+ * Copyright (C) 2007 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.dx.rop.code;
+
+import com.android.dx.rop.cst.Constant;
+import com.android.dx.rop.cst.CstBaseMethodRef;
+import com.android.dx.rop.cst.CstBoolean;
+import com.android.dx.rop.cst.CstByte;
+import com.android.dx.rop.cst.CstChar;
+import com.android.dx.rop.cst.CstDouble;
+import com.android.dx.rop.cst.CstFieldRef;
+import com.android.dx.rop.cst.CstFloat;
+import com.android.dx.rop.cst.CstInteger;
+import com.android.dx.rop.cst.CstInterfaceMethodRef;
+import com.android.dx.rop.cst.CstKnownNull;
+import com.android.dx.rop.cst.CstLong;
+import com.android.dx.rop.cst.CstMemberRef;
+import com.android.dx.rop.cst.CstMethodRef;
+import com.android.dx.rop.cst.CstNat;
+import com.android.dx.rop.cst.CstShort;
+import com.android.dx.rop.cst.CstString;
+import com.android.dx.rop.cst.CstType;
+import com.android.dx.rop.cst.CstUtf8;
+import com.android.dx.rop.cst.TypedConstant;
+import com.android.dx.rop.type.Type;
+import com.android.dx.rop.type.TypeBearer;
+import com.android.dx.rop.type.TypeList;
+import com.android.dx.util.IntList;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * Writer of {@link RopMethod} instances in a compact binary form which
+ * can be turned back into equivalent instances by {@link RopMethodReader}.
+ * Strings are written once per writer and referred to by index
+ * thereafter, so a single writer should be used for all the methods
+ * of a class.
+ */
+public final class RopMethodWriter {
+    /** tag for a {@code null} reference */
+    static final int TAG_NULL = 0;
+
+    /** tag for a {@link Type} */
+    static final int TAG_TYPE = 1;
+
+    /** tag for an uninitialized {@link Type} */
+    static final int TAG_UNINITIALIZED_TYPE = 2;
+
+    /** tag for a {@link CstUtf8} */
+    static final int TAG_UTF8 = 3;
+
+    /** tag for a {@link CstString} */
+    static final int TAG_STRING = 4;
+
+    /** tag for a {@link CstType} */
+    static final int TAG_CST_TYPE = 5;
+
+    /** tag for a {@link CstInteger} */
+    static final int TAG_INTEGER = 6;
+
+    /** tag for a {@link CstLong} */
+    static final int TAG_LONG = 7;
+
+    /** tag for a {@link CstFloat} */
+    static final int TAG_FLOAT = 8;
+
+    /** tag for a {@link CstDouble} */
+    static final int TAG_DOUBLE = 9;
+
+    /** tag for a {@link CstBoolean} */
+    static final int TAG_BOOLEAN = 10;
+
+    /** tag for a {@link CstByte} */
+    static final int TAG_BYTE = 11;
+
+    /** tag for a {@link CstChar} */
+    static final int TAG_CHAR = 12;
+
+    /** tag for a {@link CstShort} */
+    static final int TAG_SHORT = 13;
+
+    /** tag for {@link CstKnownNull#THE_ONE} */
+    static final int TAG_KNOWN_NULL = 14;
+
+    /** tag for a {@link CstNat} */
+    static final int TAG_NAT = 15;
+
+    /** tag for a {@link CstFieldRef} */
+    static final int TAG_FIELD_REF = 16;
+
+    /** tag for a {@link CstMethodRef} */
+    static final int TAG_METHOD_REF = 17;
+
+    /** tag for a {@link CstInterfaceMethodRef} */
+    static final int TAG_INTERFACE_METHOD_REF = 18;
+
+    /** tag for a {@link PlainInsn} */
+    static final int TAG_PLAIN_INSN = 1;
+
+    /** tag for a {@link PlainCstInsn} */
+    static final int TAG_PLAIN_CST_INSN = 2;
+
+    /** tag for a {@link ThrowingInsn} */
+    static final int TAG_THROWING_INSN = 3;
+
+    /** tag for a {@link ThrowingCstInsn} */
+    static final int TAG_THROWING_CST_INSN = 4;
+
+    /** tag for a {@link SwitchInsn} */
+    static final int TAG_SWITCH_INSN = 5;
+
+    /** tag for a {@link FillArrayDataInsn} */
+    static final int TAG_FILL_ARRAY_DATA_INSN = 6;
+
+    /** {@code non-null;} where to write to */
+    private final DataOutputStream out;
+
+    /** {@code non-null;} indices of the strings written so far */
+    private final HashMap<String, Integer> strings;
+
+    /**
+     * Constructs an instance.
+     *
+     * @param out {@code non-null;} where to write to
+     */
+    public RopMethodWriter(DataOutputStream out) {
+        if (out == null) {
+            throw new NullPointerException("out == null");
+        }
+
+        this.out = out;
+        this.strings = new HashMap<String, Integer>();
+    }
+
+    /**
+     * Writes the given method.
+     *
+     * @param method {@code non-null;} the method to write
+     * @throws IOException thrown if the underlying stream fails
+     * @throws IllegalArgumentException thrown if the method contains
+     * something that can't be represented
+     */
+    public void write(RopMethod method) throws IOException {
+        BasicBlockList blocks = method.getBlocks();
+        int sz = blocks.size();
+
+        out.writeInt(method.getFirstLabel());
+        out.writeInt(sz);
+
+        for (int i = 0; i < sz; i++) {
+            writeBlock(blocks.get(i));
+        }
+    }
+
+    /**
+     * Writes one basic block.
+     *
+     * @param block {@code non-null;} the block
+     */
+    private void writeBlock(BasicBlock block) throws IOException {
+        InsnList insns = block.getInsns();
+        int sz = insns.size();
+
+        out.writeInt(block.getLabel());
+        writeIntList(block.getSuccessors());
+        out.writeInt(block.getPrimarySuccessor());
+        out.writeInt(sz);
+
+        for (int i = 0; i < sz; i++) {
+            writeInsn(insns.get(i));
+        }
+    }
+
+    /**
+     * Writes one instruction.
+     *
+     * @param insn {@code non-null;} the instruction
+     */
+    private void writeInsn(Insn insn) throws IOException {
+        Class<?> clazz = insn.getClass();
+
+        if (clazz == PlainInsn.class) {
+            out.writeByte(TAG_PLAIN_INSN);
+            writeInsnCommon(insn);
+        } else if (clazz == PlainCstInsn.class) {
+            out.writeByte(TAG_PLAIN_CST_INSN);
+            writeInsnCommon(insn);
+            writeConstant(((PlainCstInsn) insn).getConstant());
+        } else if (clazz == ThrowingInsn.class) {
+            out.writeByte(TAG_THROWING_INSN);
+            writeInsnCommon(insn);
+            writeTypeList(insn.getCatches());
+        } else if (clazz == ThrowingCstInsn.class) {
+            out.writeByte(TAG_THROWING_CST_INSN);
+            writeInsnCommon(insn);
+            writeTypeList(insn.getCatches());
+            writeConstant(((ThrowingCstInsn) insn).getConstant());
+        } else if (clazz == SwitchInsn.class) {
+            out.writeByte(TAG_SWITCH_INSN);
+            writeInsnCommon(insn);
+            writeIntList(((SwitchInsn) insn).getCases());
+        } else if (clazz == FillArrayDataInsn.class) {
+            FillArrayDataInsn fill = (FillArrayDataInsn) insn;
+            ArrayList<Constant> values = fill.getInitValues();
+            int sz = values.size();
+
+            out.writeByte(TAG_FILL_ARRAY_DATA_INSN);
+            writeInsnCommon(insn);
+            writeConstant(fill.getConstant());
+            out.writeInt(sz);
+            for (int i = 0; i < sz; i++) {
+                writeConstant(values.get(i));
+            }
+        } else {
+            throw new IllegalArgumentException("unsupported insn: " + insn);
+        }
+    }
+
+    /**
+     * Writes the parts common to all instructions.
+     *
+     * @param insn {@code non-null;} the instruction
+     */
+    private void writeInsnCommon(Insn insn) throws IOException {
+        RegisterSpecList sources = insn.getSources();
+        int sz = sources.size();
+
+        writeRop(insn.getOpcode());
+        writePosition(insn.getPosition());
+        writeRegisterSpec(insn.getResult());
+        out.writeInt(sz);
+
+        for (int i = 0; i < sz; i++) {
+            writeRegisterSpec(sources.get(i));
+        }
+    }
+
+    /**
+     * Writes an operation. All of its parts are written, so that
+     * dynamically-constructed instances (such as those for invokes)
+     * survive the round trip.
+     *
+     * @param rop {@code non-null;} the operation
+     */
+    private void writeRop(Rop rop) throws IOException {
+        out.writeShort(rop.getOpcode());
+        writeTypeBearer(rop.getResult());
+        writeTypeList(rop.getSources());
+        writeTypeList(rop.getExceptions());
+        out.writeByte(rop.getBranchingness());
+        out.writeBoolean(rop.isCallLike());
+        writeString(rop.getNickname());
+    }
+
+    /**
+     * Writes a source position.
+     *
+     * @param position {@code non-null;} the position
+     */
+    private void writePosition(SourcePosition position) throws IOException {
+        if (position == SourcePosition.NO_INFO) {
+            out.writeBoolean(false);
+            return;
+        }
+
+        out.writeBoolean(true);
+        writeConstant(position.getSourceFile());
+        out.writeInt(position.getAddress());
+        out.writeInt(position.getLine());
+    }
+
+    /**
+     * Writes a register spec.
+     *
+     * @param spec {@code null-ok;} the spec
+     */
+    private void writeRegisterSpec(RegisterSpec spec) throws IOException {
+        if (spec == null) {
+            out.writeInt(-1);
+            return;
+        }
+
+        LocalItem local = spec.getLocalItem();
+
+        out.writeInt(spec.getReg());
+        writeTypeBearer(spec.getTypeBearer());
+
+        if (local == null) {
+            out.writeBoolean(false);
+        } else {
+            out.writeBoolean(true);
+            writeConstant(local.getName());
+            writeConstant(local.getSignature());
+        }
+    }
+
+    /**
+     * Writes a list of types.
+     *
+     * @param list {@code non-null;} the list
+     */
+    private void writeTypeList(TypeList list) throws IOException {
+        int sz = list.size();
+
+        out.writeInt(sz);
+        for (int i = 0; i < sz; i++) {
+            writeTypeBearer(list.getType(i));
+        }
+    }
+
+    /**
+     * Writes a list of ints.
+     *
+     * @param list {@code non-null;} the list
+     */
+    private void writeIntList(IntList list) throws IOException {
+        int sz = list.size();
+
+        out.writeInt(sz);
+        for (int i = 0; i < sz; i++) {
+            out.writeInt(list.get(i));
+        }
+    }
+
+    /**
+     * Writes a type or a typed constant.
+     *
+     * @param type {@code non-null;} the type bearer
+     */
+    private void writeTypeBearer(TypeBearer type) throws IOException {
+        if (type instanceof Type) {
+            Type t = (Type) type;
+            if (t.isUninitialized()) {
+                out.writeByte(TAG_UNINITIALIZED_TYPE);
+                writeString(t.getInitializedType().getDescriptor());
+                out.writeInt(t.getNewAt());
+            } else {
+                out.writeByte(TAG_TYPE);
+                writeString(t.getDescriptor());
+            }
+        } else if (type instanceof TypedConstant) {
+            writeConstant((Constant) type);
+        } else {
+            throw new IllegalArgumentException("unsupported type: " + type);
+        }
+    }
+
+    /**
+     * Writes a constant.
+     *
+     * @param cst {@code null-ok;} the constant
+     */
+    private void writeConstant(Constant cst) throws IOException {
+        if (cst == null) {
+            out.writeByte(TAG_NULL);
+            return;
+        }
+
+        Class<?> clazz = cst.getClass();
+
+        if (clazz == CstUtf8.class) {
+            out.writeByte(TAG_UTF8);
+            writeString(((CstUtf8) cst).getString());
+        } else if (clazz == CstString.class) {
+            out.writeByte(TAG_STRING);
+            writeString(((CstString) cst).getString().getString());
+        } else if (clazz == CstType.class) {
+            out.writeByte(TAG_CST_TYPE);
+            writeTypeBearer(((CstType) cst).getClassType());
+        } else if (clazz == CstInteger.class) {
+            out.writeByte(TAG_INTEGER);
+            out.writeInt(((CstInteger) cst).getValue());
+        } else if (clazz == CstLong.class) {
+            out.writeByte(TAG_LONG);
+            out.writeLong(((CstLong) cst).getValue());
+        } else if (clazz == CstFloat.class) {
+            out.writeByte(TAG_FLOAT);
+            out.writeInt(((CstFloat) cst).getIntBits());
+        } else if (clazz == CstDouble.class) {
+            out.writeByte(TAG_DOUBLE);
+            out.writeLong(((CstDouble) cst).getLongBits());
+        } else if (clazz == CstBoolean.class) {
+            out.writeByte(TAG_BOOLEAN);
+            out.writeInt(((CstBoolean) cst).getIntBits());
+        } else if (clazz == CstByte.class) {
+            out.writeByte(TAG_BYTE);
+            out.writeInt(((CstByte) cst).getIntBits());
+        } else if (clazz == CstChar.class) {
+            out.writeByte(TAG_CHAR);
+            out.writeInt(((CstChar) cst).getIntBits());
+        } else if (clazz == CstShort.class) {
+            out.writeByte(TAG_SHORT);
+            out.writeInt(((CstShort) cst).getIntBits());
+        } else if (clazz == CstKnownNull.class) {
+            out.writeByte(TAG_KNOWN_NULL);
+        } else if (clazz == CstNat.class) {
+            CstNat nat = (CstNat) cst;
+            out.writeByte(TAG_NAT);
+            writeString(nat.getName().getString());
+            writeString(nat.getDescriptor().getString());
+        } else if (clazz == CstFieldRef.class) {
+            out.writeByte(TAG_FIELD_REF);
+            writeMemberRef((CstMemberRef) cst);
+        } else if (clazz == CstMethodRef.class) {
+            out.writeByte(TAG_METHOD_REF);
+            writeMemberRef((CstBaseMethodRef) cst);
+        } else if (clazz == CstInterfaceMethodRef.class) {
+            out.writeByte(TAG_INTERFACE_METHOD_REF);
+            writeMemberRef((CstBaseMethodRef) cst);
+        } else {
+            throw new IllegalArgumentException("unsupported constant: " + cst);
+        }
+    }
+
+    /**
+     * Writes the parts of a member reference.
+     *
+     * @param ref {@code non-null;} the reference
+     */
+    private void writeMemberRef(CstMemberRef ref) throws IOException {
+        CstNat nat = ref.getNat();
+
+        writeTypeBearer(ref.getDefiningClass().getClassType());
+        writeString(nat.getName().getString());
+        writeString(nat.getDescriptor().getString());
+    }
+
+    /**
+     * Writes a string, or a reference to a string that was already
+     * written.
+     *
+     * @param s {@code null-ok;} the string
+     */
+    private void writeString(String s) throws IOException {
+        if (s == null) {
+            out.writeInt(-1);
+            return;
+        }
+
+        Integer index = strings.get(s);
+
+        if (index != null) {
+            out.writeInt(index);
+            return;
+        }
+
+        out.writeInt(-2);
+        out.writeUTF(s);
+        strings.put(s, strings.size());
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright (C) 2007 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.dx.rop.code._tests;
+
+import com.android.dx.rop.code.DexTranslationAdvice;
+import com.android.dx.rop.code.RopMethod;
+import com.android.dx.rop.code.RopMethodReader;
+import com.android.dx.rop.code.RopMethodWriter;
+import com.android.dx.ssa.Optimizer;
+import com.android.dx.util._tests.ClassFileFixture;
+
+import junit.framework.TestCase;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * Test the classes {@code com.android.dx.rop.code.RopMethodWriter}
+ * and {@code com.android.dx.rop.code.RopMethodReader}.
+ */
+public class _RopMethodWriter
+        extends TestCase {
+    /**
+     * Checks that translated methods, both as they come out of the
+     * ropper and optimized, read back the same as they were written.
+     */
+    public void test_roundTrip() throws IOException {
+        int count = ClassFileFixture.forEachMethod(
+                new ClassFileFixture.MethodVisitor() {
+            public void visit(String what, RopMethod rmeth, int paramWidth,
+                    boolean isStatic) throws IOException {
+                assertEquals(what, ClassFileFixture.toHuman(rmeth),
+                        ClassFileFixture.toHuman(roundTrip(rmeth)));
+
+                rmeth = Optimizer.optimize(rmeth, paramWidth, isStatic, true,
+                        DexTranslationAdvice.THE_ONE);
+
+                assertEquals(what, ClassFileFixture.toHuman(rmeth),
+                        ClassFileFixture.toHuman(roundTrip(rmeth)));
+            }
+        });
+
+        assertTrue(count > 50);
+    }
+
+    /**
+     * Writes a method out and reads it back in.
+     *
+     * @param rmeth {@code non-null;} the method
+     * @return {@code non-null;} the method as read back
+     */
+    private static RopMethod roundTrip(RopMethod rmeth) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+
+        new RopMethodWriter(out).write(rmeth);
+        out.close();
+
+        DataInputStream in = new DataInputStream(
+                new ByteArrayInputStream(bytes.toByteArray()));
+        RopMethod result = new RopMethodReader(in).read();
+
+        assertEquals(-1, in.read());
+        return result;
+    }
+}
@@ -18,15 +18,15 @@ package com.android.dx.rop.cst;
 
 import com.android.dx.rop.type.Type;
 
-import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Constants that represent an arbitrary type (reference or primitive).
  */
 public final class CstType extends TypedConstant {
     /** {@code non-null;} map of interned types */
-    private static final HashMap<Type, CstType> interns =
-        new HashMap<Type, CstType>(100);
+    private static final ConcurrentHashMap<Type, CstType> interns =
+        new ConcurrentHashMap<Type, CstType>(1000);
 
     /** {@code non-null;} instance corresponding to the class {@code Object} */
     public static final CstType OBJECT = intern(Type.OBJECT);
@@ -127,7 +127,10 @@ public final class CstType extends TypedConstant {
 
         if (cst == null) {
             cst = new CstType(type);
-            interns.put(type, cst);
+            CstType already = interns.putIfAbsent(type, cst);
+            if (already != null) {
+                cst = already;
+            }
         }
 
         return cst;
@@ -77,8 +77,37 @@ public final class CstUtf8 extends Constant {
      * @return {@code non-null;} the converted string
      */
     public static String utf8BytesToString(ByteArray bytes) {
+        // This is sized to avoid a realloc.
+        char[] chars = new char[bytes.size()];
+        int outAt = decodeUtf8(bytes, chars);
+
+        return new String(chars, 0, outAt);
+    }
+
+    /**
+     * Checks that an array of bytes is valid UTF-8, without converting
+     * it. This throws exactly when {@link #utf8BytesToString} would.
+     * 
+     * @param bytes {@code non-null;} the bytes to check
+     * @throws IllegalArgumentException thrown if the bytes aren't
+     * valid UTF-8
+     */
+    public static void checkUtf8Bytes(ByteArray bytes) {
+        decodeUtf8(bytes, null);
+    }
+
+    /**
+     * Helper for {@link #utf8BytesToString} and {@link #checkUtf8Bytes},
+     * which decodes an array of UTF-8 bytes.
+     * 
+     * @param bytes {@code non-null;} the bytes to decode
+     * @param chars {@code null-ok;} where to store the decoded chars,
+     * of at least {@code bytes.size()} elements, or {@code null} to
+     * only check the bytes
+     * @return the number of chars decoded
+     */
+    private static int decodeUtf8(ByteArray bytes, char[] chars) {
         int length = bytes.size();
-        char[] chars = new char[length]; // This is sized to avoid a realloc.
         int outAt = 0;
 
         for (int at = 0; length > 0; /*at*/) {
@@ -151,15 +180,17 @@ public final class CstUtf8 extends Constant {
                     return throwBadUtf8(v0, at);
                 }
             }
-            chars[outAt] = out;
+            if (chars != null) {
+                chars[outAt] = out;
+            }
             outAt++;
         }
 
-        return new String(chars, 0, outAt);
+        return outAt;
     }
 
     /**
-     * Helper for {@link #utf8BytesToString}, which throws the right
+     * Helper for {@link #decodeUtf8}, which throws the right
      * exception for a bogus utf-8 byte.
      * 
      * @param value the byte value
@@ -167,7 +198,7 @@ public final class CstUtf8 extends Constant {
      * @return never
      * @throws IllegalArgumentException always thrown
      */
-    private static String throwBadUtf8(int value, int offset) {
+    private static int throwBadUtf8(int value, int offset) {
         throw new IllegalArgumentException("bad utf-8 byte " + Hex.u1(value) +
                                            " at offset " + Hex.u4(offset));
     }
@@ -16,7 +16,7 @@
 
 package com.android.dx.rop.type;
 
-import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Representation of a method decriptor. Instances of this class are
@@ -25,8 +25,8 @@ import java.util.HashMap;
  */
 public final class Prototype implements Comparable<Prototype> {
     /** {@code non-null;} intern table mapping string descriptors to instances */
-    private static final HashMap<String, Prototype> internTable =
-        new HashMap<String, Prototype>(500);
+    private static final ConcurrentHashMap<String, Prototype> internTable =
+        new ConcurrentHashMap<String, Prototype>(10000);
 
     /** {@code non-null;} method descriptor */
     private final String descriptor;
@@ -384,14 +384,8 @@ public final class Prototype implements Comparable<Prototype> {
      * @return {@code non-null;} the actual interned object
      */
     private static Prototype putIntern(Prototype desc) {
-        synchronized (internTable) {
-            String descriptor = desc.getDescriptor();
-            Prototype already = internTable.get(descriptor);
-            if (already != null) {
-                return already;
-            }
-            internTable.put(descriptor, desc);
-            return desc;
-        }
+        Prototype already =
+            internTable.putIfAbsent(desc.getDescriptor(), desc);
+        return (already != null) ? already : desc;
     }
 }
@@ -18,7 +18,7 @@ package com.android.dx.rop.type;
 
 import com.android.dx.util.Hex;
 
-import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Representation of a value type, such as may appear in a field, in a
@@ -28,8 +28,8 @@ import java.util.HashMap;
  */
 public final class Type implements TypeBearer, Comparable<Type> {
     /** {@code non-null;} intern table mapping string descriptors to instances */
-    private static final HashMap<String, Type> internTable = 
-        new HashMap<String, Type>(500);
+    private static final ConcurrentHashMap<String, Type> internTable =
+        new ConcurrentHashMap<String, Type>(10000);
 
     /** basic type constant for {@code void} */
     public static final int BT_VOID = 0;
@@ -842,14 +842,7 @@ public final class Type implements TypeBearer, Comparable<Type> {
      * @return {@code non-null;} the actual interned object
      */
     private static Type putIntern(Type type) {
-        synchronized (internTable) {
-            String descriptor = type.getDescriptor();
-            Type already = internTable.get(descriptor);
-            if (already != null) {
-                return already;
-            }
-            internTable.put(descriptor, type);
-            return type;
-        }
+        Type already = internTable.putIfAbsent(type.getDescriptor(), type);
+        return (already != null) ? already : type;
     }
 }
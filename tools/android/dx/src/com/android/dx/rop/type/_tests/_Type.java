@@ -0,0 +1,162 @@
+/*
+ * Copyright (C) 2007 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.dx.rop.type._tests;
+
+import com.android.dx.rop.cst.CstType;
+import com.android.dx.rop.type.Prototype;
+import com.android.dx.rop.type.Type;
+
+import junit.framework.TestCase;
+
+/**
+ * Test the interning done by {@code com.android.dx.rop.type.Type} and
+ * friends.
+ */
+public class _Type
+    extends TestCase {
+    /** number of threads to intern from concurrently */
+    private static final int THREAD_COUNT = 8;
+
+    /** number of distinct class names each thread interns */
+    private static final int NAME_COUNT = 2000;
+
+    /** number of times each benchmark thread interns all the names */
+    private static final int BENCHMARK_ROUNDS = 200;
+
+    /**
+     * Measures intern throughput when several threads intern the same
+     * names at once. This is not part of the test run, since it takes
+     * a while; run it by hand, optionally passing the largest thread
+     * count to try.
+     *
+     * @param args {@code non-null;} the command-line arguments
+     */
+    public static void main(String[] args) throws InterruptedException {
+        int maxThreads = (args.length > 0) ? Integer.parseInt(args[0])
+            : Runtime.getRuntime().availableProcessors();
+        final String[] descs = new String[NAME_COUNT];
+
+        for (int j = 0; j < NAME_COUNT; j++) {
+            descs[j] = "Lbenchmark/C" + j + ";";
+        }
+
+        // Warm up, and make the timed rounds look up existing entries.
+        timeIntern(descs, 1);
+
+        for (int threads = 1; threads <= maxThreads; threads *= 2) {
+            long nanos = timeIntern(descs, threads);
+            long ops = (long) threads * BENCHMARK_ROUNDS * NAME_COUNT * 3;
+
+            System.out.println(threads + " thread" +
+                    ((threads == 1) ? ": " : "s: ") +
+                    (ops * 1000000L / nanos) + " interns/ms");
+        }
+    }
+
+    /**
+     * Helper for {@link #main}, which interns each of the given
+     * descriptors as a type, a prototype and a type constant, on each
+     * of the given number of threads at once.
+     *
+     * @param descs {@code non-null;} the type descriptors
+     * @param threadCount the number of threads
+     * @return the elapsed time in nanoseconds
+     */
+    private static long timeIntern(final String[] descs, int threadCount)
+            throws InterruptedException {
+        final String[] protoDescs = new String[descs.length];
+        Thread[] threads = new Thread[threadCount];
+
+        for (int j = 0; j < descs.length; j++) {
+            protoDescs[j] = "(" + descs[j] + ")V";
+        }
+
+        for (int i = 0; i < threadCount; i++) {
+            threads[i] = new Thread() {
+                @Override
+                public void run() {
+                    for (int round = 0; round < BENCHMARK_ROUNDS; round++) {
+                        for (int j = 0; j < descs.length; j++) {
+                            CstType.intern(Type.intern(descs[j]));
+                            Prototype.intern(protoDescs[j]);
+                        }
+                    }
+                }
+            };
+        }
+
+        long start = System.nanoTime();
+
+        for (Thread thread : threads) {
+            thread.start();
+        }
+
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        return System.nanoTime() - start;
+    }
+
+    public void test_intern() {
+        Type t = Type.intern("Lfoo/Bar;");
+
+        assertSame(t, Type.intern("Lfoo/Bar;"));
+        assertSame(t, Type.internClassName("foo/Bar"));
+        assertSame(t.getArrayType(), Type.intern("[Lfoo/Bar;"));
+        assertSame(Type.INT, Type.intern("I"));
+    }
+
+    public void test_concurrentIntern() throws InterruptedException {
+        final Type[][] types = new Type[THREAD_COUNT][NAME_COUNT];
+        final Prototype[][] protos = new Prototype[THREAD_COUNT][NAME_COUNT];
+        final CstType[][] csts = new CstType[THREAD_COUNT][NAME_COUNT];
+        Thread[] threads = new Thread[THREAD_COUNT];
+
+        for (int i = 0; i < THREAD_COUNT; i++) {
+            final int which = i;
+            threads[i] = new Thread() {
+                @Override
+                public void run() {
+                    for (int j = 0; j < NAME_COUNT; j++) {
+                        String desc = "Lconcurrent/C" + j + ";";
+                        types[which][j] = Type.intern(desc);
+                        protos[which][j] = Prototype.intern("(" + desc + ")V");
+                        csts[which][j] = CstType.intern(types[which][j]);
+                    }
+                }
+            };
+        }
+
+        for (Thread thread : threads) {
+            thread.start();
+        }
+
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        for (int i = 1; i < THREAD_COUNT; i++) {
+            for (int j = 0; j < NAME_COUNT; j++) {
+                assertSame(types[0][j], types[i][j]);
+                assertSame(protos[0][j], protos[i][j]);
+                assertSame(csts[0][j], csts[i][j]);
+                assertSame(types[0][j], protos[i][j].getParameterTypes().get(0));
+            }
+        }
+    }
+}
@@ -36,6 +36,26 @@ public final class NormalSsaInsn extends SsaInsn implements Cloneable {
         this.insn = insn;
     }
 
+    /**
+     * Creates an instance whose result may differ from that of the
+     * wrapped rop insn.
+     *
+     * @param insn Rop insn to wrap
+     * @param result {@code null-ok;} result register
+     * @param block block that contains this insn
+     */
+    private NormalSsaInsn(Insn insn, RegisterSpec result,
+            SsaBasicBlock block) {
+        super(result, block);
+        this.insn = insn;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    /*package*/ NormalSsaInsn copy(SsaBasicBlock newBlock) {
+        return new NormalSsaInsn(insn, getResult(), newBlock);
+    }
+
     /** {@inheritDoc} */
     @Override
     public final void mapSourceRegisters(RegisterMapper mapper) {
@@ -220,7 +240,8 @@ public final class NormalSsaInsn extends SsaInsn implements Cloneable {
         }
 
         boolean hasLocalSideEffect
-            = Optimizer.getPreserveLocals() && getLocalAssignment() != null;
+            = getBlock().getParent().getPreserveLocals()
+                && getLocalAssignment() != null;
 
         switch (opcode.getOpcode()) {
             case RegOps.MOVE_RESULT:
@@ -20,6 +20,7 @@ import com.android.dx.rop.code.RopMethod;
 import com.android.dx.rop.code.TranslationAdvice;
 import com.android.dx.ssa.back.SsaToRop;
 import com.android.dx.ssa.back.LivenessAnalyzer;
+import com.android.dx.util.PhaseProfiler;
 
 import java.util.EnumSet;
 import java.util.BitSet;
@@ -30,30 +31,11 @@ import java.util.ArrayList;
  * and returns it to rop form.
  */
 public class Optimizer {
-    private static boolean preserveLocals = true;
-
-    private static TranslationAdvice advice;
-
     /** optional optimizer steps */
     public enum OptionalStep {
         MOVE_PARAM_COMBINER,SCCP,LITERAL_UPGRADE,CONST_COLLECTOR
     }
 
-    /**
-     * @return true if local variable information should be preserved, even
-     * at code size/register size cost
-     */
-    public static boolean getPreserveLocals() {
-        return preserveLocals;
-    }
-
-    /**
-     * @return {@code non-null;} translation advice
-     */
-    public static TranslationAdvice getAdvice() {
-        return advice;
-    }
-
     /**
      * Runs optimization algorthims over this method, and returns a new
      * instance of RopMethod with the changes.
@@ -92,22 +74,97 @@ public class Optimizer {
     public static RopMethod optimize(RopMethod rmeth, int paramWidth,
             boolean isStatic, boolean inPreserveLocals,
             TranslationAdvice inAdvice, EnumSet<OptionalStep> steps) {
+        return optimize(rmeth, paramWidth, isStatic, inPreserveLocals,
+                inAdvice, steps, null);
+    }
+
+    /**
+     * Runs optimization algorthims over this method, and returns a new
+     * instance of RopMethod with the changes, doing less work on
+     * expensive methods as the given budget allows.
+     *
+     * @param rmeth method to process
+     * @param paramWidth the total width, in register-units, of this method's
+     * parameters
+     * @param isStatic true if this method has no 'this' pointer argument.
+     * @param inPreserveLocals true if local variable info should be preserved,
+     * at the cost of some registers and insns
+     * @param inAdvice {@code non-null;} translation advice
+     * @param steps set of optional optimization steps to run
+     * @param budget {@code null-ok;} limits on the work to do, and
+     * record of the decisions made; {@code null} to always do the
+     * full optimization
+     * @return optimized method
+     */
+    public static RopMethod optimize(RopMethod rmeth, int paramWidth,
+            boolean isStatic, boolean inPreserveLocals,
+            TranslationAdvice inAdvice, EnumSet<OptionalStep> steps,
+            OptimizerBudget budget) {
         SsaMethod ssaMeth = null;
+        boolean reduced = false;
+
+        if (budget != null) {
+            if (OptimizerBudget.estimateCost(rmeth)
+                    > budget.getMaxFullCost()) {
+                steps = EnumSet.noneOf(OptionalStep.class);
+                reduced = true;
+            }
+
+            if (OptimizerBudget.predictsTooManyRegisters(rmeth, inAdvice)) {
+                budget.record(reduced, true, false);
+                return optimizeMinimizeRegisters(rmeth, paramWidth, isStatic,
+                        inPreserveLocals, inAdvice, steps);
+            }
+        }
 
-        preserveLocals = inPreserveLocals;
-        advice = inAdvice;
+        PhaseProfiler.Sample sample = PhaseProfiler.begin();
+        ssaMeth = SsaConverter.convertToSsaMethod(rmeth, paramWidth, isStatic,
+                inPreserveLocals, inAdvice);
+        PhaseProfiler.end(sample, PhaseProfiler.Phase.SSA_CONVERT);
 
-        ssaMeth = SsaConverter.convertToSsaMethod(rmeth, paramWidth, isStatic);
-        runSsaFormSteps(ssaMeth, steps);
+        boolean deadCodeRemoved = runSharedSsaFormSteps(ssaMeth, steps);
 
+        /*
+         * In practice only methods that already use more registers
+         * than is optimal in rop form come out over that count, so
+         * only for those is it worth keeping a copy of the SSA form
+         * for the register-minimizing strategy to finish from. A retry
+         * without one starts over from the rop form.
+         */
+        SsaMethod snapshot = null;
+
+        if (rmeth.getBlocks().getRegCount()
+                > inAdvice.getMaxOptimalRegisterCount()) {
+            sample = PhaseProfiler.begin();
+            snapshot = ssaMeth.copy();
+            PhaseProfiler.end(sample, PhaseProfiler.Phase.SSA_COPY);
+        }
+
+        runFinalSsaFormSteps(ssaMeth, steps, deadCodeRemoved);
+
+        sample = PhaseProfiler.begin();
         RopMethod resultMeth = SsaToRop.convertToRopMethod(ssaMeth, false);
+        PhaseProfiler.end(sample, PhaseProfiler.Phase.REGISTER_ALLOCATION);
+
+        boolean retried = false;
 
         if (resultMeth.getBlocks().getRegCount()
-                > advice.getMaxOptimalRegisterCount()) {
+                > inAdvice.getMaxOptimalRegisterCount()) {
             // Try to see if we can squeeze it under the register count bar
-            resultMeth = optimizeMinimizeRegisters(rmeth, paramWidth, isStatic,
-                    steps);
+            if (snapshot != null) {
+                resultMeth = finishMinimizeRegisters(snapshot, steps,
+                        deadCodeRemoved);
+            } else {
+                resultMeth = optimizeMinimizeRegisters(rmeth, paramWidth,
+                        isStatic, inPreserveLocals, inAdvice, steps);
+            }
+            retried = true;
+        }
+
+        if (budget != null) {
+            budget.record(reduced, retried, retried);
         }
+
         return resultMeth;
     }
 
@@ -123,18 +180,41 @@ public class Optimizer {
      * @param paramWidth the total width, in register-units, of this method's
      * parameters
      * @param isStatic true if this method has no 'this' pointer argument.
+     * @param preserveLocals true if local variable info should be preserved,
+     * at the cost of some registers and insns
+     * @param advice {@code non-null;} translation advice
      * @param steps set of optional optimization steps to run
      * @return optimized method
      */
     private static RopMethod optimizeMinimizeRegisters(RopMethod rmeth,
-            int paramWidth, boolean isStatic,
-            EnumSet<OptionalStep> steps) {
+            int paramWidth, boolean isStatic, boolean preserveLocals,
+            TranslationAdvice advice, EnumSet<OptionalStep> steps) {
         SsaMethod ssaMeth;
-        RopMethod resultMeth;
 
+        PhaseProfiler.Sample sample = PhaseProfiler.begin();
         ssaMeth = SsaConverter.convertToSsaMethod(
-                rmeth, paramWidth, isStatic);
+                rmeth, paramWidth, isStatic, preserveLocals, advice);
+        PhaseProfiler.end(sample, PhaseProfiler.Phase.SSA_CONVERT);
+
+        boolean deadCodeRemoved = runSharedSsaFormSteps(ssaMeth, steps);
+
+        return finishMinimizeRegisters(ssaMeth, steps, deadCodeRemoved);
+    }
 
+    /**
+     * Finishes optimizing a method with the register-minimizing
+     * strategy, from the point where it starts to differ from the
+     * usual one.
+     *
+     * @param ssaMeth {@code non-null;} method to process, as left by
+     * {@link #runSharedSsaFormSteps}
+     * @param steps set of optional optimization steps to run
+     * @param deadCodeRemoved the value returned by
+     * {@code runSharedSsaFormSteps}
+     * @return optimized method
+     */
+    private static RopMethod finishMinimizeRegisters(SsaMethod ssaMeth,
+            EnumSet<OptionalStep> steps, boolean deadCodeRemoved) {
         EnumSet<OptionalStep> newSteps = steps.clone();
 
         /*
@@ -143,72 +223,124 @@ public class Optimizer {
          */
         newSteps.remove(OptionalStep.CONST_COLLECTOR);
 
-        runSsaFormSteps(ssaMeth, newSteps);
+        runFinalSsaFormSteps(ssaMeth, newSteps, deadCodeRemoved);
+
+        PhaseProfiler.Sample sample = PhaseProfiler.begin();
+        RopMethod resultMeth = SsaToRop.convertToRopMethod(ssaMeth, true);
+        PhaseProfiler.end(sample, PhaseProfiler.Phase.REGISTER_ALLOCATION);
 
-        resultMeth = SsaToRop.convertToRopMethod(ssaMeth, true);
         return resultMeth;
     }
 
     private static void runSsaFormSteps(SsaMethod ssaMeth,
             EnumSet<OptionalStep> steps) {
-        boolean needsDeadCodeRemover = true;
+        boolean deadCodeRemoved = runSharedSsaFormSteps(ssaMeth, steps);
+
+        runFinalSsaFormSteps(ssaMeth, steps, deadCodeRemoved);
+    }
+
+    /**
+     * Runs the SSA form steps that are done the same way by both
+     * register allocation strategies.
+     *
+     * @param ssaMeth {@code non-null;} method to process
+     * @param steps set of optional optimization steps to run
+     * @return whether the dead code remover has been run since the
+     * last step that leaves dead code behind
+     */
+    private static boolean runSharedSsaFormSteps(SsaMethod ssaMeth,
+            EnumSet<OptionalStep> steps) {
+        boolean deadCodeRemoved = false;
+        PhaseProfiler.Sample sample;
 
         if (steps.contains(OptionalStep.MOVE_PARAM_COMBINER)) {
+            sample = PhaseProfiler.begin();
             MoveParamCombiner.process(ssaMeth);
+            PhaseProfiler.end(sample, PhaseProfiler.Phase.MOVE_PARAM_COMBINER);
         }
 
         if (steps.contains(OptionalStep.SCCP)) {
+            sample = PhaseProfiler.begin();
             SCCP.process(ssaMeth);
+            PhaseProfiler.end(sample, PhaseProfiler.Phase.SCCP);
         }
 
         if (steps.contains(OptionalStep.LITERAL_UPGRADE)) {
+            sample = PhaseProfiler.begin();
             LiteralOpUpgrader.process(ssaMeth);
-            DeadCodeRemover.process(ssaMeth);
-            needsDeadCodeRemover = false;
+            PhaseProfiler.end(sample, PhaseProfiler.Phase.LITERAL_UPGRADE);
+            removeDeadCode(ssaMeth);
+            deadCodeRemoved = true;
         }
 
+        return deadCodeRemoved;
+    }
+
+    /**
+     * Runs the SSA form steps that follow {@link #runSharedSsaFormSteps},
+     * which may differ between the register allocation strategies.
+     *
+     * @param ssaMeth {@code non-null;} method to process
+     * @param steps set of optional optimization steps to run
+     * @param deadCodeRemoved the value returned by
+     * {@code runSharedSsaFormSteps}
+     */
+    private static void runFinalSsaFormSteps(SsaMethod ssaMeth,
+            EnumSet<OptionalStep> steps, boolean deadCodeRemoved) {
+        boolean needsDeadCodeRemover = !deadCodeRemoved;
+        PhaseProfiler.Sample sample;
+
         if (steps.contains(OptionalStep.CONST_COLLECTOR)) {
+            sample = PhaseProfiler.begin();
             ConstCollector.process(ssaMeth);
-            DeadCodeRemover.process(ssaMeth);
+            PhaseProfiler.end(sample, PhaseProfiler.Phase.CONST_COLLECTOR);
+            removeDeadCode(ssaMeth);
             needsDeadCodeRemover = false;
         }
 
         // dead code remover must be run before phi type resolver
         if (needsDeadCodeRemover) {
-            DeadCodeRemover.process(ssaMeth);
+            removeDeadCode(ssaMeth);
         }
 
+        sample = PhaseProfiler.begin();
         PhiTypeResolver.process(ssaMeth);
+        PhaseProfiler.end(sample, PhaseProfiler.Phase.PHI_TYPE_RESOLVER);
+    }
+
+    /**
+     * Runs the dead code remover, timing it when profiling.
+     *
+     * @param ssaMeth {@code non-null;} method to process
+     */
+    private static void removeDeadCode(SsaMethod ssaMeth) {
+        PhaseProfiler.Sample sample = PhaseProfiler.begin();
+        DeadCodeRemover.process(ssaMeth);
+        PhaseProfiler.end(sample, PhaseProfiler.Phase.DEAD_CODE_REMOVER);
     }
 
     public static SsaMethod debugEdgeSplit(RopMethod rmeth, int paramWidth,
             boolean isStatic, boolean inPreserveLocals,
             TranslationAdvice inAdvice) {
 
-        preserveLocals = inPreserveLocals;
-        advice = inAdvice;
-
-        return SsaConverter.testEdgeSplit(rmeth, paramWidth, isStatic);
+        return SsaConverter.testEdgeSplit(rmeth, paramWidth, isStatic,
+                inPreserveLocals, inAdvice);
     }
 
     public static SsaMethod debugPhiPlacement(RopMethod rmeth, int paramWidth,
             boolean isStatic, boolean inPreserveLocals,
             TranslationAdvice inAdvice) {
 
-        preserveLocals = inPreserveLocals;
-        advice = inAdvice;
-
-        return SsaConverter.testPhiPlacement(rmeth, paramWidth, isStatic);
+        return SsaConverter.testPhiPlacement(rmeth, paramWidth, isStatic,
+                inPreserveLocals, inAdvice);
     }
 
     public static SsaMethod debugRenaming(RopMethod rmeth, int paramWidth,
             boolean isStatic, boolean inPreserveLocals,
             TranslationAdvice inAdvice) {
 
-        preserveLocals = inPreserveLocals;
-        advice = inAdvice;
-
-        return SsaConverter.convertToSsaMethod(rmeth, paramWidth, isStatic);
+        return SsaConverter.convertToSsaMethod(rmeth, paramWidth, isStatic,
+                inPreserveLocals, inAdvice);
     }
 
     public static SsaMethod debugDeadCodeRemover(RopMethod rmeth,
@@ -217,10 +349,8 @@ public class Optimizer {
 
         SsaMethod ssaMeth;
 
-        preserveLocals = inPreserveLocals;
-        advice = inAdvice;
-
-        ssaMeth = SsaConverter.convertToSsaMethod(rmeth, paramWidth, isStatic);
+        ssaMeth = SsaConverter.convertToSsaMethod(rmeth, paramWidth, isStatic,
+                inPreserveLocals, inAdvice);
         DeadCodeRemover.process(ssaMeth);
 
         return ssaMeth;
@@ -232,10 +362,8 @@ public class Optimizer {
 
         SsaMethod ssaMeth;
 
-        preserveLocals = inPreserveLocals;
-        advice = inAdvice;
-
-        ssaMeth = SsaConverter.convertToSsaMethod(rmeth, paramWidth, isStatic);
+        ssaMeth = SsaConverter.convertToSsaMethod(rmeth, paramWidth, isStatic,
+                inPreserveLocals, inAdvice);
 
         runSsaFormSteps(ssaMeth, steps);
 
@@ -0,0 +1,159 @@
+/*
+ * Copyright (C) 2007 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.dx.ssa;
+
+import com.android.dx.rop.code.BasicBlockList;
+import com.android.dx.rop.code.RopMethod;
+import com.android.dx.rop.code.TranslationAdvice;
+
+import java.io.PrintStream;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Limits on how much work {@link Optimizer} does per method, trading
+ * some code quality on big methods for translation time, and a
+ * record of the decisions made under them. Instances are safe to
+ * share between threads.<p>
+ *
+ * The cost of a method is estimated from its rop form as its
+ * instruction count plus its block count times its register count,
+ * which bounds the size of its SSA form (one instruction per rop
+ * instruction, plus at worst a phi per register per block). Methods
+ * that cost more than {@link #getMaxFullCost} are optimized without
+ * the optional steps.<p>
+ *
+ * Separately, a method whose rop form already uses many more
+ * registers than {@link TranslationAdvice#getMaxOptimalRegisterCount}
+ * almost always ends up over that count after the first allocation
+ * attempt, so such methods go straight to the register-minimizing
+ * strategy rather than trying the usual one first.
+ */
+public final class OptimizerBudget {
+    /** default value for {@link #getMaxFullCost} */
+    public static final int DEFAULT_MAX_FULL_COST = 20000;
+
+    /** {@code >= 0;} cost above which optional steps are skipped */
+    private final int maxFullCost;
+
+    /** count of methods optimized under this budget */
+    private final AtomicInteger methodCount = new AtomicInteger();
+
+    /** count of methods whose optional steps were skipped */
+    private final AtomicInteger reducedCount = new AtomicInteger();
+
+    /** count of methods that used the register-minimizing strategy */
+    private final AtomicInteger minimizedCount = new AtomicInteger();
+
+    /**
+     * count of methods that needed a second, register-minimizing
+     * attempt that wasn't predicted
+     */
+    private final AtomicInteger retriedCount = new AtomicInteger();
+
+    /**
+     * Constructs an instance.
+     *
+     * @param maxFullCost {@code >= 0;} cost above which optional steps
+     * are skipped
+     */
+    public OptimizerBudget(int maxFullCost) {
+        if (maxFullCost < 0) {
+            throw new IllegalArgumentException("maxFullCost < 0");
+        }
+
+        this.maxFullCost = maxFullCost;
+    }
+
+    /**
+     * Gets the cost above which optional steps are skipped.
+     *
+     * @return {@code >= 0;} the cost
+     */
+    public int getMaxFullCost() {
+        return maxFullCost;
+    }
+
+    /**
+     * Estimates the cost of optimizing a method.
+     *
+     * @param rmeth {@code non-null;} method in rop form
+     * @return {@code >= 0;} the estimated cost
+     */
+    public static long estimateCost(RopMethod rmeth) {
+        BasicBlockList blocks = rmeth.getBlocks();
+
+        return blocks.getInstructionCount()
+                + (long) blocks.size() * blocks.getRegCount();
+    }
+
+    /**
+     * Returns whether a method is expected to need more registers than
+     * is optimal, even after register allocation.
+     *
+     * @param rmeth {@code non-null;} method in rop form
+     * @param advice {@code non-null;} translation advice
+     * @return {@code true} if the register-minimizing strategy should
+     * be used from the start
+     */
+    public static boolean predictsTooManyRegisters(RopMethod rmeth,
+            TranslationAdvice advice) {
+        int max = advice.getMaxOptimalRegisterCount();
+
+        return rmeth.getBlocks().getRegCount() > max + (max >> 1);
+    }
+
+    /**
+     * Records the decisions made for one method.
+     *
+     * @param reduced whether optional steps were skipped
+     * @param minimized whether the register-minimizing strategy was
+     * used, up front or as a retry
+     * @param retried whether that was a retry
+     */
+    /*package*/ void record(boolean reduced, boolean minimized,
+            boolean retried) {
+        methodCount.incrementAndGet();
+
+        if (reduced) {
+            reducedCount.incrementAndGet();
+        }
+
+        if (minimized) {
+            minimizedCount.incrementAndGet();
+        }
+
+        if (retried) {
+            retriedCount.incrementAndGet();
+        }
+    }
+
+    /**
+     * Prints a summary of the decisions made so far.
+     *
+     * @param out {@code non-null;} where to print
+     */
+    public void dumpStatistics(PrintStream out) {
+        int minimized = minimizedCount.get();
+        int retried = retriedCount.get();
+
+        out.println("Optimizer budget (max full cost " + maxFullCost + "):");
+        out.println("  methods optimized: " + methodCount.get());
+        out.println("  optional steps skipped: " + reducedCount.get());
+        out.println("  registers minimized up front: " + (minimized - retried));
+        out.println("  registers minimized on retry: " + retried);
+    }
+}
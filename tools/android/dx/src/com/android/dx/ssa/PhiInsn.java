@@ -72,6 +72,31 @@ public final class PhiInsn extends SsaInsn {
         ropResultReg = resultReg;
     }
 
+    /**
+     * Constructs a copy of a phi insn, for a block of a copy of its
+     * method.
+     *
+     * @param old {@code non-null;} insn to copy
+     * @param block block that will contain the copy
+     */
+    private PhiInsn(PhiInsn old, SsaBasicBlock block) {
+        super(old.getResult(), block);
+        ropResultReg = old.ropResultReg;
+
+        operands.ensureCapacity(old.operands.size());
+        for (Operand o : old.operands) {
+            operands.add(new Operand(o.regSpec, o.blockIndex, o.ropLabel));
+        }
+
+        sources = old.sources;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    /*package*/ PhiInsn copy(SsaBasicBlock newBlock) {
+        return new PhiInsn(this, newBlock);
+    }
+
     /** {@inheritDoc} */
     public PhiInsn clone() {
         throw new UnsupportedOperationException("can't clone phi");
@@ -293,7 +318,8 @@ public final class PhiInsn extends SsaInsn {
     /** {@inheritDoc} */
     @Override
     public boolean hasSideEffect() {
-        return Optimizer.getPreserveLocals() && getLocalAssignment() != null;
+        return getBlock().getParent().getPreserveLocals()
+                && getLocalAssignment() != null;
     }
 
     /** {@inheritDoc} */
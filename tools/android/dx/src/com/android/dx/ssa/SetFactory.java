@@ -17,8 +17,8 @@
 package com.android.dx.ssa;
 
 import com.android.dx.util.BitIntSet;
+import com.android.dx.util.HybridIntSet;
 import com.android.dx.util.IntSet;
-import com.android.dx.util.ListIntSet;
 
 
 /**
@@ -27,7 +27,7 @@ import com.android.dx.util.ListIntSet;
 public final class SetFactory {
 
     /**
-     * BitIntSet/ListIntSet threshold for dominance frontier sets. These
+     * BitIntSet/HybridIntSet threshold for dominance frontier sets. These
      * sets are kept per basic block until phi placement and tend to be,
      * like the CFG itself, very sparse at large sizes.
      *
@@ -36,15 +36,7 @@ public final class SetFactory {
     private static final int DOMFRONT_SET_THRESHOLD_SIZE = 3072;
 
     /**
-     * BitIntSet/ListIntSet threshold for interference graph sets. These
-     * sets are kept per register until register allocation is done.
-     *
-     * A value of 3072 here is somewhere around 1.125mb of total bitset size.
-     */
-    private static final int INTERFERENCE_SET_THRESHOLD_SIZE = 3072;
-
-    /**
-     * BitIntSet/ListIntSet threshold for the live in/out sets kept by
+     * BitIntSet/HybridIntSet threshold for the live in/out sets kept by
      * {@link SsaBasicBlock}. These are sets of SSA registers kept per basic
      * block during register allocation.
      *
@@ -65,20 +57,7 @@ public final class SetFactory {
     /*package*/ static IntSet makeDomFrontSet(int szBlocks) {
         return szBlocks <= DOMFRONT_SET_THRESHOLD_SIZE
                 ? new BitIntSet(szBlocks)
-                : new ListIntSet();
-    }
-
-    /**
-     * Make IntSet for the interference graph sets. Public because
-     * InterferenceGraph is in another package.
-     *
-     * @param countRegs {@code >=0;} count of SSA registers used in method
-     * @return {@code non-null;} appropriate set
-     */
-    public static IntSet makeInterferenceSet(int countRegs) {
-        return countRegs <= INTERFERENCE_SET_THRESHOLD_SIZE
-                ? new BitIntSet(countRegs)
-                : new ListIntSet();
+                : new HybridIntSet(szBlocks);
     }
 
     /**
@@ -90,6 +69,6 @@ public final class SetFactory {
     /*package*/ static IntSet makeLivenessSet(int countRegs) {
         return countRegs <= LIVENESS_SET_THRESHOLD_SIZE
                 ? new BitIntSet(countRegs)
-                : new ListIntSet();
+                : new HybridIntSet(countRegs);
     }
 }
@@ -38,6 +38,7 @@ import java.util.BitSet;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
+import java.util.Map;
 
 /**
  * An SSA representation of a basic block.
@@ -172,6 +173,55 @@ public final class SsaBasicBlock {
         return result;
     }
 
+    /**
+     * Constructs a copy of a block, with no insns or dom children, for
+     * a copy of its method.
+     *
+     * @param old {@code non-null;} block to copy
+     * @param parent {@code non-null;} method of the new block
+     */
+    private SsaBasicBlock(SsaBasicBlock old, SsaMethod parent) {
+        this.parent = parent;
+        this.index = old.index;
+        this.insns = new ArrayList<SsaInsn>(old.insns.size());
+        this.ropLabel = old.ropLabel;
+
+        this.predecessors = (BitSet) old.predecessors.clone();
+        this.successors = (BitSet) old.successors.clone();
+        this.successorList = old.successorList.mutableCopy();
+        this.primarySuccessor = old.primarySuccessor;
+
+        this.movesFromPhisAtEnd = old.movesFromPhisAtEnd;
+        this.movesFromPhisAtBeginning = old.movesFromPhisAtBeginning;
+
+        domChildren = new ArrayList<SsaBasicBlock>(old.domChildren.size());
+    }
+
+    /**
+     * Makes a copy of this block and its insns, for a copy of its
+     * method. The dom children of the copy are left for the caller to
+     * fill in, since they are other blocks of the new method. Liveness
+     * information is not copied.
+     *
+     * @param newParent {@code non-null;} method of the new block
+     * @param insnMap {@code non-null;} map from old to new insns, to
+     * which the insns of this block are added
+     * @return {@code non-null;} the copy
+     */
+    /*package*/ SsaBasicBlock copy(SsaMethod newParent,
+            Map<SsaInsn, SsaInsn> insnMap) {
+        SsaBasicBlock result = new SsaBasicBlock(this, newParent);
+
+        for (SsaInsn insn : insns) {
+            SsaInsn newInsn = insn.copy(result);
+
+            result.insns.add(newInsn);
+            insnMap.put(insn, newInsn);
+        }
+
+        return result;
+    }
+
     /**
      * Adds a basic block as a dom child for this block. Used when constructing
      * the dom tree.
@@ -786,6 +836,16 @@ public final class SsaBasicBlock {
         liveIn.add(regV);
     }
 
+    /**
+     * Forgets the live-in and live-out registers of this block, so that
+     * they can be computed afresh. This is called by the liveness
+     * analyzer.
+     */
+    public void clearLiveness() {
+        liveIn = null;
+        liveOut = null;
+    }
+
     /**
      * Returns the set of live-in registers. Valid after register
      * interference graph has been generated, otherwise empty.
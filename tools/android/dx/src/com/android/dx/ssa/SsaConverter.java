@@ -18,6 +18,7 @@ package com.android.dx.ssa;
 
 import com.android.dx.rop.code.RegisterSpec;
 import com.android.dx.rop.code.RopMethod;
+import com.android.dx.rop.code.TranslationAdvice;
 import com.android.dx.util.IntIterator;
 
 import java.util.ArrayList;
@@ -38,12 +39,16 @@ public class SsaConverter {
      * parameters
      * @param isStatic {@code true} if this method has no {@code this}
      * pointer argument
+     * @param preserveLocals {@code true} if local variable info should
+     * be preserved, at the cost of some registers and insns
+     * @param advice {@code non-null;} translation advice
      * @return output in SSA form
      */
     public static SsaMethod convertToSsaMethod(RopMethod rmeth,
-            int paramWidth, boolean isStatic) {
-        SsaMethod result
-            = SsaMethod.newFromRopMethod(rmeth, paramWidth, isStatic);
+            int paramWidth, boolean isStatic, boolean preserveLocals,
+            TranslationAdvice advice) {
+        SsaMethod result = SsaMethod.newFromRopMethod(rmeth, paramWidth,
+                isStatic, preserveLocals, advice);
 
         edgeSplit(result);
 
@@ -68,13 +73,18 @@ public class SsaConverter {
      * @param paramWidth width of all arguments in the method
      * @param isStatic {@code true} if this method has no {@code this}
      * pointer argument
+     * @param preserveLocals {@code true} if local variable info should
+     * be preserved
+     * @param advice {@code non-null;} translation advice
      * @return an SSA represention with only the edge-splitter run
      */
     public static SsaMethod testEdgeSplit (RopMethod rmeth, int paramWidth,
-            boolean isStatic) {
+            boolean isStatic, boolean preserveLocals,
+            TranslationAdvice advice) {
         SsaMethod result;
 
-        result = SsaMethod.newFromRopMethod(rmeth, paramWidth, isStatic);
+        result = SsaMethod.newFromRopMethod(rmeth, paramWidth, isStatic,
+                preserveLocals, advice);
 
         edgeSplit(result);
         return result;
@@ -88,13 +98,18 @@ public class SsaConverter {
      * @param paramWidth width of all arguments in the method
      * @param isStatic {@code true} if this method has no {@code this}
      * pointer argument
+     * @param preserveLocals {@code true} if local variable info should
+     * be preserved
+     * @param advice {@code non-null;} translation advice
      * @return an SSA represention with only the edge-splitter run
      */
     public static SsaMethod testPhiPlacement (RopMethod rmeth, int paramWidth,
-            boolean isStatic) {
+            boolean isStatic, boolean preserveLocals,
+            TranslationAdvice advice) {
         SsaMethod result;
 
-        result = SsaMethod.newFromRopMethod(rmeth, paramWidth, isStatic);
+        result = SsaMethod.newFromRopMethod(rmeth, paramWidth, isStatic,
+                preserveLocals, advice);
 
         edgeSplit(result);
 
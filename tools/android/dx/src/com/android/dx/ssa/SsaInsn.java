@@ -66,6 +66,15 @@ public abstract class SsaInsn implements ToHuman, Cloneable {
         }
     }
 
+    /**
+     * Makes a copy of this insn for a block of a copy of its method.
+     * Unlike {@link #clone}, the copy belongs to the given block.
+     *
+     * @param newBlock {@code non-null;} block that will contain the copy
+     * @return {@code non-null;} the copy
+     */
+    /*package*/ abstract SsaInsn copy(SsaBasicBlock newBlock);
+
     /**
      * Like {@link com.android.dx.rop.code.Insn getResult()}.
      * 
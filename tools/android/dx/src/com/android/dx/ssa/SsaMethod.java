@@ -26,12 +26,16 @@ import com.android.dx.rop.code.SourcePosition;
 import com.android.dx.rop.code.Insn;
 import com.android.dx.rop.code.RegOps;
 import com.android.dx.rop.code.Rop;
+import com.android.dx.rop.code.TranslationAdvice;
 import com.android.dx.util.IntList;
 
+import java.util.AbstractList;
 import java.util.ArrayList;
 import java.util.BitSet;
-import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
 import java.util.Stack;
 import java.util.Set;
 
@@ -69,17 +73,30 @@ public final class SsaMethod {
     /** true if this method has no {@code this} pointer argument */
     private final boolean isStatic;
 
+    /**
+     * true if local variable information should be preserved, even at
+     * code size/register size cost
+     */
+    private final boolean preserveLocals;
+
+    /** {@code non-null;} translation advice */
+    private final TranslationAdvice advice;
+
     /**
      * indexed by register: the insn where said register is defined or null
-     * if undefined. null until (lazily) created.
+     * if undefined. null until (lazily) created. May be longer than the
+     * register count, so that new registers can be made without
+     * rebuilding it.
      */
     private SsaInsn[] definitionList;
 
-    /** indexed by register: the list of all insns that use a register */
-    private ArrayList<SsaInsn>[] useList;
-
-    /** A version of useList with each List unmodifiable */
-    private List<SsaInsn>[] unmodifiableUseList;
+    /**
+     * indexed by register: the list of all insns that use a register.
+     * null until (lazily) created. Like {@link #definitionList}, it
+     * may be longer than the register count, with {@code null} elements
+     * past the end.
+     */
+    private UseList[] useList;
 
     /**
      * "back-convert mode". Set during back-conversion when registers
@@ -96,10 +113,15 @@ public final class SsaMethod {
      * method's parameters
      * @param isStatic {@code true} if this method has no {@code this}
      * pointer argument
+     * @param preserveLocals {@code true} if local variable info should
+     * be preserved, at the cost of some registers and insns
+     * @param advice {@code non-null;} translation advice
      */
     public static SsaMethod newFromRopMethod(RopMethod ropMethod,
-            int paramWidth, boolean isStatic) {
-        SsaMethod result = new SsaMethod(ropMethod, paramWidth, isStatic);
+            int paramWidth, boolean isStatic, boolean preserveLocals,
+            TranslationAdvice advice) {
+        SsaMethod result = new SsaMethod(ropMethod, paramWidth, isStatic,
+                preserveLocals, advice);
 
         result.convertRopToSsaBlocks(ropMethod);
 
@@ -115,16 +137,110 @@ public final class SsaMethod {
      * method's parameters
      * @param isStatic {@code true} if this method has no {@code this}
      * pointer argument
+     * @param preserveLocals {@code true} if local variable info should
+     * be preserved, at the cost of some registers and insns
+     * @param advice {@code non-null;} translation advice
      */
-    private SsaMethod(RopMethod ropMethod, int paramWidth, boolean isStatic) {
+    private SsaMethod(RopMethod ropMethod, int paramWidth, boolean isStatic,
+            boolean preserveLocals, TranslationAdvice advice) {
+        if (advice == null) {
+            throw new NullPointerException("advice == null");
+        }
+
         this.paramWidth = paramWidth;
         this.isStatic = isStatic;
+        this.preserveLocals = preserveLocals;
+        this.advice = advice;
         this.backMode = false;
         this.maxLabel = ropMethod.getBlocks().getMaxLabel();
         this.registerCount = ropMethod.getBlocks().getRegCount();
         this.spareRegisterBase = registerCount;
     }
 
+    /**
+     * Constructs a deep copy of a method. See {@link #copy}.
+     *
+     * @param old {@code non-null;} method to copy
+     */
+    private SsaMethod(SsaMethod old) {
+        this.paramWidth = old.paramWidth;
+        this.isStatic = old.isStatic;
+        this.preserveLocals = old.preserveLocals;
+        this.advice = old.advice;
+        this.backMode = false;
+        this.maxLabel = old.maxLabel;
+        this.registerCount = old.registerCount;
+        this.spareRegisterBase = old.spareRegisterBase;
+        this.borrowedSpareRegisters = old.borrowedSpareRegisters;
+        this.entryBlockIndex = old.entryBlockIndex;
+        this.exitBlockIndex = old.exitBlockIndex;
+
+        ArrayList<SsaBasicBlock> oldBlocks = old.blocks;
+        int szBlocks = oldBlocks.size();
+        IdentityHashMap<SsaInsn, SsaInsn> insnMap =
+            new IdentityHashMap<SsaInsn, SsaInsn>();
+
+        blocks = new ArrayList<SsaBasicBlock>(szBlocks);
+
+        for (int i = 0; i < szBlocks; i++) {
+            blocks.add(oldBlocks.get(i).copy(this, insnMap));
+        }
+
+        for (int i = 0; i < szBlocks; i++) {
+            SsaBasicBlock block = blocks.get(i);
+
+            for (SsaBasicBlock child : oldBlocks.get(i).getDomChildren()) {
+                block.addDomChild(blocks.get(child.getIndex()));
+            }
+        }
+
+        /*
+         * The def and use lists are carried over as they are, rather
+         * than rebuilt, so that the uses of each register stay in the
+         * same order and the copy behaves exactly like the original.
+         */
+
+        if (old.definitionList != null) {
+            SsaInsn[] oldList = old.definitionList;
+
+            definitionList = new SsaInsn[oldList.length];
+
+            for (int i = 0; i < oldList.length; i++) {
+                if (oldList[i] != null) {
+                    definitionList[i] = insnMap.get(oldList[i]);
+                }
+            }
+        }
+
+        if (old.useList != null) {
+            UseList[] oldList = old.useList;
+
+            useList = new UseList[oldList.length];
+
+            for (int i = 0; i < oldList.length; i++) {
+                if (oldList[i] != null) {
+                    useList[i] = oldList[i].copy(insnMap);
+                }
+            }
+        }
+    }
+
+    /**
+     * Makes a deep copy of this method, which can be changed without
+     * affecting this one. This lets the steps that two ways of
+     * finishing a method have in common be done just once. Liveness
+     * information is not copied; the back end recomputes it anyway.
+     *
+     * @return {@code non-null;} the copy
+     */
+    public SsaMethod copy() {
+        if (backMode) {
+            throw new RuntimeException("Can't copy in back mode");
+        }
+
+        return new SsaMethod(this);
+    }
+
     /**
      * Builds a BitSet of block indices from a basic block list and a list
      * of labels taken from Rop form.
@@ -309,6 +425,21 @@ public final class SsaMethod {
         return isStatic;
     }
 
+    /**
+     * @return true if local variable information should be preserved,
+     * even at code size/register size cost
+     */
+    public boolean getPreserveLocals() {
+        return preserveLocals;
+    }
+
+    /**
+     * @return {@code non-null;} translation advice
+     */
+    public TranslationAdvice getAdvice() {
+        return advice;
+    }
+
     /**
      * Borrows a register to use as a temp. Used in the phi removal process.
      * Call returnSpareRegisters() when done.
@@ -410,17 +541,17 @@ public final class SsaMethod {
     }
 
     /**
-     * Builds useList and unmodifiableUseList.
+     * Builds useList.
      */
     private void buildUseList() {
         if (backMode) {
             throw new RuntimeException("No use list in back mode");
         }
 
-        useList = new ArrayList[registerCount];
+        useList = new UseList[registerCount];
 
         for (int i = 0; i < registerCount; i++) {
-            useList[i] = new ArrayList();
+            useList[i] = new UseList();
         }
 
         forEachInsn(new SsaInsn.Visitor() {
@@ -445,16 +576,10 @@ public final class SsaMethod {
                 int sz = rl.size();
 
                 for (int i = 0; i < sz; i++) {
-                    useList[rl.get(i).getReg()].add(insn);
+                    useList[rl.get(i).getReg()].addUse(insn);
                 }
             }
         });
-
-        unmodifiableUseList = new List[registerCount];
-
-        for (int i = 0; i < registerCount; i++) {
-            unmodifiableUseList[i] = Collections.unmodifiableList(useList[i]);
-        }
     }
 
     /**
@@ -471,15 +596,15 @@ public final class SsaMethod {
 
         if (oldSource != null) {
             int reg = oldSource.getReg();
-            useList[reg].remove(insn);
+            useList[reg].removeUse(insn);
         }
 
         int reg = newSource.getReg();
-        if (useList.length <= reg) {
+        if (useList.length <= reg || useList[reg] == null) {
             useList = null;
             return;
         }
-        useList[reg].add(insn);
+        useList[reg].addUse(insn);
     }
 
     /**
@@ -503,7 +628,7 @@ public final class SsaMethod {
 
         for (int i = 0; i < szNew; i++) {
             int reg = sources.get(i).getReg();
-            useList[reg].add(insn);
+            useList[reg].addUse(insn);
         }
     }
 
@@ -523,7 +648,7 @@ public final class SsaMethod {
 
         int szNew = oldSources.size();
         for (int i = 0; i < szNew; i++) {
-            if (!useList[oldSources.get(i).getReg()].remove(insn)) {
+            if (!useList[oldSources.get(i).getReg()].removeUse(insn)) {
                 throw new RuntimeException("use not found");
             }
         }
@@ -535,7 +660,7 @@ public final class SsaMethod {
      *
      * @param insn {@code non-null;} insn to add
      */
-    /*package*/ void onInsnAdded(SsaInsn insn) {
+    public void onInsnAdded(SsaInsn insn) {
         onSourcesChanged(insn, null);
         updateOneDefinition(insn, null);
     }
@@ -570,7 +695,6 @@ public final class SsaMethod {
 
         // Use list will need to be recomputed
         useList = null;
-        unmodifiableUseList = null;
     }
 
     /**
@@ -611,11 +735,11 @@ public final class SsaMethod {
      */
     public List<SsaInsn> getUseListForRegister(int reg) {
 
-        if (unmodifiableUseList == null) {
+        if (useList == null) {
             buildUseList();
         }
 
-        return unmodifiableUseList[reg];
+        return useList[reg];
     }
 
     /**
@@ -632,7 +756,7 @@ public final class SsaMethod {
                 = (ArrayList<SsaInsn>[])(new ArrayList[registerCount]);
 
         for (int i = 0; i < registerCount; i++) {
-            useListCopy[i] = (ArrayList<SsaInsn>)(new ArrayList(useList[i]));
+            useListCopy[i] = new ArrayList<SsaInsn>(useList[i]);
         }
 
         return useListCopy;
@@ -689,7 +813,30 @@ public final class SsaMethod {
     public int makeNewSsaReg() {
         int reg = registerCount++;
         spareRegisterBase = registerCount;
-        onInsnsChanged();
+
+        /*
+         * The new register has neither a definition nor any uses yet,
+         * so rather than throwing the def and use lists away, just
+         * make room for it.
+         */
+
+        if (definitionList != null && definitionList.length <= reg) {
+            SsaInsn[] newList = new SsaInsn[registerCount * 2];
+            System.arraycopy(definitionList, 0, newList, 0,
+                    definitionList.length);
+            definitionList = newList;
+        }
+
+        if (useList != null) {
+            if (useList.length <= reg) {
+                UseList[] newList = new UseList[registerCount * 2];
+                System.arraycopy(useList, 0, newList, 0, useList.length);
+                useList = newList;
+            }
+
+            useList[reg] = new UseList();
+        }
+
         return reg;
     }
 
@@ -835,4 +982,109 @@ public final class SsaMethod {
         useList = null;
         definitionList = null;
     }
+
+    /**
+     * List of the insns that use a register. Most registers in SSA
+     * form have only one or two uses, so this keeps them in a plain
+     * array that starts out small and grows by doubling, and is
+     * itself the unmodifiable view handed out by {@link
+     * #getUseListForRegister}, rather than being wrapped in one.
+     * The mutators are private to {@link SsaMethod}.
+     */
+    private static final class UseList extends AbstractList<SsaInsn>
+            implements RandomAccess {
+        /** {@code non-null;} shared zero-length array */
+        private static final SsaInsn[] EMPTY_ARRAY = new SsaInsn[0];
+
+        /** {@code non-null;} the uses; only the first {@link #size} count */
+        private SsaInsn[] insns;
+
+        /** {@code >= 0;} number of uses */
+        private int size;
+
+        /**
+         * Constructs an empty instance.
+         */
+        UseList() {
+            insns = EMPTY_ARRAY;
+            size = 0;
+        }
+
+        /**
+         * Makes a copy of this instance for a copy of its method.
+         *
+         * @param insnMap {@code non-null;} map from the insns of the
+         * old method to those of the new one
+         * @return {@code non-null;} the copy
+         */
+        UseList copy(Map<SsaInsn, SsaInsn> insnMap) {
+            UseList result = new UseList();
+
+            if (size != 0) {
+                result.insns = new SsaInsn[insns.length];
+
+                for (int i = 0; i < size; i++) {
+                    result.insns[i] = insnMap.get(insns[i]);
+                }
+
+                result.size = size;
+            }
+
+            return result;
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        public SsaInsn get(int n) {
+            if (n >= size) {
+                throw new IndexOutOfBoundsException("n >= size()");
+            }
+
+            return insns[n];
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        public int size() {
+            return size;
+        }
+
+        /**
+         * Appends a use.
+         *
+         * @param insn {@code non-null;} the using insn
+         */
+        void addUse(SsaInsn insn) {
+            if (size == insns.length) {
+                SsaInsn[] newInsns = new SsaInsn[size * 2 + 2];
+                System.arraycopy(insns, 0, newInsns, 0, size);
+                insns = newInsns;
+            }
+
+            insns[size] = insn;
+            size++;
+            modCount++;
+        }
+
+        /**
+         * Removes the first occurrence of the given insn, keeping the
+         * order of the remaining ones.
+         *
+         * @param insn {@code non-null;} the using insn
+         * @return {@code true} if it was found
+         */
+        boolean removeUse(SsaInsn insn) {
+            for (int i = 0; i < size; i++) {
+                if (insns[i] == insn) {
+                    size--;
+                    System.arraycopy(insns, i + 1, insns, i, size - i);
+                    insns[size] = null;
+                    modCount++;
+                    return true;
+                }
+            }
+
+            return false;
+        }
+    }
 }
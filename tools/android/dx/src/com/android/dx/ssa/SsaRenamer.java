@@ -75,6 +75,13 @@ public class SsaRenamer implements Runnable {
      */
     private final RegisterSpec[][] startsForBlocks;
 
+    /**
+     * register mappings of blocks that have been processed and had no
+     * dom children to pass them on to, reused for the start states of
+     * later blocks instead of allocating a new array for each.
+     */
+    private final ArrayList<RegisterSpec[]> freeMappings;
+
     /** map of SSA register number to debug (local var names) or null of n/a */
     private final ArrayList<LocalItem> ssaRegToLocalItems;
 
@@ -101,6 +108,7 @@ public class SsaRenamer implements Runnable {
          */
         nextSsaReg = ropRegCount;
         startsForBlocks = new RegisterSpec[ssaMeth.getBlocks().size()][];
+        freeMappings = new ArrayList<RegisterSpec[]>();
 
         ssaRegToLocalItems = new ArrayList<LocalItem>();
 
@@ -170,13 +178,17 @@ public class SsaRenamer implements Runnable {
     }
 
     /**
-     * Duplicates a RegisterSpec array.
+     * Duplicates a RegisterSpec array, reusing one that is no longer
+     * needed if there is one.
      *
      * @param orig {@code non-null;} array to duplicate
-     * @return {@code non-null;} new instance
+     * @return {@code non-null;} a copy that is not shared with anything
      */
-    private static  RegisterSpec[] dupArray(RegisterSpec[] orig) {
-        RegisterSpec[] copy = new RegisterSpec[orig.length];
+    private RegisterSpec[] dupArray(RegisterSpec[] orig) {
+        int szFree = freeMappings.size();
+        RegisterSpec[] copy = (szFree == 0)
+                ? new RegisterSpec[orig.length]
+                : freeMappings.remove(szFree - 1);
 
         System.arraycopy(orig, 0, copy, 0, orig.length);
 
@@ -373,7 +385,12 @@ public class SsaRenamer implements Runnable {
                 }
             }
 
-            // currentMapping is owned by a child now.
+            if (first) {
+                // No child took currentMapping, so it can be reused.
+                freeMappings.add(currentMapping);
+            }
+
+            // Otherwise currentMapping is owned by a child now.
         }
 
         /**
@@ -503,7 +520,7 @@ public class SsaRenamer implements Runnable {
                     = RegisterSpec.makeLocalOptional(
                         ssaSourceReg, ropResult.getType(), newLocal);
 
-            if (!Optimizer.getPreserveLocals() || (onlyOneAssociatedLocal
+            if (!ssaMeth.getPreserveLocals() || (onlyOneAssociatedLocal
                     && equalsHandlesNulls(newLocal, sourceLocal))) {
                 /*
                  * We don't have to keep this move to preserve local
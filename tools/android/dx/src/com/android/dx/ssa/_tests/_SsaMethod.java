@@ -0,0 +1,66 @@
+/*
+ * Copyright (C) 2007 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.dx.ssa._tests;
+
+import com.android.dx.rop.code.DexTranslationAdvice;
+import com.android.dx.rop.code.RopMethod;
+import com.android.dx.ssa.Optimizer;
+import com.android.dx.ssa.SsaMethod;
+import com.android.dx.ssa.back.SsaToRop;
+import com.android.dx.util._tests.ClassFileFixture;
+
+import junit.framework.TestCase;
+
+import java.io.IOException;
+import java.util.EnumSet;
+
+/**
+ * Test the class {@code com.android.dx.ssa.SsaMethod}.
+ */
+public class _SsaMethod
+        extends TestCase {
+    /**
+     * Checks that a copy converts back to the same rop form as the
+     * original, with either allocation strategy, and that finishing
+     * the original first leaves the copy intact.
+     */
+    public void test_copy() throws IOException {
+        int count = ClassFileFixture.forEachMethod(
+                new ClassFileFixture.MethodVisitor() {
+            public void visit(String what, RopMethod rmeth, int paramWidth,
+                    boolean isStatic) {
+                for (int minimize = 0; minimize < 2; minimize++) {
+                    SsaMethod original = Optimizer.debugNoRegisterAllocation(
+                            rmeth, paramWidth, isStatic, true,
+                            DexTranslationAdvice.THE_ONE,
+                            EnumSet.allOf(Optimizer.OptionalStep.class));
+                    SsaMethod copy = original.copy();
+
+                    String expected = ClassFileFixture.toHuman(
+                            SsaToRop.convertToRopMethod(original,
+                                    minimize != 0));
+                    String actual = ClassFileFixture.toHuman(
+                            SsaToRop.convertToRopMethod(copy, minimize != 0));
+
+                    assertEquals(what, expected, actual);
+                }
+            }
+        });
+
+        assertTrue(count > 50);
+    }
+}
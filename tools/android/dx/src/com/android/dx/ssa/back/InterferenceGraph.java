@@ -16,29 +16,40 @@
 
 package com.android.dx.ssa.back;
 
-import com.android.dx.ssa.SsaMethod;
-import com.android.dx.ssa.SsaBasicBlock;
-import com.android.dx.ssa.SsaInsn;
-import com.android.dx.ssa.PhiInsn;
-import com.android.dx.ssa.SetFactory;
-import com.android.dx.rop.code.RegisterSpec;
-import com.android.dx.util.IntSet;
 import com.android.dx.util.BitIntSet;
-import com.android.dx.util.ListIntSet;
+import com.android.dx.util.IntList;
+import com.android.dx.util.IntSet;
+import com.android.dx.util.TriangularBitMatrix;
 
-import java.util.BitSet;
-import java.util.List;
 import java.util.ArrayList;
 
 /**
- * A register interference graph
+ * A register interference graph. Adjacency is kept as a list of
+ * neighbors per register, which is what the register allocators
+ * iterate over, and, for methods that aren't too big, as a triangular
+ * bit matrix, which makes adding an edge and testing for one cheap.
  */
 public class InterferenceGraph {
     /**
-     * {@code non-null;} interference graph, indexed by register in
-     * both dimensions
+     * Register count above which no bit matrix is kept. The matrix
+     * takes {@code n * (n + 1) / 2} bits, so 8192 registers cost
+     * 4mb. Above this, each adjacency list is kept sorted instead, so
+     * that duplicate edges can be found in it.
+     */
+    private static final int MATRIX_THRESHOLD_SIZE = 8192;
+
+    /**
+     * {@code null-ok;} the edges, indexed by register in both
+     * dimensions, or {@code null} if the graph is too big for this
      */
-    private final ArrayList<IntSet> interference;
+    private final TriangularBitMatrix matrix;
+
+    /**
+     * {@code non-null;} indexed by register: its neighbors, or {@code
+     * null} if it has none. These are in no particular order unless
+     * there is no {@link #matrix}, in which case they are sorted.
+     */
+    private final ArrayList<IntList> adjacency;
 
     /**
      * Creates a new graph.
@@ -47,10 +58,12 @@ public class InterferenceGraph {
      * the namespace. New registers can be added subsequently.
      */
     public InterferenceGraph(int countRegs) {
-        interference = new ArrayList<IntSet>(countRegs);
+        matrix = (countRegs <= MATRIX_THRESHOLD_SIZE)
+                ? new TriangularBitMatrix(countRegs) : null;
+        adjacency = new ArrayList<IntList>(countRegs);
 
         for (int i = 0; i < countRegs; i++) {
-            interference.add(SetFactory.makeInterferenceSet(countRegs));
+            adjacency.add(null);
         }
     }
 
@@ -64,22 +77,30 @@ public class InterferenceGraph {
     public void add(int regV, int regW) {
         ensureCapacity(Math.max(regV, regW) + 1);
 
-        interference.get(regV).add(regW);
-        interference.get(regW).add(regV);
+        if (matrix != null) {
+            if (matrix.set(regV, regW)) {
+                neighborsOf(regV).add(regW);
+                if (regV != regW) {
+                    neighborsOf(regW).add(regV);
+                }
+            }
+        } else {
+            addSorted(neighborsOf(regV), regW);
+            addSorted(neighborsOf(regW), regV);
+        }
     }
 
     /**
      * Dumps interference graph to stdout for debugging.
      */
     public void dumpToStdout() {
-        int oldRegCount = interference.size();
+        int oldRegCount = adjacency.size();
 
         for (int i = 0; i < oldRegCount; i++) {
-            StringBuilder sb = new StringBuilder();
+            IntSet set = new BitIntSet(oldRegCount);
 
-            sb.append("Reg " + i + ":" + interference.get(i).toString());
-
-            System.out.println(sb.toString());
+            mergeInterferenceSet(i, set);
+            System.out.println("Reg " + i + ":" + set.toString());
         }
     }
 
@@ -91,8 +112,49 @@ public class InterferenceGraph {
      * with set for given register
      */
     public void mergeInterferenceSet(int reg, IntSet set) {
-        if (reg < interference.size()) {
-            set.merge(interference.get(reg));
+        if (reg >= adjacency.size()) {
+            return;
+        }
+
+        IntList neighbors = adjacency.get(reg);
+
+        if (neighbors != null) {
+            int sz = neighbors.size();
+
+            for (int i = 0; i < sz; i++) {
+                set.add(neighbors.get(i));
+            }
+        }
+    }
+
+    /**
+     * Gets the neighbor list of a register, creating it if need be.
+     *
+     * @param reg {@code >= 0;} register
+     * @return {@code non-null;} its neighbors
+     */
+    private IntList neighborsOf(int reg) {
+        IntList neighbors = adjacency.get(reg);
+
+        if (neighbors == null) {
+            neighbors = new IntList(4);
+            adjacency.set(reg, neighbors);
+        }
+
+        return neighbors;
+    }
+
+    /**
+     * Adds a value to a sorted list, unless it is already there.
+     *
+     * @param list {@code non-null;} sorted list
+     * @param value value to add
+     */
+    private static void addSorted(IntList list, int value) {
+        int index = list.binarysearch(value);
+
+        if (index < 0) {
+            list.insert(-(index + 1), value);
         }
     }
 
@@ -102,12 +164,20 @@ public class InterferenceGraph {
      * @param size requested minumum size
      */
     private void ensureCapacity(int size) {
-        int countRegs = interference.size();
+        int countRegs = adjacency.size();
 
-        interference.ensureCapacity(size);
+        if (size <= countRegs) {
+            return;
+        }
+
+        adjacency.ensureCapacity(size);
 
         for (int i = countRegs; i < size; i++) {
-            interference.add(SetFactory.makeInterferenceSet(size));
+            adjacency.add(null);
+        }
+
+        if (matrix != null) {
+            matrix.ensureSize(size);
         }
     }
 }
@@ -87,6 +87,21 @@ public class LivenessAnalyzer {
      */
     public static InterferenceGraph constructInterferenceGraph(
             SsaMethod ssaMeth) {
+        return WholeMethodLivenessAnalyzer.constructInterferenceGraph(ssaMeth);
+    }
+
+    /**
+     * Runs register liveness algorithm for a method one register at a
+     * time, as in Appel. {@link #constructInterferenceGraph} now uses
+     * {@link WholeMethodLivenessAnalyzer} instead, which gets the same
+     * results faster; this is kept so that the two can be compared.
+     *
+     * @param ssaMeth {@code non-null;} method to process
+     * @return {@code non-null;} interference graph indexed by SSA
+     * registers in both directions
+     */
+    public static InterferenceGraph constructInterferenceGraphPerRegister(
+            SsaMethod ssaMeth) {
         int szRegs = ssaMeth.getRegCount();
         InterferenceGraph interference = new InterferenceGraph(szRegs);
 
@@ -252,10 +267,10 @@ public class LivenessAnalyzer {
      * as the result of another phi, and the phi removal move scheduler may
      * generate moves that over-write the live result.
      *
-     * @param ssaMeth {@code non-null;} method to pricess
+     * @param ssaMeth {@code non-null;} method to process
      * @param interference {@code non-null;} interference graph
      */
-    private static void coInterferePhis(SsaMethod ssaMeth,
+    /*package*/ static void coInterferePhis(SsaMethod ssaMeth,
             InterferenceGraph interference) {
         for (SsaBasicBlock b : ssaMeth.getBlocks()) {
             List<SsaInsn> phis = b.getPhiInsns();
@@ -190,7 +190,7 @@ public abstract class RegisterAllocator {
             interference.add(newReg, sources.get(i).getReg());
         }
 
-        ssaMeth.onInsnsChanged();
+        ssaMeth.onInsnAdded(toAdd);
 
         return newRegSpec;
     }
@@ -0,0 +1,385 @@
+/*
+ * Copyright (C) 2007 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.dx.ssa.back;
+
+import com.android.dx.rop.code.RegisterSpec;
+import com.android.dx.rop.code.RegisterSpecList;
+import com.android.dx.ssa.PhiInsn;
+import com.android.dx.ssa.SsaBasicBlock;
+import com.android.dx.ssa.SsaInsn;
+import com.android.dx.ssa.SsaMethod;
+import com.android.dx.util.IntIterator;
+import com.android.dx.util.IntList;
+
+import java.util.ArrayList;
+
+/**
+ * Calculates the live ranges of all the registers of a method in one
+ * pass over a shared worklist, and then builds the interference graph
+ * in a single backward sweep over each block.<p>
+ *
+ * This computes exactly what {@link LivenessAnalyzer} computes one
+ * register at a time: a register is live-out at a block if it is an
+ * operand of a phi in a successor for the edge from that block, or if
+ * it is live-in at any successor; it is live-in at a block if it is
+ * used there before being defined, or if it is live-out and not
+ * defined there. Phi operands are not uses in the block that holds the
+ * phi. The live in/out sets of each {@code SsaBasicBlock} are updated,
+ * and the resulting interference graph is identical.<p>
+ *
+ * Unlike {@code LivenessAnalyzer}, nothing here is allocated per
+ * register, so the cost is proportional to the total size of the
+ * live in/out sets and the number of instructions, not to the block
+ * count times the register count.
+ */
+public final class WholeMethodLivenessAnalyzer {
+    /** {@code non-null;} method to process */
+    private final SsaMethod ssaMeth;
+
+    /** {@code non-null;} the blocks of {@link #ssaMeth} */
+    private final ArrayList<SsaBasicBlock> blocks;
+
+    /** {@code >= 0;} count of registers in {@link #ssaMeth} */
+    private final int regCount;
+
+    /**
+     * {@code non-null;} indexed by register: index of the block that
+     * defines it, or {@code -1} if there is none
+     */
+    private final int[] defBlocks;
+
+    /** {@code non-null;} indexed by block: its predecessors */
+    private final IntList[] preds;
+
+    /**
+     * {@code non-null;} pending "register is live-out at block" facts,
+     * as pairs of block index and register
+     */
+    private final IntList worklist;
+
+    /** {@code non-null;} scratch set of live registers */
+    private final SparseSet live;
+
+    /**
+     * Runs register liveness analysis for a method, updating the
+     * live in/out information in {@code SsaBasicBlock} instances and
+     * returning an interference graph.
+     *
+     * @param ssaMeth {@code non-null;} method to process
+     * @return {@code non-null;} interference graph indexed by SSA
+     * registers in both directions
+     */
+    public static InterferenceGraph constructInterferenceGraph(
+            SsaMethod ssaMeth) {
+        InterferenceGraph interference =
+            new InterferenceGraph(ssaMeth.getRegCount());
+        WholeMethodLivenessAnalyzer analyzer =
+            new WholeMethodLivenessAnalyzer(ssaMeth);
+
+        analyzer.findLiveness();
+        analyzer.sweep(interference);
+
+        LivenessAnalyzer.coInterferePhis(ssaMeth, interference);
+
+        return interference;
+    }
+
+    /**
+     * Constructs an instance.
+     *
+     * @param ssaMeth {@code non-null;} method to process
+     */
+    private WholeMethodLivenessAnalyzer(SsaMethod ssaMeth) {
+        int szBlocks = ssaMeth.getBlocks().size();
+
+        this.ssaMeth = ssaMeth;
+        this.blocks = ssaMeth.getBlocks();
+        this.regCount = ssaMeth.getRegCount();
+        this.defBlocks = new int[regCount];
+        this.preds = new IntList[szBlocks];
+        this.worklist = new IntList();
+        this.live = new SparseSet(regCount);
+    }
+
+    /**
+     * Finds the live-in and live-out registers of every block.
+     */
+    private void findLiveness() {
+        int szBlocks = blocks.size();
+
+        /*
+         * The sets in the blocks double as the record of what is
+         * already known, so they have to start out empty.
+         */
+        for (int i = 0; i < szBlocks; i++) {
+            preds[i] = new IntList(2);
+            blocks.get(i).clearLiveness();
+        }
+
+        for (int i = 0; i < regCount; i++) {
+            defBlocks[i] = -1;
+        }
+
+        for (SsaBasicBlock block : blocks) {
+            int index = block.getIndex();
+            IntList succs = block.getSuccessorList();
+            int szSuccs = succs.size();
+
+            for (int i = 0; i < szSuccs; i++) {
+                IntList succPreds = preds[succs.get(i)];
+                int szSuccPreds = succPreds.size();
+
+                // A switch may list the same successor more than once.
+                if (szSuccPreds == 0
+                        || succPreds.get(szSuccPreds - 1) != index) {
+                    succPreds.add(index);
+                }
+            }
+
+            for (SsaInsn insn : block.getInsns()) {
+                RegisterSpec result = insn.getResult();
+
+                if (result != null) {
+                    defBlocks[result.getReg()] = index;
+                }
+            }
+        }
+
+        for (SsaBasicBlock block : blocks) {
+            addLocalLiveness(block);
+
+            while (worklist.size() > 0) {
+                int reg = worklist.pop();
+                int blockIndex = worklist.pop();
+
+                liveOutAtBlock(blockIndex, reg);
+            }
+        }
+    }
+
+    /**
+     * Seeds the liveness of the registers that a block uses before
+     * defining them, and of the phi operands it holds.
+     *
+     * @param block {@code non-null;} block to process
+     */
+    private void addLocalLiveness(SsaBasicBlock block) {
+        ArrayList<SsaInsn> insns = block.getInsns();
+
+        live.clear();
+
+        for (int i = insns.size() - 1; i >= 0; i--) {
+            SsaInsn insn = insns.get(i);
+            RegisterSpec result = insn.getResult();
+            RegisterSpecList sources = insn.getSources();
+            int szSources = sources.size();
+
+            if (result != null) {
+                live.remove(result.getReg());
+            }
+
+            if (insn instanceof PhiInsn) {
+                // Phi operands are live-out at the matching predecessor.
+                PhiInsn phi = (PhiInsn) insn;
+
+                for (int j = 0; j < szSources; j++) {
+                    worklist.add(phi.predBlockIndexForSourcesIndex(j));
+                    worklist.add(sources.get(j).getReg());
+                }
+            } else {
+                for (int j = 0; j < szSources; j++) {
+                    live.add(sources.get(j).getReg());
+                }
+            }
+        }
+
+        int sz = live.size();
+        for (int i = 0; i < sz; i++) {
+            liveInAtBlock(block.getIndex(), live.get(i));
+        }
+    }
+
+    /**
+     * "reg is live-out at block": unless already known, records it and
+     * carries it on to the start of the block, if it isn't defined there.
+     *
+     * @param blockIndex {@code >= 0;} index of the block
+     * @param reg {@code >= 0;} register
+     */
+    private void liveOutAtBlock(int blockIndex, int reg) {
+        SsaBasicBlock block = blocks.get(blockIndex);
+
+        if (block.getLiveOutRegs().has(reg)) {
+            return;
+        }
+
+        block.addLiveOut(reg);
+
+        if (defBlocks[reg] != blockIndex) {
+            liveInAtBlock(blockIndex, reg);
+        }
+    }
+
+    /**
+     * "reg is live-in at block": unless already known, records it and
+     * queues it as live-out at each predecessor.
+     *
+     * @param blockIndex {@code >= 0;} index of the block
+     * @param reg {@code >= 0;} register
+     */
+    private void liveInAtBlock(int blockIndex, int reg) {
+        SsaBasicBlock block = blocks.get(blockIndex);
+
+        if (block.getLiveInRegs().has(reg)) {
+            return;
+        }
+
+        block.addLiveIn(reg);
+
+        IntList blockPreds = preds[blockIndex];
+        int szPreds = blockPreds.size();
+
+        for (int i = 0; i < szPreds; i++) {
+            worklist.add(blockPreds.get(i));
+            worklist.add(reg);
+        }
+    }
+
+    /**
+     * Walks each block backwards from its live-out set, making each
+     * result interfere with whatever else is live-out at its
+     * definition.
+     *
+     * @param interference {@code non-null;} graph to update
+     */
+    private void sweep(InterferenceGraph interference) {
+        for (SsaBasicBlock block : blocks) {
+            ArrayList<SsaInsn> insns = block.getInsns();
+
+            live.clear();
+            for (IntIterator iter = block.getLiveOutRegs().iterator();
+                 iter.hasNext(); ) {
+                live.add(iter.next());
+            }
+
+            for (int i = insns.size() - 1; i >= 0; i--) {
+                SsaInsn insn = insns.get(i);
+                RegisterSpec result = insn.getResult();
+
+                if (result != null) {
+                    int resultReg = result.getReg();
+
+                    live.remove(resultReg);
+
+                    int sz = live.size();
+                    for (int j = 0; j < sz; j++) {
+                        interference.add(live.get(j), resultReg);
+                    }
+                }
+
+                if (!(insn instanceof PhiInsn)) {
+                    RegisterSpecList sources = insn.getSources();
+                    int szSources = sources.size();
+
+                    for (int j = 0; j < szSources; j++) {
+                        live.add(sources.get(j).getReg());
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Set of registers with constant time add, remove, membership
+     * and clear, and iteration over just its members, as in Briggs
+     * and Torczon, "An Efficient Representation for Sparse Sets".
+     */
+    private static final class SparseSet {
+        /** {@code non-null;} the members, in no particular order */
+        private final int[] members;
+
+        /** {@code non-null;} indexed by register: its index in members */
+        private final int[] indices;
+
+        /** {@code >= 0;} count of members */
+        private int size;
+
+        /**
+         * Constructs an instance.
+         *
+         * @param max {@code >= 0;} the maximum register, exclusive
+         */
+        SparseSet(int max) {
+            members = new int[max];
+            indices = new int[max];
+        }
+
+        /**
+         * @return {@code >= 0;} the count of members
+         */
+        int size() {
+            return size;
+        }
+
+        /**
+         * @param n {@code >= 0, < size();} which member
+         * @return the member
+         */
+        int get(int n) {
+            return members[n];
+        }
+
+        /**
+         * @param reg {@code >= 0;} register to check
+         * @return whether it is a member
+         */
+        boolean has(int reg) {
+            int at = indices[reg];
+
+            return at < size && members[at] == reg;
+        }
+
+        /**
+         * @param reg {@code >= 0;} register to add
+         */
+        void add(int reg) {
+            if (!has(reg)) {
+                indices[reg] = size;
+                members[size++] = reg;
+            }
+        }
+
+        /**
+         * @param reg {@code >= 0;} register to remove
+         */
+        void remove(int reg) {
+            if (has(reg)) {
+                int last = members[--size];
+
+                members[indices[reg]] = last;
+                indices[last] = indices[reg];
+            }
+        }
+
+        /**
+         * Removes all members.
+         */
+        void clear() {
+            size = 0;
+        }
+    }
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright (C) 2007 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.dx.ssa.back._tests;
+
+import com.android.dx.rop.code.DexTranslationAdvice;
+import com.android.dx.rop.code.RopMethod;
+import com.android.dx.ssa.Optimizer;
+import com.android.dx.ssa.SsaBasicBlock;
+import com.android.dx.ssa.SsaMethod;
+import com.android.dx.ssa.back.InterferenceGraph;
+import com.android.dx.ssa.back.WholeMethodLivenessAnalyzer;
+import com.android.dx.ssa.back.LivenessAnalyzer;
+import com.android.dx.util.BitIntSet;
+import com.android.dx.util._tests.ClassFileFixture;
+
+import junit.framework.TestCase;
+
+import java.io.IOException;
+import java.util.ArrayList;
+
+/**
+ * Test the class {@code com.android.dx.ssa.back.WholeMethodLivenessAnalyzer},
+ * by checking that it agrees with {@code LivenessAnalyzer} on the
+ * methods of the test classes, which have loops, switches and exception
+ * handlers.
+ */
+public class _WholeMethodLivenessAnalyzer
+        extends TestCase {
+    public void test_sameAsPerRegister() throws IOException {
+        int count = ClassFileFixture.forEachMethod(
+                new ClassFileFixture.MethodVisitor() {
+            public void visit(String what, RopMethod rmeth, int paramWidth,
+                    boolean isStatic) {
+                SsaMethod expectedMeth = Optimizer.debugDeadCodeRemover(
+                        rmeth, paramWidth, isStatic, true,
+                        DexTranslationAdvice.THE_ONE);
+                SsaMethod actualMeth = Optimizer.debugDeadCodeRemover(
+                        rmeth, paramWidth, isStatic, true,
+                        DexTranslationAdvice.THE_ONE);
+
+                InterferenceGraph expected =
+                    LivenessAnalyzer.constructInterferenceGraphPerRegister(
+                            expectedMeth);
+                InterferenceGraph actual =
+                    WholeMethodLivenessAnalyzer.constructInterferenceGraph(
+                            actualMeth);
+
+                assertSameLiveness(what, expectedMeth, actualMeth);
+                assertSameGraph(what, expectedMeth.getRegCount(),
+                        expected, actual);
+            }
+        });
+
+        assertTrue(count > 50);
+    }
+
+    /**
+     * Checks that the live in/out sets of all blocks are the same.
+     */
+    private static void assertSameLiveness(String what,
+            SsaMethod expected, SsaMethod actual) {
+        ArrayList<SsaBasicBlock> expectedBlocks = expected.getBlocks();
+        ArrayList<SsaBasicBlock> actualBlocks = actual.getBlocks();
+        int sz = expectedBlocks.size();
+
+        assertEquals(what, sz, actualBlocks.size());
+
+        for (int i = 0; i < sz; i++) {
+            SsaBasicBlock e = expectedBlocks.get(i);
+            SsaBasicBlock a = actualBlocks.get(i);
+
+            assertEquals(what + " live-in of block " + i,
+                    e.getLiveInRegs().toString(),
+                    a.getLiveInRegs().toString());
+            assertEquals(what + " live-out of block " + i,
+                    e.getLiveOutRegs().toString(),
+                    a.getLiveOutRegs().toString());
+        }
+    }
+
+    /**
+     * Checks that the interference sets of all registers are the same.
+     */
+    private static void assertSameGraph(String what, int regCount,
+            InterferenceGraph expected, InterferenceGraph actual) {
+        for (int reg = 0; reg < regCount; reg++) {
+            BitIntSet e = new BitIntSet(regCount);
+            BitIntSet a = new BitIntSet(regCount);
+
+            expected.mergeInterferenceSet(reg, e);
+            actual.mergeInterferenceSet(reg, a);
+
+            assertEquals(what + " interference of v" + reg,
+                    e.toString(), a.toString());
+        }
+    }
+}
@@ -0,0 +1,339 @@
+/*
+ * Copyright (C) 2007 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.dx.util;
+
+import java.util.NoSuchElementException;
+
+/**
+ * A set of integers, represented by a sorted array of its elements
+ * while it is sparse, and by a bit set once that would take less
+ * space. Unlike {@link ListIntSet}, the elements are kept in a plain
+ * {@code int[]} and looked up by binary search, so large sparse sets
+ * stay cheap to query, and sets that fill up do not keep paying for
+ * insertions into the middle of a list.
+ */
+public final class HybridIntSet implements IntSet {
+    /** initial capacity of the sorted array */
+    private static final int INITIAL_CAPACITY = 4;
+
+    /** {@code >= 0;} the size to make the bit set when switching to one */
+    private int max;
+
+    /**
+     * {@code null-ok;} the elements in increasing order, in the first
+     * {@link #size} entries; {@code null} once the set is a bit set
+     */
+    private int[] values;
+
+    /** {@code >= 0;} the number of entries used in {@link #values} */
+    private int size;
+
+    /** {@code null-ok;} the bit set, {@code null} while the set is sparse */
+    private int[] bits;
+
+    /**
+     * Constructs an instance.
+     *
+     * @param max {@code >= 0;} the expected maximum value of ints in this
+     * set, exclusive; larger ones may still be added
+     */
+    public HybridIntSet(int max) {
+        this.max = max;
+        values = new int[INITIAL_CAPACITY];
+    }
+
+    /** @inheritDoc */
+    public void add(int value) {
+        if (bits != null) {
+            ensureCapacity(value);
+            Bits.set(bits, value, true);
+            return;
+        }
+
+        int index = search(value);
+
+        if (index >= 0) {
+            return;
+        }
+
+        index = -(index + 1);
+
+        if (size == values.length) {
+            int[] newValues = new int[size * 2];
+            System.arraycopy(values, 0, newValues, 0, size);
+            values = newValues;
+        }
+
+        System.arraycopy(values, index, values, index + 1, size - index);
+        values[index] = value;
+        size++;
+
+        if (value >= max) {
+            max = value + 1;
+        }
+
+        if (size > ((max + 0x1f) >> 5)) {
+            switchToBits();
+        }
+    }
+
+    /** @inheritDoc */
+    public void remove(int value) {
+        if (bits != null) {
+            if (value < Bits.getMax(bits)) {
+                Bits.set(bits, value, false);
+            }
+            return;
+        }
+
+        int index = search(value);
+
+        if (index >= 0) {
+            size--;
+            System.arraycopy(values, index + 1, values, index, size - index);
+        }
+    }
+
+    /** @inheritDoc */
+    public boolean has(int value) {
+        if (bits != null) {
+            return (value < Bits.getMax(bits)) && Bits.get(bits, value);
+        }
+
+        return search(value) >= 0;
+    }
+
+    /** @inheritDoc */
+    public void merge(IntSet other) {
+        int[] otherBits = null;
+
+        if (other instanceof HybridIntSet) {
+            HybridIntSet o = (HybridIntSet) other;
+
+            if (o.bits == null) {
+                if (bits == null) {
+                    mergeSorted(o.values, o.size);
+                } else {
+                    for (int i = 0; i < o.size; i++) {
+                        add(o.values[i]);
+                    }
+                }
+                return;
+            }
+
+            otherBits = o.bits;
+        } else if (other instanceof BitIntSet) {
+            otherBits = ((BitIntSet) other).bits;
+        }
+
+        if (otherBits != null) {
+            if (bits == null) {
+                switchToBits();
+            }
+            ensureCapacity(Bits.getMax(otherBits) - 1);
+            Bits.or(bits, otherBits);
+        } else {
+            IntIterator iter = other.iterator();
+            while (iter.hasNext()) {
+                add(iter.next());
+            }
+        }
+    }
+
+    /** @inheritDoc */
+    public int elements() {
+        if (bits != null) {
+            return Bits.bitCount(bits);
+        }
+
+        return size;
+    }
+
+    /** @inheritDoc */
+    public IntIterator iterator() {
+        if (bits != null) {
+            return new IntIterator() {
+                private int idx = Bits.findFirst(bits, 0);
+
+                /** @inheritDoc */
+                public boolean hasNext() {
+                    return idx >= 0;
+                }
+
+                /** @inheritDoc */
+                public int next() {
+                    if (!hasNext()) {
+                        throw new NoSuchElementException();
+                    }
+
+                    int ret = idx;
+
+                    idx = Bits.findFirst(bits, idx + 1);
+
+                    return ret;
+                }
+            };
+        }
+
+        return new IntIterator() {
+            private int idx = 0;
+
+            /** @inheritDoc */
+            public boolean hasNext() {
+                return idx < size;
+            }
+
+            /** @inheritDoc */
+            public int next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+
+                return values[idx++];
+            }
+        };
+    }
+
+    /** @inheritDoc */
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+
+        sb.append('{');
+
+        boolean first = true;
+        for (IntIterator iter = iterator(); iter.hasNext(); ) {
+            if (!first) {
+                sb.append(", ");
+            }
+            first = false;
+            sb.append(iter.next());
+        }
+
+        sb.append('}');
+
+        return sb.toString();
+    }
+
+    /**
+     * Finds a value in the sorted array.
+     *
+     * @param value value to find
+     * @return its index if it is there, otherwise {@code -(insertion
+     * point + 1)}, like {@link java.util.Arrays#binarySearch}
+     */
+    private int search(int value) {
+        int low = 0;
+        int high = size - 1;
+
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int midValue = values[mid];
+
+            if (midValue < value) {
+                low = mid + 1;
+            } else if (midValue > value) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+
+        return -(low + 1);
+    }
+
+    /**
+     * Merges another sorted array into the sorted array, switching to a
+     * bit set if the result is dense.
+     *
+     * @param other {@code non-null;} values in increasing order
+     * @param otherSize the number of entries used in {@code other}
+     */
+    private void mergeSorted(int[] other, int otherSize) {
+        if (otherSize == 0) {
+            return;
+        }
+
+        int[] merged = new int[Math.max(size + otherSize, INITIAL_CAPACITY)];
+        int i = 0;
+        int j = 0;
+        int k = 0;
+
+        while (i < size && j < otherSize) {
+            int a = values[i];
+            int b = other[j];
+
+            if (a < b) {
+                merged[k++] = a;
+                i++;
+            } else if (a > b) {
+                merged[k++] = b;
+                j++;
+            } else {
+                merged[k++] = a;
+                i++;
+                j++;
+            }
+        }
+
+        while (i < size) {
+            merged[k++] = values[i++];
+        }
+
+        while (j < otherSize) {
+            merged[k++] = other[j++];
+        }
+
+        values = merged;
+        size = k;
+
+        if (values[size - 1] >= max) {
+            max = values[size - 1] + 1;
+        }
+
+        if (size > ((max + 0x1f) >> 5)) {
+            switchToBits();
+        }
+    }
+
+    /**
+     * Switches from the sorted array to a bit set.
+     */
+    private void switchToBits() {
+        bits = Bits.makeBitSet(max);
+
+        for (int i = 0; i < size; i++) {
+            Bits.set(bits, values[i], true);
+        }
+
+        values = null;
+        size = 0;
+    }
+
+    /**
+     * Ensures that the bit set has the capacity to represent the given value.
+     *
+     * @param value {@code >= 0;} value to represent
+     */
+    private void ensureCapacity(int value) {
+        if (value >= Bits.getMax(bits)) {
+            int[] newBits = Bits.makeBitSet(
+                    Math.max(value + 1, 2 * Bits.getMax(bits)));
+            System.arraycopy(bits, 0, newBits, 0, bits.length);
+            bits = newBits;
+        }
+    }
+}
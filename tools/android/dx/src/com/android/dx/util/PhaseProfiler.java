@@ -0,0 +1,843 @@
+/*
+ * Copyright (C) 2007 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.dx.util;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.TreeMap;
+
+/**
+ * Records the wall time, CPU time and allocated bytes of each phase of
+ * translation, per class and per method, and per section of the output
+ * file, and writes them out as CSV or JSON.
+ *
+ * <p>At most one instance is active at a time. The pipeline brackets
+ * each phase with {@link #begin} and {@link #end}, which cost next to
+ * nothing when no instance is active. The class or method being worked
+ * on is tracked per thread, so that classes may be translated in
+ * parallel. CPU time and allocation are those of the current thread,
+ * and allocation is only known on VMs that report it (see {@link
+ * #currentThreadAllocatedBytes}).</p>
+ */
+public final class PhaseProfiler {
+    /** number of methods to flag as the slowest */
+    public static final int SLOWEST_COUNT = 20;
+
+    /**
+     * {@code null-ok;} method which gives the bytes allocated by a
+     * thread, if the VM has one
+     */
+    private static final Method GET_THREAD_ALLOCATED_BYTES =
+        findGetThreadAllocatedBytes();
+
+    /** {@code non-null;} source of thread timings */
+    private static final ThreadMXBean THREADS =
+        ManagementFactory.getThreadMXBean();
+
+    /** {@code null-ok;} the active instance, if any */
+    private static volatile PhaseProfiler active;
+
+    /** {@code non-null;} the record being worked on by each thread */
+    private static final ThreadLocal<Record> current =
+        new ThreadLocal<Record>();
+
+    /** {@code non-null;} class records, in the order they were started */
+    private final ArrayList<Record> classes;
+
+    /** {@code non-null;} section records, by name */
+    private final TreeMap<String, Record> sections;
+
+    /** Phases of translation. */
+    public static enum Phase {
+        /** parsing of the class file */
+        PARSE("parse"),
+
+        /** conversion of bytecode to rop form */
+        ROP("rop"),
+
+        /** conversion of rop form to SSA form */
+        SSA_CONVERT("ssa-convert"),
+
+        /** copying of SSA form, to be finished in more than one way */
+        SSA_COPY("ssa-copy"),
+
+        /** the {@code MOVE_PARAM_COMBINER} optimizer step */
+        MOVE_PARAM_COMBINER("move-param-combiner"),
+
+        /** the {@code SCCP} optimizer step */
+        SCCP("sccp"),
+
+        /** the {@code LITERAL_UPGRADE} optimizer step */
+        LITERAL_UPGRADE("literal-upgrade"),
+
+        /** the {@code CONST_COLLECTOR} optimizer step */
+        CONST_COLLECTOR("const-collector"),
+
+        /** dead code removal */
+        DEAD_CODE_REMOVER("dead-code-remover"),
+
+        /** phi type resolution */
+        PHI_TYPE_RESOLVER("phi-type-resolver"),
+
+        /** register allocation and conversion back to rop form */
+        REGISTER_ALLOCATION("register-allocation"),
+
+        /** translation of rop form to dalvik code */
+        DALVIK_TRANSLATION("dalvik-translation"),
+
+        /** preparation and placement of a section of the output */
+        SECTION_PREPARE("prepare"),
+
+        /** writing of a section of the output */
+        SECTION_WRITE("write");
+
+        /** {@code non-null;} name of the phase, in reports */
+        private final String label;
+
+        private Phase(String label) {
+            this.label = label;
+        }
+
+        /**
+         * Gets the name of the phase, as used in reports.
+         *
+         * @return {@code non-null;} the name
+         */
+        public String getLabel() {
+            return label;
+        }
+    }
+
+    /**
+     * Constructs an instance. It is not active until passed to {@link
+     * #setActive}.
+     */
+    public PhaseProfiler() {
+        classes = new ArrayList<Record>();
+        sections = new TreeMap<String, Record>();
+    }
+
+    /**
+     * Sets the active instance.
+     *
+     * @param profiler {@code null-ok;} the instance to record into, or
+     * {@code null} to stop recording
+     */
+    public static void setActive(PhaseProfiler profiler) {
+        active = profiler;
+    }
+
+    /**
+     * Starts recording for a class on the current thread. Phases
+     * ended on this thread until the matching {@link #exit} are
+     * charged to it.
+     *
+     * @param className {@code non-null;} name of the class
+     * @return {@code null-ok;} the record, or {@code null} if there is
+     * no active instance
+     */
+    public static Record enterClass(String className) {
+        PhaseProfiler profiler = active;
+
+        if (profiler == null) {
+            return null;
+        }
+
+        Record result = new Record(null, className, null);
+
+        synchronized (profiler.classes) {
+            profiler.classes.add(result);
+        }
+
+        current.set(result);
+        return result;
+    }
+
+    /**
+     * Starts recording for a method of the class being recorded on the
+     * current thread. Phases ended on this thread until the matching
+     * {@link #exit} are charged to it.
+     *
+     * @param methodName {@code non-null;} name and descriptor of the
+     * method
+     * @return {@code null-ok;} the record, or {@code null} if nothing
+     * is being recorded on this thread
+     */
+    public static Record enterMethod(String methodName) {
+        Record parent = current.get();
+
+        if ((parent == null) || (active == null)) {
+            return null;
+        }
+
+        Record result = new Record(parent, parent.className, methodName);
+
+        parent.methods.add(result);
+        current.set(result);
+        return result;
+    }
+
+    /**
+     * Stops recording for the given class or method, and goes back
+     * to recording for whatever was being recorded before it.
+     *
+     * @param record {@code null-ok;} result of the matching {@code
+     * enter*()} call
+     */
+    public static void exit(Record record) {
+        if (record != null) {
+            current.set(record.parent);
+        }
+    }
+
+    /**
+     * Continues recording on the current thread for a method entered
+     * on another one, so that work on the method can be spread over
+     * several threads. Recording goes back to what it was by passing
+     * the result to {@link #restore}.
+     *
+     * @param record {@code null-ok;} result of an {@link #enterMethod}
+     * call, or {@code null} to leave recording as it is
+     * @return {@code null-ok;} what was being recorded on the current
+     * thread
+     */
+    public static Record resume(Record record) {
+        Record previous = current.get();
+
+        if (record != null) {
+            current.set(record);
+        }
+
+        return previous;
+    }
+
+    /**
+     * Goes back to recording what was being recorded on the current
+     * thread before the matching {@link #resume}.
+     *
+     * @param previous {@code null-ok;} result of the matching {@code
+     * resume()} call
+     */
+    public static void restore(Record previous) {
+        current.set(previous);
+    }
+
+    /**
+     * Starts timing a phase on the current thread.
+     *
+     * @return {@code null-ok;} the start of the phase, to pass to
+     * {@code end()}, or {@code null} if there is no active instance
+     */
+    public static Sample begin() {
+        if (active == null) {
+            return null;
+        }
+
+        return new Sample();
+    }
+
+    /**
+     * Ends a phase started on the current thread, and charges it to
+     * the class or method being recorded on the current thread, if any.
+     *
+     * @param sample {@code null-ok;} result of the matching {@link
+     * #begin}
+     * @param phase {@code non-null;} the phase
+     */
+    public static void end(Sample sample, Phase phase) {
+        if (sample != null) {
+            sample.end(current.get(), phase);
+        }
+    }
+
+    /**
+     * Ends a phase started on the current thread, and charges it to
+     * the given section of the output. A section may be worked on by
+     * several threads, and its times add up.
+     *
+     * @param sample {@code null-ok;} result of the matching {@link
+     * #begin}
+     * @param section {@code non-null;} name of the section
+     * @param phase {@code non-null;} the phase
+     */
+    public static void end(Sample sample, String section, Phase phase) {
+        PhaseProfiler profiler = active;
+
+        if ((sample == null) || (profiler == null)) {
+            return;
+        }
+
+        Record record;
+
+        synchronized (profiler.sections) {
+            record = profiler.sections.get(section);
+            if (record == null) {
+                record = new Record(null, null, section);
+                profiler.sections.put(section, record);
+            }
+        }
+
+        sample.end(record, phase);
+    }
+
+    /**
+     * Gets the CPU time used so far by the current thread.
+     *
+     * @return {@code >= -1;} the time in nanoseconds, or {@code -1} if
+     * unknown
+     */
+    public static long currentThreadCpuTime() {
+        if (!THREADS.isCurrentThreadCpuTimeSupported()) {
+            return -1;
+        }
+
+        return THREADS.getCurrentThreadCpuTime();
+    }
+
+    /**
+     * Gets the number of bytes allocated so far by the current thread.
+     * This relies on a non-standard extension of {@link ThreadMXBean}
+     * which not all VMs have.
+     *
+     * @return {@code >= -1;} the count, or {@code -1} if unknown
+     */
+    public static long currentThreadAllocatedBytes() {
+        if (GET_THREAD_ALLOCATED_BYTES == null) {
+            return -1;
+        }
+
+        try {
+            Object result = GET_THREAD_ALLOCATED_BYTES.invoke(THREADS,
+                    Thread.currentThread().getId());
+            return ((Long) result).longValue();
+        } catch (Exception ex) {
+            return -1;
+        }
+    }
+
+    /**
+     * Looks up the method which gives the bytes allocated by a thread.
+     *
+     * @return {@code null-ok;} the method, if available
+     */
+    private static Method findGetThreadAllocatedBytes() {
+        try {
+            Class<?> c = Class.forName("com.sun.management.ThreadMXBean");
+
+            if (!c.isInstance(ManagementFactory.getThreadMXBean())) {
+                return null;
+            }
+
+            return c.getMethod("getThreadAllocatedBytes", long.class);
+        } catch (Exception ex) {
+            return null;
+        } catch (LinkageError ex) {
+            return null;
+        }
+    }
+
+    /**
+     * Gets the recorded methods that took the most wall time, slowest
+     * first.
+     *
+     * @param count {@code >= 0;} the most methods to return
+     * @return {@code non-null;} the methods
+     */
+    public ArrayList<Record> getSlowestMethods(int count) {
+        ArrayList<Record> all = new ArrayList<Record>();
+
+        for (Record one : getClasses()) {
+            all.addAll(one.methods);
+        }
+
+        Collections.sort(all, new Comparator<Record>() {
+            public int compare(Record r1, Record r2) {
+                long w1 = r1.getTotal(Record.WALL);
+                long w2 = r2.getTotal(Record.WALL);
+                return (w1 > w2) ? -1 : ((w1 < w2) ? 1 : 0);
+            }
+        });
+
+        while (all.size() > count) {
+            all.remove(all.size() - 1);
+        }
+
+        return all;
+    }
+
+    /**
+     * Writes all the records as CSV: one row per section, per class
+     * and per method, with the totals followed by the figures for each
+     * phase. The rows of a class include its methods. The slowest
+     * methods are flagged with their rank.
+     *
+     * @param out {@code non-null;} where to write to
+     */
+    public void writeCsv(Writer out) throws IOException {
+        Phase[] phases = Phase.values();
+        IdentityHashMap<Record, Integer> ranks = getSlowestRanks();
+
+        out.write("kind,class,method,slowest_rank,wall_ns,cpu_ns,alloc_bytes");
+        for (Phase phase : phases) {
+            String label = phase.getLabel();
+            out.write("," + label + "_wall_ns," + label + "_cpu_ns," +
+                    label + "_alloc_bytes");
+        }
+        out.write('\n');
+
+        for (Record one : getSections()) {
+            writeCsvRow(out, "section", one, null);
+        }
+
+        for (Record one : getClasses()) {
+            writeCsvRow(out, "class", one, null);
+            for (Record method : one.methods) {
+                writeCsvRow(out, "method", method, ranks.get(method));
+            }
+        }
+
+        out.flush();
+    }
+
+    /**
+     * Writes one row of the CSV output.
+     *
+     * @param out {@code non-null;} where to write to
+     * @param kind {@code non-null;} what sort of record it is
+     * @param record {@code non-null;} the record
+     * @param rank {@code null-ok;} rank among the slowest methods
+     */
+    private static void writeCsvRow(Writer out, String kind, Record record,
+            Integer rank) throws IOException {
+        StringBuilder sb = new StringBuilder(200);
+
+        sb.append(kind);
+        sb.append(',');
+        appendCsv(sb, record.className);
+        sb.append(',');
+        appendCsv(sb, record.methodName);
+        sb.append(',');
+        if (rank != null) {
+            sb.append(rank);
+        }
+
+        for (int i = 0; i < Record.MEASURE_COUNT; i++) {
+            sb.append(',');
+            sb.append(record.getTotal(i));
+        }
+
+        for (Phase phase : Phase.values()) {
+            for (int i = 0; i < Record.MEASURE_COUNT; i++) {
+                sb.append(',');
+                sb.append(record.getTotal(phase, i));
+            }
+        }
+
+        sb.append('\n');
+        out.write(sb.toString());
+    }
+
+    /**
+     * Appends a CSV field, quoting it if necessary.
+     *
+     * @param sb {@code non-null;} where to append
+     * @param value {@code null-ok;} the field, or {@code null} if empty
+     */
+    private static void appendCsv(StringBuilder sb, String value) {
+        if (value == null) {
+            return;
+        }
+
+        if ((value.indexOf(',') < 0) && (value.indexOf('"') < 0)) {
+            sb.append(value);
+            return;
+        }
+
+        sb.append('"');
+        sb.append(value.replace("\"", "\"\""));
+        sb.append('"');
+    }
+
+    /**
+     * Writes all the records as a JSON object. It has the phase
+     * names, the slowest methods, and the sections and classes, each
+     * class with its methods. Phases without any time or allocation
+     * are left out of each record.
+     *
+     * @param out {@code non-null;} where to write to
+     */
+    public void writeJson(Writer out) throws IOException {
+        StringBuilder sb = new StringBuilder(4096);
+        boolean first;
+
+        sb.append("{\n  \"phases\": [");
+        first = true;
+        for (Phase phase : Phase.values()) {
+            if (!first) {
+                sb.append(", ");
+            }
+            first = false;
+            appendJson(sb, phase.getLabel());
+        }
+        sb.append("],\n");
+
+        sb.append("  \"slowest_methods\": [");
+        first = true;
+        for (Record one : getSlowestMethods(SLOWEST_COUNT)) {
+            sb.append(first ? "\n" : ",\n");
+            first = false;
+            sb.append("    {\"class\": ");
+            appendJson(sb, one.className);
+            sb.append(", \"method\": ");
+            appendJson(sb, one.methodName);
+            sb.append(", \"wall_ns\": ");
+            sb.append(one.getTotal(Record.WALL));
+            sb.append('}');
+        }
+        sb.append("\n  ],\n");
+
+        sb.append("  \"sections\": [");
+        first = true;
+        for (Record one : getSections()) {
+            sb.append(first ? "\n" : ",\n");
+            first = false;
+            sb.append("    {\"name\": ");
+            appendJson(sb, one.methodName);
+            appendJsonFigures(sb, one);
+            sb.append('}');
+        }
+        sb.append("\n  ],\n");
+
+        out.write(sb.toString());
+        sb.setLength(0);
+
+        sb.append("  \"classes\": [");
+        first = true;
+        for (Record one : getClasses()) {
+            sb.append(first ? "\n" : ",\n");
+            first = false;
+            sb.append("    {\"name\": ");
+            appendJson(sb, one.className);
+            appendJsonFigures(sb, one);
+            sb.append(", \"methods\": [");
+
+            boolean firstMethod = true;
+            for (Record method : one.methods) {
+                sb.append(firstMethod ? "\n" : ",\n");
+                firstMethod = false;
+                sb.append("      {\"name\": ");
+                appendJson(sb, method.methodName);
+                appendJsonFigures(sb, method);
+                sb.append('}');
+            }
+
+            sb.append(firstMethod ? "]}" : "\n    ]}");
+
+            // Don't let the whole thing build up in memory.
+            out.write(sb.toString());
+            sb.setLength(0);
+        }
+        sb.append("\n  ]\n}\n");
+
+        out.write(sb.toString());
+        out.flush();
+    }
+
+    /**
+     * Appends the totals and per-phase figures of a record, as the
+     * members {@code "total"} and {@code "phases"} of a JSON object.
+     *
+     * @param sb {@code non-null;} where to append
+     * @param record {@code non-null;} the record
+     */
+    private static void appendJsonFigures(StringBuilder sb, Record record) {
+        sb.append(", \"total\": ");
+        appendJsonMeasures(sb, record.getTotal(Record.WALL),
+                record.getTotal(Record.CPU), record.getTotal(Record.ALLOC));
+        sb.append(", \"phases\": {");
+
+        boolean first = true;
+        for (Phase phase : Phase.values()) {
+            long wall = record.getTotal(phase, Record.WALL);
+            long cpu = record.getTotal(phase, Record.CPU);
+            long alloc = record.getTotal(phase, Record.ALLOC);
+
+            if ((wall | cpu | alloc) == 0) {
+                continue;
+            }
+
+            if (!first) {
+                sb.append(", ");
+            }
+            first = false;
+
+            appendJson(sb, phase.getLabel());
+            sb.append(": ");
+            appendJsonMeasures(sb, wall, cpu, alloc);
+        }
+
+        sb.append('}');
+    }
+
+    /**
+     * Appends one set of measures as a JSON object.
+     *
+     * @param sb {@code non-null;} where to append
+     * @param wall wall time, in nanoseconds
+     * @param cpu CPU time, in nanoseconds
+     * @param alloc allocated bytes
+     */
+    private static void appendJsonMeasures(StringBuilder sb, long wall,
+            long cpu, long alloc) {
+        sb.append("{\"wall_ns\": ");
+        sb.append(wall);
+        sb.append(", \"cpu_ns\": ");
+        sb.append(cpu);
+        sb.append(", \"alloc_bytes\": ");
+        sb.append(alloc);
+        sb.append('}');
+    }
+
+    /**
+     * Appends a JSON string.
+     *
+     * @param sb {@code non-null;} where to append
+     * @param value {@code null-ok;} the string, or {@code null} for
+     * JSON's {@code null}
+     */
+    private static void appendJson(StringBuilder sb, String value) {
+        if (value == null) {
+            sb.append("null");
+            return;
+        }
+
+        sb.append('"');
+
+        int len = value.length();
+        for (int i = 0; i < len; i++) {
+            char c = value.charAt(i);
+
+            if ((c == '"') || (c == '\\')) {
+                sb.append('\\');
+                sb.append(c);
+            } else if (c < 0x20) {
+                sb.append("\\u00");
+                sb.append(Hex.u1(c).toLowerCase());
+            } else {
+                sb.append(c);
+            }
+        }
+
+        sb.append('"');
+    }
+
+    /**
+     * Gets the ranks of the slowest methods.
+     *
+     * @return {@code non-null;} map from each of the slowest methods to
+     * its rank, from {@code 1}
+     */
+    private IdentityHashMap<Record, Integer> getSlowestRanks() {
+        IdentityHashMap<Record, Integer> result =
+            new IdentityHashMap<Record, Integer>();
+        int rank = 1;
+
+        for (Record one : getSlowestMethods(SLOWEST_COUNT)) {
+            result.put(one, rank);
+            rank++;
+        }
+
+        return result;
+    }
+
+    /**
+     * Gets a snapshot of the class records, sorted by name.
+     *
+     * @return {@code non-null;} the records
+     */
+    private ArrayList<Record> getClasses() {
+        ArrayList<Record> result;
+
+        synchronized (classes) {
+            result = new ArrayList<Record>(classes);
+        }
+
+        Collections.sort(result, new Comparator<Record>() {
+            public int compare(Record r1, Record r2) {
+                return r1.className.compareTo(r2.className);
+            }
+        });
+
+        return result;
+    }
+
+    /**
+     * Gets a snapshot of the section records, sorted by name.
+     *
+     * @return {@code non-null;} the records
+     */
+    private ArrayList<Record> getSections() {
+        synchronized (sections) {
+            return new ArrayList<Record>(sections.values());
+        }
+    }
+
+    /**
+     * The start of a phase on some thread.
+     */
+    public static final class Sample {
+        /** wall clock at the start, in nanoseconds */
+        private final long wall;
+
+        /** CPU time of the thread at the start, in nanoseconds */
+        private final long cpu;
+
+        /** bytes allocated by the thread at the start */
+        private final long alloc;
+
+        /**
+         * Constructs an instance, reading the clocks now.
+         */
+        private Sample() {
+            this.alloc = currentThreadAllocatedBytes();
+            this.cpu = currentThreadCpuTime();
+            this.wall = System.nanoTime();
+        }
+
+        /**
+         * Ends the phase, charging it to the given record.
+         *
+         * @param record {@code null-ok;} record to charge, if any
+         * @param phase {@code non-null;} the phase
+         */
+        private void end(Record record, Phase phase) {
+            long wallNow = System.nanoTime();
+            long cpuNow = currentThreadCpuTime();
+            long allocNow = currentThreadAllocatedBytes();
+
+            if (record != null) {
+                record.add(phase, wallNow - wall,
+                        (cpu < 0) ? 0 : (cpuNow - cpu),
+                        (alloc < 0) ? 0 : (allocNow - alloc));
+            }
+        }
+    }
+
+    /**
+     * Figures for one class, method or section of the output.
+     */
+    public static final class Record {
+        /** index of wall time among the measures */
+        private static final int WALL = 0;
+
+        /** index of CPU time among the measures */
+        private static final int CPU = 1;
+
+        /** index of allocated bytes among the measures */
+        private static final int ALLOC = 2;
+
+        /** number of measures */
+        private static final int MEASURE_COUNT = 3;
+
+        /** {@code null-ok;} enclosing record of a method */
+        private final Record parent;
+
+        /** {@code null-ok;} name of the class, if not a section */
+        private final String className;
+
+        /** {@code null-ok;} name of the method or section */
+        private final String methodName;
+
+        /** {@code non-null;} methods of a class */
+        private final ArrayList<Record> methods;
+
+        /** {@code non-null;} measures, indexed by phase and measure */
+        private final long[] totals;
+
+        /**
+         * Constructs an instance.
+         *
+         * @param parent {@code null-ok;} enclosing class of a method
+         * @param className {@code null-ok;} name of the class
+         * @param methodName {@code null-ok;} name of the method or section
+         */
+        private Record(Record parent, String className, String methodName) {
+            this.parent = parent;
+            this.className = className;
+            this.methodName = methodName;
+            this.methods = new ArrayList<Record>();
+            this.totals = new long[Phase.values().length * MEASURE_COUNT];
+        }
+
+        /**
+         * Adds to the figures of a phase.
+         *
+         * @param phase {@code non-null;} the phase
+         * @param wall wall time, in nanoseconds
+         * @param cpu CPU time, in nanoseconds
+         * @param alloc allocated bytes
+         */
+        private synchronized void add(Phase phase, long wall, long cpu,
+                long alloc) {
+            int at = phase.ordinal() * MEASURE_COUNT;
+
+            totals[at + WALL] += wall;
+            totals[at + CPU] += cpu;
+            totals[at + ALLOC] += alloc;
+        }
+
+        /**
+         * Gets one measure of a phase, including any methods.
+         *
+         * @param phase {@code non-null;} the phase
+         * @param measure which measure
+         * @return the total
+         */
+        private synchronized long getTotal(Phase phase, int measure) {
+            long result = totals[phase.ordinal() * MEASURE_COUNT + measure];
+
+            for (Record one : methods) {
+                result += one.getTotal(phase, measure);
+            }
+
+            return result;
+        }
+
+        /**
+         * Gets one measure summed over all phases, including any methods.
+         *
+         * @param measure which measure
+         * @return the total
+         */
+        private long getTotal(int measure) {
+            long result = 0;
+
+            for (Phase phase : Phase.values()) {
+                result += getTotal(phase, measure);
+            }
+
+            return result;
+        }
+    }
+}
@@ -0,0 +1,315 @@
+/*
+ * Copyright (C) 2007 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.dx.util;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * Implementation of {@link AnnotatedOutput} which passes the written
+ * data on to an {@link OutputStream}, through a small buffer, rather
+ * than keeping all of it. Instances never keep annotations.
+ *
+ * <p>Since the {@link Output} methods cannot throw checked exceptions,
+ * an {@code IOException} from the underlying stream is rethrown as a
+ * {@code RuntimeException} whose cause it is.</p>
+ *
+ * <p><b>Note:</b> As per the {@link Output} interface, multi-byte
+ * writes all use little-endian order.</p>
+ */
+public final class StreamAnnotatedOutput
+        implements AnnotatedOutput {
+    /** size of the buffer */
+    private static final int BUFFER_SIZE = 8192;
+
+    /** {@code non-null;} where the data ends up */
+    private final OutputStream out;
+
+    /** {@code non-null;} buffer of data not yet passed on */
+    private final byte[] buffer;
+
+    /** {@code >= 0;} number of bytes used in {@link #buffer} */
+    private int used;
+
+    /** {@code >= 0;} current output cursor */
+    private int cursor;
+
+    /**
+     * Constructs an instance whose cursor starts at {@code 0}.
+     *
+     * @param out {@code non-null;} the stream to write to
+     */
+    public StreamAnnotatedOutput(OutputStream out) {
+        this(out, 0);
+    }
+
+    /**
+     * Constructs an instance whose cursor starts at the given value.
+     * This is useful for writing a piece of something larger, such
+     * that the cursor reflects positions in the whole.
+     *
+     * @param out {@code non-null;} the stream to write to
+     * @param cursor {@code >= 0;} the initial cursor
+     */
+    public StreamAnnotatedOutput(OutputStream out, int cursor) {
+        if (out == null) {
+            throw new NullPointerException("out == null");
+        }
+
+        if (cursor < 0) {
+            throw new IllegalArgumentException("cursor < 0");
+        }
+
+        this.out = out;
+        this.buffer = new byte[BUFFER_SIZE];
+        this.used = 0;
+        this.cursor = cursor;
+    }
+
+    /**
+     * Passes on all the buffered data, and flushes the underlying
+     * stream.
+     */
+    public void flush() {
+        flushBuffer();
+
+        try {
+            out.flush();
+        } catch (IOException ex) {
+            throw new RuntimeException(ex);
+        }
+    }
+
+    /** {@inheritDoc} */
+    public int getCursor() {
+        return cursor;
+    }
+
+    /** {@inheritDoc} */
+    public void assertCursor(int expectedCursor) {
+        if (cursor != expectedCursor) {
+            throw new ExceptionWithContext("expected cursor " +
+                    expectedCursor + "; actual value: " + cursor);
+        }
+    }
+
+    /** {@inheritDoc} */
+    public void writeByte(int value) {
+        if (used == BUFFER_SIZE) {
+            flushBuffer();
+        }
+
+        buffer[used] = (byte) value;
+        used++;
+        cursor++;
+    }
+
+    /** {@inheritDoc} */
+    public void writeShort(int value) {
+        writeByte(value);
+        writeByte(value >> 8);
+    }
+
+    /** {@inheritDoc} */
+    public void writeInt(int value) {
+        writeByte(value);
+        writeByte(value >> 8);
+        writeByte(value >> 16);
+        writeByte(value >> 24);
+    }
+
+    /** {@inheritDoc} */
+    public void writeLong(long value) {
+        writeInt((int) value);
+        writeInt((int) (value >> 32));
+    }
+
+    /** {@inheritDoc} */
+    public int writeUnsignedLeb128(int value) {
+        int remaining = value >> 7;
+        int count = 0;
+
+        while (remaining != 0) {
+            writeByte((value & 0x7f) | 0x80);
+            value = remaining;
+            remaining >>= 7;
+            count++;
+        }
+
+        writeByte(value & 0x7f);
+        return count + 1;
+    }
+
+    /** {@inheritDoc} */
+    public int writeSignedLeb128(int value) {
+        int remaining = value >> 7;
+        int count = 0;
+        boolean hasMore = true;
+        int end = ((value & Integer.MIN_VALUE) == 0) ? 0 : -1;
+
+        while (hasMore) {
+            hasMore = (remaining != end)
+                || ((remaining & 1) != ((value >> 6) & 1));
+
+            writeByte((value & 0x7f) | (hasMore ? 0x80 : 0));
+            value = remaining;
+            remaining >>= 7;
+            count++;
+        }
+
+        return count;
+    }
+
+    /** {@inheritDoc} */
+    public void write(ByteArray bytes) {
+        int blen = bytes.size();
+
+        if (blen > (BUFFER_SIZE - used)) {
+            flushBuffer();
+        }
+
+        if (blen > BUFFER_SIZE) {
+            byte[] data = new byte[blen];
+            bytes.getBytes(data, 0);
+            writeThrough(data, 0, blen);
+        } else {
+            bytes.getBytes(buffer, used);
+            used += blen;
+        }
+
+        cursor += blen;
+    }
+
+    /** {@inheritDoc} */
+    public void write(byte[] bytes, int offset, int length) {
+        int bytesEnd = offset + length;
+
+        // twos-complement math trick: ((x < 0) || (y < 0)) <=> ((x|y) < 0)
+        if (((offset | length | bytesEnd) < 0) || (bytesEnd > bytes.length)) {
+            throw new IndexOutOfBoundsException("bytes.length " +
+                                                bytes.length + "; " +
+                                                offset + "..!" + bytesEnd);
+        }
+
+        if (length > (BUFFER_SIZE - used)) {
+            flushBuffer();
+        }
+
+        if (length > BUFFER_SIZE) {
+            writeThrough(bytes, offset, length);
+        } else {
+            System.arraycopy(bytes, offset, buffer, used, length);
+            used += length;
+        }
+
+        cursor += length;
+    }
+
+    /** {@inheritDoc} */
+    public void write(byte[] bytes) {
+        write(bytes, 0, bytes.length);
+    }
+
+    /** {@inheritDoc} */
+    public void writeZeroes(int count) {
+        if (count < 0) {
+            throw new IllegalArgumentException("count < 0");
+        }
+
+        while (count > 0) {
+            if (used == BUFFER_SIZE) {
+                flushBuffer();
+            }
+
+            int amt = Math.min(count, BUFFER_SIZE - used);
+
+            Arrays.fill(buffer, used, used + amt, (byte) 0);
+            used += amt;
+            cursor += amt;
+            count -= amt;
+        }
+    }
+
+    /** {@inheritDoc} */
+    public void alignTo(int alignment) {
+        int mask = alignment - 1;
+
+        if ((alignment < 0) || ((mask & alignment) != 0)) {
+            throw new IllegalArgumentException("bogus alignment");
+        }
+
+        int end = (cursor + mask) & ~mask;
+
+        writeZeroes(end - cursor);
+    }
+
+    /** {@inheritDoc} */
+    public boolean annotates() {
+        return false;
+    }
+
+    /** {@inheritDoc} */
+    public boolean isVerbose() {
+        return false;
+    }
+
+    /** {@inheritDoc} */
+    public void annotate(String msg) {
+        // This space intentionally left blank.
+    }
+
+    /** {@inheritDoc} */
+    public void annotate(int amt, String msg) {
+        // This space intentionally left blank.
+    }
+
+    /** {@inheritDoc} */
+    public void endAnnotation() {
+        // This space intentionally left blank.
+    }
+
+    /** {@inheritDoc} */
+    public int getAnnotationWidth() {
+        throw new UnsupportedOperationException("no annotations");
+    }
+
+    /**
+     * Passes the buffered data on to the underlying stream.
+     */
+    private void flushBuffer() {
+        if (used != 0) {
+            writeThrough(buffer, 0, used);
+            used = 0;
+        }
+    }
+
+    /**
+     * Writes directly to the underlying stream.
+     *
+     * @param bytes {@code non-null;} the array to write from
+     * @param offset {@code >= 0;} offset of the first byte to write
+     * @param length {@code >= 0;} number of bytes to write
+     */
+    private void writeThrough(byte[] bytes, int offset, int length) {
+        try {
+            out.write(bytes, offset, length);
+        } catch (IOException ex) {
+            throw new RuntimeException(ex);
+        }
+    }
+}
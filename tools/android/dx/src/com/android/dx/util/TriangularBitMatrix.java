@@ -0,0 +1,152 @@
+/*
+ * Copyright (C) 2007 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.dx.util;
+
+/**
+ * A symmetric relation over the ints {@code 0..size()-1}, kept as the
+ * lower triangle (diagonal included) of a bit matrix. Row {@code r}
+ * holds the {@code r + 1} bits for the pairs {@code (r, 0..r)}, and the
+ * rows are stored one after the other, so that growing the matrix never
+ * moves existing bits.
+ */
+public final class TriangularBitMatrix {
+    /** {@code non-null;} the bits, row after row */
+    private int[] bits;
+
+    /** {@code >= 0;} the number of rows (and columns) */
+    private int size;
+
+    /**
+     * Constructs an empty instance.
+     *
+     * @param size {@code >= 0;} the initial number of rows (and columns)
+     */
+    public TriangularBitMatrix(int size) {
+        if (size < 0) {
+            throw new IllegalArgumentException("size < 0");
+        }
+
+        this.bits = new int[wordsFor(size)];
+        this.size = size;
+    }
+
+    /**
+     * Gets the number of rows (and columns).
+     *
+     * @return {@code >= 0;} the size
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Grows the matrix to at least the given number of rows (and
+     * columns). The new pairs are all clear.
+     *
+     * @param newSize {@code >= 0;} the minimum size
+     */
+    public void ensureSize(int newSize) {
+        if (newSize <= size) {
+            return;
+        }
+
+        int words = wordsFor(newSize);
+
+        if (words > bits.length) {
+            int[] newBits = new int[Math.max(words, bits.length * 2)];
+            System.arraycopy(bits, 0, newBits, 0, bits.length);
+            bits = newBits;
+        }
+
+        size = newSize;
+    }
+
+    /**
+     * Gets whether the given pair is in the relation. Argument order
+     * is insignificant.
+     *
+     * @param a {@code >= 0, < size();} one int
+     * @param b {@code >= 0, < size();} the other int
+     * @return whether the pair is set
+     */
+    public boolean get(int a, int b) {
+        long index = bitIndex(a, b);
+
+        return (bits[(int) (index >> 5)] & (1 << (index & 0x1f))) != 0;
+    }
+
+    /**
+     * Adds the given pair to the relation. Argument order is
+     * insignificant.
+     *
+     * @param a {@code >= 0, < size();} one int
+     * @param b {@code >= 0, < size();} the other int
+     * @return {@code true} if the pair was not already set
+     */
+    public boolean set(int a, int b) {
+        long index = bitIndex(a, b);
+        int wordIndex = (int) (index >> 5);
+        int bit = 1 << (index & 0x1f);
+        int word = bits[wordIndex];
+
+        if ((word & bit) != 0) {
+            return false;
+        }
+
+        bits[wordIndex] = word | bit;
+        return true;
+    }
+
+    /**
+     * Gets the index of the bit for the given pair.
+     *
+     * @param a {@code >= 0, < size();} one int
+     * @param b {@code >= 0, < size();} the other int
+     * @return {@code >= 0;} the bit index
+     */
+    private long bitIndex(int a, int b) {
+        if (a < b) {
+            int t = a;
+            a = b;
+            b = t;
+        }
+
+        if (b < 0 || a >= size) {
+            throw new IndexOutOfBoundsException("(" + a + ", " + b + ")");
+        }
+
+        return (((long) a * (a + 1)) >> 1) + b;
+    }
+
+    /**
+     * Gets the number of {@code int}s needed for a matrix of the given
+     * size.
+     *
+     * @param size {@code >= 0;} the size
+     * @return {@code >= 0;} the word count
+     */
+    private static int wordsFor(int size) {
+        long bitCount = ((long) size * (size + 1)) >> 1;
+        long words = (bitCount + 0x1f) >> 5;
+
+        if (words > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("size too large: " + size);
+        }
+
+        return (int) words;
+    }
+}
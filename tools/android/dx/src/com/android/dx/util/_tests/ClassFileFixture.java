@@ -0,0 +1,256 @@
+/*
+ * Copyright (C) 2007 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.dx.util._tests;
+
+import com.android.dx.cf.code.ConcreteMethod;
+import com.android.dx.cf.code.Ropper;
+import com.android.dx.cf.direct.DirectClassFile;
+import com.android.dx.cf.direct.StdAttributeFactory;
+import com.android.dx.cf.iface.Method;
+import com.android.dx.cf.iface.MethodList;
+import com.android.dx.rop.code.AccessFlags;
+import com.android.dx.rop.code.BasicBlock;
+import com.android.dx.rop.code.BasicBlockList;
+import com.android.dx.rop.code.DexTranslationAdvice;
+import com.android.dx.rop.code.Insn;
+import com.android.dx.rop.code.InsnList;
+import com.android.dx.rop.code.RopMethod;
+import com.android.dx.rop.cst.CstMethodRef;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+/**
+ * Class files for the unit tests to translate. They come from the
+ * resource {@code fixture-classes.jar} next to this class, which holds
+ * a few small classes with loops, switches, exception handlers and so
+ * on, compiled with {@code javac -g -source 1.5 -target 1.5}, so the
+ * tests see the same input whatever JDK they are built with. The jar
+ * also has the sources of the classes; to change them, rebuild it
+ * the same way with {@code jar cfM}.
+ */
+public final class ClassFileFixture {
+    /** {@code non-null;} name of the resource with the class files */
+    private static final String RESOURCE = "fixture-classes.jar";
+
+    /** {@code null-ok;} names of the class files, in order, once read */
+    private static ArrayList<String> names;
+
+    /** {@code null-ok;} contents of the class files, once read */
+    private static HashMap<String, byte[]> contents;
+
+    /**
+     * This class is uninstantiable.
+     */
+    private ClassFileFixture() {
+        // This space intentionally left blank.
+    }
+
+    /**
+     * Gets the names of all the class files, such as
+     * {@code fixture/Sample.class}.
+     *
+     * @return {@code non-null;} the names, sorted
+     */
+    public static synchronized ArrayList<String> getNames()
+            throws IOException {
+        if (names == null) {
+            read();
+        }
+
+        return names;
+    }
+
+    /**
+     * Gets the contents of a class file.
+     *
+     * @param name {@code non-null;} the name of the class file
+     * @return {@code non-null;} its contents
+     */
+    public static synchronized byte[] getBytes(String name)
+            throws IOException {
+        if (contents == null) {
+            read();
+        }
+
+        byte[] result = contents.get(name);
+
+        if (result == null) {
+            throw new IllegalArgumentException("no class file " + name);
+        }
+
+        return result;
+    }
+
+    /**
+     * Parses a class file.
+     *
+     * @param name {@code non-null;} the name of the class file
+     * @return {@code non-null;} the parsed class file
+     */
+    public static DirectClassFile parse(String name) throws IOException {
+        DirectClassFile cf = new DirectClassFile(getBytes(name), name, false);
+        cf.setAttributeFactory(StdAttributeFactory.THE_ONE);
+        return cf;
+    }
+
+    /**
+     * Converts each method that has code, in all the class files, to
+     * rop form and hands it to a visitor.
+     *
+     * @param visitor {@code non-null;} the visitor
+     * @return the number of methods visited
+     */
+    public static int forEachMethod(MethodVisitor visitor)
+            throws IOException {
+        int count = 0;
+
+        for (String name : getNames()) {
+            DirectClassFile cf = parse(name);
+            MethodList methods = cf.getMethods();
+            int sz = methods.size();
+
+            for (int i = 0; i < sz; i++) {
+                Method method = methods.get(i);
+                int accessFlags = method.getAccessFlags();
+
+                if (AccessFlags.isNative(accessFlags)
+                        || AccessFlags.isAbstract(accessFlags)) {
+                    continue;
+                }
+
+                boolean isStatic = AccessFlags.isStatic(accessFlags);
+                int paramWidth = new CstMethodRef(cf.getThisClass(),
+                        method.getNat()).getParameterWordCount(isStatic);
+                RopMethod rmeth = Ropper.convert(
+                        new ConcreteMethod(method, cf, true, true),
+                        DexTranslationAdvice.THE_ONE);
+
+                visitor.visit(name + " " + method.getNat().toHuman(),
+                        rmeth, paramWidth, isStatic);
+                count++;
+            }
+        }
+
+        return count;
+    }
+
+    /**
+     * Lists the blocks of a method in human-oriented form, for
+     * comparing two methods.
+     *
+     * @param rmeth {@code non-null;} the method
+     * @return {@code non-null;} its blocks, insns with their positions,
+     * and successors
+     */
+    public static String toHuman(RopMethod rmeth) {
+        BasicBlockList blocks = rmeth.getBlocks();
+        StringBuilder sb = new StringBuilder();
+        int sz = blocks.size();
+
+        sb.append("regs ").append(blocks.getRegCount());
+        sb.append(" first ").append(rmeth.getFirstLabel()).append('\n');
+
+        for (int i = 0; i < sz; i++) {
+            BasicBlock block = blocks.get(i);
+            InsnList insns = block.getInsns();
+            int szInsns = insns.size();
+
+            sb.append("block ").append(block.getLabel());
+            sb.append(' ').append(block.getSuccessors());
+            sb.append(' ').append(block.getPrimarySuccessor()).append('\n');
+
+            for (int j = 0; j < szInsns; j++) {
+                Insn insn = insns.get(j);
+
+                sb.append("  ").append(insn.toHuman());
+                sb.append(" @ ").append(insn.getPosition()).append('\n');
+            }
+        }
+
+        return sb.toString();
+    }
+
+    /**
+     * Reads all the class files out of the resource.
+     */
+    private static void read() throws IOException {
+        InputStream in = ClassFileFixture.class.getResourceAsStream(RESOURCE);
+
+        if (in == null) {
+            throw new IOException("missing resource " + RESOURCE);
+        }
+
+        ArrayList<String> newNames = new ArrayList<String>();
+        HashMap<String, byte[]> newContents = new HashMap<String, byte[]>();
+        ZipInputStream zip = new ZipInputStream(in);
+
+        try {
+            byte[] buf = new byte[4096];
+            ZipEntry entry;
+
+            while ((entry = zip.getNextEntry()) != null) {
+                String name = entry.getName();
+
+                if (!name.endsWith(".class")) {
+                    continue;
+                }
+
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                int amt;
+
+                while ((amt = zip.read(buf)) > 0) {
+                    out.write(buf, 0, amt);
+                }
+
+                newNames.add(name);
+                newContents.put(name, out.toByteArray());
+            }
+        } finally {
+            zip.close();
+        }
+
+        Collections.sort(newNames);
+        names = newNames;
+        contents = newContents;
+    }
+
+    /**
+     * Visitor for the methods of the class files.
+     */
+    public interface MethodVisitor {
+        /**
+         * Visits a method.
+         *
+         * @param what {@code non-null;} the class file and method, for
+         * messages
+         * @param rmeth {@code non-null;} the method, as it comes out
+         * of the ropper
+         * @param paramWidth the number of words of parameters,
+         * including {@code this}
+         * @param isStatic whether the method is static
+         */
+        void visit(String what, RopMethod rmeth, int paramWidth,
+                boolean isStatic) throws IOException;
+    }
+}
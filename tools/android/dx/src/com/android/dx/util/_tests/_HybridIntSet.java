@@ -0,0 +1,205 @@
+/*
+ * Copyright (C) 2008 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.dx.util._tests;
+
+import com.android.dx.util.BitIntSet;
+import com.android.dx.util.HybridIntSet;
+import com.android.dx.util.IntIterator;
+
+import junit.framework.TestCase;
+
+import java.util.NoSuchElementException;
+import java.util.Random;
+
+public class _HybridIntSet extends TestCase {
+    public void test_basic() {
+        HybridIntSet set = new HybridIntSet(10000);
+
+        assertEquals(0, set.elements());
+
+        set.add(31);
+        set.add(0);
+        set.add(1);
+
+        assertTrue(set.has(0));
+        assertTrue(set.has(1));
+        assertTrue(set.has(31));
+
+        assertEquals(3, set.elements());
+
+        assertFalse(set.has(2));
+        assertFalse(set.has(7));
+        assertFalse(set.has(30));
+    }
+
+    public void test_iterator() {
+        HybridIntSet set = new HybridIntSet(10000);
+
+        set.add(31);
+        set.add(31);
+        set.add(0);
+        set.add(0);
+        set.add(1);
+        set.add(1);
+
+        IntIterator iter = set.iterator();
+
+        assertTrue(iter.hasNext());
+        assertEquals(iter.next(), 0);
+        assertTrue(iter.hasNext());
+        assertEquals(iter.next(), 1);
+        assertTrue(iter.hasNext());
+        assertEquals(iter.next(), 31);
+
+        assertFalse(iter.hasNext());
+
+        try {
+            iter.next();
+            fail();
+        } catch (NoSuchElementException ex) {
+            // exception excepted
+        }
+    }
+
+    public void test_empty() {
+        HybridIntSet set = new HybridIntSet(10000);
+
+        IntIterator iter = set.iterator();
+
+        assertFalse(iter.hasNext());
+        assertEquals(set.toString(), "{}");
+    }
+
+    public void test_remove() {
+        HybridIntSet set = new HybridIntSet(10000);
+
+        set.add(0);
+        set.add(1);
+        set.add(31);
+
+        set.remove(0);
+        set.remove(2);
+
+        assertFalse(set.has(0));
+        assertTrue(set.has(1));
+        assertTrue(set.has(31));
+        assertEquals(2, set.elements());
+    }
+
+    public void test_becomesDense() {
+        HybridIntSet set = new HybridIntSet(64);
+
+        // Two ints of values take as much space as a 64-bit set.
+        set.add(63);
+        set.add(2);
+        set.add(40);
+        set.add(100);
+
+        assertEquals(set.toString(), "{2, 40, 63, 100}");
+        assertEquals(4, set.elements());
+
+        set.remove(40);
+        set.remove(1000);
+
+        assertFalse(set.has(40));
+        assertFalse(set.has(1000));
+        assertEquals(set.toString(), "{2, 63, 100}");
+    }
+
+    public void test_merge() {
+        HybridIntSet setA = new HybridIntSet(10000);
+        int[] valuesA = {0, 1, 31, 129, 130};
+
+        for (int i = 0; i < valuesA.length; i++) {
+            setA.add(valuesA[i]);
+        }
+
+        HybridIntSet setB = new HybridIntSet(10000);
+        int[] valuesB = {0, 5, 6, 32, 127, 128, 10500};
+
+        for (int i = 0; i < valuesB.length; i++) {
+            setB.add(valuesB[i]);
+        }
+
+        setA.merge(setB);
+
+        assertEquals(setA.toString(),
+                "{0, 1, 5, 6, 31, 32, 127, 128, 129, 130, 10500}");
+    }
+
+    public void test_mergeWithBitIntSet() {
+        HybridIntSet setA = new HybridIntSet(10000);
+        int[] valuesA = {0, 1, 31, 129, 130};
+
+        for (int i = 0; i < valuesA.length; i++) {
+            setA.add(valuesA[i]);
+        }
+
+        BitIntSet setB = new BitIntSet(129);
+        int[] valuesB = {0, 5, 6, 32, 127, 128};
+
+        for (int i = 0; i < valuesB.length; i++) {
+            setB.add(valuesB[i]);
+        }
+
+        setA.merge(setB);
+
+        assertEquals(setA.toString(),
+                "{0, 1, 5, 6, 31, 32, 127, 128, 129, 130}");
+    }
+
+    public void test_matchesBitIntSet() {
+        Random random = new Random(0);
+
+        for (int round = 0; round < 50; round++) {
+            int max = 1 + random.nextInt(2000);
+            HybridIntSet hybrid = new HybridIntSet(max);
+            BitIntSet bits = new BitIntSet(max);
+            HybridIntSet other = new HybridIntSet(max);
+            BitIntSet otherBits = new BitIntSet(max);
+
+            int ops = random.nextInt(3 * max);
+            for (int i = 0; i < ops; i++) {
+                int value = random.nextInt(max + max / 4);
+                switch (random.nextInt(4)) {
+                    case 0:
+                        hybrid.remove(value);
+                        bits.remove(value);
+                        break;
+                    case 1:
+                        other.add(value);
+                        otherBits.add(value);
+                        break;
+                    default:
+                        hybrid.add(value);
+                        bits.add(value);
+                        break;
+                }
+                assertEquals(bits.has(value), hybrid.has(value));
+            }
+
+            assertEquals(bits.toString(), hybrid.toString());
+            assertEquals(bits.elements(), hybrid.elements());
+
+            hybrid.merge(other);
+            bits.merge(otherBits);
+
+            assertEquals(bits.toString(), hybrid.toString());
+            assertEquals(bits.elements(), hybrid.elements());
+        }
+    }
+}
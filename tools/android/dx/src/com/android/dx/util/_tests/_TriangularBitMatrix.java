@@ -0,0 +1,100 @@
+/*
+ * Copyright (C) 2007 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.dx.util._tests;
+
+import com.android.dx.util.TriangularBitMatrix;
+
+import junit.framework.TestCase;
+
+public class _TriangularBitMatrix extends TestCase {
+    public void test_basic() {
+        TriangularBitMatrix m = new TriangularBitMatrix(40);
+
+        assertEquals(40, m.size());
+        assertFalse(m.get(3, 7));
+
+        assertTrue(m.set(3, 7));
+        assertTrue(m.get(3, 7));
+        assertTrue(m.get(7, 3));
+        assertFalse(m.set(7, 3));
+
+        assertTrue(m.set(5, 5));
+        assertTrue(m.get(5, 5));
+
+        assertTrue(m.set(0, 39));
+        assertTrue(m.get(39, 0));
+
+        assertFalse(m.get(3, 6));
+        assertFalse(m.get(4, 7));
+        assertFalse(m.get(39, 39));
+    }
+
+    public void test_allPairs() {
+        int sz = 70;
+        TriangularBitMatrix m = new TriangularBitMatrix(sz);
+
+        for (int a = 0; a < sz; a++) {
+            for (int b = 0; b <= a; b++) {
+                if ((a * 31 + b) % 3 == 0) {
+                    m.set(a, b);
+                }
+            }
+        }
+
+        for (int a = 0; a < sz; a++) {
+            for (int b = 0; b < sz; b++) {
+                int lo = Math.min(a, b);
+                int hi = Math.max(a, b);
+
+                assertEquals((hi * 31 + lo) % 3 == 0, m.get(a, b));
+            }
+        }
+    }
+
+    public void test_ensureSize() {
+        TriangularBitMatrix m = new TriangularBitMatrix(3);
+
+        m.set(2, 1);
+        m.ensureSize(100);
+
+        assertEquals(100, m.size());
+        assertTrue(m.get(1, 2));
+        assertFalse(m.get(99, 2));
+
+        m.set(99, 2);
+        assertTrue(m.get(2, 99));
+        assertTrue(m.get(1, 2));
+    }
+
+    public void test_bounds() {
+        TriangularBitMatrix m = new TriangularBitMatrix(10);
+
+        try {
+            m.get(10, 0);
+            fail("expected exception");
+        } catch (IndexOutOfBoundsException ex) {
+            // expected
+        }
+
+        try {
+            m.set(-1, 0);
+            fail("expected exception");
+        } catch (IndexOutOfBoundsException ex) {
+            // expected
+        }
+    }
+}
@@ -1,92 +1,358 @@
 package com.mosync.android;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map.Entry;
-import java.util.LinkedList;
 import java.util.AbstractMap.SimpleEntry;
 
+import com.android.dx.rop.cst.CstUtf8;
+import com.android.dx.util.ByteArray;
+
 
 /**
- * This is a simple singleton that is used for patching 
- * Strings, ultimately it is used for patching packages 
- * names when converting class files to dex. 
- * 
+ * This is an immutable set of string patches, ultimately it
+ * is used for patching packages names when converting class
+ * files to dex.
+ *
+ * The patches are compiled into a single Aho-Corasick automaton
+ * over the (modified) UTF-8 bytes of the patch strings, so that
+ * a string can be checked against all patches in one pass over
+ * its bytes, without decoding it and without allocating anything
+ * unless a patch actually applies. Since instances are immutable
+ * they can be shared freely between threads.
+ *
  * @author Ali Mosavian
  */
-public class StringPatcher 
+public final class StringPatcher
 {
-	private List<Entry<String, String>>	m_patchList;
-	
 	/**
-	 * Private constructor
-	 * 
+	 * Instance without any patches
+	 */
+	public static final StringPatcher EMPTY = new Builder( ).build( );
+
+	/**
+	 * Marks a state that does not complete any patch
+	 */
+	private static final int NO_MATCH = Integer.MAX_VALUE;
+
+	private final List<Entry<String, String>>	m_patchList;
+	private final byte[][]						m_patterns;
+	private final byte[][]						m_replacements;
+
+	/**
+	 * Transition table, 256 entries per state, state 0
+	 * is the root.
+	 */
+	private final int[]							m_delta;
+
+	/**
+	 * The lowest index of any patch that is completed when
+	 * entering each state, or NO_MATCH.
 	 */
-	private StringPatcher ( )
+	private final int[]							m_match;
+
+
+	/**
+	 * Private constructor, use a Builder
+	 *
+	 * @param patchList List of (string, replacement) pairs
+	 */
+	private StringPatcher ( List<Entry<String, String>> patchList )
 	{
-		m_patchList = new LinkedList<Entry<String,String>>( );
+		int n = patchList.size( );
+
+		m_patchList    = Collections.unmodifiableList(
+				new ArrayList<Entry<String, String>>( patchList ) );
+		m_patterns     = new byte[n][];
+		m_replacements = new byte[n][];
+
+		int maxStates = 1;
+		for ( int i = 0; i < n; i++ )
+		{
+			Entry<String, String> e = patchList.get( i );
+			m_patterns[i]     = CstUtf8.stringToUtf8Bytes( e.getKey( ) );
+			m_replacements[i] = CstUtf8.stringToUtf8Bytes( e.getValue( ) );
+			maxStates        += m_patterns[i].length;
+		}
+
+		//
+		// Build the trie
+		//
+		int[] delta     = new int[maxStates * 256];
+		int[] match     = new int[maxStates];
+		int   numStates = 1;
+
+		java.util.Arrays.fill( delta, -1 );
+		java.util.Arrays.fill( match, NO_MATCH );
+
+		for ( int i = 0; i < n; i++ )
+		{
+			int state = 0;
+			for ( byte b : m_patterns[i] )
+			{
+				int at = state * 256 + ( b & 0xff );
+				if ( delta[at] == -1 )
+					delta[at] = numStates++;
+				state = delta[at];
+			}
+
+			if ( i < match[state] )
+				match[state] = i;
+		}
+
+		//
+		// Turn the trie into a complete automaton by resolving
+		// failure links breadth first.
+		//
+		int[] fail  = new int[numStates];
+		int[] queue = new int[numStates];
+		int   head  = 0;
+		int   tail  = 0;
+
+		for ( int c = 0; c < 256; c++ )
+		{
+			int next = delta[c];
+			if ( next == -1 )
+			{
+				delta[c] = 0;
+			}
+			else
+			{
+				fail[next]    = 0;
+				queue[tail++] = next;
+			}
+		}
+
+		while ( head < tail )
+		{
+			int state = queue[head++];
+
+			if ( match[fail[state]] < match[state] )
+				match[state] = match[fail[state]];
+
+			for ( int c = 0; c < 256; c++ )
+			{
+				int at   = state * 256 + c;
+				int next = delta[at];
+				if ( next == -1 )
+				{
+					delta[at] = delta[fail[state] * 256 + c];
+				}
+				else
+				{
+					fail[next]    = delta[fail[state] * 256 + c];
+					queue[tail++] = next;
+				}
+			}
+		}
+
+		m_delta = new int[numStates * 256];
+		m_match = new int[numStates];
+		System.arraycopy( delta, 0, m_delta, 0, m_delta.length );
+		System.arraycopy( match, 0, m_match, 0, m_match.length );
 	}
-	
-	
+
+
 	/**
-	 * Adds a new patch to the list
-	 * 
-	 * @param s String to replace
-	 * @param r String to replace with
+	 * Returns the patched string
+	 * Note: Only one patch per input, the first patch (in
+	 * the order they were added) that occurs anywhere in
+	 * the input is applied to all of its occurrences.
+	 *
+	 * @param s Input string, as modified UTF-8 bytes
+	 *
+	 * @return Patched string, if there was something to patch,
+	 * 		   if not, the same instance.
 	 */
-	public void addPatch ( String s,
-						   String r )
+	public ByteArray patch ( ByteArray s )
 	{
-		Entry<String, String> e = new SimpleEntry<String, String>( s, r );
-		m_patchList.add( e );		
+		int patch = findPatch( s );
+		if ( patch == NO_MATCH )
+			return s;
+
+		return replace( s, m_patterns[patch], m_replacements[patch] );
 	}
 
-	
+
 	/**
 	 * Returns the patched string
 	 * Note: Only one patch per input
-	 * 
+	 *
 	 * @param s Input string
-	 * 
+	 *
 	 * @return Patched string, if there was something to patch,
-	 * 		   if not, the same string. 
+	 * 		   if not, the same string.
 	 */
 	public String patch ( String s )
 	{
-		// Go through patches and return after first patch
-		for ( Entry<String, String> e : m_patchList )
+		ByteArray in  = new ByteArray( CstUtf8.stringToUtf8Bytes( s ) );
+		ByteArray out = patch( in );
+
+		return ( out == in ) ? s : CstUtf8.utf8BytesToString( out );
+	}
+
+
+	/**
+	 * Returns the index of the first patch which occurs in the
+	 * given string
+	 *
+	 * @param s Input string, as modified UTF-8 bytes
+	 *
+	 * @return Patch index, or NO_MATCH
+	 */
+	private int findPatch ( ByteArray s )
+	{
+		int best  = NO_MATCH;
+		int state = 0;
+		int size  = s.size( );
+
+		for ( int i = 0; i < size; i++ )
+		{
+			state = m_delta[state * 256 + s.getUnsignedByte( i )];
+			if ( m_match[state] < best )
+			{
+				best = m_match[state];
+				if ( best == 0 )
+					break;
+			}
+		}
+
+		return best;
+	}
+
+
+	/**
+	 * Replaces all non-overlapping occurrences of a pattern,
+	 * scanning from left to right.
+	 *
+	 * @param s Input string, as modified UTF-8 bytes
+	 * @param p Pattern, known to occur at least once
+	 * @param r Replacement
+	 *
+	 * @return The new string
+	 */
+	private static ByteArray replace ( ByteArray s,
+									   byte[] p,
+									   byte[] r )
+	{
+		int size = s.size( );
+		byte[] src = new byte[size];
+		s.getBytes( src, 0 );
+
+		// Count occurrences to get the exact output size
+		int count = 0;
+		for ( int i = indexOf( src, p, 0 ); i >= 0; i = indexOf( src, p, i + p.length ) )
+			count++;
+
+		byte[] out = new byte[size + count * ( r.length - p.length )];
+		int    from = 0;
+		int    to   = 0;
+
+		for ( int i = indexOf( src, p, 0 ); i >= 0; i = indexOf( src, p, i + p.length ) )
+		{
+			System.arraycopy( src, from, out, to, i - from );
+			to += i - from;
+			System.arraycopy( r, 0, out, to, r.length );
+			to  += r.length;
+			from = i + p.length;
+		}
+
+		System.arraycopy( src, from, out, to, size - from );
+		return new ByteArray( out );
+	}
+
+
+	/**
+	 * Finds a pattern in a byte array
+	 *
+	 * @param s Array to search
+	 * @param p Pattern
+	 * @param start Where to start searching
+	 *
+	 * @return Index of the first occurrence at or after start, or -1
+	 */
+	private static int indexOf ( byte[] s,
+								 byte[] p,
+								 int start )
+	{
+		int last = s.length - p.length;
+
+		outer:
+		for ( int i = start; i <= last; i++ )
 		{
-			if ( s.contains( e.getKey( ) ) )
-				return s.replace( e.getKey( ), e.getValue( ) );
+			for ( int j = 0; j < p.length; j++ )
+			{
+				if ( s[i + j] != p[j] )
+					continue outer;
+			}
+			return i;
 		}
-		
-		return s;
+
+		return -1;
+	}
+
+
+	/**
+	 * Returns the patches, in the order they are tried
+	 *
+	 * @return Unmodifiable list of (string, replacement) pairs
+	 */
+	public List<Entry<String, String>> getPatches ( )
+	{
+		return m_patchList;
 	}
-	
-	
+
+
 	/**
 	 * Returns whether or not there are any patches
-	 * 
+	 *
 	 * @return true or false
 	 */
 	public boolean hasPatches ( )
 	{
 		return m_patchList.size( ) > 0;
 	}
-	
-	
+
+
 	/**
-	 * Returns singleton instance.
-	 * Note: This method is not thread safe.
-	 * 
-	 * @returns StringPatcher instance
+	 * Collects patches and builds an immutable StringPatcher.
+	 * Note: This class is not thread safe.
 	 */
-	private static StringPatcher m_instance = null;
-	public static StringPatcher getInstance ( )
+	public static final class Builder
 	{
-		if ( m_instance == null )
-			m_instance = new StringPatcher( );
-		
-		return m_instance;
+		private List<Entry<String, String>>	m_patchList;
+
+		public Builder ( )
+		{
+			m_patchList = new ArrayList<Entry<String,String>>( );
+		}
+
+		/**
+		 * Adds a new patch to the list
+		 *
+		 * @param s String to replace, must not be empty
+		 * @param r String to replace with
+		 */
+		public Builder addPatch ( String s,
+								  String r )
+		{
+			if ( s.length( ) == 0 )
+				throw new IllegalArgumentException( "empty patch string" );
+
+			Entry<String, String> e = new SimpleEntry<String, String>( s, r );
+			m_patchList.add( e );
+			return this;
+		}
+
+		/**
+		 * Returns a StringPatcher with the patches added so far
+		 *
+		 * @return StringPatcher instance
+		 */
+		public StringPatcher build ( )
+		{
+			return new StringPatcher( m_patchList );
+		}
 	}
-	
 }
@@ -0,0 +1,95 @@
+package com.mosync.android._tests;
+
+import com.android.dx.util.ByteArray;
+import com.mosync.android.StringPatcher;
+
+import junit.framework.TestCase;
+
+
+/**
+ * Tests for {@code com.mosync.android.StringPatcher}, which must
+ * behave as if each patch was tried in turn with
+ * {@code String.contains} and applied with {@code String.replace}.
+ */
+public class _StringPatcher
+	extends TestCase
+{
+	private static String reference ( String[] patches, String s )
+	{
+		for ( int i = 0; i < patches.length; i += 2 )
+		{
+			if ( s.contains( patches[i] ) )
+				return s.replace( patches[i], patches[i+1] );
+		}
+
+		return s;
+	}
+
+	private static StringPatcher make ( String[] patches )
+	{
+		StringPatcher.Builder b = new StringPatcher.Builder( );
+		for ( int i = 0; i < patches.length; i += 2 )
+			b.addPatch( patches[i], patches[i+1] );
+
+		return b.build( );
+	}
+
+	public void test_empty ( )
+	{
+		ByteArray s = new ByteArray( new byte[] { 'a', 'b' } );
+
+		assertFalse( StringPatcher.EMPTY.hasPatches( ) );
+		assertSame( s, StringPatcher.EMPTY.patch( s ) );
+	}
+
+	public void test_noMatchIsSameInstance ( )
+	{
+		StringPatcher p = make( new String[] { "com/android", "com/xyz" } );
+		ByteArray s = new ByteArray( "java/lang/Object".getBytes( ) );
+
+		assertTrue( p.hasPatches( ) );
+		assertSame( s, p.patch( s ) );
+	}
+
+	public void test_firstPatchWins ( )
+	{
+		String[] patches = {
+			"bar", "BAR",
+			"foo", "F",
+			"o", "0",
+			"oob", "-"
+		};
+		String[] inputs = {
+			"", "x", "foo", "foobar", "foofoo", "fooofo", "oob",
+			"ooboob", "barfoo", "fo", "f\u00e9o", "\u00e9o\u0000o",
+			"aaaaoobaoob", "ba", "bbar"
+		};
+
+		StringPatcher p = make( patches );
+		for ( String s : inputs )
+			assertEquals( s, reference( patches, s ), p.patch( s ) );
+	}
+
+	public void test_overlapping ( )
+	{
+		String[] patches = { "aa", "b", "a", "c" };
+
+		StringPatcher p = make( patches );
+		assertEquals( "bba", p.patch( "aaaaa" ) );
+		assertEquals( "c", p.patch( "a" ) );
+		assertEquals( "bc", p.patch( "aac" ) );
+	}
+
+	public void test_emptyPatchRejected ( )
+	{
+		try
+		{
+			new StringPatcher.Builder( ).addPatch( "", "x" );
+			fail( "expected IllegalArgumentException" );
+		}
+		catch ( IllegalArgumentException ex )
+		{
+			// expected
+		}
+	}
+}